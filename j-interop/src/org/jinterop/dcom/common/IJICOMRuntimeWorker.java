@@ -16,6 +16,7 @@
 package org.jinterop.dcom.common;
 
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import rpc.core.UUID;
 
@@ -32,4 +33,8 @@ public interface IJICOMRuntimeWorker {
 	public List getQIedIIDs();
 	public boolean isResolver();
 	public boolean workerOver();
+	/** Returns the executor to run the request just set on, <code>null</code> to run it in turn. */
+	public Executor getCallExecutor();
+	/** Returns a worker for the request just set, to run it apart from the next ones. */
+	public IJICOMRuntimeWorker forCall();
 }
@@ -272,6 +272,11 @@ public final class JIErrorCodes {
   */
  public static final int DISP_E_BADCALLEE = 0x80020010;
  
+ /**
+  * The application is busy, the call may succeed if it is retried later.
+  */
+ public static final int RPC_E_SERVERCALL_RETRYLATER = 0x8001010A;
+
  /**
   *  The object invoked has disconnected from its clients.
   */
@@ -23,7 +23,6 @@ import java.net.InetAddress;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -34,11 +33,16 @@ import java.util.MissingResourceException;
 import java.util.Properties;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
 
+import org.jinterop.dcom.transport.JISocketOptions;
+
+import rpc.ConnectionOrientedEndpoint;
+
 /**<p>Class implemented for defining system wide changes. 
  * 
  * <p>A note on logging: The framework exposes JRE based logger "org.jinterop". Applications need to 
@@ -63,10 +67,23 @@ public final class JISystem {
 	private static Locale locale = Locale.getDefault(); 
 	private static ResourceBundle resourceBundle = null;
 	private static Properties mapOfProgIdsVsClsids = new Properties();
-	private static ArrayList socketQueue = new ArrayList();
 	private static JIComVersion comVersion = new JIComVersion();
 	private static boolean autoRegister = false;
 	private static boolean autoCollection = true;
+	private static int selectorThreadCount = Math.min(4, Runtime.getRuntime().availableProcessors());
+	private static boolean blockingTransport = false;
+	private static ThreadFactory threadFactory = null;
+	private static JISocketOptions socketOptions = new JISocketOptions();
+	private static int idleConnectionTimeout = 0;
+	private static int connectionCheckInterval = 0;
+	private static int callbackWorkerLimit = 0;
+	private static int callbackQueueLimit = 0;
+	private static int callbackQueueTimeout = 60000;
+	private static boolean callbackDispatch = false;
+	private static int callbackCallLimit = 64;
+	private static int callbackCallQueueLimit = 1024;
+	private static int firstCallbackPort = 0;
+	private static int lastCallbackPort = 0;
 	private static final Logger logger = Logger.getLogger("org.jinterop");
 	private static final Map mapOfHostnamesVsIPs = new HashMap();
 	
@@ -299,29 +316,6 @@ public final class JISystem {
 		mapOfProgIdsVsClsids.put(progId,clsid);
 	}
 	
-	/** synchronisation will be performed by the oxid master
-	 * @exclude
-	 * @return
-	 */
-	public static Object internal_getSocket()
-	{
-		//synchronized (socketQueue) 
-		{
-			return socketQueue.remove(0);
-		}
-	}
-	
-	/**synchronisation will be performed by the oxid master
-	 * @exclude
-	 */
-	public static void internal_setSocket(Object socket)
-	{
-		//synchronized (socketQueue) 
-		{
-			socketQueue.add(socket);
-		}
-	}
-	
 	/**
 	 * @exclude
 	 * @return
@@ -387,6 +381,341 @@ public final class JISystem {
 		JISystem.autoCollection = autoCollection;
 	}
 	
+	/**<p>Sets the number of selector threads serving the sockets to COM servers. The sockets are spread over these
+	 * threads, so that a busy connection does not hold up the replies on the others. Defaults to the number of
+	 * processors, at most 4.
+	 * <p>Must be set before the first connection is opened, it has no effect afterwards.
+	 *
+	 * @param count number of threads, at least 1.
+	 * @throws IllegalArgumentException if <code>count</code> is less than 1.
+	 */
+	public static void setSelectorThreadCount(int count)
+	{
+		if (count < 1)
+		{
+			throw new IllegalArgumentException(getLocalizedMessage(JIErrorCodes.JI_COMSTUB_ILLEGAL_ARGUMENTS));
+		}
+		selectorThreadCount = count;
+	}
+
+	/** Number of selector threads serving the sockets to COM servers.
+	 *
+	 * @return
+	 */
+	public static int getSelectorThreadCount()
+	{
+		return selectorThreadCount;
+	}
+
+	/**<p>Makes new sessions use the blocking transport, which does socket I/O on the calling thread instead of on the
+	 * selector threads. Sessions can still change this for themselves using <code>JISession.useBlockingTransport</code>.
+	 * Default is <code>false</code>.
+	 *
+	 * @param enable <code>true</code> to make it the default.
+	 */
+	public static void setBlockingTransport(boolean enable)
+	{
+		blockingTransport = enable;
+	}
+
+	/** Returns <code>true</code> if new sessions use the blocking transport by default.
+	 *
+	 * @return
+	 */
+	public static boolean isBlockingTransportSet()
+	{
+		return blockingTransport;
+	}
+
+	/**<p>Sets the factory creating the threads which serve callbacks from COM servers, i.e. the OXID resolver and
+	 * the listeners and workers of exported Java objects, and the threads reading the replies of asynchronous calls. On JDK 21 and later <code>Thread.ofVirtual().factory()</code>
+	 * can be passed here to run them on virtual threads. The framework names the threads and marks them daemon.
+	 * Applies to threads started afterwards, <code>null</code> restores the default of plain daemon threads.
+	 *
+	 * @param factory
+	 */
+	public static void setThreadFactory(ThreadFactory factory)
+	{
+		threadFactory = factory;
+		ConnectionOrientedEndpoint.setThreadFactory(factory);
+	}
+
+	/** Returns the factory set by {@link #setThreadFactory(ThreadFactory)}, <code>null</code> if none was set.
+	 *
+	 * @return
+	 */
+	public static ThreadFactory getThreadFactory()
+	{
+		return threadFactory;
+	}
+
+	/**<p>Sets the maximum number of connections from COM servers served at a time, i.e. connections to the OXID
+	 * resolver and to the exported Java objects. The limit is on connections, not on calls: each connection takes a
+	 * worker thread for as long as it stays open, idle or not, and COM servers usually keep theirs open for the life
+	 * of the exported objects. Further connections wait for one of them to close, up to
+	 * {@link #setCallbackQueueTimeout(int)}, and are then closed, which the COM server sees as the Java side being
+	 * unavailable. A limit at or below the number of COM servers calling back at once therefore refuses the later
+	 * ones. Limit them when many COM servers call back at once, unless the threads are virtual ones (see
+	 * {@link #setThreadFactory(ThreadFactory)}). <code>JICallbackRuntime</code> gives the counts of the connections
+	 * served, waiting and refused. Default is 0, which serves them all.
+	 *
+	 * @param limit 0 for none.
+	 * @throws IllegalArgumentException if <code>limit</code> is negative.
+	 */
+	public static void setCallbackWorkerLimit(int limit)
+	{
+		if (limit < 0)
+		{
+			throw new IllegalArgumentException(getLocalizedMessage(JIErrorCodes.JI_COMSTUB_ILLEGAL_ARGUMENTS));
+		}
+		callbackWorkerLimit = limit;
+	}
+
+	/** Returns the maximum number of connections from COM servers served at a time, 0 for none.
+	 *
+	 * @return
+	 */
+	public static int getCallbackWorkerLimit()
+	{
+		return callbackWorkerLimit;
+	}
+
+	/**<p>Sets the maximum number of connections from COM servers waiting for a worker once
+	 * {@link #setCallbackWorkerLimit(int)} is reached. Further connections are closed as soon as they are accepted,
+	 * which the COM server sees as the Java side being unavailable. Default is 0, which lets them all wait.
+	 *
+	 * @param limit 0 for none.
+	 * @throws IllegalArgumentException if <code>limit</code> is negative.
+	 */
+	public static void setCallbackQueueLimit(int limit)
+	{
+		if (limit < 0)
+		{
+			throw new IllegalArgumentException(getLocalizedMessage(JIErrorCodes.JI_COMSTUB_ILLEGAL_ARGUMENTS));
+		}
+		callbackQueueLimit = limit;
+	}
+
+	/** Returns the maximum number of connections from COM servers waiting for a worker, 0 for none.
+	 *
+	 * @return
+	 */
+	public static int getCallbackQueueLimit()
+	{
+		return callbackQueueLimit;
+	}
+
+	/**<p>Sets how long a connection from a COM server waits for a worker once {@link #setCallbackWorkerLimit(int)}
+	 * is reached. It is closed if none is free by then, and counted as refused. Default is 60000.
+	 *
+	 * @param timeout in millisecs, 0 to wait until a worker is free.
+	 * @throws IllegalArgumentException if <code>timeout</code> is negative.
+	 */
+	public static void setCallbackQueueTimeout(int timeout)
+	{
+		if (timeout < 0)
+		{
+			throw new IllegalArgumentException(getLocalizedMessage(JIErrorCodes.JI_COMSTUB_ILLEGAL_ARGUMENTS));
+		}
+		callbackQueueTimeout = timeout;
+	}
+
+	/** Returns how long in millisecs a connection from a COM server waits for a worker, 0 for as long as it takes.
+	 *
+	 * @return
+	 */
+	public static int getCallbackQueueTimeout()
+	{
+		return callbackQueueTimeout;
+	}
+
+	/**<p>Makes the connections from COM servers to the exported Java objects read the next call while the previous
+	 * ones are running. The calls are run on separate threads, as the threading model of each object allows (see
+	 * <code>JILocalCoClass.setThreadingModel</code>), and their responses are sent as they complete. This only helps
+	 * COM servers which make several calls at a time on one connection. Applies to the calls received afterwards.
+	 * Default is <code>false</code>, which runs the calls of a connection one after the other on its worker.
+	 *
+	 * @param enable <code>true</code> to run the calls apart from the connection.
+	 */
+	public static void setCallbackDispatch(boolean enable)
+	{
+		callbackDispatch = enable;
+	}
+
+	/** Returns <code>true</code> if the calls made to the exported Java objects are run apart from their connection.
+	 *
+	 * @return
+	 */
+	public static boolean isCallbackDispatchSet()
+	{
+		return callbackDispatch;
+	}
+
+	/**<p>Sets the maximum number of calls run at a time apart from their connections, see
+	 * {@link #setCallbackDispatch(boolean)}. Each takes a worker thread while it runs, further calls wait for one,
+	 * up to {@link #setCallbackCallQueueLimit(int)} of them, and are answered with a fault
+	 * (<code>RPC_E_SERVERCALL_RETRYLATER</code>) beyond that. The calls of an object which runs them one at a time
+	 * take a single worker between them. <code>JICallbackRuntime</code> gives the counts of the calls running and
+	 * refused. Default is 64.
+	 *
+	 * @param limit 0 for none.
+	 * @throws IllegalArgumentException if <code>limit</code> is negative.
+	 */
+	public static void setCallbackCallLimit(int limit)
+	{
+		if (limit < 0)
+		{
+			throw new IllegalArgumentException(getLocalizedMessage(JIErrorCodes.JI_COMSTUB_ILLEGAL_ARGUMENTS));
+		}
+		callbackCallLimit = limit;
+	}
+
+	/** Returns the maximum number of calls run at a time apart from their connections, 0 for none.
+	 *
+	 * @return
+	 */
+	public static int getCallbackCallLimit()
+	{
+		return callbackCallLimit;
+	}
+
+	/**<p>Sets the maximum number of calls waiting for a worker once {@link #setCallbackCallLimit(int)} is reached,
+	 * and the maximum number waiting for the previous calls of an object which runs them one at a time. Further
+	 * calls are answered with a fault (<code>RPC_E_SERVERCALL_RETRYLATER</code>) without being run. Default is 1024.
+	 *
+	 * @param limit 0 for none.
+	 * @throws IllegalArgumentException if <code>limit</code> is negative.
+	 */
+	public static void setCallbackCallQueueLimit(int limit)
+	{
+		if (limit < 0)
+		{
+			throw new IllegalArgumentException(getLocalizedMessage(JIErrorCodes.JI_COMSTUB_ILLEGAL_ARGUMENTS));
+		}
+		callbackCallQueueLimit = limit;
+	}
+
+	/** Returns the maximum number of calls waiting for a worker, 0 for none.
+	 *
+	 * @return
+	 */
+	public static int getCallbackCallQueueLimit()
+	{
+		return callbackCallQueueLimit;
+	}
+
+	/**<p>Sets the ports on which COM servers call back the Java side, i.e. the OXID resolver and the listeners of the
+	 * exported Java objects. Exports of sessions with the same credentials, target and security settings share one
+	 * listener, so a handful of ports are used whatever the number of exports. Each is bound to the first free port of
+	 * the range, the range should therefore have room for the resolver and one listener per such group of sessions.
+	 * Applies to the listeners started afterwards. Default is 0 for both, which uses any free port.
+	 *
+	 * @param first first port of the range, 0 for any free port.
+	 * @param last last port of the range, inclusive.
+	 * @throws IllegalArgumentException if the range is not valid.
+	 */
+	public static void setCallbackPortRange(int first, int last)
+	{
+		if (first < 0 || last > 65535 || (first > 0 && last < first) || (first == 0 && last != 0))
+		{
+			throw new IllegalArgumentException(getLocalizedMessage(JIErrorCodes.JI_COMSTUB_ILLEGAL_ARGUMENTS));
+		}
+		firstCallbackPort = first;
+		lastCallbackPort = last;
+	}
+
+	/** Returns the first port of the range set by {@link #setCallbackPortRange(int, int)}, 0 for any free port.
+	 *
+	 * @return
+	 */
+	public static int getFirstCallbackPort()
+	{
+		return firstCallbackPort;
+	}
+
+	/** Returns the last port of the range set by {@link #setCallbackPortRange(int, int)}, 0 for any free port.
+	 *
+	 * @return
+	 */
+	public static int getLastCallbackPort()
+	{
+		return lastCallbackPort;
+	}
+
+	/**<p>Sets the options of the sockets opened to COM servers by new sessions, sessions can still change them for
+	 * themselves using <code>JISession.setSocketOptions</code>. Default is keep alive on and the rest left to the
+	 * operating system, see {@link JISocketOptions#lowLatency()} and {@link JISocketOptions#bulk()} for presets.
+	 *
+	 * @param options
+	 */
+	public static void setSocketOptions(JISocketOptions options)
+	{
+		socketOptions = new JISocketOptions(options);
+	}
+
+	/** Returns a copy of the options set by {@link #setSocketOptions(JISocketOptions)}.
+	 *
+	 * @return
+	 */
+	public static JISocketOptions getSocketOptions()
+	{
+		return new JISocketOptions(socketOptions);
+	}
+
+	/**<p>Sets the time after which idle connections to COM servers are closed, they are opened again by the next call.
+	 * Applies to the OXID ping connections and is the default for new sessions, which can change it for themselves using
+	 * <code>JISession.setIdleConnectionTimeout</code>. Connections are looked at every few seconds. Default is 0, which
+	 * keeps them open.
+	 *
+	 * @param timeout in millisecs, 0 for none.
+	 * @throws IllegalArgumentException if <code>timeout</code> is negative.
+	 */
+	public static void setIdleConnectionTimeout(int timeout)
+	{
+		if (timeout < 0)
+		{
+			throw new IllegalArgumentException(getLocalizedMessage(JIErrorCodes.JI_COMSTUB_ILLEGAL_ARGUMENTS));
+		}
+		idleConnectionTimeout = timeout;
+	}
+
+	/** Returns the time after which idle connections are closed, 0 for none.
+	 *
+	 * @return
+	 */
+	public static int getIdleConnectionTimeout()
+	{
+		return idleConnectionTimeout;
+	}
+
+	/**<p>Sets the time after which idle connections to COM servers are checked with a round trip, and then again every
+	 * so often while they stay idle. Connections failing the check are closed, so that the next call opens a fresh one
+	 * instead of timing out on a server which has gone away. The OXID ping connections are checked with
+	 * <code>IObjectExporter::ServerAlive</code>, the others by altering their presentation context to itself. Applies to
+	 * the OXID ping connections and is the default for new sessions, which can change it for themselves using
+	 * <code>JISession.setConnectionCheckInterval</code>. Default is 0, which does not check them.
+	 *
+	 * @param interval in millisecs, 0 for none.
+	 * @throws IllegalArgumentException if <code>interval</code> is negative.
+	 */
+	public static void setConnectionCheckInterval(int interval)
+	{
+		if (interval < 0)
+		{
+			throw new IllegalArgumentException(getLocalizedMessage(JIErrorCodes.JI_COMSTUB_ILLEGAL_ARGUMENTS));
+		}
+		connectionCheckInterval = interval;
+	}
+
+	/** Returns the time after which idle connections are checked, 0 for none.
+	 *
+	 * @return
+	 */
+	public static int getConnectionCheckInterval()
+	{
+		return connectionCheckInterval;
+	}
+
 	/** Status of autoCollection flag.   
 	 * 
 	 * @return <code>true</code> if autoCollection is enabled, <code>false</code> otherwise.
@@ -15,8 +15,11 @@
 
 package org.jinterop.dcom.core;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -58,6 +61,7 @@ public final class JIArray implements Serializable{
 	private Object template = null;
 	private boolean isArrayOfCOMObjects_5_6_DCOM = false;
 	private int sizeOfNestedArrayInBytes = 0; //used in both encoding and decoding.
+	private transient ByteBuffer byteBuffer = null; //bytes decoded from a spilled response, memberArray is built on demand.
 	
 	private JIArray()
 	{
@@ -383,8 +387,34 @@ public final class JIArray implements Serializable{
 	 */
 	public Object getArrayInstance()
 	{
+		if (memberArray == null && byteBuffer != null)
+		{
+			Byte[] bytes = new Byte[byteBuffer.remaining()];
+			for (int i = 0; i < bytes.length; i++)
+			{
+				bytes[i] = new Byte(byteBuffer.get(i));
+			}
+			memberArray = bytes;
+		}
 		return memberArray;
 	}
+
+	/** Returns the contents of a single dimension array of <code>Byte</code>s as a read-only slice of the memory mapped
+	 * file, when the array was decoded from a response spilled to disk (refer {@link JISession#setResponseSpillThreshold(int)}).
+	 * The bytes are then only turned into <code>Byte</code> objects if {@link #getArrayInstance()} is called.
+	 *
+	 * @return <code>null</code> for all other arrays.
+	 */
+	public ByteBuffer getByteBuffer()
+	{
+		return byteBuffer == null ? null : byteBuffer.duplicate();
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		getArrayInstance();
+		out.defaultWriteObject();
+	}
 	
 	/** Class of the nested Array.
 	 * 
@@ -420,7 +450,7 @@ public final class JIArray implements Serializable{
 		//this means that decode has created this array, and we need to compute the size to stay consistent.
 		if (sizeOfNestedArrayInBytes == -1)
 		{
-			sizeOfNestedArrayInBytes = computeLengthArray(memberArray);
+			sizeOfNestedArrayInBytes = computeLengthArray(getArrayInstance());
 		}
 			
 		return sizeOfNestedArrayInBytes;
@@ -590,7 +620,15 @@ public final class JIArray implements Serializable{
 		retVal.isConformant = isConformant;
 		retVal.isVarying = isVarying;
 		retVal.template = template;
-		retVal.memberArray = recurseDecode(retVal,ndr,arrayType,dimension, defferedPointers,FLAG, additionalData);
+		if (dimension == 1 && template == null && arrayType == Byte.class && ndr.getBuffer().isMapped())
+		{
+			//left in the mapped file of the spilled response.
+			retVal.byteBuffer = ndr.getBuffer().sliceOctets(retVal.upperBounds[0]);
+		}
+		else
+		{
+			retVal.memberArray = recurseDecode(retVal,ndr,arrayType,dimension, defferedPointers,FLAG, additionalData);
+		}
 		retVal.clazz = clazz;
 		retVal.dimension = this.dimension;
 		retVal.sizeOfNestedArrayInBytes = -1; // setting here so that when a call actually comes for it's lenght , the getLength will compute. This is required since while decoding many pointers are still not complete and their length cannot be decided.
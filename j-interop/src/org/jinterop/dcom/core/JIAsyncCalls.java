@@ -0,0 +1,68 @@
+/**
+* j-Interop (Pure Java implementation of DCOM protocol)
+*
+* Copyright (c) 2013 Vikram Roopchand
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+* Vikram Roopchand  - Moving to EPL from LGPL v3.
+*
+*/
+
+package org.jinterop.dcom.core;
+
+import java.util.concurrent.Future;
+
+import org.jinterop.dcom.common.JIException;
+
+/**<p> Places method calls on COM objects without waiting for their replies, so that the calling thread is free while
+ * the request is on the wire. The <code>Future</code> yields the results once the reply has arrived, which is read as it
+ * arrives without a thread waiting for it. The reply is decoded on the thread calling <code>get</code>, failures of the
+ * call are reported as a <code>JIException</code> being the cause of the <code>ExecutionException</code>. </p>
+ * <p> Many calls can be in flight at the same time if call multiplexing is enabled on the session, see
+ * {@link JISession#useCallMultiplexing(boolean)}. Otherwise the connection carries one call at a time, placing a call
+ * then waits for the reply to the one in flight, but not for its own. With connection pooling enabled, see
+ * {@link JISession#useConnectionPool(int, int)}, the call is made right away and the <code>Future</code> returned has
+ * completed. So are calls on objects not created by the framework. </p>
+ *
+ * @since 3.0
+ */
+public final class JIAsyncCalls {
+
+	private JIAsyncCalls() {}
+
+	/** Places a method call on the actual COM object like {@link IJIComObject#call(JICallBuilder)}, but returns
+	 * without waiting for the reply. The instance level socket timeout of the object, or else the global one of the
+	 * session, bounds the wait for the reply.
+	 *
+	 * @param comObject object to call.
+	 * @param obj call builder carrying all information necessary to make the call successfully.
+	 * @return <code>Future</code> of the results, in the order expected or set in <code>JICallBuilder</code>.
+	 * @throws JIException if the call could not be placed.
+	 * @throws IllegalStateException if there is no session associated
+	 * with this object or this object represents a local java reference.
+	 */
+	public static Future<Object[]> call(IJIComObject comObject, JICallBuilder obj) throws JIException
+	{
+		IJIComObject target = comObject;
+		while (target instanceof JIComObjectImplWrapper)
+		{
+			target = ((JIComObjectImplWrapper)target).comObject;
+		}
+		if (target instanceof JIComObjectImpl)
+		{
+			return ((JIComObjectImpl)target).callAsync(obj);
+		}
+
+		try {
+			comObject.call(obj);
+		} catch (JIException e) {
+			return new JICallFuture(obj, e);
+		}
+		return new JICallFuture(obj, null);
+	}
+}
@@ -0,0 +1,133 @@
+/**
+* j-Interop (Pure Java implementation of DCOM protocol)
+*
+* Copyright (c) 2013 Vikram Roopchand
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+* Vikram Roopchand  - Moving to EPL from LGPL v3.
+*
+*/
+
+package org.jinterop.dcom.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import ndr.NetworkDataRepresentation;
+
+/**<p> Conformant array of bytes, an <code>[in, size_is(length)] byte*</code>, whose contents are read from a stream only
+ * while the call is being sent. Use it instead of a <code>JIArray</code> of <code>Byte</code>s for large
+ * <code>[in]</code> parameters; the bytes are read straight into the request fragments, one fragment at a time, so the
+ * heap used stays bounded by the fragment size whatever the length.
+ * </p><p>
+ * For example, to push a file to <code>IStream::Write</code>:- <br>
+ * <code>
+ * FileChannel channel = new FileInputStream(file).getChannel(); <br>
+ * callObject.addInParamAsObject(new JIByteStream(channel,(int)channel.size()),JIFlags.FLAG_NULL); <br>
+ * callObject.addInParamAsInt((int)channel.size(),JIFlags.FLAG_NULL); <br>
+ * </code>
+ * </p><p>
+ * The stream is read once, so an instance can be used for only one call. It is not closed by the library. A stream
+ * which ends before <code>length</code> bytes fails the call.
+ * </p>
+ * @since 3.0
+ */
+public final class JIByteStream {
+
+	private final ReadableByteChannel source;
+	private final int length;
+
+	/** Reads <code>length</code> bytes from <code>inputStream</code>.
+	 *
+	 * @param inputStream
+	 * @param length
+	 */
+	public JIByteStream(InputStream inputStream, int length)
+	{
+		this(Channels.newChannel(inputStream), length);
+	}
+
+	/** Reads <code>length</code> bytes from <code>channel</code>, for e.g. a <code>FileChannel</code> positioned at the
+	 * start of the data.
+	 *
+	 * @param channel
+	 * @param length
+	 */
+	public JIByteStream(ReadableByteChannel channel, int length)
+	{
+		if (channel == null || length < 0)
+		{
+			throw new IllegalArgumentException();
+		}
+		this.source = channel;
+		this.length = length;
+	}
+
+	/** Sends the remaining bytes of <code>buffer</code>, which is not modified.
+	 *
+	 * @param buffer
+	 */
+	public JIByteStream(ByteBuffer buffer)
+	{
+		this(new ByteBufferChannel(buffer.duplicate()), buffer.remaining());
+	}
+
+	/** Returns the number of bytes sent.
+	 *
+	 * @return
+	 */
+	public int getLength()
+	{
+		return length;
+	}
+
+	void encode(NetworkDataRepresentation ndr)
+	{
+		//max count, the bytes themselves are spliced in while sending.
+		ndr.writeUnsignedLong(length);
+		ndr.getBuffer().splice(source, length);
+	}
+
+	private static final class ByteBufferChannel implements ReadableByteChannel
+	{
+		private final ByteBuffer buffer;
+		private boolean open = true;
+
+		private ByteBufferChannel(ByteBuffer buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		public int read(ByteBuffer dst) throws IOException
+		{
+			if (!buffer.hasRemaining())
+			{
+				return -1;
+			}
+			int n = Math.min(dst.remaining(), buffer.remaining());
+			ByteBuffer slice = buffer.duplicate();
+			slice.limit(slice.position() + n);
+			dst.put(slice);
+			buffer.position(buffer.position() + n);
+			return n;
+		}
+
+		public boolean isOpen()
+		{
+			return open;
+		}
+
+		public void close()
+		{
+			open = false;
+		}
+	}
+}
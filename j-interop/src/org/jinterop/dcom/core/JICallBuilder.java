@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 
+import ndr.NdrBufferPool;
 import ndr.NdrObject;
 import ndr.NetworkDataRepresentation;
 
@@ -842,7 +843,7 @@ public class JICallBuilder extends NdrObject implements Serializable {
 		//reset buffer size here...
 		//calculate rough length required length + 16 for the last bytes
 		//plus adding 30 more for the verifier etc. 
-		ndr.getBuffer().buf = new byte[bufferLength() + 16];
+		ndr.getBuffer().buf = NdrBufferPool.acquire(bufferLength() + 16);
 		
 		JIOrpcThis orpcthis = new JIOrpcThis();
 		orpcthis.encode(ndr);
@@ -1045,8 +1046,19 @@ public class JICallBuilder extends NdrObject implements Serializable {
 						//this is a new IP , so make a new JIComServer for this.
 						JISession newsession = JISession.createSession(session);
 					    newsession.setGlobalSocketTimeout(session.getGlobalSocketTimeout());
+					    newsession.setConnectTimeout(session.getConnectTimeout());
+					    newsession.setResponseSpillThreshold(session.getResponseSpillThreshold());
+					    newsession.setMaxFragmentSizes(session.getMaxTransmitFragment(), session.getMaxReceiveFragment());
+					    newsession.setAdaptiveFragmentSizes(session.isAdaptiveFragmentSizesEnabled());
 					    newsession.useSessionSecurity(session.isSessionSecurityEnabled());
 					    newsession.useNTLMv2(session.isNTLMv2Enabled());
+					    newsession.useCallMultiplexing(session.isCallMultiplexingEnabled());
+					    newsession.useConnectionPool(session.getConnectionPoolMinSize(), session.getConnectionPoolMaxSize());
+					    newsession.setConnectionPoolIdleTimeout(session.getConnectionPoolIdleTimeout());
+					    newsession.useBlockingTransport(session.isBlockingTransportEnabled());
+					    newsession.setSocketOptions(session.getSocketOptions());
+					    newsession.setIdleConnectionTimeout(session.getIdleConnectionTimeout());
+					    newsession.setConnectionCheckInterval(session.getConnectionCheckInterval());
 					    JIComServer comServer = new JIComServer(newsession,comObjectImpl.internal_getInterfacePointer(),null);
 					    comObject = comServer.getInstance();
 					    JIFrameworkHelper.link2Sessions(session, newsession);
@@ -0,0 +1,127 @@
+/**
+* j-Interop (Pure Java implementation of DCOM protocol)
+*
+* Copyright (c) 2013 Vikram Roopchand
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+* Vikram Roopchand  - Moving to EPL from LGPL v3.
+*
+*/
+
+package org.jinterop.dcom.core;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jinterop.dcom.common.JIErrorCodes;
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.common.JIRuntimeException;
+
+import rpc.FaultException;
+
+/** Result of {@link JIAsyncCalls#call(IJIComObject, JICallBuilder)}. The reply is decoded into the <code>JICallBuilder</code>
+ * on the first thread calling <code>get</code>, failures are reported as a <code>JIException</code> being the cause of the
+ * <code>ExecutionException</code>.
+ *
+ * @exclude
+ * @since 3.0
+ */
+final class JICallFuture implements Future<Object[]> {
+
+	private final Future rpcFuture;
+	private final JICallBuilder obj;
+	private final JIException failure;
+
+	JICallFuture(Future rpcFuture, JICallBuilder obj)
+	{
+		this.rpcFuture = rpcFuture;
+		this.obj = obj;
+		this.failure = null;
+	}
+
+	/** Already completed call, <code>failure</code> is <code>null</code> if it succeeded.
+	 */
+	JICallFuture(JICallBuilder obj, JIException failure)
+	{
+		this.rpcFuture = null;
+		this.obj = obj;
+		this.failure = failure;
+	}
+
+	public boolean cancel(boolean mayInterruptIfRunning)
+	{
+		return rpcFuture == null ? false : rpcFuture.cancel(mayInterruptIfRunning);
+	}
+
+	public boolean isCancelled()
+	{
+		return rpcFuture == null ? false : rpcFuture.isCancelled();
+	}
+
+	public boolean isDone()
+	{
+		return rpcFuture == null ? true : rpcFuture.isDone();
+	}
+
+	public Object[] get() throws InterruptedException, ExecutionException
+	{
+		if (rpcFuture != null)
+		{
+			try {
+				rpcFuture.get();
+			} catch (ExecutionException e) {
+				throw translate(e);
+			}
+		}
+		return getResults();
+	}
+
+	public Object[] get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+	{
+		if (rpcFuture != null)
+		{
+			try {
+				rpcFuture.get(timeout, unit);
+			} catch (ExecutionException e) {
+				throw translate(e);
+			}
+		}
+		return getResults();
+	}
+
+	private Object[] getResults() throws ExecutionException
+	{
+		if (failure != null)
+		{
+			throw new ExecutionException(failure);
+		}
+		return obj.getResults();
+	}
+
+	//same mapping as the synchronous JIComServer.call
+	private static ExecutionException translate(ExecutionException e)
+	{
+		Throwable cause = e.getCause();
+		if (cause instanceof FaultException)
+		{
+			return new ExecutionException(new JIException(((FaultException)cause).status,cause));
+		}
+		if (cause instanceof JIRuntimeException)
+		{
+			return new ExecutionException(new JIException((JIRuntimeException)cause));
+		}
+		if (cause instanceof IOException)
+		{
+			return new ExecutionException(new JIException(JIErrorCodes.RPC_E_UNEXPECTED,cause));
+		}
+		return e;
+	}
+}
@@ -0,0 +1,244 @@
+/**
+* j-Interop (Pure Java implementation of DCOM protocol)
+*
+* Copyright (c) 2013 Vikram Roopchand
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+* Vikram Roopchand  - Moving to EPL from LGPL v3.
+*
+*/
+
+package org.jinterop.dcom.core;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+
+import org.jinterop.dcom.common.JISystem;
+
+/** Port on which COM servers call the <code>IRemUnknown</code> and the interfaces of the exported Java objects. It is
+ * shared by all the exports whose connections are authenticated alike, i.e. those of sessions with the same
+ * credentials, target and security settings, so that the ports and listener threads do not grow with the number of
+ * exports. Incoming calls are routed to the export by the IPID they are made on. The listener is closed, with its
+ * connections, once the last of its exports is released.
+ *
+ * @since 3.0
+ */
+final class JICallbackListener {
+
+	//connection properties vs listener
+	private static final Map listeners = new HashMap();
+
+	private final Map key;
+	private final Properties properties;
+	private final ServerSocketChannel serverSocketChannel;
+	private final int port;
+
+	//ipid of the IRemUnknown of each export vs its details.
+	private final Map<String, JIComOxidDetails> exports = new ConcurrentHashMap<String, JIComOxidDetails>();
+
+	//the listener and its connections, cancelled together when the last export is released.
+	private final List<Future<?>> tasks = Collections.synchronizedList(new ArrayList<Future<?>>());
+
+	private JICallbackListener(Map key, Properties properties) throws IOException
+	{
+		this.key = key;
+		this.properties = properties;
+		serverSocketChannel = open();
+		port = serverSocketChannel.socket().getLocalPort();
+	}
+
+	/** Opens a server socket on the first free port of the range set by <code>JISystem.setCallbackPortRange</code>,
+	 * or on any free port if none was set.
+	 */
+	static ServerSocketChannel open() throws IOException
+	{
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		int first = JISystem.getFirstCallbackPort();
+		int last = JISystem.getLastCallbackPort();
+		try {
+			if (first == 0)
+			{
+				channel.socket().bind(null);
+				return channel;
+			}
+			for (int port = first; ; port++)
+			{
+				try {
+					channel.socket().bind(new InetSocketAddress(port));
+					return channel;
+				} catch (BindException e) {
+					if (port >= last)
+					{
+						throw e;
+					}
+				}
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/** Serves the <code>IRemUnknown</code> of the export described by <code>details</code>, whose ipid is
+	 * <code>remUnknownIpid</code>, on the listener for its connection properties, starting one if there is none.
+	 *
+	 * @return the port of the listener.
+	 */
+	static int join(JIComOxidDetails details, String remUnknownIpid) throws IOException
+	{
+		Properties properties = details.getCOMRuntimeHelper().getProperties();
+		Map key = new HashMap(properties);
+		JICallbackListener listener = null;
+		synchronized (listeners) {
+			listener = (JICallbackListener)listeners.get(key);
+			if (listener == null)
+			{
+				listener = new JICallbackListener(key, properties);
+				listeners.put(key, listener);
+				listener.start();
+			}
+			listener.exports.put(remUnknownIpid.toUpperCase(), details);
+			details.setCallbackListener(listener);
+		}
+		return listener.port;
+	}
+
+	/** Stops serving the export described by <code>details</code>, closing the listener if it was the last one.
+	 */
+	void leave(JIComOxidDetails details)
+	{
+		synchronized (listeners) {
+			Iterator<JIComOxidDetails> iterator = exports.values().iterator();
+			while (iterator.hasNext())
+			{
+				if (iterator.next() == details)
+				{
+					iterator.remove();
+				}
+			}
+			if (!exports.isEmpty() || listeners.get(key) != this)
+			{
+				return;
+			}
+			listeners.remove(key);
+		}
+		if (JISystem.getLogger().isLoggable(Level.INFO))
+		{
+			JISystem.getLogger().info("Closing RemUnknown listener on port " + port + ", its last export has been released.");
+		}
+		Future<?>[] futures = null;
+		synchronized (tasks) {
+			futures = tasks.toArray(new Future<?>[tasks.size()]);
+		}
+		for (int i = 0; i < futures.length; i++)
+		{
+			futures[i].cancel(true);
+		}
+		try {
+			serverSocketChannel.close();
+		} catch (IOException e) {}
+	}
+
+	/** Returns the export whose <code>IRemUnknown</code> has the ipid <code>remUnknownIpid</code>, <code>null</code> if
+	 * none on this listener has.
+	 */
+	JIComOxidDetails getExport(String remUnknownIpid)
+	{
+		return exports.get(remUnknownIpid.toUpperCase());
+	}
+
+	//interfaces which can be bound to on this listener, those of all its exports.
+	private List getSupportedInterfaces()
+	{
+		List supported = new ArrayList();
+		Iterator<JIComOxidDetails> iterator = exports.values().iterator();
+		while (iterator.hasNext())
+		{
+			JIComOxidDetails details = iterator.next();
+			supported.add(details.getIID().toUpperCase());
+			supported.addAll(details.getReferent().getSupportedInterfaces());
+		}
+		return supported;
+	}
+
+	private void start()
+	{
+		FutureTask<Void> listener = new FutureTask<Void>(new Runnable() {
+			public void run() {
+				if (JISystem.getLogger().isLoggable(Level.INFO))
+				{
+					JISystem.getLogger().info("started RemUnknown listener thread for : " + Thread.currentThread().getName());
+				}
+				try{
+					while(true)
+					{
+						Socket socket = serverSocketChannel.socket().accept();
+						if (JISystem.getLogger().isLoggable(Level.INFO))
+						{
+							JISystem.getLogger().info("RemUnknown listener: Got Connection from " + socket.getPort());
+						}
+						//callbacks are small calls too.
+						try {
+							JISystem.getSocketOptions().applyTo(socket);
+						} catch (IOException e) {
+							JISystem.getLogger().log(Level.WARNING,"RemUnknown listener: could not set the socket options",e);
+						}
+						try {
+							serve(socket);
+						} catch (IOException e) {
+							JISystem.getLogger().log(Level.WARNING,"RemUnknown listener: could not serve connection from " + socket.getPort(),e);
+							socket.close();
+						}
+					}
+				}catch(ClosedByInterruptException e)
+				{
+					JISystem.getLogger().info("JICallbackListener RemUnknownListener" + Thread.currentThread().getName()
+							+ " is purposefully closed by interruption.");
+				}
+				catch(IOException e)
+				{
+					if (serverSocketChannel.isOpen() && JISystem.getLogger().isLoggable(Level.WARNING))
+					{
+						JISystem.getLogger().log(Level.WARNING,"JICallbackListener RemUnknownListener",e);
+					}
+				}catch(Throwable e)
+				{
+					JISystem.getLogger().log(Level.WARNING,"JICallbackListener RemUnknownListener",e);
+				}
+				if (JISystem.getLogger().isLoggable(Level.INFO))
+				{
+					JISystem.getLogger().info("terminating RemUnknownListener thread: " + Thread.currentThread().getName());
+				}
+			}
+		}, null);
+		tasks.add(listener);
+		JIComOxidRuntimeHelper.newThread(listener,"jI_RemUnknownListener[" + port + "]").start();
+	}
+
+	private void serve(Socket socket) throws IOException
+	{
+		//each connection gets its own properties, the list of interfaces it can bind to is set on them.
+		JIComOxidRuntimeHelper remUnknownHelper = new JIComOxidRuntimeHelper(new Properties(properties), socket);
+		remUnknownHelper.startRemUnknown(this, getSupportedInterfaces(), "jI_RemUnknown[L(" + socket.getLocalPort() + "):R(" + socket.getPort() + ")]", tasks);
+	}
+}
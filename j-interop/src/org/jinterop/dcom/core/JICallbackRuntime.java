@@ -0,0 +1,548 @@
+/**
+* j-Interop (Pure Java implementation of DCOM protocol)
+*
+* Copyright (c) 2013 Vikram Roopchand
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+* Vikram Roopchand  - Moving to EPL from LGPL v3.
+*
+*/
+
+package org.jinterop.dcom.core;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.jinterop.dcom.common.JISystem;
+
+/**<p> Workers serving the connections made by COM servers to the Java side, i.e. to the OXID resolver and to the
+ * exported Java objects (callbacks, event sinks and <code>JILocalCoClass</code>es). A connection takes a worker for as
+ * long as it stays open, idle workers are reused for the next connections and end after a minute without one. </p>
+ * <p> The number of workers is unbounded unless limited using <code>JISystem.setCallbackWorkerLimit</code>, further
+ * connections then wait for a worker, up to <code>JISystem.setCallbackQueueLimit</code> of them, and are refused
+ * beyond that or once they have waited for <code>JISystem.setCallbackQueueTimeout</code>. The limit is on
+ * connections, a connection keeps its worker while it is open even if no call comes in. The workers are created with the factory set by <code>JISystem.setThreadFactory</code>. </p>
+ * <p> The counts returned here are meant for monitoring, they are a snapshot which may be out of date by the time
+ * they are looked at. </p>
+ * <p> Calls which the connections run apart from themselves, see <code>JISystem.setCallbackDispatch</code>, are run by
+ * separate workers, which are reused in the same way. Up to <code>JISystem.setCallbackCallLimit</code> of them run at
+ * a time, further calls wait for a worker, up to <code>JISystem.setCallbackCallQueueLimit</code> of them, and are
+ * refused beyond that, the COM server gets a fault for them. </p>
+ *
+ * @since 3.0
+ */
+public final class JICallbackRuntime {
+
+	private static final String WORKER_NAME = "jI_CallbackWorker";
+
+	private static final AtomicInteger workerCount = new AtomicInteger();
+
+	private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					return JIComOxidRuntimeHelper.newThread(runnable, WORKER_NAME + "-" + workerCount.incrementAndGet());
+				}
+			});
+
+	private static final String CALL_WORKER_NAME = "jI_CallbackCall";
+
+	private static final AtomicInteger callWorkerCount = new AtomicInteger();
+
+	//calls run apart from their connection, admitted by callAdmission.
+	private static final ThreadPoolExecutor callExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					return JIComOxidRuntimeHelper.newThread(runnable, CALL_WORKER_NAME + "-" + callWorkerCount.incrementAndGet());
+				}
+			});
+
+	//refuses the connections which waited too long for a worker.
+	private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					return JIComOxidRuntimeHelper.newThread(runnable, "jI_CallbackQueueTimer");
+				}
+			});
+
+	static {
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	private static final Object lock = new Object();
+
+	//connections admitted but waiting for a worker, oldest first.
+	private static final LinkedList<Connection> waiting = new LinkedList<Connection>();
+	private static int active = 0;
+	private static int peak = 0;
+	private static long served = 0;
+	private static long refused = 0;
+
+	//calls admitted but waiting for a worker, oldest first.
+	private static final LinkedList<Runnable> waitingCalls = new LinkedList<Runnable>();
+	private static int activeCalls = 0;
+	private static int peakCalls = 0;
+	private static long refusedCalls = 0;
+
+	private static final Executor callAdmission = new Executor() {
+		public void execute(Runnable call) {
+			admit(call);
+		}
+	};
+
+	private JICallbackRuntime() {}
+
+	/** Returns the number of connections being served.
+	 *
+	 * @return
+	 */
+	public static int getActiveConnectionCount()
+	{
+		synchronized (lock) {
+			return active;
+		}
+	}
+
+	/** Returns the number of connections waiting for a worker.
+	 *
+	 * @return
+	 */
+	public static int getWaitingConnectionCount()
+	{
+		synchronized (lock) {
+			return waiting.size();
+		}
+	}
+
+	/** Returns the largest number of connections served at a time so far.
+	 *
+	 * @return
+	 */
+	public static int getPeakConnectionCount()
+	{
+		synchronized (lock) {
+			return peak;
+		}
+	}
+
+	/** Returns the number of connections served and closed so far.
+	 *
+	 * @return
+	 */
+	public static long getServedConnectionCount()
+	{
+		synchronized (lock) {
+			return served;
+		}
+	}
+
+	/** Returns the number of connections refused so far, since too many were waiting for a worker or since they
+	 * waited too long for one.
+	 *
+	 * @return
+	 */
+	public static long getRefusedConnectionCount()
+	{
+		synchronized (lock) {
+			return refused;
+		}
+	}
+
+	/** Returns the number of calls being run apart from their connections.
+	 *
+	 * @return
+	 */
+	public static int getActiveCallCount()
+	{
+		synchronized (lock) {
+			return activeCalls;
+		}
+	}
+
+	/** Returns the number of calls waiting for a worker.
+	 *
+	 * @return
+	 */
+	public static int getWaitingCallCount()
+	{
+		synchronized (lock) {
+			return waitingCalls.size();
+		}
+	}
+
+	/** Returns the largest number of calls run at a time apart from their connections so far.
+	 *
+	 * @return
+	 */
+	public static int getPeakCallCount()
+	{
+		synchronized (lock) {
+			return peakCalls;
+		}
+	}
+
+	/** Returns the number of calls refused so far, since too many were waiting for a worker or for the previous calls
+	 * of their object.
+	 *
+	 * @return
+	 */
+	public static long getRefusedCallCount()
+	{
+		synchronized (lock) {
+			return refusedCalls;
+		}
+	}
+
+	/** Serves a connection accepted by the <code>helper</code>, which is attached to it, by running <code>work</code>
+	 * on a worker named <code>name</code>. The helper is detached if the connection is refused or cancelled before
+	 * being served, <code>work</code> detaches it otherwise.
+	 *
+	 * @param tasks if not <code>null</code>, the connection is in it until it is over.
+	 * @return the connection, cancelling it with interruption closes it.
+	 */
+	static Future<?> serve(JIComOxidRuntimeHelper helper, String name, Runnable work, List<Future<?>> tasks)
+	{
+		Connection connection = new Connection(helper, name, work, tasks);
+		if (tasks != null)
+		{
+			tasks.add(connection);
+		}
+		List<Connection> starting = new LinkedList<Connection>();
+		boolean admitted = true;
+		synchronized (lock) {
+			waiting.add(connection);
+			int limit = JISystem.getCallbackWorkerLimit();
+			while (!waiting.isEmpty() && (limit == 0 || active < limit))
+			{
+				starting.add(waiting.removeFirst());
+				active++;
+			}
+			peak = Math.max(peak, active);
+			int queueLimit = JISystem.getCallbackQueueLimit();
+			if (queueLimit > 0 && waiting.size() > queueLimit)
+			{
+				waiting.removeLast();
+				refused++;
+				admitted = false;
+			}
+		}
+		for (int i = 0; i < starting.size(); i++)
+		{
+			executor.execute(new Worker((Connection)starting.get(i)));
+		}
+		if (!admitted)
+		{
+			JISystem.getLogger().warning("Refusing connection " + name + ", " + JISystem.getCallbackQueueLimit()
+					+ " connections are already waiting for a worker.");
+			connection.cancel(false);
+		}
+		else if (!starting.contains(connection))
+		{
+			if (JISystem.getLogger().isLoggable(Level.INFO))
+			{
+				JISystem.getLogger().info("Connection " + name + " is waiting for a worker, " + JISystem.getCallbackWorkerLimit()
+						+ " connections are being served.");
+			}
+			int timeout = JISystem.getCallbackQueueTimeout();
+			if (timeout > 0)
+			{
+				connection.expiry = timer.schedule(new Expiry(connection, timeout), timeout, TimeUnit.MILLISECONDS);
+			}
+		}
+		return connection;
+	}
+
+	/** Returns the executor running calls as soon as a call worker is free, each on its own worker.
+	 *
+	 * @throws RejectedExecutionException from <code>execute</code> if the call is refused.
+	 */
+	static Executor getCallExecutor()
+	{
+		return callAdmission;
+	}
+
+	/** Returns a new executor running the calls given to it one at a time, in that order, on the call workers.
+	 *
+	 * @throws RejectedExecutionException from <code>execute</code> if the call is refused.
+	 */
+	static Executor newSerialExecutor()
+	{
+		return new SerialExecutor();
+	}
+
+	//runs the call on a worker if there is room for one, queues it otherwise.
+	private static void admit(Runnable call)
+	{
+		synchronized (lock) {
+			int limit = JISystem.getCallbackCallLimit();
+			if (limit > 0 && activeCalls >= limit)
+			{
+				int queueLimit = JISystem.getCallbackCallQueueLimit();
+				if (queueLimit > 0 && waitingCalls.size() >= queueLimit)
+				{
+					refusedCalls++;
+					throw new RejectedExecutionException(queueLimit + " calls are already waiting for a worker.");
+				}
+				waitingCalls.add(call);
+				return;
+			}
+			activeCalls++;
+			peakCalls = Math.max(peakCalls, activeCalls);
+		}
+		try {
+			callExecutor.execute(new CallWorker(call));
+		} catch (RejectedExecutionException e) {
+			synchronized (lock) {
+				activeCalls--;
+				refusedCalls++;
+			}
+			throw e;
+		}
+	}
+
+	//takes the next call for a worker which is done with its own, null if the worker should stop.
+	private static Runnable nextCall()
+	{
+		synchronized (lock) {
+			int limit = JISystem.getCallbackCallLimit();
+			if (!waitingCalls.isEmpty() && (limit == 0 || activeCalls <= limit))
+			{
+				return waitingCalls.removeFirst();
+			}
+			activeCalls--;
+			return null;
+		}
+	}
+
+	private static final class CallWorker implements Runnable
+	{
+		private final Runnable first;
+
+		private CallWorker(Runnable first)
+		{
+			this.first = first;
+		}
+
+		public void run()
+		{
+			Runnable call = first;
+			while (call != null)
+			{
+				try {
+					call.run();
+				} catch (RuntimeException e) {
+					JISystem.getLogger().log(Level.WARNING, "Call on " + Thread.currentThread().getName() + " failed", e);
+				} finally {
+					Thread.interrupted();
+				}
+				call = nextCall();
+			}
+		}
+	}
+
+	//takes the next connection for a worker which is done with its own, null if the worker should stop.
+	private static Connection next()
+	{
+		synchronized (lock) {
+			served++;
+			int limit = JISystem.getCallbackWorkerLimit();
+			if (!waiting.isEmpty() && (limit == 0 || active <= limit))
+			{
+				return waiting.removeFirst();
+			}
+			active--;
+			return null;
+		}
+	}
+
+	//refuses a connection still waiting for a worker.
+	private static final class Expiry implements Runnable
+	{
+		private final Connection connection;
+		private final int timeout;
+
+		private Expiry(Connection connection, int timeout)
+		{
+			this.connection = connection;
+			this.timeout = timeout;
+		}
+
+		public void run()
+		{
+			synchronized (lock) {
+				if (!waiting.remove(connection))
+				{
+					return;
+				}
+				refused++;
+			}
+			JISystem.getLogger().warning("Refusing connection " + connection.name + ", it waited " + timeout
+					+ " ms for a worker.");
+			connection.cancel(false);
+		}
+	}
+
+	private static final class Worker implements Runnable
+	{
+		private final Connection first;
+
+		private Worker(Connection first)
+		{
+			this.first = first;
+		}
+
+		public void run()
+		{
+			Connection connection = first;
+			while (connection != null)
+			{
+				Future<?> expiry = connection.expiry;
+				if (expiry != null)
+				{
+					expiry.cancel(false);
+				}
+				Thread.currentThread().setName(connection.name);
+				try {
+					connection.run();
+				} finally {
+					//the connection may have been cancelled with an interrupt, which should not close the next one.
+					Thread.interrupted();
+					Thread.currentThread().setName(WORKER_NAME);
+				}
+				connection = next();
+			}
+		}
+	}
+
+	private static final class SerialExecutor implements Executor
+	{
+		private final LinkedList<Runnable> calls = new LinkedList<Runnable>();
+		private boolean running = false;
+
+		public void execute(Runnable call)
+		{
+			synchronized (calls) {
+				int queueLimit = JISystem.getCallbackCallQueueLimit();
+				if (queueLimit > 0 && calls.size() >= queueLimit)
+				{
+					synchronized (lock) {
+						refusedCalls++;
+					}
+					throw new RejectedExecutionException(queueLimit + " calls are already waiting for the previous ones.");
+				}
+				calls.add(call);
+				if (running)
+				{
+					return;
+				}
+				running = true;
+			}
+			try {
+				callAdmission.execute(new Runnable() {
+					public void run() {
+						drain();
+					}
+				});
+			} catch (RuntimeException e) {
+				synchronized (calls) {
+					calls.clear();
+					running = false;
+				}
+				throw e;
+			}
+		}
+
+		//runs the calls queued so far, the worker is given back once there are none.
+		private void drain()
+		{
+			while (true)
+			{
+				Runnable call = null;
+				synchronized (calls) {
+					call = calls.poll();
+					if (call == null)
+					{
+						running = false;
+						return;
+					}
+				}
+				try {
+					call.run();
+				} catch (RuntimeException e) {
+					JISystem.getLogger().log(Level.WARNING, "Call on " + Thread.currentThread().getName() + " failed", e);
+				}
+			}
+		}
+	}
+
+	private static final class Connection extends FutureTask<Void>
+	{
+		private final JIComOxidRuntimeHelper helper;
+		private final String name;
+		private final List<Future<?>> tasks;
+		private final AtomicBoolean started = new AtomicBoolean();
+		//refuses it if it waits too long, null if it did not wait.
+		private volatile Future<?> expiry;
+
+		private Connection(JIComOxidRuntimeHelper helper, String name, Runnable work, List<Future<?>> tasks)
+		{
+			super(work, null);
+			this.helper = helper;
+			this.name = name;
+			this.tasks = tasks;
+		}
+
+		public void run()
+		{
+			if (started.compareAndSet(false, true))
+			{
+				super.run();
+			}
+		}
+
+		protected void done()
+		{
+			if (tasks != null)
+			{
+				tasks.remove(this);
+			}
+			if (started.compareAndSet(false, true))
+			{
+				//cancelled or refused before getting a worker.
+				synchronized (lock) {
+					waiting.remove(this);
+				}
+				try {
+					helper.detach();
+				} catch (IOException e) {}
+				return;
+			}
+			if (!isCancelled())
+			{
+				try {
+					get();
+				} catch (InterruptedException e) {
+				} catch (ExecutionException e) {
+					JISystem.getLogger().log(Level.WARNING, "Connection " + name + " failed", e.getCause());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,424 @@
+/**
+* j-Interop (Pure Java implementation of DCOM protocol)
+*
+* Copyright (c) 2013 Vikram Roopchand
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+* Vikram Roopchand  - Moving to EPL from LGPL v3.
+*
+*/
+
+package org.jinterop.dcom.core;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
+
+import org.jinterop.dcom.common.JISystem;
+import org.jinterop.dcom.transport.JIComEndpoint;
+
+import rpc.ConnectionOrientedEndpoint;
+import rpc.Deadline;
+import rpc.TransportFactory;
+import rpc.core.PresentationSyntax;
+
+/** Pool of bound and authenticated connections to the OXID binding of one <code>COM</code> server. Each call borrows a
+ * connection for its whole round trip, so a slow call only holds up its own connection. The pool keeps at least
+ * <code>minSize</code> connections, never opens more than <code>maxSize</code> and closes idle ones above the minimum.
+ * Connections which failed with an I/O error are closed and replaced on demand. Connections idle for longer than the
+ * check interval are checked with a round trip, in the background and before being handed out, and replaced if dead.
+ *
+ * @exclude
+ * @since 3.0
+ */
+final class JIComEndpointPool {
+
+	/** Connection is usable. */
+	static final int HEALTHY = 0;
+
+	/** Connection failed with an I/O error and will not be handed out again. */
+	static final int BROKEN = 1;
+
+	/** Connection has been closed by the pool. */
+	static final int CLOSED = 2;
+
+	private static final Timer evictionTimer = new Timer("jI_EndpointPoolEvictor", true);
+
+	private final TransportFactory transportFactory;
+	private final String address;
+	private final Properties properties;
+	private final String syntax;
+	private final int minSize;
+	private final int maxSize;
+	private final long idleTimeout;
+	private final int checkInterval;
+	private final Set<String> interfaces;
+	private final LinkedList<PooledEndpoint> idleEndpoints = new LinkedList<PooledEndpoint>();
+	private final TimerTask evictionTask;
+	private int openCount = 0;
+	private boolean closed = false;
+
+	/** A connection of the pool along with its health information.
+	 */
+	static final class PooledEndpoint
+	{
+		private final ConnectionOrientedEndpoint endpoint;
+		private int state = HEALTHY;
+		private final JIConnectionReaper.Activity activity = new JIConnectionReaper.Activity();
+		private int useCount = 0;
+
+		private PooledEndpoint(ConnectionOrientedEndpoint endpoint)
+		{
+			this.endpoint = endpoint;
+		}
+
+		ConnectionOrientedEndpoint getEndpoint()
+		{
+			return endpoint;
+		}
+
+		int getState()
+		{
+			return state;
+		}
+
+		int getUseCount()
+		{
+			return useCount;
+		}
+
+		public String toString()
+		{
+			return "PooledEndpoint[" + endpoint.getTransport() + " , state: " + state + " , uses: " + useCount + "]";
+		}
+	}
+
+	/**
+	 * @param checkInterval idle time after which connections are checked, 0 for never.
+	 * @param interfaces IIDs to negotiate with the bind of every new connection, read each time one is opened.
+	 */
+	JIComEndpointPool(TransportFactory transportFactory, String address, Properties properties, String syntax, int minSize, int maxSize, long idleTimeout,
+			int checkInterval, Set<String> interfaces)
+	{
+		if (maxSize <= 0 || minSize < 0 || minSize > maxSize)
+		{
+			throw new IllegalArgumentException("Invalid pool size, min: " + minSize + " , max: " + maxSize);
+		}
+		this.transportFactory = transportFactory;
+		this.address = address;
+		this.properties = properties;
+		this.syntax = syntax;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.idleTimeout = idleTimeout;
+		this.checkInterval = checkInterval;
+		this.interfaces = interfaces;
+
+		evictionTask = new TimerTask() {
+			public void run() {
+				evictIdle();
+			}
+		};
+		long period = idleTimeout;
+		if (checkInterval > 0 && (period <= 0 || checkInterval < period))
+		{
+			period = checkInterval;
+		}
+		if (period > 0)
+		{
+			evictionTimer.schedule(evictionTask, period, period);
+		}
+	}
+
+	/** Opens and binds connections up to the minimum size. Failures are logged, the pool then grows on demand.
+	 */
+	void prestart()
+	{
+		for (int i = 0; i < minSize; i++)
+		{
+			PooledEndpoint pooledEndpoint = null;
+			synchronized (this) {
+				if (closed || openCount >= minSize)
+				{
+					return;
+				}
+				openCount++;
+			}
+			try {
+				pooledEndpoint = open();
+			} catch (IOException e) {
+				synchronized (this) {
+					openCount--;
+				}
+				JISystem.getLogger().log(Level.WARNING, "Could not prestart pooled connection to " + address, e);
+				return;
+			}
+			release(pooledEndpoint, false);
+		}
+	}
+
+	/** Returns an idle connection, opening a new one while below <code>maxSize</code>, otherwise waits for one to be released.
+	 * An idle connection due for its check is checked first, and replaced if dead. Waiting, checking and opening a new
+	 * connection, with its bind and authentication, all have to be done by the current {@link Deadline} of the caller.
+	 */
+	PooledEndpoint borrow() throws IOException
+	{
+		Deadline deadline = Deadline.current();
+		if (deadline == null)
+		{
+			deadline = Deadline.NONE;
+		}
+		while (true)
+		{
+			PooledEndpoint pooledEndpoint = take(deadline);
+			if (pooledEndpoint == null)
+			{
+				break;
+			}
+			if (!pooledEndpoint.activity.isCheckDue(checkInterval) || check(pooledEndpoint))
+			{
+				pooledEndpoint.useCount++;
+				return pooledEndpoint;
+			}
+			release(pooledEndpoint, true);
+		}
+
+		try {
+			PooledEndpoint pooledEndpoint = open();
+			pooledEndpoint.useCount++;
+			return pooledEndpoint;
+		} catch (IOException e) {
+			synchronized (this) {
+				openCount--;
+				notifyAll();
+			}
+			throw e;
+		}
+	}
+
+	/** Removes and returns an idle connection, or reserves room for a new one and returns <code>null</code>.
+	 */
+	private synchronized PooledEndpoint take(Deadline deadline) throws IOException
+	{
+		while (true)
+		{
+			if (closed)
+			{
+				throw new IOException("Connection pool to " + address + " is closed.");
+			}
+			if (!idleEndpoints.isEmpty())
+			{
+				return idleEndpoints.removeLast(); //most recently used, the oldest ones get evicted.
+			}
+			if (openCount < maxSize)
+			{
+				openCount++;
+				return null;
+			}
+			long wait = 0;
+			if (deadline != Deadline.NONE)
+			{
+				wait = deadline.remainingMillis();
+				if (wait <= 0)
+				{
+					throw new SocketTimeoutException("Timed out waiting for a pooled connection to " + address);
+				}
+			}
+			try {
+				wait(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for a pooled connection to " + address, e);
+			}
+		}
+	}
+
+	/** Hands the connection back to the pool.
+	 *
+	 * @param broken <code>true</code> if the last call failed with an I/O error, the connection is then closed.
+	 */
+	void release(PooledEndpoint pooledEndpoint, boolean broken)
+	{
+		boolean discard = false;
+		synchronized (this) {
+			pooledEndpoint.activity.touch();
+			if (broken)
+			{
+				pooledEndpoint.state = BROKEN;
+			}
+			if (closed || pooledEndpoint.state != HEALTHY)
+			{
+				openCount--;
+				discard = true;
+			}
+			else
+			{
+				idleEndpoints.addLast(pooledEndpoint);
+			}
+			notifyAll();
+		}
+
+		if (discard)
+		{
+			if (JISystem.getLogger().isLoggable(Level.INFO))
+			{
+				JISystem.getLogger().info("Discarding " + pooledEndpoint);
+			}
+			close(pooledEndpoint);
+		}
+	}
+
+	/** Closes connections which have been idle for longer than the idle timeout, keeping <code>minSize</code> open, and
+	 * checks the remaining ones due for it.
+	 */
+	void evictIdle()
+	{
+		List<PooledEndpoint> evicted = new ArrayList<PooledEndpoint>();
+		List<PooledEndpoint> unchecked = new ArrayList<PooledEndpoint>();
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			Iterator<PooledEndpoint> iterator = idleEndpoints.iterator();
+			while (iterator.hasNext() && openCount > minSize)
+			{
+				PooledEndpoint pooledEndpoint = iterator.next();
+				if (idleTimeout > 0 && now - pooledEndpoint.activity.getLastUsed() >= idleTimeout)
+				{
+					iterator.remove();
+					openCount--;
+					evicted.add(pooledEndpoint);
+				}
+			}
+			//taken out meanwhile, so that they are not handed out unchecked.
+			iterator = idleEndpoints.iterator();
+			while (iterator.hasNext())
+			{
+				PooledEndpoint pooledEndpoint = iterator.next();
+				if (pooledEndpoint.activity.isCheckDue(checkInterval))
+				{
+					iterator.remove();
+					unchecked.add(pooledEndpoint);
+				}
+			}
+		}
+
+		for (int i = 0; i < evicted.size(); i++)
+		{
+			if (JISystem.getLogger().isLoggable(Level.FINE))
+			{
+				JISystem.getLogger().fine("Evicting idle " + evicted.get(i));
+			}
+			close(evicted.get(i));
+		}
+
+		for (int i = 0; i < unchecked.size(); i++)
+		{
+			PooledEndpoint pooledEndpoint = unchecked.get(i);
+			if (!check(pooledEndpoint))
+			{
+				release(pooledEndpoint, true);
+				continue;
+			}
+			boolean discard = false;
+			synchronized (this) {
+				if (closed)
+				{
+					openCount--;
+					discard = true;
+				}
+				else
+				{
+					//back with the least recently used ones, where it was.
+					idleEndpoints.addFirst(pooledEndpoint);
+					notifyAll();
+				}
+			}
+			if (discard)
+			{
+				close(pooledEndpoint);
+			}
+		}
+	}
+
+	/** Returns <code>false</code> if the idle <code>pooledEndpoint</code> turns out to be dead.
+	 */
+	private boolean check(PooledEndpoint pooledEndpoint)
+	{
+		return pooledEndpoint.activity.passes(JIConnectionReaper.probe(pooledEndpoint.endpoint));
+	}
+
+	/** Closes all idle connections, the ones in use are closed when they are released.
+	 */
+	void close()
+	{
+		List<PooledEndpoint> idle = null;
+		synchronized (this) {
+			if (closed)
+			{
+				return;
+			}
+			closed = true;
+			evictionTask.cancel();
+			idle = new ArrayList<PooledEndpoint>(idleEndpoints);
+			openCount -= idleEndpoints.size();
+			idleEndpoints.clear();
+			notifyAll();
+		}
+
+		for (int i = 0; i < idle.size(); i++)
+		{
+			close(idle.get(i));
+		}
+	}
+
+	synchronized int getOpenCount()
+	{
+		return openCount;
+	}
+
+	synchronized int getIdleCount()
+	{
+		return idleEndpoints.size();
+	}
+
+	private PooledEndpoint open() throws IOException
+	{
+		ConnectionOrientedEndpoint endpoint = (ConnectionOrientedEndpoint)transportFactory.createTransport(address, properties).attach(new PresentationSyntax(syntax));
+		JIComServer.offerInterfaces(endpoint, interfaces);
+		try {
+			//bind and authenticate now, so that callers get a ready connection.
+			((JIComEndpoint)endpoint).rebindEndPoint();
+		} catch (IOException e) {
+			try {
+				endpoint.detach();
+			} catch (IOException ignore) {}
+			throw e;
+		}
+		return new PooledEndpoint(endpoint);
+	}
+
+	private void close(PooledEndpoint pooledEndpoint)
+	{
+		pooledEndpoint.state = CLOSED;
+		try {
+			pooledEndpoint.endpoint.detach();
+		} catch (IOException e) {
+			if (JISystem.getLogger().isLoggable(Level.FINE))
+			{
+				JISystem.getLogger().fine("Ignoring exception while closing pooled connection: " + e);
+			}
+		}
+	}
+}
@@ -18,6 +18,7 @@ package org.jinterop.dcom.core;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 
 import org.jinterop.dcom.common.IJIUnreferenced;
@@ -272,6 +273,16 @@ final class JIComObjectImpl implements IJIComObject {
 		}
 	}
 
+	/** See {@link JIAsyncCalls#call(IJIComObject, JICallBuilder)}.
+	 */
+	Future<Object[]> callAsync(JICallBuilder obj) throws JIException
+	{
+		checkLocal();
+		obj.attachSession(session);
+		obj.setParentIpid(ptr.getIPID());
+		return session.getStub().callAsync(obj,ptr.getIID(),timeout != 0 ? timeout : session.getGlobalSocketTimeout());
+	}
+
 	public int getInstanceLevelSocketTimeout()
 	{
 		checkLocal();
@@ -15,8 +15,6 @@
 
 package org.jinterop.dcom.core;
 
-import org.jinterop.dcom.common.JISystem;
-
 
 /**Stores the oxid details in memory.
  * 
@@ -34,7 +32,7 @@ final class JIComOxidDetails {
 	private JIComOxidRuntimeHelper comRuntimeHelper = null;
 	private int portForRemUnknown = -1;
 	private int protectionLevel = 2;
-	private ThreadGroup remUnknownThread = null;
+	private JICallbackListener callbackListener = null;
 	
 	JIComOxidDetails(JILocalCoClass javaInstance, JIOxid oxid, JIObjectId oid
 					,String iid,String ipid,JIInterfacePointer ptr, JIComOxidRuntimeHelper helper,int protectionLevel)
@@ -104,23 +102,17 @@ final class JIComOxidDetails {
 		return protectionLevel;
 	}
 	
-	void setRemUnknownThreadGroup(ThreadGroup remUnknown)
+	void setCallbackListener(JICallbackListener callbackListener)
 	{
-	    this.remUnknownThread = remUnknown;
+	    this.callbackListener = callbackListener;
 	}
 	
-	void interruptRemUnknownThreadGroup()
+	//stops serving this export, the listener closes with its connections if no other export is left on it.
+	void leaveCallbackListener()
 	{
-		if (remUnknownThread != null)
+		if (callbackListener != null)
 		{
-			try
-			{
-				remUnknownThread.interrupt();
-//				remUnknownThread.destroy();
-			}catch(Exception e)
-			{
-				JISystem.getLogger().info("JIComOxidDetails interruptRemUnknownThreadGroup " +  e.toString());
-			}
+			callbackListener.leave(this);
 		}
 	}
 }
@@ -76,7 +76,6 @@ final class JIComOxidRuntime {
 	
 	private static List listOfExportedJavaComponents = new ArrayList(); 
 	
-	static final Object mutex = new Object(); //for access to the sockets
 	private static final Object mutex2 = new Object();//for access to the maps
 	private static final Object mutex3 = new Object(); //for access to the AddressVsSession,Stub Map
 
@@ -98,6 +97,7 @@ final class JIComOxidRuntime {
 		boolean closed = false;
 		boolean useNTLMv2 = false;
 		boolean isSSO = false;
+		boolean useBlockingTransport = false;
 		int seqNum = 1;
 		//JISession session  = null;
 		Map currentSetOIDs = new HashMap();//list of JIObjectId, this list is iterated and if the IPID ref count is 0 , 
@@ -147,7 +147,7 @@ final class JIComOxidRuntime {
 						itr.remove();
 						
 						//the thread associated with this will also stop.
-						details.interruptRemUnknownThreadGroup();
+						details.leaveCallbackListener();
 						
 						component = null;
 						details = null;
@@ -179,7 +179,7 @@ final class JIComOxidRuntime {
             mapOfSessionIdsVsOIDs.remove(new Integer(session.getSessionIdentifier()));
             
             //the thread associated with this will also stop.
-            details.interruptRemUnknownThreadGroup();
+            details.leaveCallbackListener();
 						
             component = null;
             details = null;
@@ -218,7 +218,7 @@ final class JIComOxidRuntime {
                 //the thread associated with this will also stop.
                 if (details != null)
                 {
-                	details.interruptRemUnknownThreadGroup();
+                	details.leaveCallbackListener();
                 }
                 component = null;
                 details = null;
@@ -263,7 +263,7 @@ final class JIComOxidRuntime {
 					if (stub == null)
 					{
 						stub = new JIComOxidStub(address,holder.domain,holder.username,holder.password,holder.useNTLMv2,
-								holder.isSSO);
+								holder.isSSO,holder.useBlockingTransport);
 						mapOfAddressVsStub.put(address, stub);
 					}	
 				}
@@ -373,6 +373,7 @@ final class JIComOxidRuntime {
 				holder.seqNum = 0;
 				holder.useNTLMv2 = session.isNTLMv2Enabled();
 				holder.isSSO = session.isSSOEnabled();
+				holder.useBlockingTransport = session.isBlockingTransportEnabled();
 				mapOfSessionVsPingSetHolder.put(session,holder);
 			}
 			else //found , means it is another call for a new IPID
@@ -521,9 +522,8 @@ final class JIComOxidRuntime {
 			public void run() {
 				
 				try {
-				    final ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
-			        serverSocket = serverSocketChannel.socket();//new ServerSocket(0); //bind on any free port
-			        serverSocket.bind(null);
+				    final ServerSocketChannel serverSocketChannel = JICallbackListener.open();
+			        serverSocket = serverSocketChannel.socket();//bound on any free port, or one of the callback port range.
 					oxidResolverPort = serverSocket.getLocalPort();
 					//System.err.println("VIKRAM: oxidResolverPort: " + oxidResolverPort);
 				    // server infinite loop
@@ -531,15 +531,16 @@ final class JIComOxidRuntime {
 				    	Socket socket = serverSocket.accept();
 				    	//listOfSockets.add(socket);
 				    	//System.err.println("VIKRAM: Accepting new Call from " + socket.getPort());
-				    	//in a multithreaded scenario this will be serialized.
-				    	synchronized (mutex) {
-				    		JISystem.internal_setSocket(socket);
-					    	//now create the JIComOxidRuntimeHelper Object and start it.
-				    		Properties properties = new Properties(defaults);
-				    		properties.put("IID","99fcfec4-5260-101b-bbcb-00aa0021347a:0.0".toUpperCase()); //IOxidResolver
-					    	JIComOxidRuntimeHelper oxidResolver = new JIComOxidRuntimeHelper(properties);
-						    oxidResolver.startOxid(socket.getLocalPort(), socket.getPort());
-						}
+				    	//the socket is handed to the helper's own transport, accepts do not wait on the other listeners.
+				    	Properties properties = new Properties(defaults);
+				    	properties.put("IID","99fcfec4-5260-101b-bbcb-00aa0021347a:0.0".toUpperCase()); //IOxidResolver
+				    	JIComOxidRuntimeHelper oxidResolver = new JIComOxidRuntimeHelper(properties, socket);
+				    	try {
+				    		oxidResolver.startOxid(socket.getLocalPort(), socket.getPort());
+				    	} catch (IOException e) {
+				    		JISystem.getLogger().log(Level.WARNING, "Oxid Resolver: could not serve connection from " + socket.getPort(), e);
+				    		socket.close();
+				    	}
 				    	
 				    }
 			 	} catch (IOException e) {
@@ -557,8 +558,7 @@ final class JIComOxidRuntime {
 			}
 		};
 		
-		Thread thread2 = new Thread(thread,"jI_OxidResolver");
-		thread2.setDaemon(true);
+		Thread thread2 = JIComOxidRuntimeHelper.newThread(thread,"jI_OxidResolver");
 		thread2.start();
 		resolverStarted = true;
 	}
@@ -16,17 +16,20 @@
 package org.jinterop.dcom.core;
 
 import java.io.IOException;
-import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.channels.ClosedByInterruptException;
-import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 
 import jcifs.smb.SmbAuthException;
@@ -69,21 +72,47 @@ final class JIComOxidRuntimeHelper extends Stub {
 		super.setAddress("127.0.0.1[135]");//this is never consulted so , putting localhost here.
 	}
 	
+	//for serving the connection accepted on socket.
+	JIComOxidRuntimeHelper(Properties properties, Socket socket)
+	{
+		super.setTransportFactory(JIComRuntimeTransportFactory.forSocket(socket));
+		super.setProperties(properties);
+		super.setAddress("127.0.0.1[135]");//this is never consulted so , putting localhost here.
+	}
+	
 	protected String getSyntax() {
 		//return "99fcfec4-5260-101b-bbcb-00aa0021347a:0.0";//IOxidResolver IID
 		return UUID.NIL_UUID + ":0.0" ; //returning nothing
 	}
 
+	//overridden to let JICallbackRuntime close connections it could not serve.
+	protected void detach() throws IOException
+	{
+		super.detach();
+	}
+
+	/** Creates a daemon thread with the factory set via {@link JISystem#setThreadFactory(ThreadFactory)}, if any.
+	 */
+	static Thread newThread(Runnable runnable, String name)
+	{
+		ThreadFactory factory = JISystem.getThreadFactory();
+		Thread thread = factory == null ? new Thread(runnable) : factory.newThread(runnable);
+		thread.setName(name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	//the connection is served by a JICallbackRuntime worker.
 	void startOxid(int portNumLocal,int portNumRemote) throws IOException
 	{
-		Thread oxidResolverThread = new Thread(new Runnable() {
+		attach();
+		JICallbackRuntime.serve(this, "jI_OxidResolver_Client[" + portNumLocal + " , " + portNumRemote + "]", new Runnable() {
 			public void run() {
 				try{
 					if (JISystem.getLogger().isLoggable(Level.INFO))
 					{
 						JISystem.getLogger().info("started startOxid thread: " + Thread.currentThread().getName());
 					}
-					attach();
 					((JIComRuntimeEndpoint)getEndpoint()).processRequests(new OxidResolverImpl(getProperties()),null,new ArrayList());
 				}catch(Exception e)
 				{
@@ -103,110 +132,41 @@ final class JIComOxidRuntimeHelper extends Stub {
 					JISystem.getLogger().info("terminating startOxid thread: " + Thread.currentThread().getName());
 				}
 			}
-		},"jI_OxidResolver_Client[" + portNumLocal + " , " + portNumRemote + "]");
-		oxidResolverThread.setDaemon(true);
-		oxidResolverThread.start();
+		}, null);
 	}
 	
-	//returns the port to which the server is listening.
-	Object[] startRemUnknown(final String baseIID, final String ipidOfRemUnknown, final String ipidOfComponent, final List listOfSupportedInterfaces) throws IOException
+	//the connection is served by a JICallbackRuntime worker.
+	void startRemUnknown(final JICallbackListener listener, final List listOfSupportedInterfaces, String name, List<Future<?>> tasks) throws IOException
 	{
-	    final ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
-	    final ServerSocket serverSocket = serverSocketChannel.socket();//new ServerSocket(0);
-//	    serverSocket.setSoTimeout(120*1000); //2 min timeout.
-	    serverSocket.bind(null);
-        int remUnknownPort = serverSocket.getLocalPort();
-        //have to pick up a random name so adding the ipid of remunknown this is a uuid so the string is quite random.
-        final ThreadGroup remUnknownForThisListener = new ThreadGroup("ThreadGroup - " + baseIID + "[" + ipidOfRemUnknown + "]");
-        remUnknownForThisListener.setDaemon(true);
-		Thread remUnknownThread = new Thread(remUnknownForThisListener,new Runnable() {
+		attach();
+		JICallbackRuntime.serve(this, name, new Runnable() {
 			public void run() {
-				if (JISystem.getLogger().isLoggable(Level.INFO))
+				try {
+					//the connection can be for any export of the listener, the calls name the one they are for.
+					((JIComRuntimeEndpoint)getEndpoint()).processRequests(new RemUnknownObject(listener),"00000131-0000-0000-C000-000000000046",listOfSupportedInterfaces);
+				} catch(SmbAuthException e)
 				{
-					JISystem.getLogger().info("started RemUnknown listener thread for : " + Thread.currentThread().getName());
+					JISystem.getLogger().log(Level.WARNING,"JIComOxidRuntimeHelper RemUnknownThread (not listener)",e);
+					throw new JIRuntimeException(JIErrorCodes.JI_CALLBACK_AUTH_FAILURE);
 				}
-				try{
-					
-					while(true)
-					{
-						final Socket socket = serverSocket.accept();
-						if (JISystem.getLogger().isLoggable(Level.INFO))
-						{
-							JISystem.getLogger().info("RemUnknown listener: Got Connection from " + socket.getPort());
-						}
-						
-						//now create the JIComOxidRuntimeHelper Object and start it. We need a new one since the old one is already attached to the listener.
-						final JIComOxidRuntimeHelper remUnknownHelper = new JIComOxidRuntimeHelper(getProperties());
-						synchronized (JIComOxidRuntime.mutex) {
-				    		JISystem.internal_setSocket(socket);
-					    	remUnknownHelper.attach();
-				    	}
-						
-						//now start a new thread with this socket 
-						Thread remUnknown = new Thread(remUnknownForThisListener,new Runnable() {
-							public void run() {
-								try {
-									((JIComRuntimeEndpoint)remUnknownHelper.getEndpoint()).processRequests(new RemUnknownObject(ipidOfRemUnknown,ipidOfComponent),baseIID,listOfSupportedInterfaces);
-								} catch(SmbAuthException e)
-								{
-									JISystem.getLogger().log(Level.WARNING,"JIComOxidRuntimeHelper RemUnknownThread (not listener)",e);
-									throw new JIRuntimeException(JIErrorCodes.JI_CALLBACK_AUTH_FAILURE);
-								}
-								catch(SmbException e)
-								{
-									//System.out.println(e.getMessage());
-									JISystem.getLogger().log(Level.WARNING,"JIComOxidRuntimeHelper RemUnknownThread (not listener)",e);
-									throw new JIRuntimeException(JIErrorCodes.JI_CALLBACK_SMB_FAILURE);
-								}catch(ClosedByInterruptException e)
-								{
-									JISystem.getLogger().info("JIComOxidRuntimeHelper RemUnknownThread (not listener)" + Thread.currentThread().getName() 
-											+ " is purposefully closed by interruption.");
-								}
-								catch (IOException e) {
-									JISystem.getLogger().log(Level.WARNING,"JIComOxidRuntimeHelper RemUnknownThread (not listener)",e);
-								}finally{
-									try {
-										remUnknownHelper.detach();
-									} catch (IOException e){}
-								}		
-								
-							}
-						},"jI_RemUnknown[" + baseIID + " , L(" + socket.getLocalPort() + "):R(" + socket.getPort() + ")]");
-						remUnknown.setDaemon(true);
-						remUnknown.start();
-					}
+				catch(SmbException e)
+				{
+					JISystem.getLogger().log(Level.WARNING,"JIComOxidRuntimeHelper RemUnknownThread (not listener)",e);
+					throw new JIRuntimeException(JIErrorCodes.JI_CALLBACK_SMB_FAILURE);
 				}catch(ClosedByInterruptException e)
 				{
-					JISystem.getLogger().info("JIComOxidRuntimeHelper RemUnknownListener" + Thread.currentThread().getName() 
+					JISystem.getLogger().info("JIComOxidRuntimeHelper RemUnknownThread (not listener)" + Thread.currentThread().getName() 
 							+ " is purposefully closed by interruption.");
-				}	
-				catch(IOException e)
-				{ 
-					if(JISystem.getLogger().isLoggable(Level.WARNING))
-					{
-						JISystem.getLogger().log(Level.WARNING,"JIComOxidRuntimeHelper RemUnknownListener",e);
-						JISystem.getLogger().warning("RemUnknownListener Thread: " +  e.getMessage() + " , on thread Id: " + (Thread.currentThread().getName()));
-					}
-					//e.printStackTrace();
-				}catch(Throwable e)
-				{
-					if(JISystem.getLogger().isLoggable(Level.WARNING))
-					{
-						JISystem.getLogger().log(Level.WARNING,"JIComOxidRuntimeHelper RemUnknownListener",e);
-					}
 				}
-				
-				
-				if (JISystem.getLogger().isLoggable(Level.INFO))
-				{
-					JISystem.getLogger().info("terminating RemUnknownListener thread: " + Thread.currentThread().getName());
+				catch (IOException e) {
+					JISystem.getLogger().log(Level.WARNING,"JIComOxidRuntimeHelper RemUnknownThread (not listener)",e);
+				}finally{
+					try {
+						detach();
+					} catch (IOException e){}
 				}
 			}
-		},"jI_RemUnknownListener[" + baseIID + " , " + remUnknownPort + "]");
-		
-		remUnknownThread.setDaemon(true);
-		remUnknownThread.start();
-		return new Object[]{new Integer(remUnknownPort),remUnknownForThisListener};
+		}, tasks);
 	}
 }
 
@@ -462,9 +422,7 @@ class OxidResolverImpl extends NdrObject implements IJICOMRuntimeWorker
 			if (port == -1)
 			{
 				String remunknownipid = uuid.toString();
-			    Object[] portandthread = details.getCOMRuntimeHelper().startRemUnknown(details.getIID(),remunknownipid,details.getIpid(), details.getReferent().getSupportedInterfaces());
-			    port = ((Integer)portandthread[0]).intValue();
-			    details.setRemUnknownThreadGroup((ThreadGroup)portandthread[1]);
+			    port = JICallbackListener.join(details,remunknownipid);
 			    details.setRemUnknownIpid(remunknownipid);
 			}
 			details.setPortForRemUnknown(port);
@@ -534,6 +492,17 @@ class OxidResolverImpl extends NdrObject implements IJICOMRuntimeWorker
         //oxid resolver gets over when the client connected to it releases socket.
         return false;
     }
+
+    //pings and resolutions are quick, they are run in turn.
+    public Executor getCallExecutor()
+    {
+        return null;
+    }
+
+    public IJICOMRuntimeWorker forCall()
+    {
+        return this;
+    }
 }
 
 //This object should have serialized access only , i.e at a time only 1 read --> write , cycle should happen
@@ -553,17 +522,29 @@ class RemUnknownObject extends NdrObject implements IJICOMRuntimeWorker
 	//ObjectID tells you the IPID to act on, sent via the Request calls
 	private UUID objectId = null;
 	
-	//this would be the ipid of this RemUnknownObject
-	private final String selfIPID;
+	//listener this connection was accepted on, it knows the ipids of the IRemUnknowns of the exports.
+	private final JICallbackListener listener;
+
+	//IRemUnknowns called on this connection so far.
+	private final Set setOfRemUnknownsCalled = new HashSet();
 	
 	private String currentIID = null;
 	
 	private List listOfIIDsQIed = new ArrayList();
 	
-	RemUnknownObject(String ipidOfme, String ipidOfComponent)
+	RemUnknownObject(JICallbackListener listener)
 	{
-	    selfIPID = ipidOfme;
-	    mapOfIpidsVsRef.put(ipidOfComponent.toUpperCase(),new Integer(5));
+	    this.listener = listener;
+	}
+
+	//carries the call just set, to run it on another thread.
+	private RemUnknownObject(RemUnknownObject worker)
+	{
+		this.listener = worker.listener;
+		this.opnum = worker.opnum;
+		this.objectId = worker.objectId;
+		this.component = worker.component;
+		this.currentIID = worker.currentIID;
 	}
 	
 	//this list will get cleared after this call.
@@ -626,8 +607,14 @@ class RemUnknownObject extends NdrObject implements IJICOMRuntimeWorker
 		//this means the call came for IRemUnknown apis, since selfIpid is null or matches the objectID
 		//if (selfIPID == null || selfIPID.equalsIgnoreCase(ipid))
 //		if ("00000131-0000-0000-C000-000000000046".equalsIgnoreCase(currentIID))
-		if (selfIPID.equalsIgnoreCase(ipid))
+		JIComOxidDetails details = listener.getExport(ipid);
+		if (details != null)
 		{
+			//the component starts with the references given when it was exported.
+			if (setOfRemUnknownsCalled.add(details))
+			{
+				mapOfIpidsVsRef.put(details.getIpid().toUpperCase(),new Integer(5));
+			}
 			switch(opnum)
 			{
 				case 3: //IRemUnknown QI.
@@ -734,7 +721,8 @@ class RemUnknownObject extends NdrObject implements IJICOMRuntimeWorker
 			//alter context or bind, again made some calls before.
 			if (component == null)
 			{
-				JISystem.getLogger().severe("JIComOxidRuntimeHelper RemUnknownObject read(): component is null , opnum is " + opnum + " , IPID is " + ipid + " , selfIpid is " + selfIPID);
+				JISystem.getLogger().severe("JIComOxidRuntimeHelper RemUnknownObject read(): component is null , opnum is " + opnum + " , IPID is " + ipid);
+				throw new JIRuntimeException(JIErrorCodes.RPC_E_INVALID_IPID);
 			}
 			byte b[] = null;
 			Object result = null;
@@ -1050,4 +1038,19 @@ class RemUnknownObject extends NdrObject implements IJICOMRuntimeWorker
     {
         return workerOver;
     }
+
+    //the IRemUnknown calls keep the references of the connection, they are always run in turn.
+    public Executor getCallExecutor()
+    {
+    	if (!JISystem.isCallbackDispatchSet() || component == null || listener.getExport(objectId.toString()) != null)
+    	{
+    		return null;
+    	}
+    	return component.getCallExecutor();
+    }
+
+    public IJICOMRuntimeWorker forCall()
+    {
+    	return new RemUnknownObject(this);
+    }
 }
\ No newline at end of file
@@ -22,14 +22,17 @@ import java.util.ArrayList;
 import java.util.Properties;
 import java.util.logging.Level;
 
+import ndr.NdrBufferPool;
 import ndr.NdrObject;
 import ndr.NetworkDataRepresentation;
 
 import org.jinterop.dcom.common.JISystem;
+import org.jinterop.dcom.transport.JIComBlockingTransportFactory;
 import org.jinterop.dcom.transport.JIComTransportFactory;
 
 import rpc.Endpoint;
 import rpc.Stub;
+import rpc.TransportFactory;
 
 /**Class only used for Oxid ping requests between the Java client and the COM server. This is not for 
  * reverse operations i.e COM client and Java server. That is handled at the OxidResolverImpl level in JIComOxidRuntimeHelper,
@@ -54,15 +57,36 @@ final class JIComOxidStub extends Stub{
 	
 	}
 	
+	private final JIConnectionReaper.Activity activity = new JIConnectionReaper.Activity();
+	private final JIConnectionReaper.Reapable reapable = new JIConnectionReaper.Reapable() {
+		public void reap() {
+			reapConnection();
+		}
+	};
+	//IObjectExporter::ServerAlive, a round trip doing nothing on the server.
+	private final JIConnectionReaper.Check serverAlive = new JIConnectionReaper.Check() {
+		public boolean run() throws IOException {
+			PingObject pingObject = new PingObject();
+			pingObject.opnum = 3;
+			call(Endpoint.IDEMPOTENT,pingObject);
+			return true;
+		}
+	};
+	private volatile boolean inCall = false;
+
 	protected String getSyntax() {
 		return "99fcfec4-5260-101b-bbcb-00aa0021347a:0.0";
 	}
 	
+	/**
+	 * @param useBlockingTransport as chosen for the session the pings are sent for, see
+	 * {@link JISession#useBlockingTransport(boolean)}.
+	 */
 	public JIComOxidStub(String address, String domain,String username, String password, 
-			boolean useNTLMv2, boolean isSSO)
+			boolean useNTLMv2, boolean isSSO, boolean useBlockingTransport)
 	{
 		super();
-		super.setTransportFactory(JIComTransportFactory.getSingleTon());
+		super.setTransportFactory(useBlockingTransport ? (TransportFactory)JIComBlockingTransportFactory.getSingleton() : JIComTransportFactory.getSingleTon());
 		super.setProperties(new Properties(defaults));
 		
 		if (isSSO)
@@ -78,9 +102,10 @@ final class JIComOxidStub extends Stub{
 		
 		super.setAddress("ncacn_ip_tcp:" + address + "[135]");
 		super.getProperties().setProperty("rpc.ntlm.ntlmv2", Boolean.toString(useNTLMv2));
+		JIConnectionReaper.register(reapable);
 	}
 	
-	public byte[] call(boolean isSimplePing,byte[] setId,ArrayList listOfAdds,ArrayList listOfDels, int seqNum)
+	public synchronized byte[] call(boolean isSimplePing,byte[] setId,ArrayList listOfAdds,ArrayList listOfDels, int seqNum)
 	{
 		PingObject pingObject = new PingObject();
 		pingObject.setId = setId;
@@ -97,17 +122,53 @@ final class JIComOxidStub extends Stub{
 			pingObject.opnum = 2;
 		}
 		
+		inCall = true;
 		try {
+			dropIfStale();
 			call(Endpoint.IDEMPOTENT,pingObject);
 		} catch (IOException e) {
 			JISystem.getLogger().throwing("JIComOxidStub","call",e);  
+			//the next ping connects again.
+			disconnect();
+		} finally {
+			activity.touch();
+			inCall = false;
 		}
 
 		//returns setId.
 		return pingObject.setId;
 	}
+
+	/** Closes the connection once stale, see {@link JIConnectionReaper}. A ping in progress keeps it open.
+	 */
+	private void reapConnection()
+	{
+		if (inCall)
+		{
+			return;
+		}
+		synchronized (this) {
+			dropIfStale();
+		}
+	}
+
+	//must hold the lock of this stub.
+	private void dropIfStale()
+	{
+		if (getEndpoint() != null
+				&& activity.isStale(JISystem.getIdleConnectionTimeout(), JISystem.getConnectionCheckInterval(), serverAlive))
+		{
+			disconnect();
+		}
+	}
 	
 	public void close()
+	{
+		JIConnectionReaper.unregister(reapable);
+		disconnect();
+	}
+
+	private void disconnect()
 	{
 		try {
 			detach();
@@ -143,7 +204,8 @@ class PingObject extends NdrObject
 				int newlength = 8 + 6 + 8 + listOfAdds.size()*8 + 8 + listOfDels.size()*8 + 16;
 				if (newlength > ndr.getBuffer().buf.length)
 				{
-					ndr.getBuffer().buf = new byte[newlength + 16];
+					//the array handed in goes back to the pool once the object has encoded.
+					ndr.getBuffer().buf = NdrBufferPool.acquire(newlength + 16);
 				}
 				
 				if(setId == null)
@@ -279,6 +341,10 @@ class PingObject extends NdrObject
 				   	}
 				}
 				
+				break;
+			case 3:// ServerAlive, only tells that the server is there.
+
+				JIMarshalUnMarshalHelper.deSerialize(ndr,Integer.class,null,JIFlags.FLAG_NULL,null);
 				break;
 			case 1:// simple ping
 				
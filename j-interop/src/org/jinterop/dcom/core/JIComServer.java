@@ -17,10 +17,18 @@ package org.jinterop.dcom.core;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 
 import org.jinterop.dcom.common.JIDefaultAuthInfoImpl;
@@ -30,15 +38,20 @@ import org.jinterop.dcom.common.JIRuntimeException;
 import org.jinterop.dcom.common.JISystem;
 import org.jinterop.dcom.impls.JIObjectFactory;
 import org.jinterop.dcom.impls.automation.IJIDispatch;
+import org.jinterop.dcom.transport.JIComBlockingTransportFactory;
 import org.jinterop.dcom.transport.JIComEndpoint;
 import org.jinterop.dcom.transport.JIComTransportFactory;
 import org.jinterop.winreg.IJIWinReg;
 import org.jinterop.winreg.JIPolicyHandle;
 import org.jinterop.winreg.JIWinRegFactory;
 
+import rpc.ConnectionOrientedEndpoint;
+import rpc.Deadline;
 import rpc.Endpoint;
 import rpc.FaultException;
 import rpc.Stub;
+import rpc.TransportFactory;
+import rpc.core.PresentationSyntax;
 
 
 /** Startup class representing a COM Server.
@@ -61,6 +74,9 @@ import rpc.Stub;
  */
 public final class JIComServer extends Stub {
 
+	//other bindings of the server, "host[port]" separated by spaces, raced against its address by the transports.
+	static final String ALTERNATE_ADDRESSES = "rpc.ncacn_ip_tcp.alternateAddresses";
+
 	private static Properties defaults = new Properties();
 	static {
 
@@ -87,8 +103,19 @@ public final class JIComServer extends Stub {
 	private JISession session = null;
 	private boolean serverInstantiated = false;
 	private String remunknownIPID = null;
-	private final Object mutex = new Object();
-	private boolean timeoutModifiedfrom0 = false;
+	private final ReentrantLock mutex = new ReentrantLock();
+	private JIComEndpointPool endpointPool = null;
+	//calls placed and not completed yet, the connection reaper leaves the connection alone meanwhile.
+	private final AtomicInteger callsInProgress = new AtomicInteger();
+	private final JIConnectionReaper.Activity activity = new JIConnectionReaper.Activity();
+	private final JIConnectionReaper.Reapable reapable = new JIConnectionReaper.Reapable() {
+		public void reap() {
+			reapConnection();
+		}
+	};
+	private volatile boolean reaperRegistered = false;
+	//IIDs offered as presentation contexts when binding a new connection to this server, vs their syntax.
+	private final Map<String, InterfaceSyntax> knownInterfaces = new ConcurrentHashMap<String, InterfaceSyntax>();
 	private JIInterfacePointer interfacePtrCtor = null;
 	private static final List<String> listOfIps = new ArrayList<String>();
 
@@ -141,13 +168,18 @@ public final class JIComServer extends Stub {
 			}
 		}
 		
-		super.setTransportFactory(JIComTransportFactory.getSingleTon());
+		super.setTransportFactory(getTransportFactory(session));
 		//now read the session and prepare information for the stub.
 		super.setProperties(new Properties(defaults));
 		super.getProperties().setProperty("rpc.security.username", session.getUserName());
 		super.getProperties().setProperty("rpc.security.password", session.getPassword());
 		super.getProperties().setProperty("rpc.ntlm.domain", session.getDomain());
 		super.getProperties().setProperty("rpc.socketTimeout", new Integer(session.getGlobalSocketTimeout()).toString());
+		super.getProperties().setProperty("rpc.connectTimeout", new Integer(session.getConnectTimeout()).toString());
+		super.getProperties().setProperty("rpc.spillThreshold", new Integer(session.getResponseSpillThreshold()).toString());
+		super.getProperties().setProperty("rpc.connectionContext.maxTransmitFragment", new Integer(session.getOfferedTransmitFragment()).toString());
+		super.getProperties().setProperty("rpc.connectionContext.maxReceiveFragment", new Integer(session.getOfferedReceiveFragment()).toString());
+		session.getSocketOptions().writeTo(super.getProperties());
 		if (session.isNTLMv2Enabled())
 		{
 			super.getProperties().setProperty("rpc.ntlm.ntlmv2", "true");
@@ -156,6 +188,10 @@ public final class JIComServer extends Stub {
 		{
 			super.getProperties().setProperty("rpc.ntlm.sso", "true");
 		}
+		if (session.isCallMultiplexingEnabled())
+		{
+			super.getProperties().setProperty(ConnectionOrientedEndpoint.MULTIPLEX, "true");
+		}
 		
 		
 		JIStringBinding[] addressBindings = interfacePointer.getStringBindings().getStringBindings();
@@ -163,6 +199,7 @@ public final class JIComServer extends Stub {
 		int i = 0;
 		JIStringBinding binding = null;
 		JIStringBinding nameBinding = null;
+		boolean matched = false;
 		String targetAddress = ipAddress == null ? "" : ipAddress.trim();
 
 //		if (!targetAddress.equals(""))
@@ -186,6 +223,7 @@ public final class JIComServer extends Stub {
 						if (listOfIps.contains(binding.getNetworkAddress().toLowerCase()))
 						{
 							nameBinding = null;
+							matched = true;
 							break;
 						}
 
@@ -195,6 +233,7 @@ public final class JIComServer extends Stub {
 						if (index != -1 && listOfIps.contains(binding.getNetworkAddress().substring(0,index).toLowerCase()))
 						{
 							nameBinding = null;
+							matched = true;
 							break;
 						}
 
@@ -244,6 +283,10 @@ public final class JIComServer extends Stub {
 				address = ipAddr + address.substring(index);
 			}
 		}
+		if (!matched)
+		{
+			offerAlternateBindings(address, addressBindings, session);
+		}
 		super.setAddress("ncacn_ip_tcp:" + address);
 		this.session = session;
 		this.session.setTargetServer(getAddress().substring(getAddress().indexOf(":") + 1,getAddress().indexOf("[")));
@@ -279,6 +322,7 @@ public final class JIComServer extends Stub {
 
 		binding = null;
 		nameBinding = null;
+		matched = false;
 		i = 0;
 //		if (!targetAddress.equals(""))
 		{
@@ -301,6 +345,7 @@ public final class JIComServer extends Stub {
 						if (listOfIps.contains(binding.getNetworkAddress().toLowerCase()))
 						{
 							nameBinding = null;
+							matched = true;
 							break;
 						}
 
@@ -310,6 +355,7 @@ public final class JIComServer extends Stub {
 						if (index != -1 && listOfIps.contains(binding.getNetworkAddress().substring(0,index).toLowerCase()))
 						{
 							nameBinding = null;
+							matched = true;
 							break;
 						}
 					}catch(NumberFormatException e)
@@ -355,12 +401,17 @@ public final class JIComServer extends Stub {
 			address = ipAddr + address.substring(index);
 		}
 
+		if (!matched)
+		{
+			offerAlternateBindings(address, bindings, session);
+		}
+
 		//and currently only TCPIP is supported.
 		setAddress("ncacn_ip_tcp:" + address);
 		remunknownIPID = oxidResolver.getIPID();
 		interfacePtrCtor = interfacePointer;
 		this.session.setStub(this);
-		this.session.setStub2(new JIRemUnknownServer(session, remunknownIPID, getAddress()));
+		this.session.setStub2(new JIRemUnknownServer(session, remunknownIPID, getAddress(), getProperties().getProperty(ALTERNATE_ADDRESSES)));
 
 	}
 
@@ -462,10 +513,15 @@ public final class JIComServer extends Stub {
 
 	private void initialise(JIClsid clsid,String address, JISession session) throws JIException
 	{
-		super.setTransportFactory(JIComTransportFactory.getSingleTon());
+		super.setTransportFactory(getTransportFactory(session));
 		//now read the session and prepare information for the stub.
 		super.setProperties(new Properties(defaults));
 		super.getProperties().setProperty("rpc.socketTimeout", new Integer(session.getGlobalSocketTimeout()).toString());
+		super.getProperties().setProperty("rpc.connectTimeout", new Integer(session.getConnectTimeout()).toString());
+		super.getProperties().setProperty("rpc.spillThreshold", new Integer(session.getResponseSpillThreshold()).toString());
+		super.getProperties().setProperty("rpc.connectionContext.maxTransmitFragment", new Integer(session.getOfferedTransmitFragment()).toString());
+		super.getProperties().setProperty("rpc.connectionContext.maxReceiveFragment", new Integer(session.getOfferedReceiveFragment()).toString());
+		session.getSocketOptions().writeTo(super.getProperties());
 		super.setAddress(address);
 		
 		if (session.isNTLMv2Enabled())
@@ -484,6 +540,11 @@ public final class JIComServer extends Stub {
 			super.getProperties().setProperty("rpc.ntlm.domain", session.getDomain());
 		}
 
+		if (session.isCallMultiplexingEnabled())
+		{
+			super.getProperties().setProperty(ConnectionOrientedEndpoint.MULTIPLEX, "true");
+		}
+
 		if (JISystem.getLogger().isLoggable(Level.INFO))
 		{
 			JISystem.internal_dumpMap();
@@ -587,7 +648,7 @@ public final class JIComServer extends Stub {
 		}
 
 		this.session.setStub(this);
-		this.session.setStub2(new JIRemUnknownServer(session, remunknownIPID, getAddress()));
+		this.session.setStub2(new JIRemUnknownServer(session, remunknownIPID, getAddress(), getProperties().getProperty(ALTERNATE_ADDRESSES)));
 	}
 
 
@@ -692,6 +753,7 @@ public final class JIComServer extends Stub {
 		int i = 0;
 		JIStringBinding binding = null;
 		JIStringBinding nameBinding = null;
+		boolean matched = false;
 		String targetAddress = getAddress();
 		targetAddress  = targetAddress.substring(targetAddress.indexOf(':') + 1,targetAddress.indexOf('['));
 		while(i < bindings.length)
@@ -711,6 +773,7 @@ public final class JIComServer extends Stub {
 					index = binding.getNetworkAddress().indexOf("[");//this contains the port
 					if (index != -1 && binding.getNetworkAddress().substring(0,index).equalsIgnoreCase(targetAddress))
 					{
+						matched = true;
 						break;
 					}
 				}catch(NumberFormatException e)
@@ -727,6 +790,7 @@ public final class JIComServer extends Stub {
 				index = binding.getNetworkAddress().indexOf("[");//this contains the port
 				if (binding.getNetworkAddress().substring(0,index).equalsIgnoreCase(targetAddress))
 				{
+					matched = true;
 					break;
 				}
 			}
@@ -760,6 +824,11 @@ public final class JIComServer extends Stub {
 			address = ipAddr + address.substring(index);
 		}
 
+		if (!matched)
+		{
+			offerAlternateBindings(address, bindings, session);
+		}
+
 		//and currently only TCPIP is supported.
 		setAddress("ncacn_ip_tcp:" + address);
 		remunknownIPID = serverActivation.getIPID();
@@ -767,13 +836,54 @@ public final class JIComServer extends Stub {
 
 
 
+	/** When the session has a connect timeout, hands the other TCP bindings of the server to the transport, since
+	 * <code>address</code> may belong to an interface not reachable from here. The transport races them against it within
+	 * the connect timeout and keeps the first connection made.
+	 */
+	private void offerAlternateBindings(String address, JIStringBinding[] bindings, JISession session)
+	{
+		if (session.getConnectTimeout() <= 0)
+		{
+			return;
+		}
+
+		StringBuffer alternates = new StringBuffer();
+		for (int i = 0; i < bindings.length; i++)
+		{
+			if (bindings[i].getTowerId() != 0x07)
+			{
+				continue;
+			}
+			String candidate = resolveBinding(bindings[i].getNetworkAddress());
+			if (!candidate.equals(address))
+			{
+				alternates.append(candidate).append(' ');
+			}
+		}
+		if (alternates.length() > 0)
+		{
+			getProperties().setProperty(ALTERNATE_ADDRESSES, alternates.toString().trim());
+		}
+	}
+
+	//host[port] with the host replaced by the IP mapped to it, if any, and the port defaulting to 135.
+	private static String resolveBinding(String networkAddress)
+	{
+		int index = networkAddress.indexOf("[");
+		String hostname = index == -1 ? networkAddress : networkAddress.substring(0,index);
+		String port = index == -1 ? "[135]" : networkAddress.substring(index);
+		String ipAddr = JISystem.getIPForHostName(hostname);
+		return (ipAddr != null ? ipAddr : hostname) + port;
+	}
+
 	//Will give a call to IRemUnknown for the passed IID.
 	IJIComObject getInterface(String iid,String ipidOfTheTargetUnknown) throws JIException
 	{
 		IJIComObject retval = null;
 		//this is still essentially serial, since all threads will have to wait for mutex before
 		//entering addToSession.
-		synchronized (mutex) {
+		mutex.lock();
+		try {
 			//now also set the Object ID for IRemUnknown call this will be the IPID of the returned JIRemActivation
 			setObject(remunknownIPID);
 			//setObject(ipid);
@@ -794,6 +904,7 @@ public final class JIComServer extends Stub {
 				throw new JIException(e1);
 			}
 
+			rememberInterface(iid);
 			retval = JIFrameworkHelper.instantiateComObject(session, reqUnknown.getInterfacePointer());
 			//increasing the reference count.
 			retval.addRef();
@@ -821,10 +932,13 @@ public final class JIComServer extends Stub {
 
 				if (success)
 				{
+					rememberInterface("00020400-0000-0000-c000-000000000046");
 					//which means that IDispatch is supported
 					session.releaseRef(dispatch.getInterfacePointer().getIPID(),((JIStdObjRef)dispatch.getInterfacePointer().getObjectReference(JIInterfacePointer.OBJREF_STANDARD)).getPublicRefs());
 				}
 			}
+		} finally {
+			mutex.unlock();
 		}
 
 		return retval;
@@ -850,7 +964,8 @@ public final class JIComServer extends Stub {
 
 		//This method is still essentially serial, since all threads will have to stop at mutex and then
 		//go to addToSession after it (since there is no condition).
-		synchronized (mutex) {
+		mutex.lock();
+		try {
 			if (serverInstantiated)
 			{
 				throw new JIException(JIErrorCodes.JI_OBJECT_ALREADY_INSTANTIATED,(Throwable)null);
@@ -874,6 +989,8 @@ public final class JIComServer extends Stub {
 			//increasing the reference count.
 			comObject.addRef();
 			serverInstantiated = true;
+		} finally {
+			mutex.unlock();
 		}
 
 		return comObject;
@@ -895,7 +1012,8 @@ public final class JIComServer extends Stub {
 		IJIComObject comObject = null;
 		//This method is still essentially serial, since all threads will have to stop at mutex and then
 		//go to addToSession after it (since there is no condition).
-		synchronized (mutex) {
+		mutex.lock();
+		try {
 			if (serverInstantiated)
 			{
 				throw new JIException(JIErrorCodes.JI_OBJECT_ALREADY_INSTANTIATED,(Throwable)null);
@@ -907,6 +1025,8 @@ public final class JIComServer extends Stub {
 			//increasing the reference count.
 			comObject.addRef();
 			serverInstantiated = true;
+		} finally {
+			mutex.unlock();
 		}
 
 		return comObject;
@@ -956,38 +1076,171 @@ public final class JIComServer extends Stub {
 	 */
 	Object[] call(JICallBuilder obj,String targetIID, int socketTimeout) throws JIException
 	{
-		synchronized (mutex) {
+		beginCall();
+		try {
+			if (session.isConnectionPoolEnabled())
+			{
+				return callPooled(obj, targetIID, socketTimeout);
+			}
+
+			if (session.isCallMultiplexingEnabled())
+			{
+				return callMultiplexed(obj, targetIID, socketTimeout);
+			}
+
+			return callSerialized(obj, targetIID, socketTimeout);
+		} finally {
+			endCall();
+		}
+	}
+
+	/** Variant of {@link #call(JICallBuilder, String, int)} for sessions neither multiplexing nor pooling, the mutex covers
+	 * the whole call. Its deadline starts once the mutex is held, waiting for the calls of other threads does not use it up.
+	 */
+	private Object[] callSerialized(JICallBuilder obj,String targetIID, int socketTimeout) throws JIException
+	{
+		mutex.lock();
+		try {
 
 			if (session.isSessionInDestroy() && !obj.fromDestroySession)
 			{
 				throw new JIException(JIErrorCodes.JI_SESSION_DESTROYED);
 			}
 
-			if (socketTimeout != 0)
+			//one deadline for attaching, binding, authenticating and all the fragments of the call.
+			Deadline previous = Deadline.enter(Deadline.after(socketTimeout));
+			try {
+
+				dropIfStale(1);
+				attach();
+				//the endpoint switches to the context of the interface, altering it first if not negotiated yet.
+				InterfaceSyntax syntax = rememberInterface(targetIID);
+				setObject(obj.getParentIpid());
+				((ConnectionOrientedEndpoint)getEndpoint()).call(Endpoint.IDEMPOTENT, new rpc.core.UUID(obj.getParentIpid()), obj.getOpnum(), obj,
+						syntax.syntax, syntax.key);
+
+			}catch(FaultException e)
 			{
-				setSocketTimeOut(socketTimeout);
-			}
-			else //for cases where it was something earlier, but is now being set to 0.
+				throw new JIException(e.status,e);
+			}catch (IOException e) {
+				throw new JIException(JIErrorCodes.RPC_E_UNEXPECTED,e);
+			}catch (JIRuntimeException e1)
 			{
-				if (timeoutModifiedfrom0)
-				{
-					setSocketTimeOut(socketTimeout);
-				}
+				throw new JIException(e1);
+			}finally
+			{
+				Deadline.exit(previous);
 			}
 
+			return obj.getResults();
+		} finally {
+			mutex.unlock();
+		}
+
+	}
+
+	/** Multiplexed variant of {@link #call(JICallBuilder, String, int)}, the mutex only covers the setup and the endpoint
+	 * matches the reply to this call by its call id, so other threads can place their calls meanwhile. The deadline starts
+	 * once the mutex is held.
+	 */
+	private Object[] callMultiplexed(JICallBuilder obj,String targetIID, int socketTimeout) throws JIException
+	{
+		ConnectionOrientedEndpoint endpoint = null;
+		InterfaceSyntax syntax = null;
+		Deadline previous = null;
+		boolean entered = false;
+		try {
+			mutex.lock();
 			try {
 
-				attach();
-				if (!getEndpoint().getSyntax().getUuid().toString().equalsIgnoreCase(targetIID))
+				if (session.isSessionInDestroy() && !obj.fromDestroySession)
 				{
-					//first send an AlterContext to the IID of the interface
-					getEndpoint().getSyntax().setUuid(new rpc.core.UUID(targetIID));
-					getEndpoint().getSyntax().setVersion(0,0);
-					((JIComEndpoint)getEndpoint()).rebindEndPoint();
+					throw new JIException(JIErrorCodes.JI_SESSION_DESTROYED);
 				}
 
+				previous = Deadline.enter(Deadline.after(socketTimeout));
+				entered = true;
+				dropIfStale(1);
+				attach();
+				syntax = rememberInterface(targetIID);
+				endpoint = (ConnectionOrientedEndpoint)getEndpoint();
+			} finally {
+				mutex.unlock();
+			}
+
+			endpoint.call(Endpoint.IDEMPOTENT, new rpc.core.UUID(obj.getParentIpid()), obj.getOpnum(), obj,
+					syntax.syntax, syntax.key);
+		}catch(FaultException e)
+		{
+			throw new JIException(e.status,e);
+		}catch (IOException e) {
+			throw new JIException(JIErrorCodes.RPC_E_UNEXPECTED,e);
+		}catch (JIRuntimeException e1)
+		{
+			throw new JIException(e1);
+		}finally
+		{
+			if (entered)
+			{
+				Deadline.exit(previous);
+			}
+		}
+
+		return obj.getResults();
+	}
+
+	/** Places the call without waiting for its reply, see {@link JIAsyncCalls}. Pooled calls are made right away, the
+	 * <code>Future</code> returned has completed.
+	 *
+	 * @exclude
+	 */
+	Future<Object[]> callAsync(JICallBuilder obj,String targetIID, int socketTimeout) throws JIException
+	{
+		if (session.isConnectionPoolEnabled())
+		{
+			try {
+				call(obj, targetIID, socketTimeout);
+			} catch (JIException e) {
+				return new JICallFuture(obj, e);
+			}
+			return new JICallFuture(obj, null);
+		}
+
+		beginCall();
+		try {
+			if (session.isCallMultiplexingEnabled())
+			{
+				return callAsyncMultiplexed(obj, targetIID, socketTimeout);
+			}
+			return callAsyncSerialized(obj, targetIID, socketTimeout);
+		} finally {
+			endCall();
+		}
+	}
+
+	/** Variant of {@link #callAsync(JICallBuilder, String, int)} for sessions neither multiplexing nor pooling. The mutex
+	 * covers placing the call, the endpoint waits for the reply to a call still in flight first. The reply is then
+	 * awaited until the deadline started here.
+	 */
+	private Future<Object[]> callAsyncSerialized(JICallBuilder obj,String targetIID, int socketTimeout) throws JIException
+	{
+		mutex.lock();
+		try {
+
+			if (session.isSessionInDestroy() && !obj.fromDestroySession)
+			{
+				throw new JIException(JIErrorCodes.JI_SESSION_DESTROYED);
+			}
+
+			Deadline previous = Deadline.enter(Deadline.after(socketTimeout));
+			try {
+
+				dropIfStale(1);
+				attach();
+				InterfaceSyntax syntax = rememberInterface(targetIID);
 				setObject(obj.getParentIpid());
-				call(Endpoint.IDEMPOTENT,obj);
+				return new JICallFuture(((ConnectionOrientedEndpoint)getEndpoint()).callAsync(Endpoint.IDEMPOTENT,
+						new rpc.core.UUID(obj.getParentIpid()), obj.getOpnum(), obj, syntax.syntax, syntax.key), obj);
 
 			}catch(FaultException e)
 			{
@@ -997,11 +1250,124 @@ public final class JIComServer extends Stub {
 			}catch (JIRuntimeException e1)
 			{
 				throw new JIException(e1);
+			}finally
+			{
+				Deadline.exit(previous);
+			}
+		} finally {
+			mutex.unlock();
+		}
+	}
+
+	private Future<Object[]> callAsyncMultiplexed(JICallBuilder obj,String targetIID, int socketTimeout) throws JIException
+	{
+		ConnectionOrientedEndpoint endpoint = null;
+		InterfaceSyntax syntax = null;
+		Deadline previous = null;
+		boolean entered = false;
+		try {
+			mutex.lock();
+			try {
+
+				if (session.isSessionInDestroy() && !obj.fromDestroySession)
+				{
+					throw new JIException(JIErrorCodes.JI_SESSION_DESTROYED);
+				}
+
+				//the reply is then awaited until the same deadline.
+				previous = Deadline.enter(Deadline.after(socketTimeout));
+				entered = true;
+				dropIfStale(1);
+				attach();
+				syntax = rememberInterface(targetIID);
+				endpoint = (ConnectionOrientedEndpoint)getEndpoint();
+			} finally {
+				mutex.unlock();
 			}
 
-			return obj.getResults();
+			return new JICallFuture(endpoint.callAsync(Endpoint.IDEMPOTENT, new rpc.core.UUID(obj.getParentIpid()), obj.getOpnum(), obj,
+					syntax.syntax, syntax.key), obj);
+		}catch(FaultException e)
+		{
+			throw new JIException(e.status,e);
+		}catch (IOException e) {
+			throw new JIException(JIErrorCodes.RPC_E_UNEXPECTED,e);
+		}catch (JIRuntimeException e1)
+		{
+			throw new JIException(e1);
+		}finally
+		{
+			if (entered)
+			{
+				Deadline.exit(previous);
+			}
+		}
+	}
+
+	/** Pooled variant of {@link #call(JICallBuilder, String, int)}, the call borrows a connection of its own from the pool
+	 * and the mutex only covers the setup. The deadline of the call starts once the mutex has been released and also covers
+	 * borrowing, so waiting for a connection or opening, binding and authenticating a new one uses it up.
+	 */
+	private Object[] callPooled(JICallBuilder obj,String targetIID, int socketTimeout) throws JIException
+	{
+		JIComEndpointPool pool = null;
+		InterfaceSyntax syntax = null;
+		boolean created = false;
+		mutex.lock();
+		try {
+
+			if (session.isSessionInDestroy() && !obj.fromDestroySession)
+			{
+				throw new JIException(JIErrorCodes.JI_SESSION_DESTROYED);
+			}
+
+
+			if (endpointPool == null)
+			{
+				endpointPool = new JIComEndpointPool(getTransportFactory(), getAddress(), getProperties(), getSyntax(),
+						session.getConnectionPoolMinSize(), session.getConnectionPoolMaxSize(), session.getConnectionPoolIdleTimeout(),
+						session.getConnectionCheckInterval(), knownInterfaces.keySet());
+				created = true;
+			}
+			syntax = rememberInterface(targetIID);
+			pool = endpointPool;
+		} finally {
+			mutex.unlock();
+		}
+
+		if (created)
+		{
+			//outside of the mutex, the other callers borrow from the pool meanwhile.
+			pool.prestart();
+		}
+
+		JIComEndpointPool.PooledEndpoint pooledEndpoint = null;
+		boolean broken = false;
+		Deadline previous = Deadline.enter(Deadline.after(socketTimeout));
+		try {
+			pooledEndpoint = pool.borrow();
+			pooledEndpoint.getEndpoint().call(Endpoint.IDEMPOTENT, new rpc.core.UUID(obj.getParentIpid()), obj.getOpnum(), obj,
+					syntax.syntax, syntax.key);
+		}catch(FaultException e)
+		{
+			throw new JIException(e.status,e);
+		}catch (IOException e) {
+			//a timed out call has been cancelled, the connection is still good.
+			broken = !(e instanceof SocketTimeoutException);
+			throw new JIException(JIErrorCodes.RPC_E_UNEXPECTED,e);
+		}catch (JIRuntimeException e1)
+		{
+			throw new JIException(e1);
+		}finally
+		{
+			Deadline.exit(previous);
+			if (pooledEndpoint != null)
+			{
+				pool.release(pooledEndpoint, broken);
+			}
 		}
 
+		return obj.getResults();
 	}
 
 	/**
@@ -1016,7 +1382,8 @@ public final class JIComServer extends Stub {
 
 	void addRef_ReleaseRef(JICallBuilder obj) throws JIException
 	{
-		synchronized (mutex) {
+		mutex.lock();
+		try {
 
 			if (remunknownIPID == null)
 			{
@@ -1032,31 +1399,219 @@ public final class JIComServer extends Stub {
 				throw new JIException(e1);
 			}
 
+		} finally {
+			mutex.unlock();
 		}
 	}
 
-	void closeStub()
+	/** Returns the transport factory selected for the session.
+	 */
+	static TransportFactory getTransportFactory(JISession session)
 	{
+		return session.isBlockingTransportEnabled() ? (TransportFactory)JIComBlockingTransportFactory.getSingleton() : JIComTransportFactory.getSingleTon();
+	}
+
+	/** Registers interfaces which are going to be called on this COM server. They are negotiated along with the bind of
+	 * each new connection to it, instead of with an <code>AlterContext</code> round trip each the first time they are
+	 * called. Interfaces obtained via <code>queryInterface</code> and interfaces which have been called once are
+	 * registered automatically.
+	 *
+	 * @param iids IIDs of the interfaces, for e.g. "00020404-0000-0000-c000-000000000046" for IEnumVARIANT.
+	 * @since 3.0
+	 */
+	public void registerInterfaces(String[] iids)
+	{
+		if (iids == null)
+		{
+			throw new IllegalArgumentException(JISystem.getLocalizedMessage(JIErrorCodes.JI_COMSTUB_ILLEGAL_ARGUMENTS));
+		}
+		mutex.lock();
 		try {
-			detach();
-		} catch (Exception e) {
-//			No need to print this out.
-//			e.printStackTrace();
+			for (int i = 0; i < iids.length; i++)
+			{
+				rememberInterface(iids[i]);
+			}
+		} finally {
+			mutex.unlock();
 		}
 	}
 
-	void setSocketTimeOut(int timeout)
+	/** Adds the IID to the known interfaces and offers it on the current connection, where it is negotiated with the
+	 * next <code>AlterContext</code>. Returns its syntax, worked out the first time only. Must be called holding the
+	 * mutex.
+	 */
+	private InterfaceSyntax rememberInterface(String iid)
 	{
-		if (timeout == 0)
+		InterfaceSyntax syntax = knownInterfaces.get(iid);
+		if (syntax != null)
 		{
-			timeoutModifiedfrom0 = false;
+			return syntax;
 		}
-		else
+		syntax = new InterfaceSyntax(new PresentationSyntax(iid + ":0.0"));
+		knownInterfaces.put(iid, syntax);
+		if (getEndpoint() != null)
+		{
+			((ConnectionOrientedEndpoint)getEndpoint()).addPresentationSyntax(syntax.syntax);
+		}
+		return syntax;
+	}
+
+	/** Presentation syntax of a known interface along with its context key, so that calls look up its context id
+	 * directly.
+	 */
+	private static final class InterfaceSyntax
+	{
+		private final PresentationSyntax syntax;
+		private final String key;
+
+		private InterfaceSyntax(PresentationSyntax syntax)
+		{
+			this.syntax = syntax;
+			this.key = ConnectionOrientedEndpoint.contextKey(syntax);
+		}
+	}
+
+	/** Offers all known interfaces on a newly created connection, so that its first bind negotiates them.
+	 * @exclude
+	 */
+	protected void attach() throws IOException
+	{
+		if (getEndpoint() != null)
 		{
-			timeoutModifiedfrom0 = true;
+			return;
+		}
+		super.attach();
+		offerInterfaces((ConnectionOrientedEndpoint)getEndpoint(), knownInterfaces.keySet());
+	}
+
+	static void offerInterfaces(ConnectionOrientedEndpoint endpoint, Set<String> iids)
+	{
+		Iterator<String> iterator = iids.iterator();
+		while (iterator.hasNext())
+		{
+			endpoint.addPresentationSyntax(new PresentationSyntax(iterator.next() + ":0.0"));
+		}
+	}
+
+	private void beginCall()
+	{
+		callsInProgress.incrementAndGet();
+		if (!reaperRegistered && (session.getIdleConnectionTimeout() > 0 || session.getConnectionCheckInterval() > 0))
+		{
+			reaperRegistered = true;
+			JIConnectionReaper.register(reapable);
 		}
+	}
 
-		getProperties().setProperty("rpc.socketTimeout", new Integer(timeout).toString());
+	private void endCall()
+	{
+		activity.touch();
+		callsInProgress.decrementAndGet();
+	}
+
+	/** Closes the connection of this server once stale, see {@link JIConnectionReaper}. A server busy with calls is left
+	 * alone until the next round. The mutex is not held during the check, the connection is taken out of use instead and
+	 * a call placed meanwhile opens a new one.
+	 */
+	private void reapConnection()
+	{
+		ConnectionOrientedEndpoint endpoint = null;
+		if (!mutex.tryLock())
+		{
+			return;
+		}
+		try {
+			endpoint = (ConnectionOrientedEndpoint)getEndpoint();
+			if (endpoint == null || callsInProgress.get() > 0 || !endpoint.isIdle())
+			{
+				return;
+			}
+			if (activity.isIdleTimedOut(session.getIdleConnectionTimeout()))
+			{
+				closeConnection(endpoint);
+				setEndpoint(null);
+				return;
+			}
+			if (!activity.isCheckDue(session.getConnectionCheckInterval()))
+			{
+				return;
+			}
+			setEndpoint(null);
+		} finally {
+			mutex.unlock();
+		}
+
+		boolean alive = activity.passes(JIConnectionReaper.probe(endpoint));
+		mutex.lock();
+		try {
+			//unless a call has opened a new one meanwhile.
+			if (alive && getEndpoint() == null)
+			{
+				setEndpoint(endpoint);
+				//closeStub unregisters before it detaches, so it either finds the connection put back or is noticed here.
+				if (JIConnectionReaper.isRegistered(reapable))
+				{
+					return;
+				}
+				setEndpoint(null);
+			}
+		} finally {
+			mutex.unlock();
+		}
+		closeConnection(endpoint);
+	}
+
+	/** Closes the connection if it has been idle for longer than the idle connection timeout of the session, or fails
+	 * the check made once it has been idle for longer than the check interval. The next call then opens a new one. Must
+	 * be called holding the mutex.
+	 *
+	 * @param ownCalls calls in progress of the caller itself.
+	 */
+	private void dropIfStale(int ownCalls)
+	{
+		ConnectionOrientedEndpoint endpoint = (ConnectionOrientedEndpoint)getEndpoint();
+		if (endpoint == null || callsInProgress.get() > ownCalls || !endpoint.isIdle())
+		{
+			return;
+		}
+		if (activity.isStale(session.getIdleConnectionTimeout(), session.getConnectionCheckInterval(), JIConnectionReaper.probe(endpoint)))
+		{
+			closeConnection(endpoint);
+			setEndpoint(null);
+		}
+	}
+
+	private static void closeConnection(ConnectionOrientedEndpoint endpoint)
+	{
+		try {
+			endpoint.detach();
+		} catch (IOException e) {
+			if (JISystem.getLogger().isLoggable(Level.FINE))
+			{
+				JISystem.getLogger().fine("Ignoring exception while closing stale connection: " + e);
+			}
+		}
+	}
+
+	void closeStub()
+	{
+		JIConnectionReaper.unregister(reapable);
+		mutex.lock();
+		try {
+			if (endpointPool != null)
+			{
+				endpointPool.close();
+				endpointPool = null;
+			}
+		} finally {
+			mutex.unlock();
+		}
+		try {
+			detach();
+		} catch (Exception e) {
+//			No need to print this out.
+//			e.printStackTrace();
+		}
 	}
 
 }
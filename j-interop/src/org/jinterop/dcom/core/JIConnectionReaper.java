@@ -0,0 +1,232 @@
+/**
+* j-Interop (Pure Java implementation of DCOM protocol)
+*
+* Copyright (c) 2013 Vikram Roopchand
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+* Vikram Roopchand  - Moving to EPL from LGPL v3.
+*
+*/
+
+package org.jinterop.dcom.core;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.jinterop.dcom.common.JISystem;
+
+import rpc.ConnectionOrientedEndpoint;
+import rpc.Deadline;
+
+/** Background task looking after the long lived connections to <code>COM</code> servers, the ones of the sessions and
+ * the OXID ping ones. Connections idle for longer than the idle connection timeout are closed, they are opened again
+ * by the next call. Connections idle for longer than the check interval are checked with a round trip first, and closed
+ * if they turn out to be dead, so that the next call opens a fresh one instead of timing out on a peer which has gone
+ * away. The timer only hands the connections out, they are looked at and checked on threads of their own, so that a
+ * slow check holds up neither the others nor the timer.
+ *
+ * @exclude
+ * @since 3.0
+ */
+final class JIConnectionReaper {
+
+	/** How often the registered connections are looked at. */
+	static final long PERIOD_MILLIS = 5000;
+
+	/** Time allowed for the round trip of a check. */
+	private static final int CHECK_TIMEOUT_MILLIS = 10000;
+
+	private static final Set<Reapable> reapables = new CopyOnWriteArraySet<Reapable>();
+
+	//reapables being looked at, each is handed out again once done.
+	private static final Set<Reapable> reaping = Collections.newSetFromMap(new ConcurrentHashMap<Reapable, Boolean>());
+
+	private static final Timer reaperTimer = new Timer("jI_ConnectionReaper", true);
+
+	private static final ExecutorService reapers = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+		public Thread newThread(Runnable runnable) {
+			return JIComOxidRuntimeHelper.newThread(runnable, "jI_ConnectionCheck-" + count.incrementAndGet());
+		}
+	});
+
+	static {
+		reaperTimer.schedule(new TimerTask() {
+			public void run() {
+				reapAll();
+			}
+		}, PERIOD_MILLIS, PERIOD_MILLIS);
+	}
+
+	/** Owner of a connection, closes it when it is stale.
+	 */
+	interface Reapable
+	{
+		/** Closes the connection if it is idle and {@link Activity#isStale(int, int, Check)}. Runs on a reaper thread,
+		 * not the timer. Must not block on calls in progress, the connection is then in use and can be left alone.
+		 */
+		void reap();
+	}
+
+	/** Round trip telling whether a connection is alive.
+	 */
+	interface Check
+	{
+		/**
+		 * @return <code>false</code> if the check could not be made since the connection is in use.
+		 * @throws IOException if the connection is dead.
+		 */
+		boolean run() throws IOException;
+	}
+
+	/** Use of one connection.
+	 */
+	static final class Activity
+	{
+		private volatile long lastUsed = System.currentTimeMillis();
+		private volatile long lastChecked = 0;
+
+		/** Records a call on the connection. */
+		void touch()
+		{
+			lastUsed = System.currentTimeMillis();
+		}
+
+		long getLastUsed()
+		{
+			return lastUsed;
+		}
+
+		/** Returns <code>true</code> if the connection should be closed, having been idle for <code>idleTimeout</code>
+		 * or having failed the <code>check</code> made once it has been idle for <code>checkInterval</code>, and at
+		 * most every <code>checkInterval</code> after that.
+		 *
+		 * @param idleTimeout in millisecs, 0 for none.
+		 * @param checkInterval in millisecs, 0 for none.
+		 */
+		boolean isStale(int idleTimeout, int checkInterval, Check check)
+		{
+			return isIdleTimedOut(idleTimeout) || (isCheckDue(checkInterval) && !passes(check));
+		}
+
+		/** Returns <code>true</code> once the connection has been idle for <code>idleTimeout</code>.
+		 *
+		 * @param idleTimeout in millisecs, 0 for none.
+		 */
+		boolean isIdleTimedOut(int idleTimeout)
+		{
+			long idle = System.currentTimeMillis() - lastUsed;
+			if (idleTimeout > 0 && idle >= idleTimeout)
+			{
+				if (JISystem.getLogger().isLoggable(Level.FINE))
+				{
+					JISystem.getLogger().fine("Closing connection idle for " + idle + " ms");
+				}
+				return true;
+			}
+			return false;
+		}
+
+		/** Returns <code>true</code> once the connection has been idle, and unchecked, for <code>checkInterval</code>.
+		 *
+		 * @param checkInterval in millisecs, 0 for none.
+		 */
+		boolean isCheckDue(int checkInterval)
+		{
+			return checkInterval > 0 && System.currentTimeMillis() - Math.max(lastUsed, lastChecked) >= checkInterval;
+		}
+
+		/** Runs the <code>check</code>, returns <code>false</code> if the connection is dead.
+		 */
+		boolean passes(Check check)
+		{
+			Deadline previous = Deadline.enter(Deadline.after(CHECK_TIMEOUT_MILLIS));
+			try {
+				if (check.run())
+				{
+					lastChecked = System.currentTimeMillis();
+				}
+				return true;
+			} catch (IOException e) {
+				if (JISystem.getLogger().isLoggable(Level.WARNING))
+				{
+					JISystem.getLogger().warning("Connection failed its check after being idle for "
+							+ (System.currentTimeMillis() - lastUsed) + " ms: " + e);
+				}
+				return false;
+			} finally {
+				Deadline.exit(previous);
+			}
+		}
+	}
+
+	private JIConnectionReaper() {}
+
+	static void register(Reapable reapable)
+	{
+		reapables.add(reapable);
+	}
+
+	static void unregister(Reapable reapable)
+	{
+		reapables.remove(reapable);
+	}
+
+	static boolean isRegistered(Reapable reapable)
+	{
+		return reapables.contains(reapable);
+	}
+
+	/** Check altering the presentation context of <code>endpoint</code> to itself, which works on every bound
+	 * connection whatever the interface.
+	 */
+	static Check probe(final ConnectionOrientedEndpoint endpoint)
+	{
+		return new Check() {
+			public boolean run() throws IOException {
+				return endpoint.probe();
+			}
+		};
+	}
+
+	private static void reapAll()
+	{
+		Iterator<Reapable> iterator = reapables.iterator();
+		while (iterator.hasNext())
+		{
+			final Reapable reapable = iterator.next();
+			//still being checked since the last round.
+			if (!reaping.add(reapable))
+			{
+				continue;
+			}
+			reapers.execute(new Runnable() {
+				public void run() {
+					try {
+						reapable.reap();
+					} catch (RuntimeException e) {
+						JISystem.getLogger().log(Level.WARNING, "Connection reaper", e);
+					} finally {
+						reaping.remove(reapable);
+					}
+				}
+			});
+		}
+	}
+}
@@ -119,8 +119,19 @@ public final class JIFrameworkHelper {
 				//new COM server pointer
 			    newsession = JISession.createSession(session);
 			    newsession.setGlobalSocketTimeout(session.getGlobalSocketTimeout());
+			    newsession.setConnectTimeout(session.getConnectTimeout());
+			    newsession.setResponseSpillThreshold(session.getResponseSpillThreshold());
+			    newsession.setMaxFragmentSizes(session.getMaxTransmitFragment(), session.getMaxReceiveFragment());
+			    newsession.setAdaptiveFragmentSizes(session.isAdaptiveFragmentSizesEnabled());
 			    newsession.useSessionSecurity(session.isSessionSecurityEnabled());
 			    newsession.useNTLMv2(session.isNTLMv2Enabled());
+			    newsession.useCallMultiplexing(session.isCallMultiplexingEnabled());
+			    newsession.useConnectionPool(session.getConnectionPoolMinSize(), session.getConnectionPoolMaxSize());
+			    newsession.setConnectionPoolIdleTimeout(session.getConnectionPoolIdleTimeout());
+			    newsession.useBlockingTransport(session.isBlockingTransportEnabled());
+			    newsession.setSocketOptions(session.getSocketOptions());
+			    newsession.setIdleConnectionTimeout(session.getIdleConnectionTimeout());
+			    newsession.setConnectionCheckInterval(session.getConnectionCheckInterval());
 			    JIComServer comServer = new JIComServer(newsession,ptr,null);
 			    retval = comServer.getInstance();
 			    JIFrameworkHelper.link2Sessions(session, newsession);
@@ -18,12 +18,14 @@ package org.jinterop.dcom.core;
 import java.io.Serializable;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 
 import ndr.NetworkDataRepresentation;
@@ -47,6 +49,16 @@ import rpc.core.UUID;
 public final class JILocalCoClass implements Serializable
 {
 
+	/** Threading model running the calls on the object one at a time, in the order they are received, as in a COM
+	 * apartment. This is the default.
+	 */
+	public static final int THREADING_SERIALIZED = 0;
+
+	/** Threading model running the calls on the object as soon as they are received, several may then run at the same
+	 * time. The server instance must be thread safe.
+	 */
+	public static final int THREADING_FREE = 1;
+
 	private static final long serialVersionUID = 5542223845228327383L;
 	private static Random randomGen = new Random(Double.doubleToRawLongBits(Math.random()));
 	private final int identifier ;
@@ -67,15 +79,20 @@ public final class JILocalCoClass implements Serializable
 
 	private boolean realIID = false;
 
+	private volatile int threadingModel = THREADING_SERIALIZED;
+
+	//runs the calls one at a time when the object is serialized, created with the first call.
+	private transient Executor serialExecutor = null;
+
 	static
 	{
 
 	}
 
-	private Map ipidVsIID = new HashMap();// will use this to identify which IID is being talked about
+	private Map ipidVsIID = Collections.synchronizedMap(new HashMap());// will use this to identify which IID is being talked about
 										  //if it is IDispatch then delegate to it's invoke.
 
-	private Map IIDvsIpid = new HashMap();// will use this to identify which IPID is being talked about
+	private Map IIDvsIpid = Collections.synchronizedMap(new HashMap());// will use this to identify which IPID is being talked about
 
 	private void init(JILocalInterfaceDefinition interfaceDefinition,Class clazz,Object instance,boolean realIID)
 	{
@@ -273,6 +290,7 @@ public final class JILocalCoClass implements Serializable
 	 */
 	 void setAssociatedInterfacePointer(JIInterfacePointer interfacePointer)
 	{
+		 compileInvokers();
 		 isAlreadyExported = true;
 		 this.interfacePointer = new WeakReference(interfacePointer);
 		 String ipid = interfacePointer.getIPID().toUpperCase();
@@ -281,6 +299,34 @@ public final class JILocalCoClass implements Serializable
 		 ipidVsIID.put(ipid,iid);
 	}
 
+	private static Class getCalleeClass(JILocalInterfaceDefinition interfaceDefinition)
+	{
+		return interfaceDefinition.instance == null ? interfaceDefinition.clazz : interfaceDefinition.instance.getClass();
+	}
+
+	//compiles the calls of all the methods known at export, so that callbacks do not look them up. Methods which
+	//cannot be found are left for the call to report.
+	private void compileInvokers()
+	{
+		Iterator iterator = new ArrayList(mapOfIIDsToInterfaceDefinitions.values()).iterator();
+		while (iterator.hasNext())
+		{
+			JILocalInterfaceDefinition definition = (JILocalInterfaceDefinition)iterator.next();
+			JILocalMethodDescriptor[] descriptors = definition.getMethodDescriptors();
+			for (int i = 0; i < descriptors.length; i++)
+			{
+				try {
+					descriptors[i].getInvoker(getCalleeClass(definition));
+				} catch (Exception e) {
+					if (JISystem.getLogger().isLoggable(Level.FINE))
+					{
+						JISystem.getLogger().fine("Could not compile the call of " + descriptors[i].getMethodName() + ": " + e);
+					}
+				}
+			}
+		}
+	}
+
 	/**
 	 *
 	 * @exclude
@@ -543,20 +589,15 @@ public final class JILocalCoClass implements Serializable
 		if (execute)
 		{
 			//JILocalInterfaceDefinition interfaceDefinitionOfCall = interfaceDefinition;
-			Class calleeClazz = interfaceDefinitionOfClass.instance == null ? interfaceDefinitionOfClass.clazz : interfaceDefinitionOfClass.instance.getClass();
-			Method method = null;
+			Class calleeClazz = getCalleeClass(interfaceDefinitionOfClass);
 			try {
+				JILocalMethodInvoker invoker = methodDescriptor.getInvoker(calleeClazz);
+				Object calleeInstance = interfaceDefinitionOfClass.instance == null ? invoker.newCallee() : interfaceDefinitionOfClass.instance;
 				if (JISystem.getLogger().isLoggable(Level.INFO))
 				{
-					JISystem.getLogger().info("methodDescriptor: " + methodDescriptor.getMethodName());
-				}
-				method = calleeClazz.getDeclaredMethod(methodDescriptor.getMethodName(),methodDescriptor.getInparametersAsClass());
-				Object calleeInstance = interfaceDefinitionOfClass.instance == null ? calleeClazz.newInstance() : interfaceDefinitionOfClass.instance;
-				if (JISystem.getLogger().isLoggable(Level.INFO))
-				{
-					JISystem.getLogger().info("Call Back Method to be executed: " + method + " , to be executed on " + calleeInstance);
+					JISystem.getLogger().info("Call Back Method to be executed: " + methodDescriptor.getMethodName() + " , to be executed on " + calleeInstance);
 				}
-				Object result = method.invoke(calleeInstance,params);
+				Object result = invoker.invoke(calleeInstance,params);
 
 				if (result == null)
 				{
@@ -677,6 +718,48 @@ public final class JILocalCoClass implements Serializable
 		return realIID;
 	}
 
+	/**<p>Sets the threading model of the calls made on this object by COM servers. It is followed when the calls are
+	 * run apart from their connection, see <code>JISystem.setCallbackDispatch</code>, otherwise each connection runs
+	 * its calls in turn whatever the model. </p>
+	 * <p>A serialized object calling back into a COM server which in turn calls the same object waits for itself,
+	 * make such objects free threaded. </p>
+	 *
+	 * @param threadingModel {@link #THREADING_SERIALIZED} or {@link #THREADING_FREE}.
+	 * @throws IllegalArgumentException if <code>threadingModel</code> is neither.
+	 */
+	public void setThreadingModel(int threadingModel)
+	{
+		if (threadingModel != THREADING_SERIALIZED && threadingModel != THREADING_FREE)
+		{
+			throw new IllegalArgumentException(JISystem.getLocalizedMessage(JIErrorCodes.JI_COMSTUB_ILLEGAL_ARGUMENTS));
+		}
+		this.threadingModel = threadingModel;
+	}
+
+	/** Returns the threading model of the calls made on this object, {@link #THREADING_SERIALIZED} by default.
+	 *
+	 * @return
+	 */
+	public int getThreadingModel()
+	{
+		return threadingModel;
+	}
+
+	/** Returns the executor to run the calls on this object, as its threading model allows.
+	 */
+	synchronized Executor getCallExecutor()
+	{
+		if (threadingModel == THREADING_FREE)
+		{
+			return JICallbackRuntime.getCallExecutor();
+		}
+		if (serialExecutor == null)
+		{
+			serialExecutor = JICallbackRuntime.newSerialExecutor();
+		}
+		return serialExecutor;
+	}
+
 	/**
 	 * Associate the Session with this CoClass. Called by the framework.
 	 * @exclude
@@ -17,9 +17,9 @@ package org.jinterop.dcom.core;
 
 
 /** Describe a method of the COM <code>IDL</code> to be used in Callback implementations.
- * Framework uses java reflection to invoke methods requested by COM clients so it is
- * absolutely essential that java methods in the implementation class conform exactly to
- * what is described in this object.
+ * Framework uses java reflection to find the methods requested by COM clients, once, and
+ * calls them through a compiled handle thereafter, so it is absolutely essential that java
+ * methods in the implementation class conform exactly to what is described in this object.
  * <p>
  * <i>Please refer to MSInternetExplorer, Test_ITestServer2_Impl, SampleTestServer
  * and MSShell examples for more details on how to use this class.</i><br>
@@ -33,6 +33,7 @@ public final class JILocalMethodDescriptor
 	private int dispId = -1;
 	private Class[] inparametersAsClass = new Class[0];
 	private JILocalParamsDescriptor parameters = null;
+	private volatile JILocalMethodInvoker invoker = null;
 
 	/**Creates the method descriptor. The method number is set by the order in which this instance is
 	 * added to the <code>JILocalInterfaceDefinition</code>. This number is incremented by 1 for each subsequent
@@ -163,4 +164,18 @@ public final class JILocalMethodDescriptor
 	Class[] getInparametersAsClass() {
 		return inparametersAsClass;
 	}
+
+	/** Returns the compiled call of this method on <code>calleeClazz</code>, compiling it the first time.
+	 *
+	 * @exclude
+	 */
+	JILocalMethodInvoker getInvoker(Class calleeClazz) throws NoSuchMethodException, IllegalAccessException {
+		JILocalMethodInvoker invoker = this.invoker;
+		if (invoker == null || invoker.getCalleeClass() != calleeClazz)
+		{
+			invoker = JILocalMethodInvoker.compile(calleeClazz, this);
+			this.invoker = invoker;
+		}
+		return invoker;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,151 @@
+/**
+* j-Interop (Pure Java implementation of DCOM protocol)
+*
+* Copyright (c) 2013 Vikram Roopchand
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+* Vikram Roopchand  - Moving to EPL from LGPL v3.
+*
+*/
+
+package org.jinterop.dcom.core;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/** Compiled call of the java method implementing a <code>JILocalMethodDescriptor</code> on a callee class. The
+ * method is looked up once, the callbacks then go through a <code>MethodHandle</code> taking the callee and the
+ * parameters as an array, as <code>Method.invoke</code> does.
+ *
+ * @exclude
+ * @since 3.0
+ */
+final class JILocalMethodInvoker {
+
+	private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+	//(Throwable)Object, throwing the Throwable wrapped in an InvocationTargetException.
+	private static final MethodHandle wrapTargetException;
+
+	static {
+		try {
+			wrapTargetException = lookup.findStatic(JILocalMethodInvoker.class, "throwTargetException",
+					MethodType.methodType(Object.class, Throwable.class));
+		} catch (Exception e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final Class calleeClazz;
+
+	//(Object, Object[])Object
+	private final MethodHandle handle;
+
+	//()Object, looked up when a callee is first created.
+	private volatile MethodHandle constructor = null;
+
+	private JILocalMethodInvoker(Class calleeClazz, MethodHandle handle)
+	{
+		this.calleeClazz = calleeClazz;
+		this.handle = handle;
+	}
+
+	/** Looks up the method implementing <code>descriptor</code>, declared by <code>calleeClazz</code>, and compiles
+	 * its call.
+	 */
+	static JILocalMethodInvoker compile(Class calleeClazz, JILocalMethodDescriptor descriptor) throws NoSuchMethodException, IllegalAccessException
+	{
+		Method method = calleeClazz.getDeclaredMethod(descriptor.getMethodName(),descriptor.getInparametersAsClass());
+		MethodHandle target = lookup.unreflect(method);
+		if (target.isVarargsCollector())
+		{
+			target = target.asFixedArity();
+		}
+		//exceptions of the method itself are told apart from those converting the parameters.
+		MethodType type = target.type();
+		MethodHandle handler = MethodHandles.dropArguments(wrapTargetException.asType(MethodType.methodType(type.returnType(), Throwable.class)),
+				1, type.parameterList());
+		target = MethodHandles.catchException(target, Throwable.class, handler);
+		if (Modifier.isStatic(method.getModifiers()))
+		{
+			//no receiver, the callee is ignored as Method.invoke does.
+			target = MethodHandles.dropArguments(target, 0, Object.class);
+		}
+		int count = target.type().parameterCount() - 1;
+		target = target.asType(MethodType.genericMethodType(count + 1)).asSpreader(Object[].class, count);
+		return new JILocalMethodInvoker(calleeClazz, target);
+	}
+
+	Class getCalleeClass()
+	{
+		return calleeClazz;
+	}
+
+	/** Calls the method on <code>callee</code>.
+	 *
+	 * @return the result, <code>null</code> for <code>void</code> methods.
+	 * @throws IllegalArgumentException if <code>params</code> do not match the parameters of the method.
+	 * @throws InvocationTargetException if the method threw.
+	 */
+	Object invoke(Object callee, Object[] params) throws InvocationTargetException
+	{
+		try {
+			return (Object)handle.invokeExact(callee, params == null ? new Object[0] : params);
+		} catch (InvocationTargetException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			//the method's own are wrapped, these come from the conversion of the callee or the parameters.
+			IllegalArgumentException exception = new IllegalArgumentException(e.toString());
+			exception.initCause(e);
+			throw exception;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new InvocationTargetException(e);
+		}
+	}
+
+	/** Creates a callee using the public no argument constructor, as <code>Class.newInstance</code> does.
+	 *
+	 * @throws InstantiationException if there is no such constructor or it threw.
+	 * @throws IllegalAccessException if the constructor is not accessible.
+	 */
+	Object newCallee() throws InstantiationException, IllegalAccessException
+	{
+		MethodHandle constructor = this.constructor;
+		if (constructor == null)
+		{
+			try {
+				constructor = lookup.findConstructor(calleeClazz, MethodType.methodType(void.class)).asType(MethodType.methodType(Object.class));
+			} catch (NoSuchMethodException e) {
+				InstantiationException exception = new InstantiationException(calleeClazz.getName());
+				exception.initCause(e);
+				throw exception;
+			}
+			this.constructor = constructor;
+		}
+		try {
+			return (Object)constructor.invokeExact();
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			InstantiationException exception = new InstantiationException(calleeClazz.getName());
+			exception.initCause(e);
+			throw exception;
+		}
+	}
+
+	private static Object throwTargetException(Throwable e) throws InvocationTargetException
+	{
+		throw new InvocationTargetException(e);
+	}
+}
@@ -27,7 +27,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import jcifs.util.Encdec;
 import ndr.NdrException;
 import ndr.NetworkDataRepresentation;
 
@@ -79,6 +78,7 @@ final class JIMarshalUnMarshalHelper {
 		mapOfSerializers.put(JIUnsignedShort.class,new JIMarshalUnMarshalHelper.JIUnsignedShortImpl());
 		mapOfSerializers.put(JIUnsignedInteger.class,new JIMarshalUnMarshalHelper.JIUnsignedIntImpl());
 		mapOfSerializers.put(JIDualStringArray.class,new JIMarshalUnMarshalHelper.JIDualStringArrayImpl());
+		mapOfSerializers.put(JIByteStream.class,new JIMarshalUnMarshalHelper.JIByteStreamImpl());
 //		mapOfSerializers.put(IJIUnsigned.class,new JIMarshalUnMarshalHelper.JIUnsignedImpl());
 
 	}
@@ -420,6 +420,27 @@ final class JIMarshalUnMarshalHelper {
 
 	}
 	
+	private static class JIByteStreamImpl implements SerializerDeserializer {
+
+		public void serializeData(NetworkDataRepresentation ndr,Object value,List defferedPointers,int FLAG)
+		{
+			((JIByteStream)value).encode(ndr);
+		}
+
+		public Object deserializeData(NetworkDataRepresentation ndr,List defferedPointers, Map additionalData, int FLAG)
+		{
+			//[in] only.
+			throw new IllegalStateException(JISystem.getLocalizedMessage(JIErrorCodes.JI_UTIL_INCORRECT_CALL));
+		}
+
+		public int getLengthInBytes(Object value,int FLAG)
+		{
+			//the bytes are not held in the stub buffer.
+			return 4 + 8;
+		}
+
+	}
+
 	private static class JIUnsignedByteImpl implements SerializerDeserializer {
 
 		public void serializeData(NetworkDataRepresentation ndr,Object value,List defferedPointers,int FLAG)
@@ -867,16 +888,12 @@ final class JIMarshalUnMarshalHelper {
 			{
 				value = new Long(Long.MIN_VALUE);
 			}
-			ndr.getBuffer().align(8);
-			Encdec.enc_uint64le(((Long)value).longValue(),ndr.getBuffer().getBuffer(),ndr.getBuffer().getIndex());
-			ndr.getBuffer().advance(8);
+			ndr.getBuffer().enc_ndr_hyper(((Long)value).longValue());
 		}
 
 		public Object deserializeData(NetworkDataRepresentation ndr,List defferedPointers, Map additionalData, int FLAG)
 		{
-			ndr.getBuffer().align(8);
-			Long b = new Long(Encdec.dec_uint64le(ndr.getBuffer().getBuffer(),ndr.getBuffer().getIndex()));
-			ndr.getBuffer().advance(8);
+			Long b = new Long(ndr.getBuffer().dec_ndr_hyper());
 			return b;
 		}
 
@@ -895,16 +912,12 @@ final class JIMarshalUnMarshalHelper {
 				value = new Double(Double.NaN);
 			}
 
-			ndr.getBuffer().align(8);
-			Encdec.enc_doublele(((Double)value).doubleValue(), ndr.getBuffer().getBuffer(),ndr.getBuffer().getIndex());
-			ndr.getBuffer().advance(8);
+			ndr.getBuffer().enc_ndr_double(((Double)value).doubleValue());
 
 		}
 		public Object deserializeData(NetworkDataRepresentation ndr,List defferedPointers, Map additionalData, int FLAG)
 		{
-			ndr.getBuffer().align(8);
-			Double b = new Double(Encdec.dec_doublele(ndr.getBuffer().getBuffer(),ndr.getBuffer().getIndex()));
-			ndr.getBuffer().advance(8);
+			Double b = new Double(ndr.getBuffer().dec_ndr_double());
 
 
 			return b;
@@ -1001,16 +1014,12 @@ final class JIMarshalUnMarshalHelper {
 //				value = new Double(Double.NaN);
 //			}
 
-			ndr.getBuffer().align(8);
-			Encdec.enc_doublele(convertMillisecondsToWindowsTime(((Date)value).getTime()), ndr.getBuffer().getBuffer(),ndr.getBuffer().getIndex());
-			ndr.getBuffer().advance(8);
+			ndr.getBuffer().enc_ndr_double(convertMillisecondsToWindowsTime(((Date)value).getTime()));
 
 		}
 		public Object deserializeData(NetworkDataRepresentation ndr,List defferedPointers, Map additionalData, int FLAG)
 		{
-			ndr.getBuffer().align(8);
-			Date b = new Date(convertWindowsTimeToMilliseconds(Encdec.dec_doublele(ndr.getBuffer().getBuffer(),ndr.getBuffer().getIndex())));
-			ndr.getBuffer().advance(8);
+			Date b = new Date(convertWindowsTimeToMilliseconds(ndr.getBuffer().dec_ndr_double()));
 			return b;
 		}
 		public int getLengthInBytes(Object value,int FLAG)
@@ -1079,16 +1088,12 @@ final class JIMarshalUnMarshalHelper {
 			{
 				value = new Float(Float.NaN);
 			}
-			ndr.getBuffer().align(4);
-			Encdec.enc_floatle(((Float)value).floatValue(), ndr.getBuffer().getBuffer(),ndr.getBuffer().getIndex());
-			ndr.getBuffer().advance(4);
+			ndr.getBuffer().enc_ndr_float(((Float)value).floatValue());
 
 		}
 		public Object deserializeData(NetworkDataRepresentation ndr,List defferedPointers, Map additionalData, int FLAG)
 		{
-			ndr.getBuffer().align(4);
-			Float b = new Float(Encdec.dec_floatle(ndr.getBuffer().getBuffer(),ndr.getBuffer().getIndex()));
-			ndr.getBuffer().advance(4);
+			Float b = new Float(ndr.getBuffer().dec_ndr_float());
 
 			return b;
 		}
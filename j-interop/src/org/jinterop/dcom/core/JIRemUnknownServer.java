@@ -17,13 +17,16 @@ package org.jinterop.dcom.core;
 
 import java.io.IOException;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.jinterop.dcom.common.JIErrorCodes;
 import org.jinterop.dcom.common.JIException;
 import org.jinterop.dcom.common.JIRuntimeException;
 import org.jinterop.dcom.transport.JIComEndpoint;
-import org.jinterop.dcom.transport.JIComTransportFactory;
 
+import rpc.ConnectionOrientedEndpoint;
+import rpc.Deadline;
 import rpc.Endpoint;
 import rpc.FaultException;
 import rpc.Stub;
@@ -46,8 +49,16 @@ import rpc.Stub;
 	private JISession session = null;
 	private String syntax = null;
 	private String remunknownIPID = null;
-	private final Object mutex = new Object();
-	private boolean timeoutModifiedfrom0 = false;
+	private final ReentrantLock mutex = new ReentrantLock();
+	//calls placed and not completed yet, the connection reaper leaves the connection alone meanwhile.
+	private final AtomicInteger callsInProgress = new AtomicInteger();
+	private final JIConnectionReaper.Activity activity = new JIConnectionReaper.Activity();
+	private final JIConnectionReaper.Reapable reapable = new JIConnectionReaper.Reapable() {
+		public void reap() {
+			reapConnection();
+		}
+	};
+	private volatile boolean reaperRegistered = false;
 	
 	/** Interface pointer to the initialized COM server , must be called immediately after the JIComServer has been 
 	 * initialized. And closeStub must be called where we call closeStub of JIComServer.
@@ -55,16 +66,26 @@ import rpc.Stub;
 	 * @param session
 	 * @param interfacePointer
 	 * @param address in the "ncacn_ip_tcp:host[port]" format
+	 * @param alternateAddresses other bindings of the server raced against <code>address</code>, <code>null</code> for none.
 	 * @throws JIException
 	 */
-	JIRemUnknownServer(JISession session, String remUnknownIpid, String address) throws JIException
+	JIRemUnknownServer(JISession session, String remUnknownIpid, String address, String alternateAddresses) throws JIException
 	{
 		super();
 
 		this.session = session;
-		super.setTransportFactory(JIComTransportFactory.getSingleTon());
+		super.setTransportFactory(JIComServer.getTransportFactory(session));
 		super.setProperties(new Properties(defaults));
 		super.getProperties().setProperty("rpc.socketTimeout", new Integer(session.getGlobalSocketTimeout()).toString());
+		super.getProperties().setProperty("rpc.connectTimeout", new Integer(session.getConnectTimeout()).toString());
+		super.getProperties().setProperty("rpc.spillThreshold", new Integer(session.getResponseSpillThreshold()).toString());
+		super.getProperties().setProperty("rpc.connectionContext.maxTransmitFragment", new Integer(session.getOfferedTransmitFragment()).toString());
+		super.getProperties().setProperty("rpc.connectionContext.maxReceiveFragment", new Integer(session.getOfferedReceiveFragment()).toString());
+		session.getSocketOptions().writeTo(super.getProperties());
+		if (alternateAddresses != null)
+		{
+			super.getProperties().setProperty(JIComServer.ALTERNATE_ADDRESSES, alternateAddresses);
+		}
 
 		if (session.isNTLMv2Enabled())
 		{
@@ -116,57 +137,67 @@ import rpc.Stub;
 	 */
 	Object[] call(JICallBuilder obj,String targetIID, int socketTimeout) throws JIException
 	{
-		synchronized (mutex) {
-
-			if (session.isSessionInDestroy() && !obj.fromDestroySession)
-			{
-				throw new JIException(JIErrorCodes.JI_SESSION_DESTROYED);
-			}
+		callsInProgress.incrementAndGet();
+		if (!reaperRegistered && (session.getIdleConnectionTimeout() > 0 || session.getConnectionCheckInterval() > 0))
+		{
+			reaperRegistered = true;
+			JIConnectionReaper.register(reapable);
+		}
+		try {
+			mutex.lock();
+			try {
 
-			if (socketTimeout != 0)
-			{
-				setSocketTimeOut(socketTimeout);
-			}
-			else //for cases where it was something earlier, but is now being set to 0.
-			{
-				if (timeoutModifiedfrom0)
+				if (session.isSessionInDestroy() && !obj.fromDestroySession)
 				{
-					setSocketTimeOut(socketTimeout);
+					throw new JIException(JIErrorCodes.JI_SESSION_DESTROYED);
 				}
-			}
 
-			try {
+				//one deadline for attaching, binding, authenticating and all the fragments of the call, starting once
+				//the mutex is held.
+				Deadline previous = Deadline.enter(Deadline.after(socketTimeout));
+				try {
+
+					dropIfStale();
+					attach();
+					if (!getEndpoint().getSyntax().getUuid().toString().equalsIgnoreCase(targetIID))
+					{
+						//first send an AlterContext to the IID of the interface
+						getEndpoint().getSyntax().setUuid(new rpc.core.UUID(targetIID));
+						getEndpoint().getSyntax().setVersion(0,0);
+						((JIComEndpoint)getEndpoint()).rebindEndPoint();
+					}
 
-				attach();
-				if (!getEndpoint().getSyntax().getUuid().toString().equalsIgnoreCase(targetIID))
+					setObject(obj.getParentIpid());
+					call(Endpoint.IDEMPOTENT,obj);
+
+				}catch(FaultException e)
+				{
+					throw new JIException(e.status,e);
+				}catch (IOException e) {
+					throw new JIException(JIErrorCodes.RPC_E_UNEXPECTED,e);
+				}catch (JIRuntimeException e1)
 				{
-					//first send an AlterContext to the IID of the interface
-					getEndpoint().getSyntax().setUuid(new rpc.core.UUID(targetIID));
-					getEndpoint().getSyntax().setVersion(0,0);
-					((JIComEndpoint)getEndpoint()).rebindEndPoint();
+					throw new JIException(e1);
+				}finally
+				{
+					Deadline.exit(previous);
 				}
 
-				setObject(obj.getParentIpid());
-				call(Endpoint.IDEMPOTENT,obj);
-
-			}catch(FaultException e)
-			{
-				throw new JIException(e.status,e);
-			}catch (IOException e) {
-				throw new JIException(JIErrorCodes.RPC_E_UNEXPECTED,e);
-			}catch (JIRuntimeException e1)
-			{
-				throw new JIException(e1);
+				return obj.getResults();
+			} finally {
+				mutex.unlock();
 			}
-
-			return obj.getResults();
+		} finally {
+			activity.touch();
+			callsInProgress.decrementAndGet();
 		}
 
 	}
 
 	void addRef_ReleaseRef(JICallBuilder obj) throws JIException
 	{
-		synchronized (mutex) {
+		mutex.lock();
+		try {
 
 			if (remunknownIPID == null)
 			{
@@ -182,30 +213,95 @@ import rpc.Stub;
 				throw new JIException(e1);
 			}
 
+		} finally {
+			mutex.unlock();
 		}
 	}
 
-	void closeStub()
+	/** Closes the connection once stale, see {@link JIConnectionReaper}. A server busy with a call is left alone until
+	 * the next round. The mutex is not held during the check, the connection is taken out of use instead and a call
+	 * placed meanwhile opens a new one.
+	 */
+	private void reapConnection()
 	{
+		ConnectionOrientedEndpoint endpoint = null;
+		if (!mutex.tryLock())
+		{
+			return;
+		}
 		try {
-			detach();
-		} catch (IOException e) {
-//			e.printStackTrace();
+			endpoint = (ConnectionOrientedEndpoint)getEndpoint();
+			if (endpoint == null || callsInProgress.get() > 0 || !endpoint.isIdle())
+			{
+				return;
+			}
+			if (activity.isIdleTimedOut(session.getIdleConnectionTimeout()))
+			{
+				closeConnection(endpoint);
+				setEndpoint(null);
+				return;
+			}
+			if (!activity.isCheckDue(session.getConnectionCheckInterval()))
+			{
+				return;
+			}
+			setEndpoint(null);
+		} finally {
+			mutex.unlock();
+		}
+
+		boolean alive = activity.passes(JIConnectionReaper.probe(endpoint));
+		mutex.lock();
+		try {
+			//unless a call has opened a new one meanwhile.
+			if (alive && getEndpoint() == null)
+			{
+				setEndpoint(endpoint);
+				//closeStub unregisters before it detaches, so it either finds the connection put back or is noticed here.
+				if (JIConnectionReaper.isRegistered(reapable))
+				{
+					return;
+				}
+				setEndpoint(null);
+			}
+		} finally {
+			mutex.unlock();
 		}
+		closeConnection(endpoint);
 	}
 
-	void setSocketTimeOut(int timeout)
+	//must hold the mutex.
+	private void dropIfStale()
 	{
-		if (timeout == 0)
+		ConnectionOrientedEndpoint endpoint = (ConnectionOrientedEndpoint)getEndpoint();
+		if (endpoint == null)
 		{
-			timeoutModifiedfrom0 = false;
+			return;
 		}
-		else
+		if (activity.isStale(session.getIdleConnectionTimeout(), session.getConnectionCheckInterval(), JIConnectionReaper.probe(endpoint)))
 		{
-			timeoutModifiedfrom0 = true;
+			closeConnection(endpoint);
+			setEndpoint(null);
+		}
+	}
+
+	private static void closeConnection(ConnectionOrientedEndpoint endpoint)
+	{
+		try {
+			endpoint.detach();
+		} catch (IOException e) {
+			//closing anyway.
 		}
+	}
 
-		getProperties().setProperty("rpc.socketTimeout", new Integer(timeout).toString());
+	void closeStub()
+	{
+		JIConnectionReaper.unregister(reapable);
+		try {
+			detach();
+		} catch (IOException e) {
+//			e.printStackTrace();
+		}
 	}
 
 }
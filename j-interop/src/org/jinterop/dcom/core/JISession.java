@@ -41,6 +41,9 @@ import org.jinterop.dcom.common.JIErrorCodes;
 import org.jinterop.dcom.common.JIException;
 import org.jinterop.dcom.common.JISystem;
 import org.jinterop.dcom.impls.JIObjectFactory;
+import org.jinterop.dcom.transport.JISocketOptions;
+
+import rpc.ConnectionContext;
 
 /**<p>Representation of an active session with a COM server. All interface references being given out by
  * the framework for a particular COM server are maintained by the session and an <code>IJIComObject</code>
@@ -75,8 +78,21 @@ public final class JISession {
 	private static Timer releaseRefsTimer = new Timer(true);
 	private Map mapOfUnreferencedHandlers = new HashMap();
 	private int timeout = 0;
+	private int connectTimeout = 0;
+	private int responseSpillThreshold = 0;
+	private int maxTransmitFragment = ConnectionContext.DEFAULT_MAX_TRANSMIT_FRAGMENT;
+	private int maxReceiveFragment = ConnectionContext.DEFAULT_MAX_RECEIVE_FRAGMENT;
+	private boolean adaptiveFragmentSizes = false;
 	private boolean useSessionSecurity = false;
 	private boolean useNTLMv2 = false;
+	private boolean useCallMultiplexing = false;
+	private int connectionPoolMinSize = 0;
+	private int connectionPoolMaxSize = 0;
+	private int connectionPoolIdleTimeout = 60000;
+	private boolean useBlockingTransport = JISystem.isBlockingTransportSet();
+	private JISocketOptions socketOptions = JISystem.getSocketOptions();
+	private int idleConnectionTimeout = JISystem.getIdleConnectionTimeout();
+	private int connectionCheckInterval = JISystem.getConnectionCheckInterval();
 	private boolean isSSO = false;
 	private ArrayList links = new ArrayList();
 	private static final Map mapOfOxidsVsJISessions = new HashMap();
@@ -1092,6 +1108,8 @@ public final class JISession {
 
 	/**<p> Sets the timeout for all sockets opened to (not fro) the COM server for this session. Default value is 0 (no timeout).
 	 * The class level and the method level settings in case of <code>IJIComObject</code> override this timeout. </p>
+	 * <p> The timeout bounds each call as a whole, connecting, binding and authenticating included, and not each read
+	 * of the socket. A call which times out is cancelled at the COM server. </p>
 	 *
 	 * @param timeout in millisecs
 	 * @see IJIComObject#setInstanceLevelSocketTimeout(int)
@@ -1111,6 +1129,124 @@ public final class JISession {
 		return this.timeout;
 	}
 
+	/**<p> Sets the timeout for opening connections to the COM server. When the server advertises several bindings (for e.g.
+	 * one per network card of a multi-homed machine), they are then tried in parallel with staggered starts and the first
+	 * reachable one is used, instead of waiting for the operating system to give up on an unreachable one. The winning
+	 * address is remembered for later sessions to the same server. Default value is 0, which connects without a timeout to
+	 * the binding chosen by the framework. </p>
+	 *
+	 * @param timeout in millisecs
+	 */
+	public void setConnectTimeout(int timeout)
+	{
+		this.connectTimeout = timeout;
+	}
+
+	/** Returns the timeout for opening connections to the COM server.
+	 *
+	 * @return
+	 */
+	public int getConnectTimeout()
+	{
+		return connectTimeout;
+	}
+
+	/**<p> Sets the size beyond which responses sent by the COM server in fragments are assembled in a memory mapped
+	 * temporary file instead of on the heap, and decoded from there. Single dimension arrays of <code>Byte</code>s in
+	 * such responses, including <code>SAFEARRAY</code>s of <code>VT_UI1</code>, are handed back as slices of the file
+	 * (refer {@link JIArray#getByteBuffer()}). Use it for methods returning very large arrays or strings. Default
+	 * value is 0, which keeps all responses on the heap. </p>
+	 *
+	 * @param threshold in bytes
+	 */
+	public void setResponseSpillThreshold(int threshold)
+	{
+		this.responseSpillThreshold = threshold;
+	}
+
+	/** Returns the size beyond which responses are assembled in a temporary file.
+	 *
+	 * @return
+	 */
+	public int getResponseSpillThreshold()
+	{
+		return responseSpillThreshold;
+	}
+
+	/**<p> Sets the largest fragments offered to the COM server when binding, <code>max_xmit_frag</code> for the requests
+	 * sent and <code>max_recv_frag</code> for the responses received. The server may accept smaller ones, the sizes it
+	 * acknowledges are the ones used. Larger fragments mean fewer headers, signatures and writes for calls moving lots of
+	 * data. Both default to 4280 bytes. Once the <code>JIComServer</code> is bound to this session (using any of the
+	 * <code>JIComServer</code> constructors) these <b>cannot</b> be changed.
+	 * </p>
+	 *
+	 * @param maxTransmitFragment in bytes, between 1432 and 65535.
+	 * @param maxReceiveFragment in bytes, between 1432 and 65535.
+	 * @throws IllegalArgumentException if a size is out of range.
+	 */
+	public void setMaxFragmentSizes(int maxTransmitFragment, int maxReceiveFragment)
+	{
+		if (maxTransmitFragment < ConnectionContext.MIN_FRAGMENT || maxTransmitFragment > ConnectionContext.MAX_FRAGMENT
+				|| maxReceiveFragment < ConnectionContext.MIN_FRAGMENT || maxReceiveFragment > ConnectionContext.MAX_FRAGMENT)
+		{
+			throw new IllegalArgumentException(JISystem.getLocalizedMessage(JIErrorCodes.JI_COMSTUB_ILLEGAL_ARGUMENTS));
+		}
+		this.maxTransmitFragment = maxTransmitFragment;
+		this.maxReceiveFragment = maxReceiveFragment;
+	}
+
+	/**<p> Largest request fragment offered when binding. </p>
+	 *
+	 * @return
+	 */
+	public int getMaxTransmitFragment()
+	{
+		return maxTransmitFragment;
+	}
+
+	/**<p> Largest response fragment offered when binding. </p>
+	 *
+	 * @return
+	 */
+	public int getMaxReceiveFragment()
+	{
+		return maxReceiveFragment;
+	}
+
+	/**<p> Lets each COM server pick the fragment sizes. The largest fragments (65535 bytes) are offered when binding and
+	 * every association then uses the <code>max_xmit_frag</code> and <code>max_recv_frag</code> its server acknowledges,
+	 * so servers accepting large fragments get them while the others settle on their own maximum. Fragment sizes are
+	 * fixed by the bind for the life of an association, this is where they adapt. The sizes set by
+	 * {@link #setMaxFragmentSizes(int, int)} are ignored while this is on. Once the <code>JIComServer</code> is bound to
+	 * this session (using any of the <code>JIComServer</code> constructors) this <b>cannot</b> be changed.
+	 * </p>
+	 *
+	 * @param enable <code>true</code> to let the servers pick the fragment sizes.
+	 */
+	public void setAdaptiveFragmentSizes(boolean enable)
+	{
+		adaptiveFragmentSizes = enable;
+	}
+
+	/**<p> Returns whether the COM servers pick the fragment sizes. </p>
+	 *
+	 * @return
+	 */
+	public boolean isAdaptiveFragmentSizesEnabled()
+	{
+		return adaptiveFragmentSizes;
+	}
+
+	int getOfferedTransmitFragment()
+	{
+		return adaptiveFragmentSizes ? ConnectionContext.MAX_FRAGMENT : maxTransmitFragment;
+	}
+
+	int getOfferedReceiveFragment()
+	{
+		return adaptiveFragmentSizes ? ConnectionContext.MAX_FRAGMENT : maxReceiveFragment;
+	}
+
 	/**<p> Sets the use of NTLM2 Session Security. Framework will use NTLM Packet Level Privacy and Sign\Seal all packets.
 	 * Once the <code>JIComServer</code> is bound to this session (using any of the <code>JIComServer</code> constructors)
 	 * the use of session security <b>cannot</b> be enabled or disabled.
@@ -1149,6 +1285,196 @@ public final class JISession {
 		useNTLMv2 = enable;
 	}
 	
+	/** <p> Allows threads sharing this session to have their calls to the <code>COM</code> server in flight at the same time
+	 * on one connection, instead of queuing behind each other for the full round trip of every call. Replies are handed back to
+	 * the waiting threads by their RPC call id. If the <code>COM</code> server does not accept concurrent multiplexing during the bind,
+	 * calls are still made one after the other.
+	 * Once the <code>JIComServer</code> is bound to this session (using any of the <code>JIComServer</code> constructors)
+	 * this setting <b>cannot</b> be changed.
+	 * <p>
+	 *
+	 * @param enable <code>true</code> to enable, default is <code>false</code>.
+	 */
+	public void useCallMultiplexing(boolean enable)
+	{
+		useCallMultiplexing = enable;
+	}
+
+	/**<p> Flag indicating whether calls on this session may be multiplexed on one connection. </p>
+	 *
+	 * @return <code>true</code> for enabled.
+	 */
+	public boolean isCallMultiplexingEnabled()
+	{
+		return useCallMultiplexing;
+	}
+
+	/** <p> Makes calls on this session use a pool of authenticated connections to the <code>COM</code> server, each call
+	 * borrowing a connection for its whole round trip. This way one slow call does not hold up the calls of other threads.
+	 * The pool opens <code>minConnections</code> connections on the first call, grows up to <code>maxConnections</code> and
+	 * closes connections idle for longer than the idle timeout (see {@link #setConnectionPoolIdleTimeout(int)}) down to
+	 * <code>minConnections</code>. A connection failing with an I/O error is closed and replaced on demand.
+	 * Takes precedence over {@link #useCallMultiplexing(boolean)}.
+	 * Once the <code>JIComServer</code> is bound to this session (using any of the <code>JIComServer</code> constructors)
+	 * this setting <b>cannot</b> be changed.
+	 * <p>
+	 *
+	 * @param minConnections connections kept open, may be <code>0</code>.
+	 * @param maxConnections upper limit of connections, <code>0</code> disables the pool (default).
+	 * @throws IllegalArgumentException if <code>minConnections</code> is negative or more than <code>maxConnections</code>.
+	 */
+	public void useConnectionPool(int minConnections, int maxConnections)
+	{
+		if (maxConnections < 0 || minConnections < 0 || (maxConnections > 0 && minConnections > maxConnections))
+		{
+			throw new IllegalArgumentException(JISystem.getLocalizedMessage(JIErrorCodes.JI_COMSTUB_ILLEGAL_ARGUMENTS));
+		}
+		connectionPoolMinSize = maxConnections == 0 ? 0 : minConnections;
+		connectionPoolMaxSize = maxConnections;
+	}
+
+	/**<p> Flag indicating whether calls on this session use a connection pool. </p>
+	 *
+	 * @return <code>true</code> for enabled.
+	 */
+	public boolean isConnectionPoolEnabled()
+	{
+		return connectionPoolMaxSize > 0;
+	}
+
+	/**<p> Minimum number of pooled connections. </p>
+	 *
+	 * @return
+	 */
+	public int getConnectionPoolMinSize()
+	{
+		return connectionPoolMinSize;
+	}
+
+	/**<p> Maximum number of pooled connections, <code>0</code> if the pool is disabled. </p>
+	 *
+	 * @return
+	 */
+	public int getConnectionPoolMaxSize()
+	{
+		return connectionPoolMaxSize;
+	}
+
+	/** <p> Sets the time after which an idle pooled connection is closed. Default is 60 seconds.
+	 * </p>
+	 * @param timeout in millisecs, <code>0</code> keeps idle connections open.
+	 */
+	public void setConnectionPoolIdleTimeout(int timeout)
+	{
+		connectionPoolIdleTimeout = timeout;
+	}
+
+	/**<p> Time after which an idle pooled connection is closed. </p>
+	 *
+	 * @return timeout in millisecs.
+	 */
+	public int getConnectionPoolIdleTimeout()
+	{
+		return connectionPoolIdleTimeout;
+	}
+
+	/** <p> Makes the connections of this session do blocking socket I/O on the calling thread instead of being served by
+	 * the selector threads. Suited to applications running a large number of calls on virtual threads.
+	 * Defaults to the system wide setting, see {@link JISystem#setBlockingTransport(boolean)}.
+	 * Once the <code>JIComServer</code> is bound to this session (using any of the <code>JIComServer</code> constructors)
+	 * this setting <b>cannot</b> be changed.
+	 * <p>
+	 *
+	 * @param enable <code>true</code> to enable.
+	 */
+	public void useBlockingTransport(boolean enable)
+	{
+		useBlockingTransport = enable;
+	}
+
+	/**<p> Flag indicating whether the connections of this session use the blocking transport. </p>
+	 *
+	 * @return <code>true</code> for enabled.
+	 */
+	public boolean isBlockingTransportEnabled()
+	{
+		return useBlockingTransport;
+	}
+
+	/** <p> Sets the options of the sockets opened to the COM server, for e.g. {@link JISocketOptions#lowLatency()} for
+	 * a session making many small calls. Defaults to the system wide setting, see
+	 * {@link JISystem#setSocketOptions(JISocketOptions)}. Once the <code>JIComServer</code> is bound to this session
+	 * (using any of the <code>JIComServer</code> constructors) these <b>cannot</b> be changed.
+	 * </p>
+	 *
+	 * @param options
+	 */
+	public void setSocketOptions(JISocketOptions options)
+	{
+		socketOptions = new JISocketOptions(options);
+	}
+
+	/**<p> Returns a copy of the socket options of this session. </p>
+	 *
+	 * @return
+	 */
+	public JISocketOptions getSocketOptions()
+	{
+		return new JISocketOptions(socketOptions);
+	}
+
+	/** <p> Sets the time after which the idle connections of this session to the COM server are closed, they are opened
+	 * again by the next call. Defaults to the system wide setting, see {@link JISystem#setIdleConnectionTimeout(int)}.
+	 * Connections of the pool, if enabled, are governed by {@link #setConnectionPoolIdleTimeout(int)} instead.
+	 * </p>
+	 *
+	 * @param timeout in millisecs, 0 for none.
+	 * @throws IllegalArgumentException if <code>timeout</code> is negative.
+	 */
+	public void setIdleConnectionTimeout(int timeout)
+	{
+		if (timeout < 0)
+		{
+			throw new IllegalArgumentException(JISystem.getLocalizedMessage(JIErrorCodes.JI_COMSTUB_ILLEGAL_ARGUMENTS));
+		}
+		idleConnectionTimeout = timeout;
+	}
+
+	/**<p> Returns the time after which idle connections are closed, 0 for none. </p>
+	 *
+	 * @return timeout in millisecs.
+	 */
+	public int getIdleConnectionTimeout()
+	{
+		return idleConnectionTimeout;
+	}
+
+	/** <p> Sets the time after which the idle connections of this session to the COM server, pooled ones included, are
+	 * checked with a round trip before being used again. Connections failing the check are replaced. Defaults to the
+	 * system wide setting, see {@link JISystem#setConnectionCheckInterval(int)}.
+	 * </p>
+	 *
+	 * @param interval in millisecs, 0 for none.
+	 * @throws IllegalArgumentException if <code>interval</code> is negative.
+	 */
+	public void setConnectionCheckInterval(int interval)
+	{
+		if (interval < 0)
+		{
+			throw new IllegalArgumentException(JISystem.getLocalizedMessage(JIErrorCodes.JI_COMSTUB_ILLEGAL_ARGUMENTS));
+		}
+		connectionCheckInterval = interval;
+	}
+
+	/**<p> Returns the time after which idle connections are checked, 0 for none. </p>
+	 *
+	 * @return interval in millisecs.
+	 */
+	public int getConnectionCheckInterval()
+	{
+		return connectionCheckInterval;
+	}
+
 	/**<p> Flag indicating whether session security is enabled. </p>
 	 *
 	 * @return <code>true</code> for enabled.
@@ -1752,7 +1752,11 @@ class VariantBody implements Serializable
 			else
 			{
 
-				if (nestedArraysRealClass != null)
+				if (nestedArraysRealClass == Byte.class && retVal.getByteBuffer() != null)
+				{
+					//bytes of a spilled response, already an array of the right type.
+				}
+				else if (nestedArraysRealClass != null)
 				{
 					Object[] obj = (Object[])retVal.getArrayInstance(); //these will all be variants
 					Object obj2 = Array.newInstance(nestedArraysRealClass,obj.length);
@@ -0,0 +1,154 @@
+/**
+* j-Interop (Pure Java implementation of DCOM protocol)
+*
+* Copyright (c) 2013 Vikram Roopchand
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+* Vikram Roopchand  - Moving to EPL from LGPL v3.
+*
+*/
+
+package org.jinterop.dcom.impls.automation;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIAsyncCalls;
+import org.jinterop.dcom.core.JIVariant;
+
+/**<p> Asynchronous variants of the {@link IJIDispatch} calls, returning once the call has been placed. See
+ * {@link JIAsyncCalls} for how the call is kept in flight. The <code>Future</code> yields the same results as the
+ * synchronous call, failures are reported as the cause of the <code>ExecutionException</code>. A failed
+ * <code>Invoke</code> carries its <code>EXCEPINFO</code> in its {@link JIAutomationException}, which
+ * {@link IJIDispatch#getLastExcepInfo()} does not cover. </p>
+ * <p> Calls on <code>IJIDispatch</code> objects not created by the framework are made right away, the
+ * <code>Future</code> returned has completed. </p>
+ *
+ * @since 3.0
+ */
+public final class JIAsyncDispatch {
+
+	private JIAsyncDispatch() {}
+
+	/** Asynchronous variant of {@link IJIDispatch#get(int)}.
+	 * The property value is the first element of the array yielded by the <code>Future</code>.
+	 *
+	 * @param dispatch object to call.
+	 * @param dispId <code>DISPID</code> of the property.
+	 * @return <code>Future</code> of the result.
+	 * @throws JIException if the call could not be placed.
+	 */
+	public static Future<JIVariant[]> get(IJIDispatch dispatch, int dispId) throws JIException
+	{
+		if (dispatch instanceof JIDispatchImpl)
+		{
+			return ((JIDispatchImpl)dispatch).getAsync(dispId);
+		}
+		try {
+			return new Completed(new JIVariant[]{dispatch.get(dispId)}, null);
+		} catch (JIException e) {
+			return new Completed(null, e);
+		}
+	}
+
+	/** Asynchronous variant of {@link IJIDispatch#get(String)}. The {@link IJIDispatch#getIDsOfNames(String)} lookup
+	 * is done before the call is placed.
+	 *
+	 * @param dispatch object to call.
+	 * @param name name of the property.
+	 * @return <code>Future</code> of the result, the property value being the first element.
+	 * @throws JIException if the call could not be placed.
+	 * @throws IllegalArgumentException if the <code>name</code> is <code>null</code> or empty.
+	 */
+	public static Future<JIVariant[]> get(IJIDispatch dispatch, String name) throws JIException
+	{
+		return get(dispatch, dispatch.getIDsOfNames(name));
+	}
+
+	/** Asynchronous variant of {@link IJIDispatch#callMethodA(int, Object[])}.
+	 *
+	 * @param dispatch object to call.
+	 * @param dispId <code>DISPID</code> of the method to invoke.
+	 * @param inparams members of this array are implicitly converted to <code>JIVariant</code>s before performing the
+	 * actual call to the COM server, via the <code>IJIDispatch</code> interface.
+	 * @return <code>Future</code> of the result.
+	 * @throws JIException if the call could not be placed.
+	 */
+	public static Future<JIVariant[]> callMethodA(IJIDispatch dispatch, int dispId, Object[] inparams) throws JIException
+	{
+		if (dispatch instanceof JIDispatchImpl)
+		{
+			return ((JIDispatchImpl)dispatch).callMethodAAsync(dispId, inparams);
+		}
+		try {
+			return new Completed(dispatch.callMethodA(dispId, inparams), null);
+		} catch (JIException e) {
+			return new Completed(null, e);
+		}
+	}
+
+	/** Asynchronous variant of {@link IJIDispatch#callMethodA(String, Object[])}. The
+	 * {@link IJIDispatch#getIDsOfNames(String)} lookup is done before the call is placed.
+	 *
+	 * @param dispatch object to call.
+	 * @param name name of the method to invoke.
+	 * @param inparams members of this array are implicitly converted to <code>JIVariant</code>s before performing the
+	 * actual call to the COM server, via the <code>IJIDispatch</code> interface.
+	 * @return <code>Future</code> of the result.
+	 * @throws JIException if the call could not be placed.
+	 * @throws IllegalArgumentException if the <code>name</code> is <code>null</code> or empty.
+	 */
+	public static Future<JIVariant[]> callMethodA(IJIDispatch dispatch, String name, Object[] inparams) throws JIException
+	{
+		return callMethodA(dispatch, dispatch.getIDsOfNames(name), inparams);
+	}
+
+	//call made right away, failure is null if it succeeded.
+	private static final class Completed implements Future<JIVariant[]>
+	{
+		private final JIVariant[] results;
+		private final JIException failure;
+
+		Completed(JIVariant[] results, JIException failure)
+		{
+			this.results = results;
+			this.failure = failure;
+		}
+
+		public boolean cancel(boolean mayInterruptIfRunning)
+		{
+			return false;
+		}
+
+		public boolean isCancelled()
+		{
+			return false;
+		}
+
+		public boolean isDone()
+		{
+			return true;
+		}
+
+		public JIVariant[] get() throws ExecutionException
+		{
+			if (failure != null)
+			{
+				throw new ExecutionException(failure);
+			}
+			return results;
+		}
+
+		public JIVariant[] get(long timeout, TimeUnit unit) throws ExecutionException
+		{
+			return get();
+		}
+	}
+}
@@ -19,12 +19,17 @@ package org.jinterop.dcom.impls.automation;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.jinterop.dcom.common.JIErrorCodes;
 import org.jinterop.dcom.common.JIException;
 import org.jinterop.dcom.common.JISystem;
 import org.jinterop.dcom.core.IJIComObject;
 import org.jinterop.dcom.core.JIArray;
+import org.jinterop.dcom.core.JIAsyncCalls;
 import org.jinterop.dcom.core.JICallBuilder;
 import org.jinterop.dcom.core.JIComObjectImplWrapper;
 import org.jinterop.dcom.core.JIFlags;
@@ -225,6 +230,27 @@ final class JIDispatchImpl extends JIComObjectImplWrapper implements IJIDispatch
 	public JIVariant[] invoke(int dispId,int dispatchFlags,JIArray arrayOfVariantsInParams,JIArray arrayOfNamedDispIds,JIVariant outParamType) throws JIException
 	{
 	    lastExcepInfo.clearAll();
+		JICallBuilder obj = prepareInvoke(dispId,dispatchFlags,arrayOfVariantsInParams,arrayOfNamedDispIds,outParamType);
+
+		Object[] result = null;
+		try{
+			result = comObject.call(obj);
+		}catch(JIException e)
+		{
+			throw translateException(e,obj,lastExcepInfo);
+		}
+
+		return toVariants(result);
+	}
+
+	private Future<JIVariant[]> invokeAsync(int dispId,int dispatchFlags,JIArray arrayOfVariantsInParams) throws JIException
+	{
+		JICallBuilder obj = prepareInvoke(dispId,dispatchFlags,arrayOfVariantsInParams,null,null);
+		return new DispatchFuture(JIAsyncCalls.call(comObject,obj),obj);
+	}
+
+	private JICallBuilder prepareInvoke(int dispId,int dispatchFlags,JIArray arrayOfVariantsInParams,JIArray arrayOfNamedDispIds,JIVariant outParamType) throws JIException
+	{
 		JICallBuilder obj = new JICallBuilder(true);
 		obj.setOpnum(3);
 
@@ -307,39 +333,40 @@ final class JIDispatchImpl extends JIComObjectImplWrapper implements IJIDispatch
 
 
 		obj.setOutParams(outparams,JIFlags.FLAG_REPRESENTATION_IDISPATCH_INVOKE);
+		return obj;
+	}
 
-		Object[] result = null;
-		try{
-			result = comObject.call(obj);
-		}catch(JIException e)
+	private static JIException translateException(JIException e, JICallBuilder obj, JIExcepInfo excepInfo)
+	{
+		Object[] results = obj.getResultsInCaseOfException();
+		if (results != null)
 		{
-			Object[] results = obj.getResultsInCaseOfException();
-			if (results != null)
-			{
-				//catching here so that an extended message could be sent out
-				JIStruct excepInfoRet = ((JIStruct)results[1]);
-				String text1 = ((JIString)(excepInfoRet.getMember(2))).getString() + " ";
-				String text2 = ((JIString)(excepInfoRet.getMember(3))).getString() + " [ ";
-				String text3 = ((JIString)(excepInfoRet.getMember(4))).getString() + " ] ";
-				lastExcepInfo.excepDesc = text2;
-				lastExcepInfo.excepHelpfile = text3;
-				lastExcepInfo.excepSource = text1;
-				lastExcepInfo.errorCode = ((Short)excepInfoRet.getMember(0)).intValue() != 0 ? ((Short)excepInfoRet.getMember(0)).intValue() :
-				                                                                    ((Integer)excepInfoRet.getMember(8)).intValue();
-
-
-				JIAutomationException automationException = new JIAutomationException(e);
-				automationException.setExcepInfo(lastExcepInfo);
-				throw automationException;
+			//catching here so that an extended message could be sent out
+			JIStruct excepInfoRet = ((JIStruct)results[1]);
+			String text1 = ((JIString)(excepInfoRet.getMember(2))).getString() + " ";
+			String text2 = ((JIString)(excepInfoRet.getMember(3))).getString() + " [ ";
+			String text3 = ((JIString)(excepInfoRet.getMember(4))).getString() + " ] ";
+			excepInfo.excepDesc = text2;
+			excepInfo.excepHelpfile = text3;
+			excepInfo.excepSource = text1;
+			excepInfo.errorCode = ((Short)excepInfoRet.getMember(0)).intValue() != 0 ? ((Short)excepInfoRet.getMember(0)).intValue() :
+			                                                                    ((Integer)excepInfoRet.getMember(8)).intValue();
+
+
+			JIAutomationException automationException = new JIAutomationException(e);
+			automationException.setExcepInfo(excepInfo);
+			return automationException;
 //				throw new JIException(obj.getHRESULT(),JISystem.getLocalizedMessage(obj.getHRESULT()) + " ==> Message from Server: " +
 //				text1 + text2 + text3);
-			}
-			else
-			{
-				throw e;
-			}
 		}
+		else
+		{
+			return e;
+		}
+	}
 
+	private static JIVariant[] toVariants(Object[] result)
+	{
 		JIArray array = (JIArray)result[3];
 		JIVariant[] byrefVariants = (JIVariant[])array.getArrayInstance(); //will be a sinlge dimensional array.
 
@@ -476,6 +503,11 @@ final class JIDispatchImpl extends JIComObjectImplWrapper implements IJIDispatch
 	}
 
 	private JIVariant[] callMethodA(int dispId, Object[] inparams, int FLAG) throws JIException
+	{
+		return invoke(dispId,FLAG,toVariantArray(inparams),null,null);
+	}
+
+	private static JIArray toVariantArray(Object[] inparams)
 	{
 		Object[] objectParams = inparams;
 	    if (objectParams == null)
@@ -515,7 +547,7 @@ final class JIDispatchImpl extends JIComObjectImplWrapper implements IJIDispatch
 //		System.arraycopy(arrayOfDispIds,0,array,0,inparams.length);
 //		JIArray arrayOfValues = new JIArray(array,true);
 
-		return invoke(dispId,FLAG,new JIArray(variants,true),null,null);
+		return new JIArray(variants,true);
 	}
 
 	//	Ordinary params, will internally form Variant and the JIArray associated
@@ -524,6 +556,74 @@ final class JIDispatchImpl extends JIComObjectImplWrapper implements IJIDispatch
 		return callMethodA(dispId,inparams,IJIDispatch.DISPATCH_METHOD);
 	}
 
+	//the asynchronous variants are reached through JIAsyncDispatch.
+	Future<JIVariant[]> getAsync(int dispId) throws JIException
+	{
+		return invokeAsync(dispId,IJIDispatch.DISPATCH_PROPERTYGET,null);
+	}
+
+	Future<JIVariant[]> callMethodAAsync(int dispId, Object[] inparams) throws JIException
+	{
+		return invokeAsync(dispId,IJIDispatch.DISPATCH_METHOD,toVariantArray(inparams));
+	}
+
+	/** Converts the results of an asynchronous <code>Invoke</code> the same way {@link JIDispatchImpl#invoke} does. The
+	 * <code>EXCEPINFO</code> of a failure is kept with the call, {@link #getLastExcepInfo()} only covers synchronous calls.
+	 */
+	private final class DispatchFuture implements Future<JIVariant[]>
+	{
+		private final Future<Object[]> future;
+		private final JICallBuilder obj;
+
+		DispatchFuture(Future<Object[]> future, JICallBuilder obj)
+		{
+			this.future = future;
+			this.obj = obj;
+		}
+
+		public boolean cancel(boolean mayInterruptIfRunning)
+		{
+			return future.cancel(mayInterruptIfRunning);
+		}
+
+		public boolean isCancelled()
+		{
+			return future.isCancelled();
+		}
+
+		public boolean isDone()
+		{
+			return future.isDone();
+		}
+
+		public JIVariant[] get() throws InterruptedException, ExecutionException
+		{
+			try {
+				return toVariants(future.get());
+			} catch (ExecutionException e) {
+				throw translate(e);
+			}
+		}
+
+		public JIVariant[] get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+		{
+			try {
+				return toVariants(future.get(timeout,unit));
+			} catch (ExecutionException e) {
+				throw translate(e);
+			}
+		}
+
+		private ExecutionException translate(ExecutionException e)
+		{
+			if (e.getCause() instanceof JIException)
+			{
+				return new ExecutionException(translateException((JIException)e.getCause(),obj,new JIExcepInfo()));
+			}
+			return e;
+		}
+	}
+
 	public void callMethod(String name, Object[] inparams, int[] dispIds) throws JIException
 	{
 		callMethodA(getIDsOfNames(name),inparams,dispIds);
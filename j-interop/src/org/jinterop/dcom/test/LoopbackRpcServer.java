@@ -0,0 +1,237 @@
+package org.jinterop.dcom.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Iterator;
+
+import ndr.NdrBuffer;
+import ndr.NdrBufferPool;
+import ndr.NdrObject;
+import ndr.NetworkDataRepresentation;
+import rpc.ConnectionOrientedPdu;
+import rpc.core.PresentationResult;
+import rpc.pdu.AlterContextPdu;
+import rpc.pdu.AlterContextResponsePdu;
+import rpc.pdu.BindAcknowledgePdu;
+import rpc.pdu.BindPdu;
+import rpc.pdu.RequestCoPdu;
+import rpc.pdu.ResponseCoPdu;
+
+/**
+ * Connection oriented DCE/RPC server on the loopback interface for the drivers of this package, so that they go
+ * through the real transports, endpoints and PDUs without a <code>COM</code> server. It accepts every presentation
+ * context of a bind or alter context, acknowledging the fragment sizes offered, and answers every request, once its
+ * last fragment is in, with a response of <code>responseSize</code> bytes of stub in a single write. There is no
+ * authentication, the endpoints use the <code>BasicConnectionContext</code> unless told otherwise.
+ */
+public class LoopbackRpcServer {
+
+	//offset of p_context_elem in bind and alter context PDUs.
+	private static final int CONTEXT_COUNT_OFFSET = 24;
+
+	private final ServerSocket serverSocket;
+	private final int responseSize;
+
+	public LoopbackRpcServer(int responseSize) throws IOException
+	{
+		this.responseSize = responseSize;
+		serverSocket = new ServerSocket(0, 1024, InetAddress.getByName("127.0.0.1"));
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				accept();
+			}
+		}, "LoopbackRpcServer-Acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/** Returns the address of this server, for e.g. "ncacn_ip_tcp:127.0.0.1[50123]".
+	 */
+	public String getAddress()
+	{
+		return "ncacn_ip_tcp:127.0.0.1[" + serverSocket.getLocalPort() + "]";
+	}
+
+	public void close() throws IOException
+	{
+		serverSocket.close();
+	}
+
+	/** Call to this server, writing <code>requestSize</code> bytes of stub and reading the response. A request larger
+	 * than the array handed in is written into a larger one from the <code>NdrBufferPool</code>, as
+	 * <code>JICallBuilder</code> does.
+	 */
+	public static class Call extends NdrObject
+	{
+		private final byte[] request;
+		private final byte[] response;
+
+		public Call(int requestSize, int responseSize)
+		{
+			request = new byte[requestSize];
+			response = new byte[responseSize];
+		}
+
+		public void write(NetworkDataRepresentation ndr)
+		{
+			if (request.length > ndr.getBuffer().buf.length)
+			{
+				ndr.getBuffer().buf = NdrBufferPool.acquire(request.length);
+			}
+			ndr.writeOctetArray(request, 0, request.length);
+		}
+
+		public void read(NetworkDataRepresentation ndr)
+		{
+			ndr.readOctetArray(response, 0, response.length);
+		}
+	}
+
+	private void accept()
+	{
+		try {
+			while (true)
+			{
+				final Socket socket = serverSocket.accept();
+				Thread server = new Thread(new Runnable() {
+					public void run() {
+						serve(socket);
+					}
+				}, "LoopbackRpcServer-Connection");
+				server.setDaemon(true);
+				server.start();
+			}
+		} catch (IOException e) {
+			//server socket closed.
+		}
+	}
+
+	private void serve(Socket socket)
+	{
+		byte[] buffer = new byte[65536];
+		//encoded once the fragment size is known, only the call id changes.
+		byte[] response = null;
+		int transmitFragment = 0;
+		try {
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			while (true)
+			{
+				in.readFully(buffer, 0, ConnectionOrientedPdu.HEADER_LENGTH);
+				int length = readShort(buffer, ConnectionOrientedPdu.FRAG_LENGTH_OFFSET);
+				in.readFully(buffer, ConnectionOrientedPdu.HEADER_LENGTH, length - ConnectionOrientedPdu.HEADER_LENGTH);
+				int callId = readInt(buffer, ConnectionOrientedPdu.CALL_ID_OFFSET);
+				switch (buffer[ConnectionOrientedPdu.TYPE_OFFSET])
+				{
+					case BindPdu.BIND_TYPE:
+						//max_xmit_frag of the client is the one this server receives and the other way round.
+						int receiveFragment = readShort(buffer, ConnectionOrientedPdu.HEADER_LENGTH);
+						transmitFragment = readShort(buffer, ConnectionOrientedPdu.HEADER_LENGTH + 2);
+						response = null;
+						BindAcknowledgePdu bindAck = new BindAcknowledgePdu();
+						bindAck.setMaxTransmitFragment(transmitFragment);
+						bindAck.setMaxReceiveFragment(receiveFragment);
+						bindAck.setAssociationGroupId(1);
+						bindAck.setResultList(accept(buffer[CONTEXT_COUNT_OFFSET] & 0xff));
+						bindAck.setCallId(callId);
+						out.write(encode(bindAck));
+						break;
+					case AlterContextPdu.ALTER_CONTEXT_TYPE:
+						AlterContextResponsePdu alterResponse = new AlterContextResponsePdu();
+						alterResponse.setMaxTransmitFragment(transmitFragment);
+						alterResponse.setMaxReceiveFragment(transmitFragment);
+						alterResponse.setAssociationGroupId(1);
+						alterResponse.setResultList(accept(buffer[CONTEXT_COUNT_OFFSET] & 0xff));
+						alterResponse.setCallId(callId);
+						out.write(encode(alterResponse));
+						break;
+					case RequestCoPdu.REQUEST_TYPE:
+						if ((buffer[ConnectionOrientedPdu.FLAGS_OFFSET] & ConnectionOrientedPdu.PFC_LAST_FRAG) == 0)
+						{
+							break;
+						}
+						if (response == null)
+						{
+							response = encodeResponse(transmitFragment);
+						}
+						setCallIds(response, callId);
+						out.write(response);
+						break;
+					default:
+						//auth3, cancel and orphaned need no answer.
+						break;
+				}
+			}
+		} catch (IOException e) {
+			//connection closed.
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {}
+		}
+	}
+
+	private static PresentationResult[] accept(int count)
+	{
+		PresentationResult[] results = new PresentationResult[count];
+		for (int i = 0; i < count; i++)
+		{
+			results[i] = new PresentationResult();
+		}
+		return results;
+	}
+
+	//all fragments of the response, back to back.
+	private byte[] encodeResponse(int fragmentSize)
+	{
+		ResponseCoPdu pdu = new ResponseCoPdu();
+		pdu.setStub(new byte[responseSize]);
+		pdu.setAllocationHint(responseSize);
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		Iterator fragments = pdu.fragment(fragmentSize);
+		while (fragments.hasNext())
+		{
+			byte[] fragment = encode((ConnectionOrientedPdu)fragments.next());
+			stream.write(fragment, 0, fragment.length);
+		}
+		return stream.toByteArray();
+	}
+
+	private static byte[] encode(ConnectionOrientedPdu pdu)
+	{
+		NdrBuffer buffer = new NdrBuffer(new byte[65536], 0);
+		pdu.encode(new NetworkDataRepresentation(), buffer);
+		byte[] bytes = new byte[buffer.getLength()];
+		System.arraycopy(buffer.getBuffer(), 0, bytes, 0, bytes.length);
+		return bytes;
+	}
+
+	private static void setCallIds(byte[] fragments, int callId)
+	{
+		int index = 0;
+		while (index < fragments.length)
+		{
+			fragments[index + ConnectionOrientedPdu.CALL_ID_OFFSET] = (byte)callId;
+			fragments[index + ConnectionOrientedPdu.CALL_ID_OFFSET + 1] = (byte)(callId >> 8);
+			fragments[index + ConnectionOrientedPdu.CALL_ID_OFFSET + 2] = (byte)(callId >> 16);
+			fragments[index + ConnectionOrientedPdu.CALL_ID_OFFSET + 3] = (byte)(callId >> 24);
+			index += readShort(fragments, index + ConnectionOrientedPdu.FRAG_LENGTH_OFFSET);
+		}
+	}
+
+	//little endian, as the transports encode.
+	private static int readShort(byte[] buffer, int index)
+	{
+		return (buffer[index] & 0xff) | (buffer[index + 1] & 0xff) << 8;
+	}
+
+	private static int readInt(byte[] buffer, int index)
+	{
+		return readShort(buffer, index) | readShort(buffer, index + 2) << 16;
+	}
+}
@@ -0,0 +1,79 @@
+package org.jinterop.dcom.test;
+
+import java.util.Properties;
+
+import ndr.NdrBufferPool;
+
+import org.jinterop.dcom.transport.JIComTransportFactory;
+
+import rpc.ConnectionOrientedEndpoint;
+import rpc.Endpoint;
+import rpc.core.PresentationSyntax;
+
+/**
+ * Places calls through a <code>ConnectionOrientedEndpoint</code> on the selector based transport to a
+ * {@link LoopbackRpcServer} and reports the stub buffers the {@link NdrBufferPool} hands out, reuses and allocates per
+ * call. Small calls fit one fragment, large ones are sent as several through the gathered path. Once the pool is warm
+ * no call should allocate, the driver exits with status 1 if one does.
+ * <p>
+ * Usage: NdrBufferPoolDriver [calls] [smallRequestSize] [largeRequestSize]
+ */
+public class NdrBufferPoolDriver {
+
+	private static final int RESPONSE_SIZE = 64;
+	private static final int WARM_UP_CALLS = 100;
+
+	public static void main(String[] args) throws Exception
+	{
+		int calls = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int smallRequestSize = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		int largeRequestSize = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+		LoopbackRpcServer server = new LoopbackRpcServer(RESPONSE_SIZE);
+		Properties properties = new Properties();
+		properties.setProperty("rpc.socketTimeout", "30000");
+		ConnectionOrientedEndpoint endpoint = (ConnectionOrientedEndpoint)JIComTransportFactory.getSingleton()
+				.createTransport(server.getAddress(), properties).attach(new PresentationSyntax("99fcfec4-5260-101b-bbcb-00aa0021347a:0.0"));
+
+		boolean passed = run("small", endpoint, calls, smallRequestSize);
+		passed &= run("large", endpoint, calls, largeRequestSize);
+
+		endpoint.detach();
+		server.close();
+		if (!passed)
+		{
+			System.exit(1);
+		}
+	}
+
+	private static boolean run(String name, ConnectionOrientedEndpoint endpoint, int calls, int requestSize) throws Exception
+	{
+		LoopbackRpcServer.Call call = new LoopbackRpcServer.Call(requestSize, RESPONSE_SIZE);
+		for (int i = 0; i < WARM_UP_CALLS; i++)
+		{
+			endpoint.call(Endpoint.IDEMPOTENT, null, 0, call);
+		}
+
+		long acquired = NdrBufferPool.getAcquiredCount();
+		long allocated = NdrBufferPool.getAllocatedCount();
+		long hits = NdrBufferPool.getHitCount();
+		long placed = ConnectionOrientedEndpoint.getCallCount();
+		for (int i = 0; i < calls; i++)
+		{
+			endpoint.call(Endpoint.IDEMPOTENT, null, 0, call);
+		}
+		placed = ConnectionOrientedEndpoint.getCallCount() - placed;
+		acquired = NdrBufferPool.getAcquiredCount() - acquired;
+		allocated = NdrBufferPool.getAllocatedCount() - allocated;
+		hits = NdrBufferPool.getHitCount() - hits;
+
+		System.out.println(name + ": " + placed + " calls of " + requestSize + " bytes, per call " + (double)acquired / placed
+				+ " buffers acquired, " + (double)hits / placed + " reused, " + (double)allocated / placed + " allocated");
+		if (allocated > 0)
+		{
+			System.out.println(name + ": FAILED, " + allocated + " buffers allocated with a warm pool");
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,178 @@
+package org.jinterop.dcom.test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+import org.jinterop.dcom.transport.JIComBlockingTransportFactory;
+import org.jinterop.dcom.transport.JIComTransportFactory;
+import org.jinterop.dcom.transport.JISocketOptions;
+
+import rpc.ConnectionOrientedEndpoint;
+import rpc.DefaultConnection;
+import rpc.Endpoint;
+import rpc.TransportFactory;
+import rpc.core.PresentationSyntax;
+
+/**
+ * Compares the selector based transport with the blocking one over loopback. Every connection is bound to a
+ * {@link LoopbackRpcServer} through a <code>ConnectionOrientedEndpoint</code> and runs on a thread of its own, placing
+ * calls with <code>stubSize</code> bytes of stub each way, so that every call goes through the request and response
+ * PDUs, the fragment handling and the transport as a <code>DCOM</code> call does.
+ * <p>
+ * Usage: TransportBenchmark [connections] [calls] [stubSize]
+ * <p>
+ * With <code>profiles</code> as first argument it compares the socket options presets instead, on small calls like
+ * <code>IDispatch::Invoke</code> ones placed through the selector based transport. At the default fragment size such a
+ * request is a single fragment; larger ones are sent as several fragments in one gathering write, as j-Interop does.
+ * The fragments per call are reported along with the latencies.
+ * <p>
+ * Usage: TransportBenchmark profiles [calls] [requestSize]
+ */
+public class TransportBenchmark {
+
+	private static final int RESPONSE_SIZE = 120;
+
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length > 0 && "profiles".equals(args[0]))
+		{
+			profiles(args);
+			return;
+		}
+
+		int connections = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int calls = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		int stubSize = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+
+		LoopbackRpcServer server = new LoopbackRpcServer(stubSize);
+
+		//first round of each warms up the JIT.
+		for (int i = 0; i < 2; i++)
+		{
+			run("selector", JIComTransportFactory.getSingleton(), server.getAddress(), connections, calls, stubSize);
+			run("blocking", JIComBlockingTransportFactory.getSingleton(), server.getAddress(), connections, calls, stubSize);
+		}
+		server.close();
+	}
+
+	private static void run(String name, TransportFactory factory, String address, int connections, final int calls,
+			final int stubSize) throws Exception
+	{
+		final ConnectionOrientedEndpoint[] endpoints = new ConnectionOrientedEndpoint[connections];
+		Properties properties = new Properties();
+		properties.setProperty("rpc.socketTimeout", "30000");
+		for (int i = 0; i < connections; i++)
+		{
+			endpoints[i] = (ConnectionOrientedEndpoint)factory.createTransport(address, properties)
+					.attach(new PresentationSyntax("99fcfec4-5260-101b-bbcb-00aa0021347a:0.0"));
+		}
+
+		final long[][] latencies = new long[connections][calls];
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(connections);
+		final Exception[] failure = new Exception[1];
+		for (int i = 0; i < connections; i++)
+		{
+			final int index = i;
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+						calls(endpoints[index], latencies[index], stubSize);
+					} catch (Exception e) {
+						failure[0] = e;
+					} finally {
+						done.countDown();
+					}
+				}
+			}, "TransportBenchmark-" + i);
+			thread.start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+		for (int i = 0; i < connections; i++)
+		{
+			endpoints[i].detach();
+		}
+		if (failure[0] != null)
+		{
+			throw failure[0];
+		}
+
+		long[] all = new long[connections * calls];
+		for (int i = 0; i < connections; i++)
+		{
+			System.arraycopy(latencies[i], 0, all, i * calls, calls);
+		}
+		Arrays.sort(all);
+		System.out.println(name + ": " + connections + " connections, " + (all.length * 1000000000L / elapsed) + " calls/s, p50 "
+				+ all[all.length / 2] / 1000 + " us, p99 " + all[all.length * 99 / 100] / 1000 + " us, max " + all[all.length - 1] / 1000 + " us");
+	}
+
+	private static void profiles(String[] args) throws Exception
+	{
+		int calls = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		int requestSize = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+		LoopbackRpcServer server = new LoopbackRpcServer(RESPONSE_SIZE);
+		String[] names = {"default", "lowLatency", "bulk"};
+		JISocketOptions[] presets = {new JISocketOptions(), JISocketOptions.lowLatency(), JISocketOptions.bulk()};
+		for (int i = 0; i < 2; i++)
+		{
+			for (int j = 0; j < presets.length; j++)
+			{
+				call(names[j], presets[j], server.getAddress(), calls, requestSize);
+			}
+		}
+		server.close();
+	}
+
+	private static void call(String name, JISocketOptions options, String address, int calls, int requestSize)
+			throws Exception
+	{
+		Properties properties = new Properties();
+		properties.setProperty("rpc.socketTimeout", "30000");
+		options.writeTo(properties);
+		ConnectionOrientedEndpoint endpoint = (ConnectionOrientedEndpoint)JIComTransportFactory.getSingleton()
+				.createTransport(address, properties).attach(new PresentationSyntax("00020400-0000-0000-c000-000000000046:0.0"));
+
+		LoopbackRpcServer.Call call = new LoopbackRpcServer.Call(requestSize, RESPONSE_SIZE);
+		//binds, outside of the figures.
+		endpoint.call(Endpoint.IDEMPOTENT, null, 0, call);
+		long fragments = DefaultConnection.getTransmittedFragmentCount();
+		long[] latencies = new long[calls];
+		long begin = System.nanoTime();
+		for (int i = 0; i < calls; i++)
+		{
+			long start = System.nanoTime();
+			endpoint.call(Endpoint.IDEMPOTENT, null, 0, call);
+			latencies[i] = System.nanoTime() - start;
+		}
+		long elapsed = System.nanoTime() - begin;
+		fragments = DefaultConnection.getTransmittedFragmentCount() - fragments;
+		endpoint.detach();
+
+		Arrays.sort(latencies);
+		System.out.println(name + ": " + calls + " calls of " + requestSize + " bytes in " + (double)fragments / calls
+				+ " fragments, " + (calls * 1000000000L / elapsed) + " calls/s, p50 " + latencies[calls / 2] / 1000 + " us, p99 "
+				+ latencies[calls * 99 / 100] / 1000 + " us");
+	}
+
+	private static void calls(ConnectionOrientedEndpoint endpoint, long[] latencies, int stubSize) throws IOException
+	{
+		LoopbackRpcServer.Call call = new LoopbackRpcServer.Call(stubSize, stubSize);
+		//binds, outside of the figures.
+		endpoint.call(Endpoint.IDEMPOTENT, null, 0, call);
+		for (int i = 0; i < latencies.length; i++)
+		{
+			long begin = System.nanoTime();
+			endpoint.call(Endpoint.IDEMPOTENT, null, 0, call);
+			latencies[i] = System.nanoTime() - begin;
+		}
+	}
+}
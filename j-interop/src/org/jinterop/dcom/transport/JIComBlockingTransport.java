@@ -0,0 +1,276 @@
+/**
+* j-Interop (Pure Java implementation of DCOM protocol)
+*     
+* Copyright (c) 2013 Vikram Roopchand
+* 
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+* Vikram Roopchand  - Moving to EPL from LGPL v3.
+*  
+*/
+package org.jinterop.dcom.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+
+import ndr.NdrBuffer;
+
+import org.jinterop.dcom.common.JISystem;
+
+import rpc.Deadline;
+import rpc.Endpoint;
+import rpc.ProviderException;
+import rpc.RpcException;
+import rpc.Transport;
+import rpc.core.PresentationSyntax;
+
+/**
+ * ncacn_ip_tcp transport doing plain blocking socket I/O on the calling
+ * thread, without going through the {@link org.jinterop.dcom.transport.niosupport.SelectorManager}.
+ * Each connection holds a thread while it waits for a reply, which is cheap
+ * when the callers run on virtual threads.
+ *
+ * @exclude
+ * @since 3.0
+ */
+final class JIComBlockingTransport implements Transport
+{
+    public static final String PROTOCOL = "ncacn_ip_tcp";
+
+    private Properties properties;
+
+    private final int socketTimeout;
+
+    private final JISocketOptions socketOptions;
+
+    private final int connectTimeout;
+
+    private String host;
+
+    private int port;
+
+    // other bindings of the server, raced against host and port.
+    private final List alternates;
+
+    private boolean attached;
+
+    private Socket socket;
+
+    private OutputStream output;
+
+    private InputStream input;
+
+    // SO_TIMEOUT currently set on the socket.
+    private int soTimeout;
+
+    public JIComBlockingTransport(String address, Properties properties)
+            throws ProviderException
+    {
+        this.properties = properties;
+        // read once, the deadline of each call is carried by Deadline.
+        this.socketTimeout = getMillis(properties, "rpc.socketTimeout");
+        this.connectTimeout = getMillis(properties, "rpc.connectTimeout");
+        this.socketOptions = JISocketOptions.readFrom(properties);
+
+        JIComTransportAddress parsed = JIComTransportAddress.parse(address);
+        host = parsed.host;
+        port = parsed.port;
+        alternates = JIConnectRacer.getAlternateAddresses(properties);
+    }
+
+    private final JIConnectRacer.Connector connector = new JIConnectRacer.Connector()
+    {
+        public Object connect(InetSocketAddress address, int timeout) throws IOException
+        {
+            Socket socket = new Socket();
+            try
+            {
+                socketOptions.applyTo(socket);
+                socket.connect(address, timeout);
+            }
+            catch (IOException ex)
+            {
+                close(socket);
+                throw ex;
+            }
+            return socket;
+        }
+
+        public void close(Object connection)
+        {
+            try
+            {
+                ((Socket)connection).close();
+            }
+            catch (IOException ignore)
+            { /* ignored */
+            }
+        }
+    };
+
+    /**
+     * @see rpc.Transport#getProtocol()
+     */
+    public String getProtocol()
+    {
+        return PROTOCOL;
+    }
+
+    /**
+     * @see rpc.Transport#getProperties()
+     */
+    public Properties getProperties()
+    {
+        return properties;
+    }
+
+    /**
+     * @see rpc.Transport#attach(rpc.core.PresentationSyntax)
+     */
+    public Endpoint attach(PresentationSyntax syntax) throws IOException
+    {
+        if (attached)
+        {
+            throw new RpcException("Transport already attached.");
+        }
+
+        try
+        {
+            if (JISystem.getLogger().isLoggable(Level.FINEST))
+            {
+                JISystem.getLogger().finest("Opening socket on " + host + "[" + port + "]");
+            }
+
+            // Connected to the first of the bindings of the server to accept.
+            socket = (Socket)JIConnectRacer.connect(host, port, alternates, getConnectTimeoutMillis(), connector);
+            output = socket.getOutputStream();
+            input = socket.getInputStream();
+            soTimeout = 0;
+
+            attached = true;
+
+            return new JIComEndpoint(this, syntax);
+        }
+        catch (IOException ex)
+        {
+            try
+            {
+                close();
+            }
+            catch (Exception ignore)
+            { /* ignored */
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * @see rpc.Transport#close()
+     */
+    public void close() throws IOException
+    {
+        try
+        {
+            if (socket != null)
+            {
+                if (JISystem.getLogger().isLoggable(Level.FINEST))
+                {
+                    JISystem.getLogger().finest("Closing " + this);
+                }
+                socket.close();
+            }
+        }
+        finally
+        {
+            attached = false;
+            socket = null;
+            output = null;
+            input = null;
+        }
+    }
+
+    /**
+     * @see rpc.Transport#send(ndr.NdrBuffer)
+     */
+    public void send(NdrBuffer buffer) throws IOException
+    {
+        if (!attached)
+        {
+            throw new RpcException("Transport not attached.");
+        }
+
+        output.write(buffer.getBuffer(), 0, buffer.getLength());
+        output.flush();
+    }
+
+    /**
+     * @see rpc.Transport#receive(ndr.NdrBuffer)
+     */
+    public void receive(NdrBuffer buffer) throws IOException
+    {
+        if (!attached)
+        {
+            throw new RpcException("Transport not attached.");
+        }
+
+        final int timeoutMillis = getCurentTimeoutMillis();
+        if (timeoutMillis != soTimeout)
+        {
+            socket.setSoTimeout(timeoutMillis);
+            soTimeout = timeoutMillis;
+        }
+
+        buffer.length = input.read(buffer.getBuffer(), buffer.start, buffer
+                .getCapacity());
+    }
+
+    /**
+     * Returns the timeout for the next read, what is left of the deadline of
+     * the call being made or else the configured socket timeout.
+     */
+    private int getCurentTimeoutMillis() throws SocketTimeoutException
+    {
+        return Deadline.socketTimeout(socketTimeout);
+    }
+
+    /**
+     * Returns the timeout for opening the connection, 0 for none.
+     */
+    private int getConnectTimeoutMillis() throws SocketTimeoutException
+    {
+        return Deadline.connectTimeout(connectTimeout);
+    }
+
+    private static int getMillis(Properties properties, String key)
+    {
+        int timeout = 0;
+        try
+        {
+            timeout = Integer.parseInt(properties.getProperty(key, "0"));
+        }
+        catch (NumberFormatException e)
+        { /* ignored */
+        }
+
+        return timeout;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        return "Blocking transport to " + host + ":" + port;
+    }
+}
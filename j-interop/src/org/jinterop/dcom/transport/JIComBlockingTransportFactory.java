@@ -0,0 +1,55 @@
+/**
+* j-Interop (Pure Java implementation of DCOM protocol)
+*     
+* Copyright (c) 2013 Vikram Roopchand
+* 
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+* Vikram Roopchand  - Moving to EPL from LGPL v3.
+*  
+*/
+package org.jinterop.dcom.transport;
+
+import java.util.Properties;
+
+import rpc.ProviderException;
+import rpc.Transport;
+
+/**
+ * Factory for transports doing blocking socket I/O on the calling thread,
+ * an alternative to {@link JIComTransportFactory} for applications running
+ * their calls on many (virtual) threads.
+ *
+ * @see org.jinterop.dcom.core.JISession#useBlockingTransport(boolean)
+ * @since 3.0
+ */
+public final class JIComBlockingTransportFactory extends rpc.TransportFactory
+{
+    private static final JIComBlockingTransportFactory instance = new JIComBlockingTransportFactory();
+
+    private JIComBlockingTransportFactory()
+    {
+    }
+
+    /**
+     * @see rpc.TransportFactory#createTransport(java.lang.String,
+     *      java.util.Properties)
+     */
+    public Transport createTransport(String address, Properties properties)
+            throws ProviderException
+    {
+        return new JIComBlockingTransport(address, properties);
+    }
+
+    /**
+     * @return the singleton instance
+     */
+    public static JIComBlockingTransportFactory getSingleton()
+    {
+        return instance;
+    }
+}
@@ -19,9 +19,12 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 
 import ndr.NdrBuffer;
+import ndr.NdrException;
 import ndr.NdrObject;
 import ndr.NetworkDataRepresentation;
 
@@ -56,6 +59,12 @@ import rpc.pdu.ShutdownPdu;
  */
 public final class JIComRuntimeEndpoint extends ConnectionOrientedEndpoint {
 
+	private final Object sendLock = new Object();
+
+	//requests dispatched whose responses have not been sent yet.
+	private final Object callMonitor = new Object();
+	private int callsInProgress = 0;
+
 	JIComRuntimeEndpoint(Transport transport,
             PresentationSyntax syntax) {
         super(transport,syntax);
@@ -99,56 +108,22 @@ public final class JIComRuntimeEndpoint extends ConnectionOrientedEndpoint {
 			  {
 				  JISystem.getLogger().info("processRequests: [JIComRuntimeEndPoint] request : " + Thread.currentThread().getName() + " , " + request + " workerObject is resolver: " +  workerObject.isResolver());
 			  }
-			  NdrBuffer buffer = null;
-			  NetworkDataRepresentation ndr = new NetworkDataRepresentation();
 			  workerObject.setCurrentIID(currentIID);
 			  if (request instanceof RequestCoPdu)
 			  {
-				  buffer = new NdrBuffer(((RequestCoPdu) request).getStub(), 0);
-				  if(buffer.buf != null)
-				  {
-					if (JISystem.getLogger().isLoggable(Level.FINEST))
-			        {
-			        	ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-			        	jcifs.util.Hexdump.hexdump(new PrintStream(byteArrayOutputStream), buffer.buf, 0, buffer.buf.length);
-			        	JISystem.getLogger().finest("\n" + byteArrayOutputStream.toString());
-			        }
-					 // System.err.println("Vikram: " + Long.toString(Thread.currentThread().getId()));
-					 // jcifs.util.Hexdump.hexdump(System.err, buffer.buf, 0, buffer.buf.length);
-				  }
-				  ndr.setFormat(((RequestCoPdu) request).getFormat());
-				  workerObject.setOpnum(((RequestCoPdu) request).getOpnum());
+				  RequestCoPdu call = (RequestCoPdu) request;
+				  workerObject.setOpnum(call.getOpnum());
 				  //sets the current object, this is used to identify the JILocalCoClass to work on.
 				  //for most cases this will be null , till there is an actual COM interface request.
-				  workerObject.setCurrentObjectID(((RequestCoPdu) request).getObject());
-
-				  try{
-
-					  ((NdrObject)workerObject).decode(ndr, buffer);
-					  ResponseCoPdu responseCoPdu = new ResponseCoPdu();
-					  responseCoPdu.setContextId(((RequestCoPdu) request).getContextId());
-					  responseCoPdu.setFormat(((RequestCoPdu) request).getFormat());
-					  responseCoPdu.setCallId(((RequestCoPdu) request).getCallId());
-					  ((NdrObject)workerObject).encode(ndr,null);
-					  int length = ndr.getBuffer().length > ndr.getBuffer().index ? ndr.getBuffer().length : ndr.getBuffer().index;
-//					  length = length + 4;
-					  responseCoPdu.setAllocationHint(length + 4);
-					  byte[] responsebytes = new byte[length + 4];
-					  System.arraycopy(ndr.getBuffer().getBuffer(), 0, responsebytes, 0, responsebytes.length - 4);
-					  responseCoPdu.setStub(responsebytes);
-//					  responseCoPdu.setStub(ndr.getBuffer().getBuffer());
-					  response = responseCoPdu;
-
-
-
-				  }catch(JIRuntimeException e)
+				  workerObject.setCurrentObjectID(call.getObject());
+				  Executor executor = workerObject.getCallExecutor();
+				  if (executor != null)
 				  {
-					  JISystem.getLogger().throwing("JIComRuntimeEndpoint","processRequests",e);
-					  //create a fault PDU
-					  response = new FaultCoPdu();
-					  response.setCallId(((RequestCoPdu) request).getCallId());
-					  ((FaultCoPdu)response).setStatus(e.getHResult());
+					  //the next request is read while this one runs, its response goes out when it completes.
+					  dispatch(workerObject.forCall(), call, executor);
+					  continue;
 				  }
+				  response = answer(workerObject, call);
 			  }
 			  else if (request instanceof BindPdu || request instanceof AlterContextPdu)
 			  {
@@ -230,19 +205,148 @@ public final class JIComRuntimeEndpoint extends ConnectionOrientedEndpoint {
 //				}
 				    continue; //don't do anything here, the server will send another request
 			  }
-			  if (JISystem.getLogger().isLoggable(Level.INFO))
-			  {
-				  JISystem.getLogger().info("processRequests: [JIComRuntimeEndPoint] response : " + Thread.currentThread().getName() + " , " + response);
-			  }
 			  //now send the response.
-			  send(response);
+			  sendResponse(response);
 
 			  if (workerObject.workerOver())
 			  {
 			      JISystem.getLogger().info("processRequests: [JIComRuntimeEndPoint] Worker is over, all IPID references have been released. Thread " + Thread.currentThread().getName() + " will now exit.");
+			      awaitCalls();
 			      break;
 			  }
 		}
 
 	}
+
+	//decodes the request, runs it on the workerObject and encodes its response, a fault if it failed.
+	private ConnectionOrientedPdu answer(IJICOMRuntimeWorker workerObject, RequestCoPdu request) throws NdrException
+	{
+		NdrBuffer buffer = new NdrBuffer(request.getStub(), 0);
+		if(buffer.buf != null)
+		{
+			if (JISystem.getLogger().isLoggable(Level.FINEST))
+	        {
+	        	ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+	        	jcifs.util.Hexdump.hexdump(new PrintStream(byteArrayOutputStream), buffer.buf, 0, buffer.buf.length);
+	        	JISystem.getLogger().finest("\n" + byteArrayOutputStream.toString());
+	        }
+		}
+		NetworkDataRepresentation ndr = new NetworkDataRepresentation();
+		ndr.setFormat(request.getFormat());
+		try{
+
+			((NdrObject)workerObject).decode(ndr, buffer);
+			ResponseCoPdu responseCoPdu = new ResponseCoPdu();
+			responseCoPdu.setContextId(request.getContextId());
+			responseCoPdu.setFormat(request.getFormat());
+			responseCoPdu.setCallId(request.getCallId());
+			((NdrObject)workerObject).encode(ndr,null);
+			int length = ndr.getBuffer().length > ndr.getBuffer().index ? ndr.getBuffer().length : ndr.getBuffer().index;
+			responseCoPdu.setAllocationHint(length + 4);
+			byte[] responsebytes = new byte[length + 4];
+			System.arraycopy(ndr.getBuffer().getBuffer(), 0, responsebytes, 0, responsebytes.length - 4);
+			responseCoPdu.setStub(responsebytes);
+			return responseCoPdu;
+
+		}catch(JIRuntimeException e)
+		{
+			JISystem.getLogger().throwing("JIComRuntimeEndpoint","processRequests",e);
+			//create a fault PDU
+			return fault(request, e.getHResult());
+		}
+	}
+
+	private static FaultCoPdu fault(RequestCoPdu request, int status)
+	{
+		FaultCoPdu fault = new FaultCoPdu();
+		fault.setCallId(request.getCallId());
+		fault.setStatus(status);
+		return fault;
+	}
+
+	//runs the request on the executor, its response is sent once it completes, maybe after those of later requests.
+	//a request the executor refuses is answered right away with a fault.
+	private void dispatch(final IJICOMRuntimeWorker workerObject, final RequestCoPdu request, Executor executor) throws IOException
+	{
+		synchronized (callMonitor) {
+			callsInProgress++;
+		}
+		Runnable call = new Runnable() {
+			public void run() {
+				try {
+					ConnectionOrientedPdu response = null;
+					try {
+						response = answer(workerObject, request);
+					} catch (NdrException e) {
+						JISystem.getLogger().log(Level.WARNING, "processRequests: [JIComRuntimeEndPoint] call " + request.getCallId() + " failed", e);
+						response = fault(request, JIErrorCodes.RPC_E_SERVERFAULT);
+					} catch (RuntimeException e) {
+						JISystem.getLogger().log(Level.WARNING, "processRequests: [JIComRuntimeEndPoint] call " + request.getCallId() + " failed", e);
+						response = fault(request, JIErrorCodes.RPC_E_SERVERFAULT);
+					}
+					sendResponse(response);
+				} catch (IOException e) {
+					//the connection is gone, the server does not wait for this response any more.
+					if (JISystem.getLogger().isLoggable(Level.FINE))
+					{
+						JISystem.getLogger().fine("processRequests: [JIComRuntimeEndPoint] could not send the response to call " + request.getCallId() + ": " + e);
+					}
+				} finally {
+					callDone();
+				}
+			}
+		};
+		ConnectionOrientedPdu refusal = null;
+		try {
+			executor.execute(call);
+		} catch (RejectedExecutionException e) {
+			JISystem.getLogger().warning("processRequests: [JIComRuntimeEndPoint] refusing call " + request.getCallId() + ", " + e.getMessage());
+			refusal = fault(request, JIErrorCodes.RPC_E_SERVERCALL_RETRYLATER);
+		} catch (RuntimeException e) {
+			JISystem.getLogger().log(Level.WARNING, "processRequests: [JIComRuntimeEndPoint] could not run call " + request.getCallId(), e);
+			refusal = fault(request, JIErrorCodes.RPC_E_SERVERFAULT);
+		}
+		if (refusal != null)
+		{
+			callDone();
+			sendResponse(refusal);
+		}
+	}
+
+	private void callDone()
+	{
+		synchronized (callMonitor) {
+			callsInProgress--;
+			callMonitor.notifyAll();
+		}
+	}
+
+	//lets the requests dispatched so far send their responses before the connection is closed.
+	private void awaitCalls()
+	{
+		synchronized (callMonitor) {
+			while (callsInProgress > 0)
+			{
+				try {
+					callMonitor.wait();
+				} catch (InterruptedException e) {
+					//closing the connection, their responses are dropped.
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	//responses are sent whole, one at a time, they may come from the requests dispatched.
+	private void sendResponse(ConnectionOrientedPdu response) throws IOException
+	{
+		if (JISystem.getLogger().isLoggable(Level.INFO))
+		{
+			JISystem.getLogger().info("processRequests: [JIComRuntimeEndPoint] response : " + Thread.currentThread().getName() + " , " + response);
+		}
+		synchronized (sendLock) {
+			send(response);
+		}
+	}
 }
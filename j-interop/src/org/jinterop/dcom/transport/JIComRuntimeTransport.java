@@ -23,8 +23,6 @@ import java.util.Properties;
 
 import ndr.NdrBuffer;
 
-import org.jinterop.dcom.common.JISystem;
-
 import rpc.Endpoint;
 import rpc.ProviderException;
 import rpc.RpcException;
@@ -52,9 +50,10 @@ final class JIComRuntimeTransport implements Transport {
     private boolean attached;
 
 
-    public JIComRuntimeTransport(String address, Properties properties)
+    public JIComRuntimeTransport(String address, Properties properties, Socket socket)
             throws ProviderException {
         this.properties = properties;
+        this.socket = socket;
         //address is ignored
     }
 
@@ -68,10 +67,10 @@ final class JIComRuntimeTransport implements Transport {
 
     public Endpoint attach(PresentationSyntax syntax) throws IOException {
         if (attached) throw new RpcException("Transport already attached.");
+        if (socket == null) throw new RpcException("No connection accepted for this transport.");
 
         Endpoint endPoint = null;
         try {
-            socket = (Socket)JISystem.internal_getSocket();
             output = null;
             input = null;
             attached = true;
@@ -105,7 +104,7 @@ final class JIComRuntimeTransport implements Transport {
     public void receive(NdrBuffer buffer) throws IOException {
         if (!attached) throw new RpcException("Transport not attached.");
         if (input == null) input = socket.getInputStream();
-        buffer.length = (input.read(buffer.getBuffer(), 0,
+        buffer.length = (input.read(buffer.getBuffer(), buffer.start,
                 buffer.getCapacity()));
     }
 
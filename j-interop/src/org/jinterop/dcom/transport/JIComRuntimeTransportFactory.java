@@ -15,6 +15,7 @@
 
 package org.jinterop.dcom.transport;
 
+import java.net.Socket;
 import java.util.Properties;
 
 import rpc.ProviderException;
@@ -28,11 +29,28 @@ import rpc.Transport;
 public final class JIComRuntimeTransportFactory extends rpc.TransportFactory {
 
 	private static JIComRuntimeTransportFactory factory = null;
-	private JIComRuntimeTransportFactory() {}
+
+	private final Socket socket;
+
+	private JIComRuntimeTransportFactory(Socket socket)
+	{
+		this.socket = socket;
+	}
 
 	public Transport createTransport(String address, Properties properties)
     	throws ProviderException {
-			return new JIComRuntimeTransport(address, properties);
+			return new JIComRuntimeTransport(address, properties, socket);
+	}
+
+	/** Returns a factory whose transports serve the connection accepted on <code>socket</code>. Listeners hand each
+	 * accepted connection over this way, with no state shared with the other listeners.
+	 *
+	 * @param socket
+	 * @return
+	 */
+	public static JIComRuntimeTransportFactory forSocket(Socket socket)
+	{
+		return new JIComRuntimeTransportFactory(socket);
 	}
 
 	public static JIComRuntimeTransportFactory getSingleTon()
@@ -42,7 +60,7 @@ public final class JIComRuntimeTransportFactory extends rpc.TransportFactory {
 			synchronized (JIComTransportFactory.class) {
 				if (factory == null)
 				{
-					factory = new JIComRuntimeTransportFactory();
+					factory = new JIComRuntimeTransportFactory(null);
 				}
 			}
 		}
@@ -19,12 +19,10 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
-import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import ndr.NdrBuffer;
@@ -35,10 +33,12 @@ import org.jinterop.dcom.transport.niosupport.ChannelWrapper;
 import org.jinterop.dcom.transport.niosupport.ChannelWrapperFactory;
 import org.jinterop.dcom.transport.niosupport.SelectorManager;
 
+import rpc.Deadline;
 import rpc.Endpoint;
+import rpc.GatheringTransport;
 import rpc.ProviderException;
 import rpc.RpcException;
-import rpc.Transport;
+import rpc.SelectableTransport;
 import rpc.core.PresentationSyntax;
 
 /**
@@ -47,98 +47,94 @@ import rpc.core.PresentationSyntax;
  * @exclude
  * @since 1.0
  */
-final class JIComTransport implements Transport
+final class JIComTransport implements GatheringTransport, SelectableTransport
 {
     public static final String PROTOCOL = "ncacn_ip_tcp";
 
-    private static final String LOCALHOST;
+    private Properties properties;
 
-    private static final long DEFAULT_READ_READY_HANDOFF_TIMEOUT_SECS = 30;
+    private final int socketTimeout;
 
-    private static Object HANDOFF = new Object();
+    private final JISocketOptions socketOptions;
 
-    private Properties properties;
+    private final int connectTimeout;
 
     private String host;
 
     private int port;
 
+    // other bindings of the server, raced against host and port.
+    private final List alternates;
+
     private boolean attached;
 
     private ChannelWrapper channelWrapper;
 
     private final SelectorManager selectorManager;
 
-    // Use this as means of indicating to the reader thread that data is ready
-    // to be read...
-    // (alternatively could use a CyclicBarrier - but have to reset broken
-    // barrier on a
-    // timeout which causes spurious BrokenBarrierExceptions anyway (is this
-    // http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6253848 ?)).
-    private final SynchronousQueue<Object> readReadyHandoff = new SynchronousQueue<Object>();
+    // Guards the read in progress. The selector thread reads into the buffer
+    // of the waiting receive and notifies it, it never waits for the reader.
+    private final Object readLock = new Object();
 
-    private long readReadyHandoffTimeoutSecs = DEFAULT_READ_READY_HANDOFF_TIMEOUT_SECS;
+    // Buffer of the receive waiting for data, null if there is none.
+    private NdrBuffer pendingRead;
 
-    static
-    {
-        String localhost = null;
-        try
-        {
-            localhost = InetAddress.getLocalHost().getHostName();
-        }
-        catch (UnknownHostException ex)
-        { /* ignored */
-        }
-        LOCALHOST = localhost;
-    }
+    private boolean readDone;
+
+    private int bytesRead;
+
+    private IOException readFailure;
+
+    // Run on the next readiness while no receive is waiting, null if none.
+    private Runnable readableCallback;
 
     public JIComTransport(String address, SelectorManager selectorManager,
             Properties properties) throws ProviderException
     {
         this.selectorManager = selectorManager;
         this.properties = properties;
-
-        parse(address);
+        // read once, the deadline of each call is carried by Deadline.
+        this.socketTimeout = getMillis(properties, "rpc.socketTimeout");
+        this.connectTimeout = getMillis(properties, "rpc.connectTimeout");
+        this.socketOptions = JISocketOptions.readFrom(properties);
+
+        JIComTransportAddress parsed = JIComTransportAddress.parse(address);
+        host = parsed.host;
+        port = parsed.port;
+        alternates = JIConnectRacer.getAlternateAddresses(properties);
     }
 
-    private void parse(String address) throws ProviderException
+    private final JIConnectRacer.Connector connector = new JIConnectRacer.Connector()
     {
-        if (address == null)
+        public Object connect(InetSocketAddress address, int timeout) throws IOException
         {
-            throw new ProviderException("Null address.");
-        }
-        if (!address.startsWith("ncacn_ip_tcp:"))
-        {
-            throw new ProviderException("Not an ncacn_ip_tcp address.");
-        }
-        address = address.substring(13);
-        int index = address.indexOf('[');
-        if (index == -1)
-        {
-            throw new ProviderException("No port specifier present.");
-        }
-        String server = address.substring(0, index);
-        address = address.substring(index + 1);
-        index = address.indexOf(']');
-        if (index == -1)
-        {
-            throw new ProviderException("Port specifier not terminated.");
-        }
-        address = address.substring(0, index);
-        if ("".equals(server))
-        {
-            server = LOCALHOST;
-        }
-        try
-        {
-            port = Integer.parseInt(address);
+            SocketChannel channel = SocketChannel.open();
+            try
+            {
+                socketOptions.applyTo(channel);
+                // Blocking connect, honouring the connect timeout through the
+                // socket adaptor while the channel is still in blocking mode.
+                channel.socket().connect(address, timeout);
+            }
+            catch (IOException ex)
+            {
+                close(channel);
+                throw ex;
+            }
+            return channel;
         }
-        catch (Exception ex)
+
+        public void close(Object connection)
         {
-            throw new ProviderException("Invalid port specifier.");
+            try
+            {
+                ((SocketChannel)connection).close();
+            }
+            catch (IOException ignore)
+            { /* ignored */
+            }
         }
-        host = server;
-    }
+    };
 
     /**
      * @see rpc.Transport#getProtocol()
@@ -176,13 +172,9 @@ final class JIComTransport implements Transport
                                         .getByName(host), port));
             }
 
-            final SocketChannel channel = SocketChannel.open();
-
-            // Connects without a timeout. If a timeout is needed then someone
-            // should write a blockingConnect() method similar to the
-            // blockingRead() method.
-            channel.connect(new InetSocketAddress(InetAddress.getByName(host),
-                    port));
+            // Connected to the first of the bindings of the server to accept.
+            final SocketChannel channel = (SocketChannel)JIConnectRacer.connect(host, port, alternates,
+                    getConnectTimeoutMillis(), connector);
 
             channelWrapper = ChannelWrapperFactory.createChannelWrapper(
                     selectorManager, channel, new ChannelListener()
@@ -190,29 +182,7 @@ final class JIComTransport implements Transport
                        
                         public void readReady()
                         {
-                            try
-                            {
-                                if (!readReadyHandoff.offer(HANDOFF,
-                                        readReadyHandoffTimeoutSecs,
-                                        TimeUnit.SECONDS))
-                                {
-                                    // Maybe the reader thread has died between
-                                    // adding read interest and waiting for the
-                                    // handoff
-                                    if (JISystem.getLogger().isLoggable(
-                                            Level.FINE))
-                                    {
-                                        JISystem.getLogger().fine(
-                                                "Timeout while awaiting read ready handoff to "
-                                                        + JIComTransport.this);
-                                    }
-                                }
-                            }
-                            catch (InterruptedException e)
-                            {
-                                // Re-set interrupt flag
-                                Thread.currentThread().interrupt();
-                            }
+                            completeRead();
                         }
                     });
 
@@ -224,9 +194,6 @@ final class JIComTransport implements Transport
 
             attached = true;
 
-            // backup for not providing a timeout...
-            channel.socket().setKeepAlive(true);
-
             return new JIComEndpoint(this, syntax);
         }
         catch (IOException ex)
@@ -262,6 +229,10 @@ final class JIComTransport implements Transport
         {
             attached = false;
             channelWrapper = null;
+            synchronized (readLock)
+            {
+                readableCallback = null;
+            }
         }
     }
 
@@ -275,10 +246,20 @@ final class JIComTransport implements Transport
             throw new RpcException("Transport not attached.");
         }
 
-        final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer.getBuffer(), 0,
-                buffer.getLength());
+        channelWrapper.writeAll(buffer.getByteBuffer(0, buffer.getLength()));
+    }
+
+    /**
+     * @see rpc.GatheringTransport#send(java.nio.ByteBuffer[])
+     */
+    public void send(ByteBuffer[] buffers) throws IOException
+    {
+        if (!attached)
+        {
+            throw new RpcException("Transport not attached.");
+        }
 
-        channelWrapper.writeAll(byteBuffer);
+        channelWrapper.writeAll(buffers);
     }
 
     /**
@@ -293,50 +274,162 @@ final class JIComTransport implements Transport
 
         final int timeoutMillis = getCurentTimeoutMillis();
 
-        // Register for read and wait for the read to occur
+        synchronized (readLock)
+        {
+            pendingRead = buffer;
+            readDone = false;
+            readFailure = null;
+        }
+
+        // Register for read and wait for the selector thread to do the read
         channelWrapper.registerForRead();
 
-        try
+        synchronized (readLock)
         {
-            Object handoffResult;
-            if (timeoutMillis == 0)
+            try
             {
-                handoffResult = readReadyHandoff.take();
+                final long deadline = timeoutMillis == 0 ? 0 : System
+                        .currentTimeMillis() + timeoutMillis;
+                while (!readDone)
+                {
+                    if (deadline == 0)
+                    {
+                        readLock.wait();
+                    }
+                    else
+                    {
+                        final long wait = deadline - System.currentTimeMillis();
+                        if (wait <= 0)
+                        {
+                            throw new SocketTimeoutException();
+                        }
+                        readLock.wait(wait);
+                    }
+                }
+
+                if (readFailure != null)
+                {
+                    throw readFailure;
+                }
+
+                buffer.length = bytesRead;
             }
-            else
+            catch (InterruptedException e)
             {
-                handoffResult = readReadyHandoff.poll(timeoutMillis,
-                        TimeUnit.MILLISECONDS);
-            }
+                // Re-set interrupted flag
+                Thread.currentThread().interrupt();
 
-            if (handoffResult == null)
+                throw new IOException("Interrupted while reading");
+            }
+            finally
             {
-                throw new SocketTimeoutException();
+                // A late readiness must not touch the buffer any more.
+                pendingRead = null;
             }
+        }
+    }
 
-            final ByteBuffer wrapped = ByteBuffer.wrap(buffer.getBuffer());
+    /**
+     * @see rpc.SelectableTransport#notifyReadable(java.lang.Runnable)
+     */
+    public void notifyReadable(Runnable callback) throws IOException
+    {
+        if (!attached)
+        {
+            throw new RpcException("Transport not attached.");
+        }
 
-            buffer.length = channelWrapper.read(wrapped);
+        synchronized (readLock)
+        {
+            readableCallback = callback;
         }
-        catch (InterruptedException e)
+
+        channelWrapper.registerForRead();
+    }
+
+    /**
+     * Called on the selector thread once the channel is readable. Reads what
+     * is available into the buffer of the waiting receive and wakes it up,
+     * or else runs the callback waiting for the channel to be readable.
+     * The channel is non-blocking, so this never holds up the selector.
+     */
+    private void completeRead()
+    {
+        Runnable callback = null;
+        synchronized (readLock)
         {
-            // Re-set interrupted flag
-            Thread.currentThread().interrupt();
+            if (pendingRead == null || readDone)
+            {
+                // Receive has timed out meanwhile, or there is none, the data
+                // stays in the socket for the next one.
+                callback = readableCallback;
+                readableCallback = null;
+            }
+        }
+        if (callback != null)
+        {
+            callback.run();
+            return;
+        }
+
+        synchronized (readLock)
+        {
+            if (pendingRead == null || readDone)
+            {
+                return;
+            }
 
-            throw new IOException("Interrupted while reading");
+            final ChannelWrapper wrapper = channelWrapper;
+            try
+            {
+                if (wrapper == null)
+                {
+                    throw new RpcException("Transport not attached.");
+                }
+                final int count = wrapper.read(pendingRead
+                        .getByteBuffer(pendingRead.start, pendingRead
+                                .getCapacity()));
+                if (count == 0)
+                {
+                    // Spurious readiness, wait for the next one.
+                    wrapper.registerForRead();
+                    return;
+                }
+                bytesRead = count;
+            }
+            catch (IOException e)
+            {
+                readFailure = e;
+            }
+
+            readDone = true;
+            readLock.notifyAll();
         }
     }
 
     /**
-     * Returns the current socket timeout.
+     * Returns the timeout for the next read, what is left of the deadline of
+     * the call being made or else the configured socket timeout.
      */
-    private int getCurentTimeoutMillis()
+    private int getCurentTimeoutMillis() throws SocketTimeoutException
+    {
+        return Deadline.socketTimeout(socketTimeout);
+    }
+
+    /**
+     * Returns the timeout for opening the connection, 0 for none.
+     */
+    private int getConnectTimeoutMillis() throws SocketTimeoutException
+    {
+        return Deadline.connectTimeout(connectTimeout);
+    }
+
+    private static int getMillis(Properties properties, String key)
     {
         int timeout = 0;
         try
         {
-            timeout = Integer.parseInt(this.properties.getProperty(
-                    "rpc.socketTimeout", "0"));
+            timeout = Integer.parseInt(properties.getProperty(key, "0"));
         }
         catch (NumberFormatException e)
         { /* ignored */
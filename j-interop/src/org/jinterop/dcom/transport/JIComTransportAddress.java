@@ -0,0 +1,101 @@
+/**
+* j-Interop (Pure Java implementation of DCOM protocol)
+*
+* Copyright (c) 2013 Vikram Roopchand
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+* Vikram Roopchand  - Moving to EPL from LGPL v3.
+*
+*/
+
+package org.jinterop.dcom.transport;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import rpc.ProviderException;
+
+/**
+ * Host and port of an <code>ncacn_ip_tcp</code> address, for e.g.
+ * "ncacn_ip_tcp:server[135]". Shared by the transports to COM servers.
+ *
+ * @exclude
+ * @since 3.0
+ */
+final class JIComTransportAddress
+{
+    private static final String LOCALHOST;
+
+    static
+    {
+        String localhost = null;
+        try
+        {
+            localhost = InetAddress.getLocalHost().getHostName();
+        }
+        catch (UnknownHostException ex)
+        { /* ignored */
+        }
+        LOCALHOST = localhost;
+    }
+
+    final String host;
+
+    final int port;
+
+    private JIComTransportAddress(String host, int port)
+    {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Parses <code>address</code>, an empty server standing for the local host.
+     *
+     * @throws ProviderException if it is not a valid <code>ncacn_ip_tcp</code> address.
+     */
+    static JIComTransportAddress parse(String address) throws ProviderException
+    {
+        if (address == null)
+        {
+            throw new ProviderException("Null address.");
+        }
+        if (!address.startsWith("ncacn_ip_tcp:"))
+        {
+            throw new ProviderException("Not an ncacn_ip_tcp address.");
+        }
+        address = address.substring(13);
+        int index = address.indexOf('[');
+        if (index == -1)
+        {
+            throw new ProviderException("No port specifier present.");
+        }
+        String server = address.substring(0, index);
+        address = address.substring(index + 1);
+        index = address.indexOf(']');
+        if (index == -1)
+        {
+            throw new ProviderException("Port specifier not terminated.");
+        }
+        address = address.substring(0, index);
+        if ("".equals(server))
+        {
+            server = LOCALHOST;
+        }
+        int port;
+        try
+        {
+            port = Integer.parseInt(address);
+        }
+        catch (Exception ex)
+        {
+            throw new ProviderException("Invalid port specifier.");
+        }
+        return new JIComTransportAddress(server, port);
+    }
+}
@@ -0,0 +1,319 @@
+/**
+* j-Interop (Pure Java implementation of DCOM protocol)
+*
+* Copyright (c) 2013 Vikram Roopchand
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+* Vikram Roopchand  - Moving to EPL from LGPL v3.
+*
+*/
+
+package org.jinterop.dcom.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.jinterop.dcom.common.JISystem;
+
+/**
+ * Connects a transport to the reachable one out of the string bindings a
+ * multi-homed <code>COM</code> server advertises. The address of the
+ * transport comes first and the other bindings are passed in the
+ * <code>rpc.ncacn_ip_tcp.alternateAddresses</code> property, as
+ * "host[port]" separated by spaces. Connects are started one after the
+ * other with a short stagger, or right away once all the started ones have
+ * failed, all within the connect timeout of the transport. The first
+ * connection to be made is handed to the transport, the others are closed.
+ * The winner is remembered for a while and tried first by further
+ * connections to the same server, so that they do not race again as long as
+ * it keeps accepting them.
+ *
+ * @exclude
+ * @since 3.0
+ */
+final class JIConnectRacer
+{
+    static final String ALTERNATE_ADDRESSES = "rpc.ncacn_ip_tcp.alternateAddresses";
+
+    /** Delay before the next candidate is tried while the earlier ones are still connecting. */
+    private static final long STAGGER_MILLIS = 250;
+
+    /** How long a winner is remembered. */
+    private static final long WINNER_TTL_MILLIS = 10 * 60 * 1000;
+
+    private static final Map winners = Collections.synchronizedMap(new HashMap());
+
+    private static final ExecutorService connectExecutor = Executors.newCachedThreadPool(new ThreadFactory()
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable)
+        {
+            ThreadFactory factory = JISystem.getThreadFactory();
+            Thread thread = factory == null ? new Thread(runnable) : factory.newThread(runnable);
+            thread.setName("jI_ConnectRacer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Opens connections of one kind, a socket or a channel, for the transport
+     * using them.
+     */
+    interface Connector
+    {
+        /**
+         * Returns a connection to <code>address</code>, made within
+         * <code>timeout</code> millisecs, 0 for none.
+         */
+        Object connect(InetSocketAddress address, int timeout) throws IOException;
+
+        void close(Object connection);
+    }
+
+    private static final class Winner
+    {
+        private final String address;
+        private final long expiry;
+
+        private Winner(String address, long expiry)
+        {
+            this.address = address;
+            this.expiry = expiry;
+        }
+    }
+
+    //connections made by the candidates, taken by the race until it is over.
+    private static final class Race
+    {
+        private final List connected = new ArrayList();
+        private boolean over = false;
+    }
+
+    private JIConnectRacer()
+    {
+    }
+
+    /**
+     * Returns the alternate addresses passed in <code>properties</code>, an
+     * empty list if there are none.
+     */
+    static List getAlternateAddresses(Properties properties)
+    {
+        List addresses = new ArrayList();
+        String value = properties == null ? null : properties.getProperty(ALTERNATE_ADDRESSES);
+        if (value != null)
+        {
+            String[] tokens = value.trim().split("\\s+");
+            for (int i = 0; i < tokens.length; i++)
+            {
+                if (tokens[i].length() > 0)
+                {
+                    addresses.add(tokens[i]);
+                }
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Returns a connection to <code>host</code> and <code>port</code>, or to
+     * the first of the <code>alternates</code> to accept one if it is not
+     * reachable within <code>timeout</code>.
+     *
+     * @param alternates addresses of the form "host[port]".
+     * @param timeout in millisecs, 0 for none.
+     * @throws IOException if none of them could be connected to.
+     */
+    static Object connect(String host, int port, List alternates, int timeout, Connector connector)
+            throws IOException
+    {
+        List candidates = new ArrayList();
+        candidates.add(host + "[" + port + "]");
+        for (int i = 0; i < alternates.size(); i++)
+        {
+            if (!candidates.contains(alternates.get(i)))
+            {
+                candidates.add(alternates.get(i));
+            }
+        }
+        if (candidates.size() < 2)
+        {
+            return connector.connect(new InetSocketAddress(InetAddress.getByName(host), port), timeout);
+        }
+
+        List sorted = new ArrayList(candidates);
+        Collections.sort(sorted);
+        String key = sorted.toString();
+        Winner winner = (Winner)winners.get(key);
+        if (winner != null && winner.expiry > System.currentTimeMillis())
+        {
+            candidates.remove(winner.address);
+            candidates.add(0, winner.address);
+        }
+
+        String[] won = new String[1];
+        Object connection = race(candidates, timeout, connector, won);
+        if (winner == null || !won[0].equals(winner.address))
+        {
+            winners.put(key, new Winner(won[0], System.currentTimeMillis() + WINNER_TTL_MILLIS));
+        }
+        if (JISystem.getLogger().isLoggable(Level.FINE))
+        {
+            JISystem.getLogger().fine("Connected to " + won[0] + " out of " + candidates);
+        }
+        return connection;
+    }
+
+    private static Object race(List candidates, int timeout, Connector connector, String[] won) throws IOException
+    {
+        long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+        final Race race = new Race();
+        CompletionService completionService = new ExecutorCompletionService(connectExecutor);
+        Map addresses = new HashMap();
+        List attempts = new ArrayList();
+        IOException failure = null;
+        Object connection = null;
+        int started = 0;
+        int failed = 0;
+        try
+        {
+            while (true)
+            {
+                long remaining = deadline == 0 ? Long.MAX_VALUE : deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                {
+                    throw new SocketTimeoutException("None of the bindings " + candidates
+                            + " could be connected to within " + timeout + " ms");
+                }
+                if (started == failed)
+                {
+                    //nothing in flight, next one goes right away.
+                    if (started == candidates.size())
+                    {
+                        throw failure;
+                    }
+                    String address = (String)candidates.get(started++);
+                    Future attempt = completionService.submit(attempt(race, address, timeout(deadline), connector));
+                    addresses.put(attempt, address);
+                    attempts.add(attempt);
+                }
+
+                long wait = started < candidates.size() ? Math.min(STAGGER_MILLIS, remaining) : remaining;
+                Future done = completionService.poll(wait, TimeUnit.MILLISECONDS);
+                if (done == null)
+                {
+                    if (started < candidates.size() && (deadline == 0 || deadline > System.currentTimeMillis()))
+                    {
+                        String address = (String)candidates.get(started++);
+                        Future attempt = completionService.submit(attempt(race, address, timeout(deadline), connector));
+                        addresses.put(attempt, address);
+                        attempts.add(attempt);
+                    }
+                    continue;
+                }
+
+                try
+                {
+                    connection = done.get();
+                    won[0] = (String)addresses.get(done);
+                    return connection;
+                }
+                catch (ExecutionException e)
+                {
+                    failed++;
+                    failure = e.getCause() instanceof IOException ? (IOException)e.getCause()
+                            : new IOException(e.getCause().toString());
+                    if (JISystem.getLogger().isLoggable(Level.FINE))
+                    {
+                        JISystem.getLogger().fine("Connecting to " + addresses.get(done) + " failed: " + e.getCause());
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while connecting to " + candidates);
+        }
+        finally
+        {
+            for (int i = 0; i < attempts.size(); i++)
+            {
+                ((Future)attempts.get(i)).cancel(false);
+            }
+            //connects still in progress close what they get, the ones made meanwhile are closed here.
+            List losers = null;
+            synchronized (race)
+            {
+                race.over = true;
+                losers = new ArrayList(race.connected);
+            }
+            for (int i = 0; i < losers.size(); i++)
+            {
+                if (losers.get(i) != connection)
+                {
+                    connector.close(losers.get(i));
+                }
+            }
+        }
+    }
+
+    private static int timeout(long deadline)
+    {
+        if (deadline == 0)
+        {
+            return 0;
+        }
+        return (int)Math.max(1, deadline - System.currentTimeMillis());
+    }
+
+    private static Callable attempt(final Race race, final String address, final int timeout, final Connector connector)
+    {
+        return new Callable()
+        {
+            public Object call() throws IOException
+            {
+                int index = address.indexOf("[");
+                String host = address.substring(0, index);
+                int port = Integer.parseInt(address.substring(index + 1, address.indexOf("]")));
+                Object connection = connector.connect(new InetSocketAddress(InetAddress.getByName(host), port), timeout);
+                synchronized (race)
+                {
+                    if (!race.over)
+                    {
+                        race.connected.add(connection);
+                        return connection;
+                    }
+                }
+                connector.close(connection);
+                throw new IOException("Connected to " + address + " after the race was over.");
+            }
+        };
+    }
+}
@@ -0,0 +1,407 @@
+/**
+* j-Interop (Pure Java implementation of DCOM protocol)
+*
+* Copyright (c) 2013 Vikram Roopchand
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+* Vikram Roopchand  - Moving to EPL from LGPL v3.
+*
+*/
+
+package org.jinterop.dcom.transport;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketOption;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Properties;
+import java.util.logging.Level;
+
+import org.jinterop.dcom.common.JIErrorCodes;
+import org.jinterop.dcom.common.JISystem;
+
+/**<p> Options of the TCP sockets opened to COM servers, set for all sessions using
+ * <code>JISystem.setSocketOptions</code> or for one using <code>JISession.setSocketOptions</code>. Values left at 0
+ * keep the defaults of the operating system. </p>
+ * <p> Two presets are provided. {@link #lowLatency()} disables Nagle's algorithm, so that a small write is not held
+ * back waiting for the acknowledgement of the one before it; use it for many small calls, like most
+ * <code>IDispatch</code> ones. It matters most on the blocking transport, which writes each fragment of a request
+ * separately, the selector based one sends all of them in a single gathering write. {@link #bulk()} enlarges the send and receive buffers for calls moving large
+ * arrays or streams. </p>
+ * <p> The keep alive idle time and interval are applied only on runtimes supporting them
+ * (<code>jdk.net.ExtendedSocketOptions</code>), they are ignored elsewhere. </p>
+ *
+ * @since 3.0
+ */
+public final class JISocketOptions
+{
+    private static final String TCP_NO_DELAY = "rpc.socket.tcpNoDelay";
+    private static final String SEND_BUFFER_SIZE = "rpc.socket.sendBufferSize";
+    private static final String RECEIVE_BUFFER_SIZE = "rpc.socket.receiveBufferSize";
+    private static final String KEEP_ALIVE = "rpc.socket.keepAlive";
+    private static final String KEEP_ALIVE_IDLE = "rpc.socket.keepAliveIdle";
+    private static final String KEEP_ALIVE_INTERVAL = "rpc.socket.keepAliveInterval";
+    private static final String LOCAL_ADDRESS = "rpc.socket.localAddress";
+
+    // jdk.net.ExtendedSocketOptions, null where the runtime does not have them.
+    private static final SocketOption KEEP_ALIVE_IDLE_OPTION = extendedOption("TCP_KEEPIDLE");
+    private static final SocketOption KEEP_ALIVE_INTERVAL_OPTION = extendedOption("TCP_KEEPINTERVAL");
+
+    private boolean tcpNoDelay = false;
+    private int sendBufferSize = 0;
+    private int receiveBufferSize = 0;
+    private boolean keepAlive = true;
+    private int keepAliveIdle = 0;
+    private int keepAliveInterval = 0;
+    private String localAddress = null;
+
+    /**
+     * Options as used before they could be set, keep alive on and the rest
+     * left to the operating system.
+     */
+    public JISocketOptions()
+    {
+    }
+
+    /**
+     * Copy of <code>options</code>.
+     *
+     * @param options
+     */
+    public JISocketOptions(JISocketOptions options)
+    {
+        this.tcpNoDelay = options.tcpNoDelay;
+        this.sendBufferSize = options.sendBufferSize;
+        this.receiveBufferSize = options.receiveBufferSize;
+        this.keepAlive = options.keepAlive;
+        this.keepAliveIdle = options.keepAliveIdle;
+        this.keepAliveInterval = options.keepAliveInterval;
+        this.localAddress = options.localAddress;
+    }
+
+    /**
+     * Preset for small calls, <code>TCP_NODELAY</code> on and keep alive
+     * probes every 10 seconds once a connection has been idle for a minute.
+     *
+     * @return
+     */
+    public static JISocketOptions lowLatency()
+    {
+        JISocketOptions options = new JISocketOptions();
+        options.setTcpNoDelay(true);
+        options.setKeepAliveIdle(60);
+        options.setKeepAliveInterval(10);
+        return options;
+    }
+
+    /**
+     * Preset for calls moving lots of data, 512K send and receive buffers so
+     * that several full fragments are in flight at a time.
+     *
+     * @return
+     */
+    public static JISocketOptions bulk()
+    {
+        JISocketOptions options = new JISocketOptions();
+        options.setSendBufferSize(512 * 1024);
+        options.setReceiveBufferSize(512 * 1024);
+        return options;
+    }
+
+    /**
+     * Sets <code>TCP_NODELAY</code>. Default is <code>false</code>.
+     *
+     * @param tcpNoDelay
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay)
+    {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public boolean isTcpNoDelay()
+    {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Sets <code>SO_SNDBUF</code>.
+     *
+     * @param size in bytes, 0 for the operating system default.
+     */
+    public void setSendBufferSize(int size)
+    {
+        this.sendBufferSize = checkNotNegative(size);
+    }
+
+    public int getSendBufferSize()
+    {
+        return sendBufferSize;
+    }
+
+    /**
+     * Sets <code>SO_RCVBUF</code>. It is set before connecting, so that
+     * sizes beyond 64K can be used by the TCP window.
+     *
+     * @param size in bytes, 0 for the operating system default.
+     */
+    public void setReceiveBufferSize(int size)
+    {
+        this.receiveBufferSize = checkNotNegative(size);
+    }
+
+    public int getReceiveBufferSize()
+    {
+        return receiveBufferSize;
+    }
+
+    /**
+     * Sets <code>SO_KEEPALIVE</code>. Default is <code>true</code>, it is
+     * what notices a server gone away while waiting without a timeout.
+     *
+     * @param keepAlive
+     */
+    public void setKeepAlive(boolean keepAlive)
+    {
+        this.keepAlive = keepAlive;
+    }
+
+    public boolean isKeepAlive()
+    {
+        return keepAlive;
+    }
+
+    /**
+     * Sets the time a connection is idle before keep alive probes are sent.
+     *
+     * @param seconds 0 for the operating system default.
+     */
+    public void setKeepAliveIdle(int seconds)
+    {
+        this.keepAliveIdle = checkNotNegative(seconds);
+    }
+
+    public int getKeepAliveIdle()
+    {
+        return keepAliveIdle;
+    }
+
+    /**
+     * Sets the time between keep alive probes.
+     *
+     * @param seconds 0 for the operating system default.
+     */
+    public void setKeepAliveInterval(int seconds)
+    {
+        this.keepAliveInterval = checkNotNegative(seconds);
+    }
+
+    public int getKeepAliveInterval()
+    {
+        return keepAliveInterval;
+    }
+
+    /**
+     * Sets the local address the sockets are bound to, for machines with
+     * several network interfaces.
+     *
+     * @param address host name or IP, <code>null</code> for any.
+     */
+    public void setLocalAddress(String address)
+    {
+        this.localAddress = address;
+    }
+
+    public String getLocalAddress()
+    {
+        return localAddress;
+    }
+
+    /**
+     * Writes these options to <code>properties</code>, as read by the
+     * transports.
+     *
+     * @exclude
+     * @param properties
+     */
+    public void writeTo(Properties properties)
+    {
+        properties.setProperty(TCP_NO_DELAY, String.valueOf(tcpNoDelay));
+        properties.setProperty(SEND_BUFFER_SIZE, String.valueOf(sendBufferSize));
+        properties.setProperty(RECEIVE_BUFFER_SIZE, String.valueOf(receiveBufferSize));
+        properties.setProperty(KEEP_ALIVE, String.valueOf(keepAlive));
+        properties.setProperty(KEEP_ALIVE_IDLE, String.valueOf(keepAliveIdle));
+        properties.setProperty(KEEP_ALIVE_INTERVAL, String.valueOf(keepAliveInterval));
+        if (localAddress == null)
+        {
+            properties.remove(LOCAL_ADDRESS);
+        }
+        else
+        {
+            properties.setProperty(LOCAL_ADDRESS, localAddress);
+        }
+    }
+
+    /**
+     * Reads the options written by {@link #writeTo(Properties)}, defaults for
+     * those missing.
+     *
+     * @exclude
+     * @param properties
+     * @return
+     */
+    public static JISocketOptions readFrom(Properties properties)
+    {
+        JISocketOptions options = new JISocketOptions();
+        options.tcpNoDelay = Boolean.valueOf(properties.getProperty(TCP_NO_DELAY, "false")).booleanValue();
+        options.sendBufferSize = getInt(properties, SEND_BUFFER_SIZE);
+        options.receiveBufferSize = getInt(properties, RECEIVE_BUFFER_SIZE);
+        options.keepAlive = Boolean.valueOf(properties.getProperty(KEEP_ALIVE, "true")).booleanValue();
+        options.keepAliveIdle = getInt(properties, KEEP_ALIVE_IDLE);
+        options.keepAliveInterval = getInt(properties, KEEP_ALIVE_INTERVAL);
+        options.localAddress = properties.getProperty(LOCAL_ADDRESS);
+        return options;
+    }
+
+    /**
+     * Applies these options to a socket about to be connected, or to one
+     * already connected, like an accepted one, which is then not bound again.
+     *
+     * @exclude
+     * @param socket
+     * @throws IOException
+     */
+    public void applyTo(Socket socket) throws IOException
+    {
+        apply(socket);
+        setExtendedOptions(socket, null);
+    }
+
+    /**
+     * Applies these options to a channel about to be connected.
+     *
+     * @exclude
+     * @param channel
+     * @throws IOException
+     */
+    public void applyTo(SocketChannel channel) throws IOException
+    {
+        apply(channel.socket());
+        setExtendedOptions(null, channel);
+    }
+
+    private void apply(Socket socket) throws IOException
+    {
+        if (sendBufferSize > 0)
+        {
+            socket.setSendBufferSize(sendBufferSize);
+        }
+        if (receiveBufferSize > 0)
+        {
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+        socket.setTcpNoDelay(tcpNoDelay);
+        socket.setKeepAlive(keepAlive);
+        if (localAddress != null && !socket.isBound())
+        {
+            socket.bind(new InetSocketAddress(InetAddress.getByName(localAddress), 0));
+        }
+    }
+
+    private void setExtendedOptions(Socket socket, NetworkChannel channel)
+    {
+        if (!keepAlive)
+        {
+            return;
+        }
+        if (keepAliveIdle > 0)
+        {
+            setExtendedOption(socket, channel, KEEP_ALIVE_IDLE_OPTION, keepAliveIdle);
+        }
+        if (keepAliveInterval > 0)
+        {
+            setExtendedOption(socket, channel, KEEP_ALIVE_INTERVAL_OPTION, keepAliveInterval);
+        }
+    }
+
+    private static void setExtendedOption(Socket socket, NetworkChannel channel, SocketOption option, int value)
+    {
+        if (option == null)
+        {
+            return;
+        }
+        try
+        {
+            if (channel != null)
+            {
+                channel.setOption(option, new Integer(value));
+            }
+            else
+            {
+                // Socket.setOption is there from Java 9.
+                Method setOption = Socket.class.getMethod("setOption", new Class[] {SocketOption.class, Object.class});
+                setOption.invoke(socket, new Object[] {option, new Integer(value)});
+            }
+        }
+        catch (Exception e)
+        {
+            if (JISystem.getLogger().isLoggable(Level.FINE))
+            {
+                JISystem.getLogger().fine("Could not set " + option + ": " + e);
+            }
+        }
+    }
+
+    private static SocketOption extendedOption(String name)
+    {
+        try
+        {
+            Field field = Class.forName("jdk.net.ExtendedSocketOptions").getField(name);
+            return (SocketOption) field.get(null);
+        }
+        catch (Exception e)
+        {
+            return null;
+        }
+    }
+
+    private static int getInt(Properties properties, String key)
+    {
+        try
+        {
+            return Integer.parseInt(properties.getProperty(key, "0"));
+        }
+        catch (NumberFormatException e)
+        {
+            return 0;
+        }
+    }
+
+    private static int checkNotNegative(int value)
+    {
+        if (value < 0)
+        {
+            throw new IllegalArgumentException(JISystem.getLocalizedMessage(JIErrorCodes.JI_COMSTUB_ILLEGAL_ARGUMENTS));
+        }
+        return value;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        return "JISocketOptions[tcpNoDelay=" + tcpNoDelay + ", sendBufferSize=" + sendBufferSize
+                + ", receiveBufferSize=" + receiveBufferSize + ", keepAlive=" + keepAlive + ", keepAliveIdle="
+                + keepAliveIdle + ", keepAliveInterval=" + keepAliveInterval + ", localAddress=" + localAddress + "]";
+    }
+}
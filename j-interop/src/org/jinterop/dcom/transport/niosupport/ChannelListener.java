@@ -12,11 +12,10 @@ package org.jinterop.dcom.transport.niosupport;
 /**
  * Listener to be notified when read operations can be performed.
  * <p>
- * Implementations should perform the actual IO on a different thread so as not
- * to hold up the single selector thread on which callbacks are made. They can
- * do this either by the use of a thread pool or by using another
- * synchronization mechanism to indicate to the IO thread that the operation is
- * now ready to be performed.
+ * Callbacks are made on a selector thread shared with other channels, so
+ * implementations must never block in them, in particular not on a consumer
+ * of the data. Since the channel is non-blocking they may read it right away
+ * and hand the bytes over, or else signal another thread to do the read.
  * <p>
  * Currently supports read operations only.
  */
@@ -58,6 +58,15 @@ public interface ChannelWrapper
      */
     void writeAll(ByteBuffer buffer) throws IOException;
 
+    /**
+     * Writes the remaining contents of the buffers, in order, gathering them
+     * into as few writes on the channel as it allows. May block.
+     *
+     * @param buffers
+     * @throws IOException
+     */
+    void writeAll(ByteBuffer[] buffers) throws IOException;
+
     /**
      * @return whether the underlying channel is connected.
      */
@@ -18,8 +18,10 @@ package org.jinterop.dcom.transport.niosupport;
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.logging.Level;
@@ -40,6 +42,8 @@ public final class ChannelWrapperImpl implements ChannelWrapper
 
     private final ChannelListener channelListener;
 
+    private final SelectionKey selectionKey;
+
     /**
      * Constructor for ChannelWrapperImpl.
      * 
@@ -56,7 +60,8 @@ public final class ChannelWrapperImpl implements ChannelWrapper
         this.selectableChannel = selectableChannel;
         this.channelListener = channelListener;
 
-        selectorManager.registerChannel(selectableChannel, channelListener);
+        selectionKey = selectorManager.registerChannel(selectableChannel,
+                channelListener);
     }
 
     private ChannelListener getChannelListener()
@@ -107,7 +112,7 @@ public final class ChannelWrapperImpl implements ChannelWrapper
    
     public void registerForRead() throws IOException
     {
-        selectorManager.setReadInterest(selectableChannel);
+        selectorManager.setReadInterest(selectionKey);
     }
 
     /**
@@ -116,7 +121,7 @@ public final class ChannelWrapperImpl implements ChannelWrapper
    
     public void unregisterForRead() throws IOException
     {
-        selectorManager.removeReadInterest(selectableChannel);
+        selectorManager.removeReadInterest(selectionKey);
     }
 
     private int write(final ByteBuffer buffer) throws IOException
@@ -142,6 +147,32 @@ public final class ChannelWrapperImpl implements ChannelWrapper
         }
     }
 
+    /**
+     * @see org.jinterop.dcom.transport.niosupport.ChannelWrapper#writeAll(java.nio.ByteBuffer[])
+     */
+   
+    public void writeAll(ByteBuffer[] buffers) throws IOException
+    {
+        int offset = 0;
+        while (offset < buffers.length)
+        {
+            final long bytesWritten = ((GatheringByteChannel) selectableChannel)
+                    .write(buffers, offset, buffers.length - offset);
+
+            if (JISystem.getLogger().isLoggable(Level.FINE))
+            {
+                JISystem.getLogger().fine(
+                        this + " bytes written " + bytesWritten);
+            }
+
+            //skip the buffers written completely.
+            while (offset < buffers.length && !buffers[offset].hasRemaining())
+            {
+                offset++;
+            }
+        }
+    }
+
     /**
      * @see org.jinterop.dcom.transport.niosupport.ChannelWrapper#close()
      */
@@ -21,195 +21,176 @@ import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.jinterop.dcom.common.JISystem;
 
 /**
- * Confines selector operations to a single thread. Calls back to registered
- * {@link ChannelListener}s on this thread when read operations are ready.
+ * Confines selector operations to a small pool of selector threads, each
+ * owning a selector of its own. Channels are spread over the selectors when
+ * they are registered and stay with theirs for their lifetime. Calls back to
+ * registered {@link ChannelListener}s on the selector thread when read
+ * operations are ready.
+ * <p>
+ * Other threads hand their operations to a selector thread through a
+ * non-blocking queue; only the registration of a channel waits for the
+ * selector thread, asking for read readiness does not.
  */
-public final class SelectorManager implements Runnable
+public final class SelectorManager
 {
-    private final Selector selector;
+    private final Shard[] shards;
 
-    private final Thread selectThread;
-
-    private final List<Runnable> taskList = new ArrayList<Runnable>();
+    private final AtomicInteger nextShard = new AtomicInteger();
 
     /**
-     * Constructor for SelectorManager.
+     * Constructor for SelectorManager, with as many selector threads as
+     * {@link JISystem#getSelectorThreadCount()} returns.
      * 
      * @throws IOException
      */
     public SelectorManager() throws IOException
     {
-        selectThread = new Thread(this, "jI_SelectorManager");
-        selectThread.setDaemon(true);
-
-        selector = Selector.open();
-        selectThread.start();
+        this(JISystem.getSelectorThreadCount());
     }
 
     /**
-     * Shuts down the selector manager
+     * Constructor for SelectorManager.
+     * 
+     * @param threadCount number of selector threads, at least 1.
+     * @throws IOException
      */
-    public void destroy()
+    public SelectorManager(int threadCount) throws IOException
     {
-        if (selectThread.isAlive())
+        if (threadCount < 1)
         {
-            selectThread.interrupt();
+            throw new IllegalArgumentException("Invalid selector thread count: "
+                    + threadCount);
         }
-    }
 
-    void registerChannel(final SelectableChannel selectableChannel,
-            final ChannelListener listener) throws IOException
-    {
-        final Callable<Void> task = new Callable<Void>()
+        shards = new Shard[threadCount];
+        try
         {
-            public Void call() throws IOException
+            for (int i = 0; i < threadCount; i++)
             {
-                selectableChannel.configureBlocking(false);
-                selectableChannel.register(selector, 0, listener);
-
-                return null;
+                shards[i] = new Shard(threadCount == 1 ? "jI_SelectorManager"
+                        : "jI_SelectorManager-" + i);
             }
-        };
-
-        invokeSync(task);
+        }
+        catch (IOException e)
+        {
+            destroy();
+            throw e;
+        }
     }
 
-    void setReadInterest(final SelectableChannel selectableChannel)
-            throws IOException
+    /**
+     * Shuts down the selector manager
+     */
+    public void destroy()
     {
-        final Callable<Void> task = new Callable<Void>()
+        for (int i = 0; i < shards.length; i++)
         {
-            public Void call() throws IOException
+            if (shards[i] != null && shards[i].selectThread.isAlive())
             {
-                setInterestOps(selectableChannel, SelectionKey.OP_READ);
-
-                return null;
+                shards[i].selectThread.interrupt();
             }
-        };
+        }
+    }
 
-        invokeSync(task);
+    /**
+     * @return the number of selector threads.
+     */
+    public int getThreadCount()
+    {
+        return shards.length;
     }
 
-    void removeReadInterest(final SelectableChannel selectableChannel)
-            throws IOException
+    SelectionKey registerChannel(final SelectableChannel selectableChannel,
+            final ChannelListener listener) throws IOException
     {
+        final Shard shard = shards[(nextShard.getAndIncrement() & Integer.MAX_VALUE)
+                % shards.length];
+
+        final SelectionKey[] selectionKey = new SelectionKey[1];
         final Callable<Void> task = new Callable<Void>()
         {
-            public Void call() throws Exception
+            public Void call() throws IOException
             {
-                setInterestOps(selectableChannel, 0);
+                selectableChannel.configureBlocking(false);
+                selectionKey[0] = selectableChannel.register(shard.selector, 0,
+                        listener);
 
                 return null;
             }
         };
 
-        invokeSync(task);
+        shard.invokeSync(task);
+
+        return selectionKey[0];
     }
 
-    private void setInterestOps(SelectableChannel selectableChannel,
-            int interestOps) throws IOException
+    void setReadInterest(final SelectionKey selectionKey)
     {
-        try
-        {
-            if (selectableChannel.isRegistered())
-            {
-                final SelectionKey selectionKey = selectableChannel
-                        .keyFor(selector);
-
-                selectionKey.interestOps(interestOps);
-            }
-        }
-        catch (final CancelledKeyException e)
-        {
-            throw new IOException("Unable to set interest ops", e);
-        }
+        setInterestOps(selectionKey, SelectionKey.OP_READ);
     }
 
-    private void invokeAsync(final Runnable task)
+    void removeReadInterest(final SelectionKey selectionKey)
     {
-        synchronized (taskList)
-        {
-            taskList.add(task);
-        }
-
-        // To break out of the select and execute the tasks...
-        selector.wakeup();
+        setInterestOps(selectionKey, 0);
     }
 
-    private void invokeSync(final Callable<Void> task) throws IOException
+    /**
+     * Changes the interest set on the selector thread of the key, without
+     * waiting for it. Should the key have been cancelled meanwhile, the
+     * listener is called back anyway so that its reader finds the channel
+     * closed rather than waiting for a readiness which never comes.
+     */
+    private void setInterestOps(final SelectionKey selectionKey,
+            final int interestOps)
     {
-        final ExceptionHolder exceptionHolder = new ExceptionHolder();
-
-        if (Thread.currentThread() == selectThread)
-        {
-            try
-            {
-                task.call();
-            }
-            catch (final Exception e)
-            {
-                // Store the exception so we can check it's one of the ones
-                // declared as thrown
-                exceptionHolder.setException(e);
-            }
-        }
-        else
+        final Runnable task = new Runnable()
         {
-            // Used to deliver the notification that the task is executed
-            final CountDownLatch latch = new CountDownLatch(1);
-
-            invokeAsync(new Runnable()
+            public void run()
             {
-                public void run()
+                try
                 {
-                    try
-                    {
-                        task.call();
-                    }
-                    catch (final Exception e)
-                    {
-                        exceptionHolder.setException(e);
-                    }
-                    finally
+                    selectionKey.interestOps(interestOps);
+                }
+                catch (final CancelledKeyException e)
+                {
+                    if (interestOps != 0)
                     {
-                        latch.countDown();
+                        ((ChannelListener) selectionKey.attachment())
+                                .readReady();
                     }
                 }
-            });
-
-            try
-            {
-                // Wait for completion
-                latch.await();
-            }
-            catch (final InterruptedException e)
-            {
-                // Set the interrupted flag
-                Thread.currentThread().interrupt();
             }
-        }
+        };
 
-        // Throw any exception thrown by the task
-        if (exceptionHolder.getException() != null)
-        {
-            final Exception thrownException = exceptionHolder.getException();
+        shardFor(selectionKey).invokeAsync(task);
+    }
 
-            throw launderIOException(thrownException);
+    private Shard shardFor(SelectionKey selectionKey)
+    {
+        final Selector selector = selectionKey.selector();
+        for (int i = 0; i < shards.length; i++)
+        {
+            if (shards[i].selector == selector)
+            {
+                return shards[i];
+            }
         }
+        throw new IllegalArgumentException("Key not registered with this manager");
     }
 
-    private IOException launderIOException(Exception thrownException)
+    private static IOException launderIOException(Exception thrownException)
     {
         if (thrownException instanceof RuntimeException)
         {
@@ -224,149 +205,252 @@ public final class SelectorManager implements Runnable
         throw new UndeclaredThrowableException(thrownException);
     }
 
-    private void doInvocations()
+    private static Logger getLogger()
     {
-        boolean processedTask = false;
+        return JISystem.getLogger();
+    }
+
+    /**
+     * A selector along with the thread selecting on it and the queue of tasks
+     * handed to that thread.
+     */
+    private static final class Shard implements Runnable
+    {
+        private final Selector selector;
+
+        private final Thread selectThread;
 
-        synchronized (taskList)
+        private final ConcurrentLinkedQueue<Runnable> taskQueue = new ConcurrentLinkedQueue<Runnable>();
+
+        // Set while a wakeup is outstanding, so that a burst of tasks costs a
+        // single wakeup of the selector.
+        private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+        Shard(String name) throws IOException
         {
-            for (Runnable task : taskList)
-            {
-                task.run();
-                processedTask = true;
-            }
-            taskList.clear();
+            selector = Selector.open();
+
+            selectThread = new Thread(this, name);
+            selectThread.setDaemon(true);
+            selectThread.start();
         }
 
-        // Just in case we are called with nothing to do so that we dont
-        // get busy cpu.
-        if (!processedTask)
+        void invokeAsync(final Runnable task)
         {
-            try
+            if (Thread.currentThread() == selectThread)
             {
-                Thread.sleep(0, 1);
+                task.run();
+                return;
             }
-            catch (final InterruptedException e)
+
+            taskQueue.offer(task);
+
+            // To break out of the select and execute the tasks...
+            if (wakeupPending.compareAndSet(false, true))
             {
-                // Set the interrupted flag
-                Thread.currentThread().interrupt();
+                selector.wakeup();
             }
         }
-    }
 
-    /**
-     * @see java.lang.Runnable#run()
-     */
-    public void run()
-    {
-        try
+        void invokeSync(final Callable<Void> task) throws IOException
         {
-            while (true)
+            final ExceptionHolder exceptionHolder = new ExceptionHolder();
+
+            if (Thread.currentThread() == selectThread)
             {
-                if (Thread.currentThread().isInterrupted())
+                try
+                {
+                    task.call();
+                }
+                catch (final Exception e)
                 {
-                    JISystem.getLogger().log(Level.INFO,
-                            "Selector manager interrupted");
-                    return;
+                    // Store the exception so we can check it's one of the ones
+                    // declared as thrown
+                    exceptionHolder.setException(e);
                 }
+            }
+            else
+            {
+                // Used to deliver the notification that the task is executed
+                final CountDownLatch latch = new CountDownLatch(1);
 
-                doInvocations();
+                invokeAsync(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            task.call();
+                        }
+                        catch (final Exception e)
+                        {
+                            exceptionHolder.setException(e);
+                        }
+                        finally
+                        {
+                            latch.countDown();
+                        }
+                    }
+                });
 
-                doSelect();
+                try
+                {
+                    // Wait for completion
+                    latch.await();
+                }
+                catch (final InterruptedException e)
+                {
+                    // Set the interrupted flag
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            // Throw any exception thrown by the task
+            if (exceptionHolder.getException() != null)
+            {
+                final Exception thrownException = exceptionHolder.getException();
+
+                throw launderIOException(thrownException);
             }
         }
-        catch (Exception t)
+
+        private void doInvocations()
         {
-            cleanup();
-            getLogger().log(Level.SEVERE,
-                    "Selector manager is unexpectedly exiting", t);
+            // Cleared before draining, a task queued after this point wakes up
+            // the next select.
+            wakeupPending.set(false);
+
+            Runnable task;
+            while ((task = taskQueue.poll()) != null)
+            {
+                try
+                {
+                    task.run();
+                }
+                catch (RuntimeException e)
+                {
+                    getLogger().log(Level.WARNING,
+                            "Exception in SelectorManager task", e);
+                }
+            }
         }
-    }
 
-    private void doSelect()
-    {
-        try
+        /**
+         * @see java.lang.Runnable#run()
+         */
+        public void run()
         {
-            if (selector.select() != 0)
+            try
             {
-                final Iterator<SelectionKey> it = selector.selectedKeys()
-                        .iterator();
-
-                while (it.hasNext())
+                while (true)
                 {
-                    try
+                    if (Thread.currentThread().isInterrupted())
                     {
-                        final SelectionKey selectionKey = it.next();
-                        it.remove();
+                        JISystem.getLogger().log(Level.INFO,
+                                "Selector manager interrupted");
+                        return;
+                    }
+
+                    doInvocations();
 
-                        // Client must re-obtain read interest once it has
-                        // handled the read and is ready for the next read
-                        selectionKey.interestOps(0);
+                    doSelect();
+                }
+            }
+            catch (Exception t)
+            {
+                cleanup();
+                getLogger().log(Level.SEVERE,
+                        "Selector manager is unexpectedly exiting", t);
+            }
+        }
 
-                        // Call back to the listener for it to do the read
-                        final ChannelListener listener = (ChannelListener) selectionKey
-                                .attachment();
+        private void doSelect()
+        {
+            try
+            {
+                if (selector.select() != 0)
+                {
+                    final Iterator<SelectionKey> it = selector.selectedKeys()
+                            .iterator();
 
-                        listener.readReady();
-                    }
-                    catch (CancelledKeyException e)
+                    while (it.hasNext())
                     {
-                        if (getLogger().isLoggable(Level.FINE))
+                        try
+                        {
+                            final SelectionKey selectionKey = it.next();
+                            it.remove();
+
+                            // Client must re-obtain read interest once it has
+                            // handled the read and is ready for the next read
+                            selectionKey.interestOps(0);
+
+                            // Call back to the listener for it to do the read
+                            final ChannelListener listener = (ChannelListener) selectionKey
+                                    .attachment();
+
+                            listener.readReady();
+                        }
+                        catch (CancelledKeyException e)
                         {
-                            getLogger().log(Level.FINE,
-                                    "Ignoring cancelled key exception", e);
+                            if (getLogger().isLoggable(Level.FINE))
+                            {
+                                getLogger().log(Level.FINE,
+                                        "Ignoring cancelled key exception", e);
+                            }
+                        }
+                        catch (RuntimeException e)
+                        {
+                            // A failing listener must not take down the
+                            // other channels of this selector.
+                            getLogger().log(Level.WARNING,
+                                    "Exception in ChannelListener", e);
                         }
                     }
                 }
             }
+            catch (IOException e)
+            {
+                getLogger().log(Level.WARNING,
+                        "Exception during SelectionManager select", e);
+            }
         }
-        catch (IOException e)
-        {
-            getLogger().log(Level.WARNING,
-                    "Exception during SelectionManager select", e);
-        }
-    }
 
-    private void cleanup()
-    {
-        for (SelectionKey key : selector.keys())
+        private void cleanup()
         {
+            for (SelectionKey key : selector.keys())
+            {
+                try
+                {
+                    key.channel().close();
+                }
+                catch (IOException e)
+                {
+                    if (getLogger().isLoggable(Level.FINE))
+                    {
+                        getLogger().log(Level.FINE,
+                                "Ignoring channel close exception", e);
+                    }
+                }
+            }
+
             try
             {
-                key.channel().close();
+                selector.close();
             }
             catch (IOException e)
             {
                 if (getLogger().isLoggable(Level.FINE))
                 {
                     getLogger().log(Level.FINE,
-                            "Ignoring channel close exception", e);
+                            "Ignoring selector close exception", e);
                 }
             }
         }
-
-        try
-        {
-            selector.close();
-        }
-        catch (IOException e)
-        {
-            if (getLogger().isLoggable(Level.FINE))
-            {
-                getLogger().log(Level.FINE,
-                        "Ignoring selector close exception", e);
-            }
-        }
-    }
-
-    private Logger getLogger()
-    {
-        return JISystem.getLogger();
     }
 
     private static class ExceptionHolder
     {
-        private Exception exception;
+        private volatile Exception exception;
 
         Exception getException()
         {
@@ -18,9 +18,12 @@
 package ndr;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
 import java.util.HashMap;
-
-import jcifs.util.Encdec;
+import java.util.List;
 
 public class NdrBuffer {
 	int referent;
@@ -31,6 +34,45 @@ public class NdrBuffer {
 		Object obj;
 	}
 
+	/**
+	 * Octets which belong to the encoded stream at <code>offset</code> but are
+	 * read from <code>source</code> only when they get sent. The
+	 * <code>skip</code> bytes at <code>offset</code> in the buffer are
+	 * placeholders keeping the alignment of what follows, and are not sent.
+	 */
+	public static final class Splice {
+		public final int offset;
+		public final int skip;
+		public final int length;
+		public final ReadableByteChannel source;
+
+		Splice(int offset, int skip, int length, ReadableByteChannel source) {
+			this.offset = offset;
+			this.skip = skip;
+			this.length = length;
+			this.source = source;
+		}
+	}
+
+	/**
+	 * Supplies the octets of a buffer decoded while they are still arriving,
+	 * see {@link NdrBuffer#NdrBuffer(Source)}. Failures to read them are
+	 * thrown as an <code>IllegalStateException</code> caused by the
+	 * <code>IOException</code>.
+	 */
+	public interface Source {
+		/**
+		 * Waits until the first <code>length</code> octets have arrived and
+		 * returns the array holding them, which may be a new one.
+		 */
+		byte[] require(int length);
+
+		/**
+		 * Returns the number of octets arrived so far.
+		 */
+		int available();
+	}
+
     public byte[] buf;
 	public int start;
     public int index;
@@ -38,6 +80,20 @@ public class NdrBuffer {
     public NdrBuffer deferred;
 
     public boolean ignoreAlign = false;
+
+	//read-only region decoded in place of buf, see NdrBuffer(ByteBuffer).
+	private ByteBuffer mapped;
+
+	//supplies buf while it is being decoded, see NdrBuffer(Source).
+	private Source source;
+	private int available;
+
+	//spliced octets, kept on the root buffer only.
+	private List splices;
+
+	//little-endian views over buf, recreated whenever buf gets replaced.
+	private ByteBuffer view;
+	private ByteBuffer ioView;
     
     public NdrBuffer(byte[] buf, int start) {
         this.buf = buf;
@@ -46,8 +102,32 @@ public class NdrBuffer {
 		deferred = this;
     }
 
+	/**
+	 * Decodes from <code>region</code>, a memory mapped file for e.g., instead
+	 * of an array. Such a buffer is read-only and {@link #buf} is empty;
+	 * {@link #isMapped()} tells decoders they may keep slices of the region
+	 * rather than copying octets out of it.
+	 */
+	public NdrBuffer(ByteBuffer region) {
+		this(new byte[0], 0);
+		mapped = region.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Decodes octets supplied by <code>source</code>, which are asked for
+	 * only as the decoder gets to them. Such a buffer is read-only.
+	 */
+	public NdrBuffer(Source source) {
+		this(source.require(0), 0);
+		this.source = source;
+		available = source.available();
+	}
+
 	public NdrBuffer derive(int idx) {
 		NdrBuffer nb = new NdrBuffer(buf, start);
+		nb.mapped = mapped;
+		nb.source = source;
+		nb.available = available;
 		nb.index = idx;
 		nb.deferred = deferred;
 		nb.ignoreAlign = ignoreAlign;
@@ -60,7 +140,30 @@ public class NdrBuffer {
         this.index = start;
 		length = 0;
         deferred = this;
+        splices = null;
     }
+	/**
+	 * Marks <code>length</code> octets, to be read from <code>source</code>
+	 * when the stream is sent, as written at the current index, so that large
+	 * octet arrays need not be held in memory. Only the placeholders needed to
+	 * keep the alignment of the following data are written into the buffer.
+	 */
+	public void splice(ReadableByteChannel source, int length) {
+		NdrBuffer root = deferred;
+		if (root.splices == null) {
+			root.splices = new ArrayList();
+		}
+		int skip = length & 7;
+		root.splices.add(new Splice(index, skip, length, source));
+		advance(skip);
+	}
+	/**
+	 * Returns the {@link Splice}s in the order of their offsets,
+	 * <code>null</code> if there are none.
+	 */
+	public List getSplices() {
+		return deferred.splices;
+	}
 	public int getIndex() {
 		return index;
 	}
@@ -68,11 +171,57 @@ public class NdrBuffer {
         this.index = index;
     }
     public int getCapacity() {
+        if (mapped != null) return mapped.capacity() - start;
         return buf.length - start;
     }
+	public boolean isMapped() {
+		return mapped != null;
+	}
+	/**
+	 * Returns the next <code>length</code> octets of a mapped buffer as a
+	 * read-only slice of the region, without copying them.
+	 */
+	public ByteBuffer sliceOctets(int length) {
+		ByteBuffer slice = mapped.duplicate();
+		slice.limit(index + length);
+		slice.position(index);
+		advance(length);
+		return slice.slice();
+	}
     public byte[] getBuffer() {
         return buf;
     }
+	/**
+	 * Returns a <code>ByteBuffer</code> over the backing array positioned at
+	 * <code>offset</code> with <code>length</code> bytes remaining, so that
+	 * channels can read into or write from this buffer without a copy. The
+	 * view is reused and only valid until the next call.
+	 */
+	public ByteBuffer getByteBuffer(int offset, int length) {
+		if (ioView == null || ioView.array() != buf) {
+			ioView = ByteBuffer.wrap(buf);
+		}
+		ioView.clear();
+		ioView.position(offset);
+		ioView.limit(offset + length);
+		return ioView;
+	}
+	//makes sure the n octets at index have arrived.
+	private void require(int n) {
+		if (source != null && index + n > available) {
+			buf = source.require(index + n);
+			available = source.available();
+		}
+	}
+	private ByteBuffer view() {
+		if (mapped != null) {
+			return mapped;
+		}
+		if (view == null || view.array() != buf) {
+			view = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return view;
+	}
     public int align(int boundary, byte value) {
     	if (ignoreAlign)
     	{
@@ -91,7 +240,14 @@ public class NdrBuffer {
 		advance(l);
 	}
 	public void readOctetArray(byte[] b, int i, int l) {
-		System.arraycopy(buf, index, b, i, l);
+		require(l);
+		if (mapped != null) {
+			ByteBuffer region = mapped.duplicate();
+			region.position(index);
+			region.get(b, i, l);
+		} else {
+			System.arraycopy(buf, index, b, i, l);
+		}
 		advance(l);
 	}
 
@@ -121,41 +277,79 @@ public class NdrBuffer {
 		advance(1);
     }
     public int dec_ndr_small() {
-		int val = buf[index] & 0xFF;
+		require(1);
+		int val = (mapped != null ? mapped.get(index) : buf[index]) & 0xFF;
 		advance(1);
 		return val;
     }
     public void enc_ndr_short(int s) {
 		align(2);
-        Encdec.enc_uint16le((short)s, buf, index);
+        view().putShort(index, (short)s);
 		advance(2);
     }
     public int dec_ndr_short() {
 		align(2);
-        int val = Encdec.dec_uint16le(buf, index);
+		require(2);
+        int val = view().getShort(index) & 0xFFFF;
 		advance(2);
         return val;
     }
     public void enc_ndr_long(int l) {
 		align(4);
-        Encdec.enc_uint32le(l, buf, index);
+        view().putInt(index, l);
 		advance(4);
     }
     public int dec_ndr_long() {
 		align(4);
-        int val = Encdec.dec_uint32le(buf, index);
+		require(4);
+        int val = view().getInt(index);
 		advance(4);
         return val;
     }
-	/* float */
-	/* double */
+    public void enc_ndr_hyper(long h) {
+		align(8);
+        view().putLong(index, h);
+		advance(8);
+    }
+    public long dec_ndr_hyper() {
+		align(8);
+		require(8);
+        long val = view().getLong(index);
+		advance(8);
+        return val;
+    }
+    public void enc_ndr_float(float f) {
+		align(4);
+        view().putFloat(index, f);
+		advance(4);
+    }
+    public float dec_ndr_float() {
+		align(4);
+		require(4);
+        float val = view().getFloat(index);
+		advance(4);
+        return val;
+    }
+    public void enc_ndr_double(double d) {
+		align(8);
+        view().putDouble(index, d);
+		advance(8);
+    }
+    public double dec_ndr_double() {
+		align(8);
+		require(8);
+        double val = view().getDouble(index);
+		advance(8);
+        return val;
+    }
     public void enc_ndr_string(String s) {
 		align(4);
 		int i = index;
         int len = s.length();
-        Encdec.enc_uint32le(len + 1, buf, i); i += 4;
-        Encdec.enc_uint32le(0, buf, i); i += 4;
-        Encdec.enc_uint32le(len + 1, buf, i); i += 4;
+        ByteBuffer view = view();
+        view.putInt(i, len + 1); i += 4;
+        view.putInt(i, 0); i += 4;
+        view.putInt(i, len + 1); i += 4;
         try {
             System.arraycopy(s.getBytes("UnicodeLittleUnmarked"), 0, buf, i, len * 2);
         } catch( UnsupportedEncodingException uee ) {
@@ -167,16 +361,26 @@ public class NdrBuffer {
     }
     public String dec_ndr_string() throws NdrException {
 		align(4);
+		require(12);
 		int i = index;
         String val = null;
-        int len = Encdec.dec_uint32le(buf, i);
+        int len = view().getInt(i);
         i += 12;
         if (len != 0) {
             len--;
             int size = len * 2;
             try {
 				if (size < 0 || size > 0xFFFF) throw new NdrException( NdrException.INVALID_CONFORMANCE );
-                val = new String(buf, i, size, "UnicodeLittle");
+				require(12 + size + 2);
+                if (mapped != null) {
+                    byte[] chars = new byte[size];
+                    ByteBuffer region = mapped.duplicate();
+                    region.position(i);
+                    region.get(chars);
+                    val = new String(chars, "UnicodeLittle");
+                } else {
+                    val = new String(buf, i, size, "UnicodeLittle");
+                }
                 i += size + 2;
             } catch( UnsupportedEncodingException uee ) {
             }
@@ -0,0 +1,131 @@
+/**
+* j-Interop (Pure Java implementation of DCOM protocol)
+*
+* Copyright (c) 2013 Vikram Roopchand
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+* Vikram Roopchand  - Moving to EPL from LGPL v3.
+*
+*/
+
+package ndr;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-classed pool of the byte arrays backing the buffers the stubs of
+ * outgoing calls are encoded into. Arrays come in powers of two from 1K to
+ * 256K; larger requests are allocated and dropped on release. Released arrays
+ * are cleared, so alignment padding never carries data of an earlier call.
+ * <p>
+ * The counters tell how many arrays had to be allocated and how many were
+ * reused, against how many were handed out; with a warm pool the allocations
+ * per call stay close to zero. <code>org.jinterop.dcom.test.NdrBufferPoolDriver</code>
+ * checks that figure.
+ */
+public final class NdrBufferPool {
+
+    private static final int MIN_SHIFT = 10;
+
+    private static final int MAX_SHIFT = 18;
+
+    //arrays kept per size class.
+    private static final int MAX_RETAINED = 8;
+
+    private static final ConcurrentLinkedQueue[] classes =
+            new ConcurrentLinkedQueue[MAX_SHIFT - MIN_SHIFT + 1];
+
+    private static final AtomicInteger[] retained =
+            new AtomicInteger[MAX_SHIFT - MIN_SHIFT + 1];
+
+    private static final AtomicLong acquired = new AtomicLong();
+
+    private static final AtomicLong allocated = new AtomicLong();
+
+    private static final AtomicLong hits = new AtomicLong();
+
+    static {
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new ConcurrentLinkedQueue();
+            retained[i] = new AtomicInteger();
+        }
+    }
+
+    private NdrBufferPool() {}
+
+    /**
+     * Returns a zeroed array of at least <code>length</code> bytes, which
+     * should be handed back through {@link #release(byte[])} once it is no
+     * longer referenced.
+     */
+    public static byte[] acquire(int length) {
+        acquired.incrementAndGet();
+        int index = classIndex(length);
+        if (index >= 0) {
+            byte[] buffer = (byte[]) classes[index].poll();
+            if (buffer != null) {
+                retained[index].decrementAndGet();
+                hits.incrementAndGet();
+                return buffer;
+            }
+            allocated.incrementAndGet();
+            return new byte[1 << (index + MIN_SHIFT)];
+        }
+        allocated.incrementAndGet();
+        return new byte[length];
+    }
+
+    /**
+     * Hands an array back to the pool. Arrays not matching a size class, and
+     * arrays beyond the pool's capacity, are left to the garbage collector.
+     */
+    public static void release(byte[] buffer) {
+        if (buffer == null) return;
+        int index = classIndex(buffer.length);
+        if (index < 0 || buffer.length != 1 << (index + MIN_SHIFT)) return;
+        if (retained[index].incrementAndGet() > MAX_RETAINED) {
+            retained[index].decrementAndGet();
+            return;
+        }
+        Arrays.fill(buffer, (byte) 0);
+        classes[index].offer(buffer);
+    }
+
+    /**
+     * Number of arrays handed out by {@link #acquire(int)}.
+     */
+    public static long getAcquiredCount() {
+        return acquired.get();
+    }
+
+    /**
+     * Number of arrays {@link #acquire(int)} had to allocate.
+     */
+    public static long getAllocatedCount() {
+        return allocated.get();
+    }
+
+    /**
+     * Number of arrays {@link #acquire(int)} took from the pool instead of
+     * allocating them.
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    //size class for length, -1 if it is beyond the largest class.
+    private static int classIndex(int length) {
+        int shift = MIN_SHIFT;
+        while (shift <= MAX_SHIFT && (1 << shift) < length) shift++;
+        return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+    }
+
+}
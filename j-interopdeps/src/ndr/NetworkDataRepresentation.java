@@ -98,7 +98,7 @@ public class NetworkDataRepresentation {
         if (array == null || length == 0) return;
         length += offset;
         // won't work for EBCDIC
-        for (int i = offset; i < length; i++) array[i] = (char) buf.buf[buf.index++];
+        for (int i = offset; i < length; i++) array[i] = (char) (byte) buf.dec_ndr_small();
     }
     public void writeCharacterArray(char[] array, int offset, int length) {
         if (array == null || length == 0) return;
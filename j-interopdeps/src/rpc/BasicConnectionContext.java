@@ -35,7 +35,7 @@ public class BasicConnectionContext implements ConnectionContext {
 
     private int maxReceiveFragment = DEFAULT_MAX_RECEIVE_FRAGMENT;
 
-    private Connection connection;
+    private DefaultConnection connection;
 
     private boolean established;
 
@@ -47,16 +47,10 @@ public class BasicConnectionContext implements ConnectionContext {
             Properties properties) throws IOException {
         established = false;
         connection = new DefaultConnection();
-        if (properties != null) {
-            String maxTransmit = properties.getProperty(MAX_TRANSMIT_FRAGMENT);
-            if (maxTransmit != null) {
-                maxTransmitFragment = Integer.parseInt(maxTransmit);
-            }
-            String maxReceive = properties.getProperty(MAX_RECEIVE_FRAGMENT);
-            if (maxReceive != null) {
-                maxReceiveFragment = Integer.parseInt(maxReceive);
-            }
-        }
+        maxTransmitFragment = getFragmentSize(properties,
+                MAX_TRANSMIT_FRAGMENT, DEFAULT_MAX_TRANSMIT_FRAGMENT);
+        maxReceiveFragment = getFragmentSize(properties,
+                MAX_RECEIVE_FRAGMENT, DEFAULT_MAX_RECEIVE_FRAGMENT);
         BindPdu pdu = new BindPdu();
         pdu.setContextList(new PresentationContext[] { context });
         pdu.setMaxTransmitFragment(maxTransmitFragment);
@@ -82,16 +76,20 @@ public class BasicConnectionContext implements ConnectionContext {
             if (results == null) {
                 throw new BindException("No presentation context results.");
             }
-            for (int i = results.length - 1; i >= 0; i--) {
-                if (results[i].result != PresentationResult.ACCEPTANCE) {
-                    throw new PresentationException("Context rejected.",
-                            results[i]);
-                }
+            //only the first context is required, the endpoint may offer
+            //further ones which the server can turn down on their own.
+            if (results.length > 0 &&
+                    results[0].result != PresentationResult.ACCEPTANCE) {
+                throw new PresentationException("Context rejected.",
+                        results[0]);
             }
-            transmitLength = bindAck.getMaxReceiveFragment();
-            receiveLength = bindAck.getMaxTransmitFragment();
+            transmitLength = negotiate(maxTransmitFragment,
+                    bindAck.getMaxReceiveFragment());
+            receiveLength = negotiate(maxReceiveFragment,
+                    bindAck.getMaxTransmitFragment());
             established = true;
-            connection = new DefaultConnection(transmitLength, receiveLength);
+            connection.setTransmitLength(transmitLength);
+            connection.setReceiveLength(receiveLength);
             return null;
         case AlterContextResponsePdu.ALTER_CONTEXT_RESPONSE_TYPE:
             AlterContextResponsePdu alterContextResponse =
@@ -100,11 +98,12 @@ public class BasicConnectionContext implements ConnectionContext {
             if (results == null) {
                 throw new BindException("No presentation context results.");
             }
-            for (int i = results.length - 1; i >= 0; i--) {
-                if (results[i].result != PresentationResult.ACCEPTANCE) {
-                    throw new PresentationException("Context rejected.",
-                            results[i]);
-                }
+            //only the first context is required, the endpoint may offer
+            //further ones which the server can turn down on their own.
+            if (results.length > 0 &&
+                    results[0].result != PresentationResult.ACCEPTANCE) {
+                throw new PresentationException("Context rejected.",
+                        results[0]);
             }
             established = true;
             return null;
@@ -124,6 +123,38 @@ public class BasicConnectionContext implements ConnectionContext {
         }
     }
 
+    /**
+     * Returns the fragment size given by <code>key</code> in
+     * <code>properties</code>, or <code>defaultSize</code>, kept within
+     * {@link #MIN_FRAGMENT} and {@link #MAX_FRAGMENT}.
+     */
+    public static int getFragmentSize(Properties properties, String key,
+            int defaultSize) {
+        int size = defaultSize;
+        String value = properties != null ? properties.getProperty(key) : null;
+        if (value != null) {
+            try {
+                size = Integer.parseInt(value.trim());
+            } catch (NumberFormatException ex) {
+                //the default then.
+            }
+        }
+        return Math.max(MIN_FRAGMENT, Math.min(MAX_FRAGMENT, size));
+    }
+
+    /**
+     * Returns the fragment size to use given the one <code>offered</code> in
+     * the bind and the one the server <code>acknowledged</code>. Servers
+     * answer with the smaller of the two, those answering with a larger one
+     * or none at all are held to the offer.
+     */
+    public static int negotiate(int offered, int acknowledged) {
+        if (acknowledged < MIN_FRAGMENT) {
+            return offered;
+        }
+        return Math.min(offered, acknowledged);
+    }
+
     public Connection getConnection() {
         return connection;
     }
@@ -34,6 +34,12 @@ public interface ConnectionContext {
 
     public static final int DEFAULT_MAX_RECEIVE_FRAGMENT = 4280;
 
+    //fragment size every implementation has to accept.
+    public static final int MIN_FRAGMENT = 1432;
+
+    //largest fragment the 16 bit length allows.
+    public static final int MAX_FRAGMENT = 0xFFFF;
+
     public ConnectionOrientedPdu init(PresentationContext context,
             Properties properties) throws IOException;
 
@@ -20,14 +20,33 @@ package rpc;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import ndr.NdrBuffer;
+import ndr.NdrBufferPool;
 import ndr.NdrObject;
 import ndr.NetworkDataRepresentation;
 import rpc.core.PresentationContext;
@@ -47,6 +66,23 @@ public class ConnectionOrientedEndpoint implements Endpoint {
 
     public static final String CONNECTION_CONTEXT = "rpc.connectionContext";
 
+    /**
+     * Property which, when set to <code>true</code>, lets several threads have
+     * a request in flight on this endpoint's connection at the same time.
+     * Replies are matched back to their callers by call id. The bind asks for
+     * <code>PFC_CONC_MPX</code>; if the server does not grant it, calls are
+     * still accepted from many threads but go on the wire one at a time.
+     */
+    public static final String MULTIPLEX = "rpc.multiplex";
+
+    /**
+     * Property giving the size in octets beyond which the stub of a
+     * fragmented response is assembled in a memory mapped temporary file
+     * instead of on the heap, and decoded from there. Unset or 0 keeps all
+     * responses on the heap.
+     */
+    public static final String SPILL_THRESHOLD = "rpc.spillThreshold";
+
     protected ConnectionContext context;
 
     private Transport transport;
@@ -66,10 +102,117 @@ public class ConnectionOrientedEndpoint implements Endpoint {
     //This is so as to reuse the contextids for already exported contexts.
     private Map uuidsVsContextIds = new HashMap();
 
+    //context key of the syntax contextIdToUse stands for, null until bound.
+    private String keyInUse;
+
+    //upper cased syntax vs PresentationSyntax, offered along with the next bind or alter context.
+    private final Map offeredSyntaxes = new LinkedHashMap();
+
+    private final boolean multiplexRequested;
+
+    private final int spillThreshold;
+
+    //rpc.socketTimeout, for calls made without a Deadline.
+    private final int callTimeout;
+
+    //stub of the reply being decoded while it still arrives, see processReply.
+    private StubStream streamedStub;
+
+    //true once the server has acknowledged PFC_CONC_MPX in the bind.
+    private boolean concurrentCalls;
+
+    //calls share this gate, binding and altering the context takes it exclusively.
+    private final ReentrantReadWriteLock gate = new ReentrantReadWriteLock();
+
+    //used to put calls on the wire one at a time when concurrentCalls is false.
+    private final ReentrantLock serialCalls = new ReentrantLock();
+
+    //keeps the request fragments of one call together and in signing order.
+    private final Object sendLock = new Object();
+
+    //Integer call id vs PendingCall, also the monitor for the reader hand over.
+    private final Map pendingCalls = new HashMap();
+
+    private boolean reading;
+
+    //set along with reading while the transport watches for the next reply, no thread is reading then.
+    private boolean armed;
+
+    private static final AtomicLong callCount = new AtomicLong();
+
+    private static volatile ThreadFactory threadFactory;
+
+    //reads the replies of asynchronous calls while no caller is reading, on transports which are not selectable.
+    private static final ExecutorService readers = Executors.newCachedThreadPool(new NamedThreadFactory("jI_RpcReader-"));
+
+    //reads the replies of asynchronous calls once a selectable transport has data, only while it has.
+    private static final ExecutorService completions = Executors.newCachedThreadPool(new NamedThreadFactory("jI_RpcCompletion-"));
+
+    //fails the asynchronous calls not answered in time.
+    private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("jI_RpcTimer-"));
+
+    static {
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private int count = 0;
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+        public synchronized Thread newThread(Runnable r) {
+            ThreadFactory factory = threadFactory;
+            Thread thread = factory == null ? new Thread(r) : factory.newThread(r);
+            thread.setName(prefix + count++);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    //run by the selector of the transport once the next reply has started to arrive.
+    private final Runnable readable = new Runnable() {
+        public void run() {
+            completions.execute(new Runnable() {
+                public void run() {
+                    readAvailable();
+                }
+            });
+        }
+    };
+
+    /**
+     * Sets the factory creating the threads which read the replies of
+     * asynchronous calls, <code>null</code> for plain threads. They are named
+     * and marked daemon here. Applies to threads started afterwards.
+     */
+    public static void setThreadFactory(ThreadFactory factory) {
+        threadFactory = factory;
+    }
+
     public ConnectionOrientedEndpoint(Transport transport,
             PresentationSyntax syntax) {
         this.transport = transport;
         this.syntax = syntax;
+        Properties properties = transport.getProperties();
+        multiplexRequested = properties != null &&
+                Boolean.valueOf(properties.getProperty(MULTIPLEX)).booleanValue();
+        int threshold = 0;
+        int timeout = 0;
+        if (properties != null) {
+            try {
+                threshold = Integer.parseInt(properties.getProperty(SPILL_THRESHOLD, "0"));
+            } catch (NumberFormatException ex) {
+                //not spilling then.
+            }
+            try {
+                timeout = Integer.parseInt(properties.getProperty("rpc.socketTimeout", "0"));
+            } catch (NumberFormatException ex) {
+                //no timeout then.
+            }
+        }
+        spillThreshold = threshold;
+        callTimeout = timeout;
     }
 
     public Transport getTransport() {
@@ -80,51 +223,300 @@ public class ConnectionOrientedEndpoint implements Endpoint {
         return syntax;
     }
 
+    /**
+     * Registers an additional abstract syntax to be negotiated on this
+     * connection. It is offered as a presentation context of its own with the
+     * bind, or with the next alter context if the connection is bound
+     * already, so that switching to it later needs no round trip. The server
+     * may turn it down without failing the bind; the syntax is then altered
+     * to on first use as usual.
+     */
+    public void addPresentationSyntax(PresentationSyntax syntax) {
+        synchronized (offeredSyntaxes) {
+            offeredSyntaxes.put(contextKey(syntax),
+                    new PresentationSyntax(syntax.toString()));
+        }
+    }
+
+    /**
+     * Returns the key the context for <code>syntax</code> is known by. Callers
+     * calling the same syntax over and over can work it out once and use
+     * {@link #call(int, UUID, int, NdrObject, PresentationSyntax, String)}.
+     */
+    public static String contextKey(PresentationSyntax syntax) {
+        return syntax.toString().toUpperCase();
+    }
+
     public void call(int semantics, UUID object, int opnum, NdrObject ndrobj) throws IOException {
+        if (multiplexRequested) {
+            call(semantics, object, opnum, ndrobj,
+                    new PresentationSyntax(getSyntax().toString()));
+            return;
+        }
+        //the reply to an asynchronous call placed before comes first.
+        awaitIdle(callDeadline());
         bind();
-        RequestCoPdu request = new RequestCoPdu();
-        request.setContextId(contextIdToUse);
+        NetworkDataRepresentation ndr = new NetworkDataRepresentation();
+        NdrBuffer stubBuffer = new NdrBuffer(NdrBufferPool.acquire(1024), 0);
+        RequestCoPdu request = createRequest(semantics, object, opnum, ndrobj, ndr, stubBuffer);
+        synchronized (sendLock) {
+            request.setContextId(contextIdToUse);
+            //an id of its own, so that a late reply can be told apart should the call time out.
+            request.setCallId(++callId);
+            try {
+                send(request);
+            } finally {
+                NdrBufferPool.release(stubBuffer.buf);
+            }
+        }
+
+//        if (semantics == 100)
+//        try{
+//        	Thread.sleep(100);
+//        }catch(Exception e)
+//        {
+//
+//        }
 
-        byte[] b = new byte[1024];
-        NdrBuffer buffer = new NdrBuffer(b, 0);
+        if (request.getFlag(ConnectionOrientedPdu.PFC_MAYBE)) return;
+        try {
+            processReply(receiveStreamed(), ndr, ndrobj);
+        } catch (IOException ex) {
+            if (!isTimeout(ex)) throw ex;
+            abandon(request.getCallId());
+            throw timeout(request.getCallId(), ex);
+        }
+    }
+
+    /**
+     * Makes a call on the presentation context for <code>syntax</code>,
+     * altering the context first if it has not been negotiated on this
+     * connection yet.
+     * <p>
+     * For endpoints created with {@link #MULTIPLEX} this method may be entered
+     * by several threads at once. Each request gets its own call id and
+     * whichever caller is currently reading the connection hands the replies
+     * of the others over to them, so no thread is dedicated to reading. The
+     * replies are decoded on the calling threads.
+     */
+    public void call(int semantics, UUID object, int opnum, NdrObject ndrobj,
+            PresentationSyntax syntax) throws IOException {
+        call(semantics, object, opnum, ndrobj, syntax, contextKey(syntax));
+    }
+
+    /**
+     * Variant of {@link #call(int, UUID, int, NdrObject, PresentationSyntax)}
+     * for callers which have worked out the {@link #contextKey(PresentationSyntax)}
+     * of <code>syntax</code> already.
+     */
+    public void call(int semantics, UUID object, int opnum, NdrObject ndrobj,
+            PresentationSyntax syntax, String key) throws IOException {
+        if (!multiplexRequested) {
+            if (!key.equals(keyInUse)) {
+                getSyntax().setUuid(syntax.getUuid());
+                getSyntax().setVersion(syntax.getMajorVersion(), syntax.getMinorVersion());
+                rebind();
+            }
+            call(semantics, object, opnum, ndrobj);
+            return;
+        }
+
+        //encoding happens outside of any lock.
         NetworkDataRepresentation ndr = new NetworkDataRepresentation();
+        NdrBuffer stubBuffer = new NdrBuffer(NdrBufferPool.acquire(1024), 0);
+        RequestCoPdu request = createRequest(semantics, object, opnum, ndrobj, ndr, stubBuffer);
+        int contextId = acquireContext(syntax, key);
+        ConnectionOrientedPdu reply = null;
+        try {
+            if (!concurrentCalls) awaitIdle(callDeadline());
+            PendingCall pending = sendRequest(request, stubBuffer, contextId, null);
+            if (pending == null) return;
+            try {
+                reply = awaitReply(pending);
+            } catch (SocketTimeoutException ex) {
+                synchronized (sendLock) {
+                    abandon(pending.callId);
+                }
+                throw ex;
+            }
+        } finally {
+            releaseContext();
+        }
+        //decoding may call back into this endpoint (addRef on returned interfaces for e.g.),
+        //so it has to happen outside of the gate.
+        processReply(reply, ndr, ndrobj);
+    }
+
+    /**
+     * Places a call on the presentation context for <code>syntax</code>
+     * without waiting for its reply. The returned <code>Future</code> yields
+     * <code>ndrobj</code> once the reply has arrived and been decoded into it;
+     * the decoding happens on the thread calling <code>get</code>. Failures of
+     * the call, including faults returned by the server, are reported as the
+     * cause of the <code>ExecutionException</code>, as is a reply not
+     * arriving within the current {@link Deadline}, or else
+     * <code>rpc.socketTimeout</code>.
+     * <p>
+     * Calls are kept in flight side by side if the endpoint was created with
+     * {@link #MULTIPLEX} and the server granted <code>PFC_CONC_MPX</code>.
+     * Otherwise the connection carries one call at a time, placing a call
+     * then waits for the reply to the one in flight, but not for its own.
+     * While no caller is reading the connection the reply is read once it
+     * starts to arrive: on a {@link SelectableTransport} the selector of the
+     * transport says so and a shared thread reads it, on other transports a
+     * shared reader thread waits for it, one per connection with calls in
+     * flight.
+     */
+    public Future callAsync(int semantics, UUID object, int opnum, NdrObject ndrobj,
+            PresentationSyntax syntax) throws IOException {
+        return callAsync(semantics, object, opnum, ndrobj, syntax, contextKey(syntax));
+    }
+
+    /**
+     * Variant of {@link #callAsync(int, UUID, int, NdrObject, PresentationSyntax)}
+     * for callers which have worked out the {@link #contextKey(PresentationSyntax)}
+     * of <code>syntax</code> already.
+     */
+    public Future callAsync(int semantics, UUID object, int opnum, NdrObject ndrobj,
+            PresentationSyntax syntax, String key) throws IOException {
+        long deadline = callDeadline();
+        NetworkDataRepresentation ndr = new NetworkDataRepresentation();
+        NdrBuffer stubBuffer = new NdrBuffer(NdrBufferPool.acquire(1024), 0);
+        RequestCoPdu request = createRequest(semantics, object, opnum, ndrobj, ndr, stubBuffer);
+        PendingCall pending = new PendingCall(0, ndr, ndrobj);
+        pending.deadline = deadline;
+        if (!multiplexRequested) {
+            try {
+                awaitIdle(deadline);
+                if (!key.equals(keyInUse)) {
+                    getSyntax().setUuid(syntax.getUuid());
+                    getSyntax().setVersion(syntax.getMajorVersion(), syntax.getMinorVersion());
+                    rebind();
+                } else {
+                    bind();
+                }
+            } catch (IOException ex) {
+                NdrBufferPool.release(stubBuffer.buf);
+                throw ex;
+            }
+            return placeAsync(request, stubBuffer, contextIdToUse, pending);
+        }
+
+        int contextId = acquireContext(syntax, key);
+        try {
+            //the server takes one call at a time.
+            if (!concurrentCalls) awaitIdle(deadline);
+            return placeAsync(request, stubBuffer, contextId, pending);
+        } finally {
+            releaseContext();
+        }
+    }
+
+    //sends the request of an asynchronous call and leaves its reply to the reader.
+    private Future placeAsync(RequestCoPdu request, NdrBuffer stubBuffer, int contextId,
+            PendingCall pending) throws IOException {
+        if (sendRequest(request, stubBuffer, contextId, pending) == null) {
+            pending.decoded = true;
+            return pending;
+        }
+        synchronized (pendingCalls) {
+            if (pending.deadline != 0 && pendingCalls.containsKey(new Integer(pending.callId))) {
+                pending.expiry = timer.schedule(expiry(pending),
+                        Math.max(1, pending.deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            }
+            startReader();
+        }
+        return pending;
+    }
+
+    /**
+     * Puts <code>request</code> on the wire with a new call id and registers
+     * the call for its reply, using <code>pending</code> if given. Returns
+     * <code>null</code> for calls which expect no reply. The stub buffer goes
+     * back to the pool once the request is on the wire.
+     */
+    private PendingCall sendRequest(RequestCoPdu request, NdrBuffer stubBuffer, int contextId,
+            PendingCall pending) throws IOException {
+        synchronized (sendLock) {
+            request.setContextId(contextId);
+            request.setCallId(++callId);
+            if (request.getFlag(ConnectionOrientedPdu.PFC_MAYBE)) {
+                pending = null;
+            } else {
+                if (pending == null) pending = new PendingCall(0, null, null);
+                pending.callId = request.getCallId();
+                synchronized (pendingCalls) {
+                    pendingCalls.put(new Integer(pending.callId), pending);
+                }
+            }
+            try {
+                send(request);
+            } catch (IOException ex) {
+                if (pending != null) {
+                    synchronized (pendingCalls) {
+                        pendingCalls.remove(new Integer(pending.callId));
+                    }
+                }
+                throw ex;
+            } finally {
+                NdrBufferPool.release(stubBuffer.buf);
+            }
+            return pending;
+        }
+    }
+
+    /**
+     * Encodes <code>ndrobj</code> into <code>buffer</code>, whose array comes
+     * from the {@link NdrBufferPool}. The request refers to the encoded bytes
+     * instead of copying them, so the array may only be released once the
+     * request has been sent.
+     */
+    private RequestCoPdu createRequest(int semantics, UUID object, int opnum,
+            NdrObject ndrobj, NetworkDataRepresentation ndr, NdrBuffer buffer) throws IOException {
+        RequestCoPdu request = new RequestCoPdu();
+        callCount.incrementAndGet();
+
+        byte[] b = buffer.buf;
         ndrobj.encode(ndr, buffer);
-		byte[] stub = new byte[buffer.getLength()]; /* yuk */
-		System.arraycopy(buffer.buf, 0, stub, 0, stub.length);
+        if (buffer.buf != b) {
+            //the object has encoded into a larger array of its own.
+            NdrBufferPool.release(b);
+        }
 
 		if (logger.isLoggable(Level.FINEST))
 		{
 			//jcifs.util.Hexdump.hexdump(System.err, stub, 0, stub.length);
 		   	ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-		   	jcifs.util.Hexdump.hexdump(new PrintStream(byteArrayOutputStream), stub, 0, stub.length);
+		   	jcifs.util.Hexdump.hexdump(new PrintStream(byteArrayOutputStream), buffer.buf, 0, buffer.getLength());
 		   	logger.finest("\n" + byteArrayOutputStream.toString());
 		}
 
 
 
-        request.setStub(stub);
-        request.setAllocationHint(buffer.getLength());
+        //octets spliced in by the object are only read while sending.
+        request.setStub(buffer.buf, 0, buffer.getLength(), buffer.getSplices());
+        request.setAllocationHint(request.getStubLength());
         request.setOpnum(opnum);
         request.setObject(object);
         if ((semantics & MAYBE) != 0) {
             request.setFlag(ConnectionOrientedPdu.PFC_MAYBE, true);
         }
-        send(request);
-
-//        if (semantics == 100)
-//        try{
-//        	Thread.sleep(100);
-//        }catch(Exception e)
-//        {
-//
-//        }
+        return request;
+    }
 
-        if (request.getFlag(ConnectionOrientedPdu.PFC_MAYBE)) return;
-        ConnectionOrientedPdu reply = receive();
+    private void processReply(ConnectionOrientedPdu reply,
+            NetworkDataRepresentation ndr, NdrObject ndrobj) throws IOException {
         if (reply instanceof ResponseCoPdu) {
             ndr.setFormat(reply.getFormat());
 
-            buffer = new NdrBuffer(((ResponseCoPdu) reply).getStub(), 0);
+            ResponseCoPdu response = (ResponseCoPdu) reply;
+            StubStream stream = response.getStubStream();
+            if (stream != null) {
+                decodeStreamed(stream, ndr, ndrobj);
+                return;
+            }
+            NdrBuffer buffer = response.getMappedStub() != null ?
+                    new NdrBuffer(response.getMappedStub()) : new NdrBuffer(response.getStub(), 0);
 
             if (logger.isLoggable(Level.FINEST))
     		{
@@ -147,26 +539,563 @@ public class ConnectionOrientedEndpoint implements Endpoint {
         }
     }
 
+    /**
+     * Decodes a reply whose fragments are still arriving, the decoder pulls
+     * them off the connection as it goes. Anything the decoder does not read
+     * is read before returning, or before the connection is used again should
+     * decoding call back into this endpoint.
+     */
+    private void decodeStreamed(StubStream stream, NetworkDataRepresentation ndr,
+            NdrObject ndrobj) throws IOException {
+        streamedStub = stream;
+        boolean decoded = false;
+        try {
+            ndrobj.decode(ndr, new NdrBuffer(stream));
+            decoded = true;
+        } catch (IllegalStateException ex) {
+            //failed to read the fragments.
+            if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+            throw ex;
+        } finally {
+            if (!decoded) {
+                try {
+                    finishStreamedStub();
+                } catch (IOException ignore) {
+                    //the decoding failure is the one to report.
+                }
+            }
+        }
+        finishStreamedStub();
+    }
+
+    private void finishStreamedStub() throws IOException {
+        StubStream stream = streamedStub;
+        if (stream != null) {
+            streamedStub = null;
+            stream.finish();
+        }
+    }
+
+    /**
+     * Cancels a call which has not been answered in time, so that the
+     * connection can carry on with the next call instead of being dropped.
+     */
+    private void abandon(int callId) {
+        Connection connection = context != null ? context.getConnection() : null;
+        if (!(connection instanceof DefaultConnection)) return;
+        try {
+            ((DefaultConnection) connection).abandon(callId, getTransport());
+        } catch (IOException ex) {
+            //the next call will find out about the connection.
+            if (logger.isLoggable(Level.FINE))
+            {
+                logger.fine("Unable to cancel call " + callId + " : " + ex);
+            }
+        }
+    }
+
+    //true if the reply has not come in time, possibly in the middle of its fragments.
+    private static boolean isTimeout(Throwable ex) {
+        for (; ex != null; ex = ex.getCause()) {
+            if (ex instanceof SocketTimeoutException) return true;
+        }
+        return false;
+    }
+
+    private static SocketTimeoutException timeout(int callId, IOException ex) {
+        if (ex instanceof SocketTimeoutException) return (SocketTimeoutException) ex;
+        SocketTimeoutException timeout = new SocketTimeoutException("No reply for call " + callId);
+        timeout.initCause(ex);
+        return timeout;
+    }
+
+    /**
+     * Returns the context id for <code>syntax</code>, known by <code>key</code>,
+     * holding the shared side of the gate, negotiating the context under the
+     * exclusive side first if required. Must be paired with
+     * {@link #releaseContext()}.
+     */
+    private int acquireContext(PresentationSyntax syntax, String key) throws IOException {
+        while (true) {
+            gate.readLock().lock();
+            Integer cid = bound ? (Integer) uuidsVsContextIds.get(key) : null;
+            if (cid != null) {
+                if (!concurrentCalls) serialCalls.lock();
+                return cid.intValue();
+            }
+            gate.readLock().unlock();
+
+            gate.writeLock().lock();
+            try {
+                if (!bound || uuidsVsContextIds.get(key) == null) {
+                    boolean known = uuidsVsContextIds.containsKey(key);
+                    getSyntax().setUuid(syntax.getUuid());
+                    getSyntax().setVersion(syntax.getMajorVersion(), syntax.getMinorVersion());
+                    try {
+                        rebind();
+                    } catch (IOException ex) {
+                        //do not leave a rejected context behind for the next caller.
+                        if (!known) uuidsVsContextIds.remove(key);
+                        throw ex;
+                    }
+                }
+            } finally {
+                gate.writeLock().unlock();
+            }
+        }
+    }
+
+    private void releaseContext() {
+        if (!concurrentCalls) serialCalls.unlock();
+        gate.readLock().unlock();
+    }
+
+    /**
+     * Waits for the reply to <code>pending</code>. If nobody is reading the
+     * connection the caller reads it, handing every reply it receives to its
+     * owner, until its own reply has arrived.
+     */
+    private ConnectionOrientedPdu awaitReply(PendingCall pending) throws IOException {
+        long timeout = getCallTimeout();
+        long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+        Integer key = new Integer(pending.callId);
+        while (true) {
+            synchronized (pendingCalls) {
+                while (true) {
+                    if (pending.reply != null) return pending.reply;
+                    if (pending.failure != null) {
+                        throw new IOException(pending.failure.getMessage(), pending.failure);
+                    }
+                    if (!reading) break;
+                    long wait = 0;
+                    if (deadline != 0) {
+                        wait = deadline - System.currentTimeMillis();
+                        if (wait <= 0) {
+                            pendingCalls.remove(key);
+                            throw new SocketTimeoutException("No reply for call " + pending.callId);
+                        }
+                    }
+                    try {
+                        pendingCalls.wait(wait);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        pendingCalls.remove(key);
+                        throw new InterruptedIOException("Interrupted while waiting for call " + pending.callId);
+                    }
+                }
+                reading = true;
+            }
+
+            ConnectionOrientedPdu reply = null;
+            IOException failure = null;
+            try {
+                reply = receiveForAll();
+            } catch (SocketTimeoutException ex) {
+                //only this caller gives up, the next one in line takes over the reading.
+                synchronized (pendingCalls) {
+                    reading = false;
+                    pendingCalls.remove(key);
+                    expireAsyncCalls();
+                    pendingCalls.notifyAll();
+                    startReader();
+                }
+                throw ex;
+            } catch (IOException ex) {
+                failure = ex;
+            } catch (RuntimeException ex) {
+                failure = new IOException(ex.getMessage(), ex);
+            }
+
+            synchronized (pendingCalls) {
+                reading = false;
+                if (failure != null) {
+                    failPendingCalls(failure);
+                } else {
+                    dispatchReply(reply);
+                }
+                pendingCalls.notifyAll();
+                if (pending.reply != null || pending.failure != null) {
+                    //leaving, the asynchronous calls still need somebody to read for them.
+                    startReader();
+                }
+            }
+        }
+    }
+
+    //must hold the pendingCalls monitor.
+    private void startReader() {
+        if (reading || !hasAsyncCalls()) return;
+        reading = true;
+        if (getTransport() instanceof SelectableTransport) {
+            awaitReadable();
+            return;
+        }
+        readers.execute(new Runnable() {
+            public void run() {
+                readReplies();
+            }
+        });
+    }
+
+    /**
+     * Leaves the wait for the next reply to the selector of the transport, no
+     * thread reads until it has started to arrive. Must hold the pendingCalls
+     * monitor, with reading set.
+     */
+    private void awaitReadable() {
+        armed = true;
+        Connection connection = context != null ? context.getConnection() : null;
+        if (connection instanceof DefaultConnection && ((DefaultConnection) connection).hasBufferedBytes()) {
+            //read along with the previous reply already, the selector would not tell.
+            readable.run();
+            return;
+        }
+        try {
+            ((SelectableTransport) getTransport()).notifyReadable(readable);
+        } catch (IOException ex) {
+            armed = false;
+            reading = false;
+            failPendingCalls(ex);
+            pendingCalls.notifyAll();
+        }
+    }
+
+    /**
+     * Reads the reply which has started to arrive and hands it to its call,
+     * then leaves the wait for the next one to the selector again as long as
+     * asynchronous calls are in flight.
+     */
+    private void readAvailable() {
+        synchronized (pendingCalls) {
+            //the calls have expired or the connection was closed meanwhile.
+            if (!armed) return;
+            armed = false;
+        }
+        ConnectionOrientedPdu reply = null;
+        IOException failure = null;
+        boolean timedOut = false;
+        try {
+            reply = receiveForAll();
+        } catch (SocketTimeoutException ex) {
+            //readiness without a reply.
+            timedOut = true;
+        } catch (IOException ex) {
+            failure = ex;
+        } catch (RuntimeException ex) {
+            failure = new IOException(ex.getMessage(), ex);
+        }
+        synchronized (pendingCalls) {
+            reading = false;
+            if (failure != null) {
+                failPendingCalls(failure);
+            } else if (timedOut) {
+                expireAsyncCalls();
+            } else {
+                dispatchReply(reply);
+            }
+            pendingCalls.notifyAll();
+            startReader();
+        }
+    }
+
+    //fails pending if it is still waiting for its reply, telling the server to drop the call.
+    private Runnable expiry(final PendingCall pending) {
+        return new Runnable() {
+            public void run() {
+                synchronized (sendLock) {
+                    synchronized (pendingCalls) {
+                        if (pendingCalls.get(new Integer(pending.callId)) != pending) return;
+                        pendingCalls.remove(new Integer(pending.callId));
+                        pending.failure = new SocketTimeoutException("No reply for call " + pending.callId);
+                    }
+                    //the late reply is dropped rather than taken for the next call's.
+                    abandon(pending.callId);
+                }
+                synchronized (pendingCalls) {
+                    if (armed && !hasAsyncCalls()) {
+                        armed = false;
+                        reading = false;
+                    }
+                    pendingCalls.notifyAll();
+                }
+            }
+        };
+    }
+
+    /**
+     * Reader thread counterpart of {@link #awaitReply(PendingCall)}, reads
+     * until no asynchronous call is waiting any more and then leaves the
+     * reading to the synchronous callers, if any.
+     */
+    private void readReplies() {
+        while (true) {
+            ConnectionOrientedPdu reply = null;
+            IOException failure = null;
+            boolean timedOut = false;
+            Deadline deadline = null;
+            synchronized (pendingCalls) {
+                deadline = nextAsyncDeadline();
+            }
+            Deadline previous = Deadline.enter(deadline);
+            try {
+                reply = receiveForAll();
+            } catch (SocketTimeoutException ex) {
+                timedOut = true;
+            } catch (IOException ex) {
+                failure = ex;
+            } catch (RuntimeException ex) {
+                failure = new IOException(ex.getMessage(), ex);
+            } finally {
+                Deadline.exit(previous);
+            }
+
+            synchronized (pendingCalls) {
+                if (failure != null) {
+                    failPendingCalls(failure);
+                } else if (timedOut) {
+                    expireAsyncCalls();
+                } else {
+                    dispatchReply(reply);
+                }
+                if (!hasAsyncCalls()) {
+                    reading = false;
+                    pendingCalls.notifyAll();
+                    return;
+                }
+                pendingCalls.notifyAll();
+            }
+        }
+    }
+
+    //must hold the pendingCalls monitor.
+    private boolean hasAsyncCalls() {
+        Iterator iterator = pendingCalls.values().iterator();
+        while (iterator.hasNext()) {
+            if (((PendingCall) iterator.next()).ndrobj != null) return true;
+        }
+        return false;
+    }
+
+    //must hold the pendingCalls monitor. The earliest deadline of the asynchronous calls.
+    private Deadline nextAsyncDeadline() {
+        long next = 0;
+        Iterator iterator = pendingCalls.values().iterator();
+        while (iterator.hasNext()) {
+            PendingCall pending = (PendingCall) iterator.next();
+            if (pending.ndrobj != null && pending.deadline != 0 && (next == 0 || pending.deadline < next)) {
+                next = pending.deadline;
+            }
+        }
+        if (next == 0) return Deadline.NONE;
+        return Deadline.after(Math.max(1, next - System.currentTimeMillis()));
+    }
+
+    /**
+     * Receives the next PDU for whichever call it belongs to. The deadline of
+     * the reading thread only bounds the wait for the PDU to start arriving,
+     * the rest of it is read under <code>rpc.socketTimeout</code>, so that a
+     * reply to another call is not cut off because the reader's own time is
+     * up. A PDU stalling half way leaves the connection unusable.
+     */
+    private ConnectionOrientedPdu receiveForAll() throws IOException {
+        Connection connection = context.getConnection();
+        if (!(connection instanceof DefaultConnection)) {
+            return receive();
+        }
+        ((DefaultConnection) connection).awaitFragment(getTransport());
+        Deadline own = Deadline.replace(Deadline.after(callTimeout));
+        try {
+            return receive();
+        } catch (SocketTimeoutException ex) {
+            IOException stalled = new IOException("Connection stalled in the middle of a PDU.");
+            stalled.initCause(ex);
+            throw stalled;
+        } finally {
+            Deadline.exit(own);
+        }
+    }
+
+    //must hold the pendingCalls monitor.
+    private void expireAsyncCalls() {
+        long now = System.currentTimeMillis();
+        Iterator iterator = pendingCalls.values().iterator();
+        while (iterator.hasNext()) {
+            PendingCall pending = (PendingCall) iterator.next();
+            if (pending.ndrobj != null && pending.deadline != 0 && pending.deadline <= now) {
+                pending.failure = new SocketTimeoutException("No reply for call " + pending.callId);
+                pending.cancelExpiry();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Blocks while asynchronous calls are in flight. Must be called holding
+     * the exclusive side of the gate, so no new calls can be placed.
+     */
+    private void awaitIdle() throws IOException {
+        awaitIdle(0);
+    }
+
+    /**
+     * Blocks while calls are in flight, until <code>deadline</code> in
+     * millisecs since the epoch, 0 for none.
+     */
+    private void awaitIdle(long deadline) throws IOException {
+        synchronized (pendingCalls) {
+            while (reading || !pendingCalls.isEmpty()) {
+                long wait = 0;
+                if (deadline != 0) {
+                    wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new SocketTimeoutException("Calls still in flight on this connection.");
+                    }
+                }
+                try {
+                    pendingCalls.wait(wait);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the calls in flight.");
+                }
+            }
+        }
+    }
+
+    //must hold the pendingCalls monitor.
+    private void dispatchReply(ConnectionOrientedPdu reply) {
+        if (reply instanceof ShutdownPdu) {
+            failPendingCalls(new RpcException("Received shutdown request from server."));
+            return;
+        }
+        PendingCall pending = (PendingCall) pendingCalls.remove(new Integer(reply.getCallId()));
+        if (pending == null) {
+            if (logger.isLoggable(Level.FINE))
+            {
+                logger.fine("Discarding reply for call id " + reply.getCallId() + " , no caller is waiting for it.");
+            }
+            return;
+        }
+        pending.cancelExpiry();
+        pending.reply = reply;
+    }
+
+    //must hold the pendingCalls monitor.
+    private void failPendingCalls(IOException failure) {
+        Iterator iterator = pendingCalls.values().iterator();
+        while (iterator.hasNext()) {
+            PendingCall pending = (PendingCall) iterator.next();
+            pending.failure = failure;
+            pending.cancelExpiry();
+        }
+        pendingCalls.clear();
+    }
+
+    /**
+     * Number of calls placed through all endpoints, together with
+     * {@link NdrBufferPool#getAllocatedCount()} this gives the stub buffer
+     * allocations per call.
+     */
+    public static long getCallCount() {
+        return callCount.get();
+    }
+
+    //what is left of the current Deadline, or rpc.socketTimeout without one.
+    private long getCallTimeout() throws SocketTimeoutException {
+        return Deadline.socketTimeout(callTimeout);
+    }
+
+    //getCallTimeout as a point in time, 0 for none.
+    private long callDeadline() throws SocketTimeoutException {
+        long timeout = getCallTimeout();
+        return timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+    }
+
     protected void rebind() throws IOException {
-        bound = false;
-        bind();
+        if (!multiplexRequested) {
+            //the new context is negotiated once the asynchronous call in flight is answered.
+            awaitIdle(callDeadline());
+            bound = false;
+            bind();
+            return;
+        }
+        //waits for the calls in flight, the new context is negotiated on an idle connection.
+        gate.writeLock().lock();
+        try {
+            awaitIdle();
+            bound = false;
+            bind();
+        } finally {
+            gate.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Checks that the server still answers on this connection, altering the
+     * presentation context in use to itself; a round trip which changes
+     * nothing on either side. Returns <code>false</code> without checking if
+     * calls are in flight, the connection is then in use anyway. Callers not
+     * multiplexing must hold off their own calls meanwhile.
+     *
+     * @throws IOException if the connection is dead.
+     */
+    public boolean probe() throws IOException {
+        if (!multiplexRequested) {
+            if (!isIdle()) return false;
+            alterInUse();
+            return true;
+        }
+        if (!gate.writeLock().tryLock()) return false;
+        try {
+            if (!isIdle()) return false;
+            alterInUse();
+            return true;
+        } finally {
+            gate.writeLock().unlock();
+        }
     }
 
+    /**
+     * Returns <code>true</code> if no asynchronous or multiplexed call is
+     * waiting for its reply on this connection.
+     */
+    public boolean isIdle() {
+        synchronized (pendingCalls) {
+            return !reading && pendingCalls.isEmpty();
+        }
+    }
+
+    private void alterInUse() throws IOException {
+        //not connected yet, there is nothing to check.
+        if (!bound || context == null) return;
+        send(context.alter(new PresentationContext(contextIdToUse, getSyntax())));
+        while (!context.isEstablished()) {
+            ConnectionOrientedPdu reply = context.accept(receive());
+            if (reply != null) send(reply);
+        }
+    }
 
     protected void bind() throws IOException {
         if (bound) return;
+        String key = contextKey(getSyntax());
+        keyInUse = null;
         if (context != null) {
             bound = true;
             try {
-            	Integer cid = (Integer)uuidsVsContextIds.get(getSyntax().toString().toUpperCase());
+            	Integer cid = (Integer)uuidsVsContextIds.get(key);
             	ConnectionOrientedPdu pdu = context.alter(
                         new PresentationContext(cid == null ? ++contextIdCounter : cid.intValue(), getSyntax()));
             	boolean sendAlter = false;
+            	PresentationContext[] offered = null;
                 if (cid == null)
                 {
-                	uuidsVsContextIds.put(getSyntax().toString().toUpperCase(), new Integer(contextIdCounter));
+                	uuidsVsContextIds.put(key, new Integer(contextIdCounter));
                 	contextIdToUse = contextIdCounter;
                 	sendAlter = true;
+                	if (pdu instanceof AlterContextPdu)
+                	{
+                		offered = offerContexts(((AlterContextPdu)pdu).getContextList()[0]);
+                		((AlterContextPdu)pdu).setContextList(offered);
+                	}
                 }
                 else
                 {
@@ -178,7 +1107,12 @@ public class ConnectionOrientedEndpoint implements Endpoint {
                 	if (pdu != null) send(pdu);
 	                while (!context.isEstablished()) {
 	                	ConnectionOrientedPdu recieved = receive();
-	                    if ((pdu = context.accept(recieved)) != null)
+	                	pdu = context.accept(recieved);
+	                	if (recieved instanceof AlterContextResponsePdu)
+	                	{
+	                		acceptOffered(offered, ((AlterContextResponsePdu)recieved).getResultList());
+	                	}
+	                    if (pdu != null)
 	                    {
 	                    	switch(pdu.getType())
 	                    	{
@@ -215,19 +1149,55 @@ public class ConnectionOrientedEndpoint implements Endpoint {
         } else {
             connect();
         }
+        keyInUse = key;
     }
 
     protected void send(ConnectionOrientedPdu request) throws IOException {
+        finishStreamedStub();
         bind();
         context.getConnection().transmit(request, getTransport());
     }
 
     protected ConnectionOrientedPdu receive() throws IOException {
-        return context.getConnection().receive(getTransport());
+        finishStreamedStub();
+        Connection connection = context.getConnection();
+        if (spillThreshold > 0 && connection instanceof DefaultConnection) {
+            //the context may have replaced the connection since the last call.
+            ((DefaultConnection) connection).setSpillThreshold(spillThreshold);
+        }
+        return connection.receive(getTransport());
+    }
+
+    /**
+     * Receives the reply to a call placed by the one thread using this
+     * connection, handing out fragmented responses with their first fragment.
+     */
+    private ConnectionOrientedPdu receiveStreamed() throws IOException {
+        Connection connection = context.getConnection();
+        if (!(connection instanceof DefaultConnection)) {
+            return receive();
+        }
+        DefaultConnection defaultConnection = (DefaultConnection) connection;
+        if (spillThreshold > 0) {
+            defaultConnection.setSpillThreshold(spillThreshold);
+        }
+        return defaultConnection.receiveStreamed(getTransport());
     }
 
     public void detach() throws IOException {
+        synchronized (pendingCalls) {
+            if (!pendingCalls.isEmpty()) {
+                failPendingCalls(new IOException("Connection closed with calls in flight."));
+            }
+            if (armed) {
+                armed = false;
+                reading = false;
+            }
+            pendingCalls.notifyAll();
+        }
+        streamedStub = null;
         bound = false;
+        keyInUse = null;
         context = null;
         getTransport().close();
     }
@@ -239,16 +1209,35 @@ public class ConnectionOrientedEndpoint implements Endpoint {
         contextIdCounter = 0;
         currentIID = null;
         try {
-        	uuidsVsContextIds.put(getSyntax().toString().toUpperCase(), new Integer(contextIdCounter));
+        	//context ids of an earlier connection mean nothing on this one.
+        	uuidsVsContextIds.clear();
+        	uuidsVsContextIds.put(contextKey(getSyntax()), new Integer(contextIdCounter));
             context = createContext();
             ConnectionOrientedPdu pdu = context.init(
                     new PresentationContext(contextIdCounter, getSyntax()),
                             getTransport().getProperties());
             contextIdToUse = contextIdCounter;
+            concurrentCalls = false;
+            if (pdu != null && multiplexRequested) {
+                pdu.setFlag(ConnectionOrientedPdu.PFC_CONC_MPX, true);
+            }
+            PresentationContext[] offered = null;
+            if (pdu instanceof BindPdu) {
+                offered = offerContexts(((BindPdu) pdu).getContextList()[0]);
+                ((BindPdu) pdu).setContextList(offered);
+            }
             if (pdu != null) send(pdu);
             while (!context.isEstablished()) {
             	ConnectionOrientedPdu recieved = receive();
-                if ((pdu = context.accept(recieved)) != null)
+            	if (recieved instanceof BindAcknowledgePdu) {
+            		concurrentCalls = multiplexRequested &&
+            				recieved.getFlag(ConnectionOrientedPdu.PFC_CONC_MPX);
+            	}
+            	pdu = context.accept(recieved);
+            	if (recieved instanceof BindAcknowledgePdu) {
+            		acceptOffered(offered, ((BindAcknowledgePdu) recieved).getResultList());
+            	}
+                if (pdu != null)
                 {
                 	switch(pdu.getType())
                 	{
@@ -289,6 +1278,166 @@ public class ConnectionOrientedEndpoint implements Endpoint {
         }
     }
 
+    /**
+     * Returns <code>first</code> followed by a presentation context for every
+     * offered syntax which has not been negotiated on this connection yet.
+     */
+    private PresentationContext[] offerContexts(PresentationContext first) {
+        List contexts = new ArrayList();
+        contexts.add(first);
+        String firstKey = contextKey(first.abstractSyntax);
+        synchronized (offeredSyntaxes) {
+            Iterator iterator = offeredSyntaxes.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry entry = (Map.Entry) iterator.next();
+                if (entry.getKey().equals(firstKey) ||
+                        uuidsVsContextIds.containsKey(entry.getKey())) continue;
+                contexts.add(new PresentationContext(++contextIdCounter,
+                        (PresentationSyntax) entry.getValue()));
+            }
+        }
+        return (PresentationContext[]) contexts.toArray(
+                new PresentationContext[contexts.size()]);
+    }
+
+    /**
+     * Records the offered contexts the server accepted. The first result
+     * belongs to the caller's own context and has been checked by the
+     * connection context already. Rejected syntaxes are not offered again.
+     */
+    private void acceptOffered(PresentationContext[] offered,
+            PresentationResult[] results) {
+        if (offered == null || results == null) return;
+        for (int i = 1; i < offered.length && i < results.length; i++) {
+            String key = contextKey(offered[i].abstractSyntax);
+            if (results[i].result == PresentationResult.ACCEPTANCE) {
+                uuidsVsContextIds.put(key, new Integer(offered[i].contextId));
+            } else {
+                synchronized (offeredSyntaxes) {
+                    offeredSyntaxes.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * A call waiting for its reply. Asynchronous calls carry the object to
+     * decode the reply into and serve as their own <code>Future</code>.
+     */
+    private class PendingCall implements Future {
+
+        int callId;
+
+        ConnectionOrientedPdu reply;
+
+        IOException failure;
+
+        final NetworkDataRepresentation ndr;
+
+        final NdrObject ndrobj;
+
+        long deadline;
+
+        boolean cancelled;
+
+        boolean decoded;
+
+        Throwable outcome;
+
+        //fails the call once its deadline has passed, null if it has none.
+        Future expiry;
+
+        PendingCall(int callId, NetworkDataRepresentation ndr, NdrObject ndrobj) {
+            this.callId = callId;
+            this.ndr = ndr;
+            this.ndrobj = ndrobj;
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (sendLock) {
+                synchronized (pendingCalls) {
+                    if (isDone()) return false;
+                    pendingCalls.remove(new Integer(callId));
+                    cancelExpiry();
+                    cancelled = true;
+                }
+                //the reply, should it still come, gets dropped.
+                abandon(callId);
+            }
+            synchronized (pendingCalls) {
+                if (armed && !hasAsyncCalls()) {
+                    armed = false;
+                    reading = false;
+                }
+                pendingCalls.notifyAll();
+            }
+            return true;
+        }
+
+        public boolean isCancelled() {
+            synchronized (pendingCalls) {
+                return cancelled;
+            }
+        }
+
+        public boolean isDone() {
+            synchronized (pendingCalls) {
+                return decoded || cancelled || reply != null || failure != null;
+            }
+        }
+
+        public Object get() throws InterruptedException, ExecutionException {
+            synchronized (pendingCalls) {
+                while (!isDone()) {
+                    pendingCalls.wait();
+                }
+            }
+            return result();
+        }
+
+        public Object get(long timeout, TimeUnit unit) throws InterruptedException,
+                ExecutionException, TimeoutException {
+            long end = System.currentTimeMillis() + Math.max(1, unit.toMillis(timeout));
+            synchronized (pendingCalls) {
+                while (!isDone()) {
+                    long wait = end - System.currentTimeMillis();
+                    if (wait <= 0) throw new TimeoutException("No reply for call " + callId);
+                    pendingCalls.wait(wait);
+                }
+            }
+            return result();
+        }
+
+        //must hold the pendingCalls monitor.
+        void cancelExpiry() {
+            if (expiry != null) {
+                expiry.cancel(false);
+                expiry = null;
+            }
+        }
+
+        //the call must be done.
+        private Object result() throws ExecutionException {
+            if (isCancelled()) throw new CancellationException();
+            synchronized (this) {
+                if (!decoded) {
+                    decoded = true;
+                    try {
+                        if (failure != null) throw failure;
+                        processReply(reply, ndr, ndrobj);
+                    } catch (IOException ex) {
+                        outcome = ex;
+                    } catch (RuntimeException ex) {
+                        outcome = ex;
+                    }
+                }
+                if (outcome != null) throw new ExecutionException(outcome);
+                return ndrobj;
+            }
+        }
+
+    }
+
     protected ConnectionContext createContext() throws ProviderException {
         Properties properties = getTransport().getProperties();
         if (properties == null) return new BasicConnectionContext();
@@ -28,6 +28,12 @@ public abstract class ConnectionOrientedPdu extends NdrObject implements Protoco
 
     public static final int MUST_RECEIVE_FRAGMENT_SIZE = 7160;
 
+    /**
+     * Largest buffer allocated up front for a fragmented stub. The allocation
+     * hint comes from the peer, larger stubs grow as their fragments arrive.
+     */
+    public static final int MAX_PRESIZED_STUB = 1 << 20;
+
     /**
      * Flag indicating the PDU is the first fragment.
      */
@@ -148,6 +154,14 @@ public abstract class ConnectionOrientedPdu extends NdrObject implements Protoco
         this.callId = callId;
     }
 
+    /**
+     * Returns <code>true</code> if the call id was set explicitly via
+     * {@link #setCallId(int)} instead of being taken from the shared counter.
+     */
+    protected boolean isCallIdAssigned() {
+        return !useCallIdCounter;
+    }
+
     public int getFragmentLength() {
         return fragLength;
     }
@@ -229,4 +243,14 @@ public abstract class ConnectionOrientedPdu extends NdrObject implements Protoco
 
     public abstract int getType();
 
+    /**
+     * Returns the size to allocate for a fragmented stub whose first fragment
+     * carries <code>firstLength</code> octets and announces
+     * <code>allocationHint</code> octets in all. The hint is only trusted up
+     * to {@link #MAX_PRESIZED_STUB}.
+     */
+    public static int presizedStubLength(int allocationHint, int firstLength) {
+        return Math.max(firstLength, Math.min(allocationHint, MAX_PRESIZED_STUB));
+    }
+
 }
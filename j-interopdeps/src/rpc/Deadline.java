@@ -0,0 +1,149 @@
+/**
+* j-Interop (Pure Java implementation of DCOM protocol)
+*
+* Copyright (c) 2013 Vikram Roopchand
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+* Vikram Roopchand  - Moving to EPL from LGPL v3.
+*
+*/
+
+package rpc;
+
+import java.net.SocketTimeoutException;
+
+/**
+ * Point in time by which a call has to be completed, including connecting,
+ * binding, authenticating and every fragment of the call. A deadline is made
+ * current for the calling thread with {@link #enter(Deadline)}; transports
+ * and endpoints then wait at most until it, instead of using their configured
+ * <code>rpc.socketTimeout</code> for every read.
+ */
+public final class Deadline {
+
+    /**
+     * Deadline which never expires, so that calls wait indefinitely.
+     */
+    public static final Deadline NONE = new Deadline(0);
+
+    private static final ThreadLocal current = new ThreadLocal();
+
+    //in terms of System.nanoTime().
+    private final long expiry;
+
+    private Deadline(long expiry) {
+        this.expiry = expiry;
+    }
+
+    /**
+     * Returns the deadline <code>timeout</code> millisecs from now,
+     * {@link #NONE} for 0.
+     */
+    public static Deadline after(long timeout) {
+        if (timeout <= 0) return NONE;
+        return new Deadline(System.nanoTime() + timeout * 1000000L);
+    }
+
+    public boolean isExpired() {
+        return this != NONE && expiry - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Returns the time left in millisecs, rounded up, 0 once expired and
+     * <code>Long.MAX_VALUE</code> for {@link #NONE}.
+     */
+    public long remainingMillis() {
+        if (this == NONE) return Long.MAX_VALUE;
+        long remaining = expiry - System.nanoTime();
+        return remaining <= 0 ? 0 : (remaining + 999999) / 1000000;
+    }
+
+    /**
+     * Returns the time left as a socket timeout, 0 meaning none.
+     *
+     * @throws SocketTimeoutException if the deadline has passed.
+     */
+    public int timeoutMillis() throws SocketTimeoutException {
+        if (this == NONE) return 0;
+        long remaining = remainingMillis();
+        if (remaining == 0) {
+            throw new SocketTimeoutException("Call deadline expired.");
+        }
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    private boolean isBefore(Deadline other) {
+        return this != NONE && (other == NONE || expiry - other.expiry < 0);
+    }
+
+    /**
+     * Returns the deadline of the call the current thread is making,
+     * <code>null</code> if none has been entered.
+     */
+    public static Deadline current() {
+        return (Deadline) current.get();
+    }
+
+    /**
+     * Makes <code>deadline</code> current for this thread and returns the
+     * previous one, to be handed to {@link #exit(Deadline)} once the call is
+     * done. Calls made within a call cannot extend its deadline, the earlier
+     * of the two stays current.
+     */
+    public static Deadline enter(Deadline deadline) {
+        Deadline previous = current();
+        current.set(previous != null && previous.isBefore(deadline) ? previous : deadline);
+        return previous;
+    }
+
+    /**
+     * Makes <code>deadline</code> current for this thread even if it is later
+     * than the current one, and returns the previous one for
+     * {@link #exit(Deadline)}. For work done on behalf of other calls, which
+     * the deadline of this thread's own call must not cut short.
+     */
+    public static Deadline replace(Deadline deadline) {
+        Deadline previous = current();
+        current.set(deadline);
+        return previous;
+    }
+
+    public static void exit(Deadline previous) {
+        if (previous == null) {
+            current.remove();
+        } else {
+            current.set(previous);
+        }
+    }
+
+    /**
+     * Returns the socket timeout for the next wait of this thread: what is
+     * left of its current deadline, or <code>configured</code> if it has
+     * none.
+     *
+     * @throws SocketTimeoutException if the current deadline has passed.
+     */
+    public static int socketTimeout(int configured) throws SocketTimeoutException {
+        Deadline deadline = current();
+        return deadline == null ? configured : deadline.timeoutMillis();
+    }
+
+    /**
+     * Returns the timeout for opening a connection, the earlier of
+     * <code>configured</code> and the current deadline of this thread, 0
+     * meaning none.
+     *
+     * @throws SocketTimeoutException if the current deadline has passed.
+     */
+    public static int connectTimeout(int configured) throws SocketTimeoutException {
+        Deadline deadline = current();
+        int remaining = deadline == null ? 0 : deadline.timeoutMillis();
+        if (remaining == 0) return configured;
+        return configured == 0 ? remaining : Math.min(configured, remaining);
+    }
+}
@@ -20,13 +20,18 @@ package rpc;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import jcifs.util.Hexdump;
 import ndr.NdrBuffer;
+import ndr.NdrBufferPool;
 import ndr.NetworkDataRepresentation;
 import rpc.core.AuthenticationVerifier;
 import rpc.pdu.AlterContextPdu;
@@ -46,6 +51,10 @@ public class DefaultConnection implements Connection {
 
     protected NetworkDataRepresentation ndr;
 
+    // decodes what is received, so that a multiplexed call can be sent while
+    // the reply of another one is read.
+    private final NetworkDataRepresentation receiveNdr = new NetworkDataRepresentation();
+
     protected NdrBuffer transmitBuffer;
 
     protected NdrBuffer receiveBuffer;
@@ -54,8 +63,30 @@ public class DefaultConnection implements Connection {
 
     protected int contextId;
 
+    //response stubs assembled beyond this many octets go to a mapped file, 0 never.
+    private int spillThreshold;
+
     private static final Logger logger = Logger.getLogger("org.jinterop");
 
+    //bytes gathered before they are handed to the transport.
+    private static final int MAX_GATHERED_BYTES = 256 * 1024;
+
+    //room for the header and body of a request, object UUID included.
+    private static final int REQUEST_HEADER_LENGTH = 48;
+
+    private static final AtomicLong transmittedFragments = new AtomicLong();
+
+    private static final AtomicLong receivedFragments = new AtomicLong();
+
+    //abandoned calls kept track of, the server need not reply to all of them.
+    private static final int MAX_ABANDONED_CALLS = 16;
+
+    //Integer call ids of abandoned calls, late replies to them are dropped.
+    private final LinkedHashSet abandonedCalls = new LinkedHashSet();
+
+    //call whose response is being received, -1 between responses.
+    private volatile int receivingCallId = -1;
+
     public DefaultConnection() {
         this(ConnectionOrientedPdu.MUST_RECEIVE_FRAGMENT_SIZE,
         		ConnectionOrientedPdu.MUST_RECEIVE_FRAGMENT_SIZE);
@@ -69,57 +100,115 @@ public class DefaultConnection implements Connection {
 
     public void transmit(ConnectionOrientedPdu pdu, Transport transport)
             throws IOException {
+        if (transport instanceof GatheringTransport &&
+                pdu instanceof RequestCoPdu) {
+            transmitGathered((RequestCoPdu) pdu, (GatheringTransport) transport);
+            return;
+        }
         if (!(pdu instanceof Fragmentable)) {
             transmitFragment(pdu, transport);
             return;
         }
         Iterator fragments =
                 ((Fragmentable) pdu).fragment(transmitBuffer.getCapacity());
+        ConnectionOrientedPdu fragment = null;
         while (fragments.hasNext()) {
-            transmitFragment((ConnectionOrientedPdu) fragments.next(),
-                    transport);
+            fragment = nextFragment(fragments, fragment, transport);
+            transmitFragment(fragment, transport);
         }
     }
 
-    public ConnectionOrientedPdu receive(final Transport transport)
+    /**
+     * Returns the next fragment. Fragments of spliced stubs read their octets
+     * as they are produced; should that fail once fragments have been sent,
+     * the server is told to drop the partial request with an orphaned PDU.
+     */
+    private ConnectionOrientedPdu nextFragment(Iterator fragments,
+            ConnectionOrientedPdu previous, Transport transport) throws IOException {
+        try {
+            return (ConnectionOrientedPdu) fragments.next();
+        } catch (IllegalStateException ex) {
+            if (!(ex.getCause() instanceof IOException)) throw ex;
+            if (previous != null) {
+                OrphanedPdu orphaned = new OrphanedPdu();
+                orphaned.setCallId(previous.getCallId());
+                orphaned.setFlags(ConnectionOrientedPdu.PFC_FIRST_FRAG |
+                        ConnectionOrientedPdu.PFC_LAST_FRAG);
+                try {
+                    transmitFragment(orphaned, transport);
+                } catch (IOException ignore) {
+                    //the original failure is the one to report.
+                }
+            }
+            throw (IOException) ex.getCause();
+        }
+    }
+
+    public ConnectionOrientedPdu receive(Transport transport)
             throws IOException {
-        final ConnectionOrientedPdu fragment = receiveFragment(transport);
+        ConnectionOrientedPdu fragment = receiveFragment(transport);
         if (!(fragment instanceof Fragmentable) ||
                 fragment.getFlag(ConnectionOrientedPdu.PFC_LAST_FRAG)) {
             return fragment;
         }
+        return assemble(fragment, transport);
+    }
+
+    /**
+     * Receives the next PDU like {@link #receive(Transport)}, except that a
+     * fragmented response is returned along with its first fragment, the
+     * rest of its stub being read from {@link ResponseCoPdu#getStubStream()}
+     * as it gets decoded. Responses which are to be spilled are assembled
+     * as usual.
+     */
+    public ConnectionOrientedPdu receiveStreamed(Transport transport)
+            throws IOException {
+        ConnectionOrientedPdu fragment = receiveFragment(transport);
+        if (!(fragment instanceof ResponseCoPdu) ||
+                fragment.getFlag(ConnectionOrientedPdu.PFC_LAST_FRAG)) {
+            return fragment;
+        }
+        ResponseCoPdu response = (ResponseCoPdu) fragment;
+        if (spillThreshold > 0 && response.getAllocationHint() > spillThreshold) {
+            return assemble(fragment, transport);
+        }
+        response.setStubStream(new StubStream(this, transport, response));
+        return response;
+    }
+
+    private ConnectionOrientedPdu assemble(final ConnectionOrientedPdu fragment,
+            final Transport transport) throws IOException {
+        if (fragment instanceof ResponseCoPdu) {
+            ((ResponseCoPdu) fragment).setSpillThreshold(spillThreshold);
+        }
+        //fragments are read one at a time as the assembly asks for them, each one
+        //may refer to the receive buffer until the next one is read.
         return (ConnectionOrientedPdu) ((Fragmentable) fragment).assemble(
                 new Iterator() {
-            ConnectionOrientedPdu currentFragment = fragment;
+            ConnectionOrientedPdu currentFragment = null;
             public boolean hasNext() {
-                return (currentFragment != null);
+                return currentFragment == null || !currentFragment.getFlag(
+                        ConnectionOrientedPdu.PFC_LAST_FRAG);
             }
             private int i = 0;
             public Object next() {
-                if (currentFragment == null) {
+                if (!hasNext()) {
                     throw new NoSuchElementException();
                 }
-                try {
+                if (currentFragment == null) {
+                    currentFragment = fragment;
                     return currentFragment;
-                } finally {
-                    if (currentFragment.getFlag(
-                            ConnectionOrientedPdu.PFC_LAST_FRAG)) {
-                        currentFragment = null;
-                    } else {
-                        try {
-                        	//fragLengthOfReceiveBuffer = -1;//clear the buffer here.
-                        	//System.out.println("VIKRAM VIKRAM ");
-                        	if (logger.isLoggable(Level.FINEST))
-                            {
-                            	logger.finest("[Fragmented Packet] [" + i++ + "] recieved , fragment decomposition is below:- ");
-                            }
-                            currentFragment = receiveFragment(transport);
-                        } catch (Exception ex) {
-                        	ex.printStackTrace();
-                            throw new IllegalStateException();
-                        }
+                }
+                try {
+                	if (logger.isLoggable(Level.FINEST))
+                    {
+                    	logger.finest("[Fragmented Packet] [" + i++ + "] recieved , fragment decomposition is below:- ");
                     }
+                    currentFragment = receiveFragment(transport);
+                } catch (IOException ex) {
+                    throw new IllegalStateException(ex.getMessage(), ex);
                 }
+                return currentFragment;
             }
             public void remove() {
                 throw new UnsupportedOperationException();
@@ -144,258 +233,344 @@ public class DefaultConnection implements Connection {
         	logger.finest("[TRANSMIT BUFFER]:-\n" + byteArrayOutputStream.toString());
         }
         transport.send(transmitBuffer);
+        transmittedFragments.incrementAndGet();
     }
 
 
-    private boolean bytesRemainingInRecieveBuffer = false;
+    /**
+     * Sends the fragments of a request with gathering writes. Without
+     * integrity protection every fragment goes out as its header followed by
+     * a view of its share of the stub, so the stub is never copied. Signed or
+     * sealed fragments have to be encoded whole, since the verifier covers
+     * (and sealing rewrites) the stub, but they are still batched into one
+     * write. Batches are flushed at <code>MAX_GATHERED_BYTES</code>, and
+     * after every fragment of a spliced stub.
+     */
+    protected void transmitGathered(RequestCoPdu pdu, GatheringTransport transport)
+            throws IOException {
+        boolean protect = security != null &&
+                security.getProtectionLevel() >= Security.PROTECTION_LEVEL_INTEGRITY;
+        List buffers = new ArrayList();
+        List pooled = new ArrayList();
+        int gathered = 0;
+        try {
+            Iterator fragments = pdu.fragment(transmitBuffer.getCapacity());
+            RequestCoPdu fragment = null;
+            while (fragments.hasNext()) {
+                fragment = (RequestCoPdu) nextFragment(fragments, fragment, transport);
+                if (protect) {
+                    byte[] array = NdrBufferPool.acquire(transmitBuffer.getCapacity());
+                    pooled.add(array);
+                    NdrBuffer buffer = new NdrBuffer(array, 0);
+                    fragment.encode(ndr, buffer);
+                    processOutgoing();
+                    buffers.add(ByteBuffer.wrap(array, 0, buffer.getLength()));
+                    gathered += buffer.getLength();
+                    transmittedFragments.incrementAndGet();
+                } else {
+                    NdrBuffer header = new NdrBuffer(new byte[REQUEST_HEADER_LENGTH], 0);
+                    fragment.encodeHeader(ndr, header);
+                    processOutgoing();
+                    buffers.add(ByteBuffer.wrap(header.getBuffer(), 0, header.getLength()));
+                    ByteBuffer stub = fragment.getStubBuffer();
+                    if (stub != null) buffers.add(stub);
+                    gathered += fragment.getFragmentLength();
+                    transmittedFragments.incrementAndGet();
+                }
+                //fragments of a spliced stub share one array.
+                if (gathered >= MAX_GATHERED_BYTES || !fragments.hasNext() || pdu.isSpliced()) {
+                    if (logger.isLoggable(Level.FINEST))
+                    {
+                        logger.finest("[TRANSMIT] gathering " + buffers.size() + " buffers, " + gathered + " bytes");
+                    }
+                    transport.send((ByteBuffer[]) buffers.toArray(new ByteBuffer[buffers.size()]));
+                    buffers.clear();
+                    gathered = 0;
+                    for (int i = 0; i < pooled.size(); i++) {
+                        NdrBufferPool.release((byte[]) pooled.get(i));
+                    }
+                    pooled.clear();
+                }
+            }
+        } finally {
+            //arrays of a failed batch may still be referenced by the channel, leave them to the collector.
+            pooled.clear();
+        }
+    }
+
+    //bytes read into receiveBuffer, starting at offset 0.
+    private int bytesInReceiveBuffer = 0;
+
+    //length of the fragment handed out last, its bytes stay put until the next fragment is read.
+    private int consumedLength = 0;
+
+    //window over the free tail of receiveBuffer, the transport reads into it.
+    private final NdrBuffer readWindow = new NdrBuffer(new byte[0], 0);
+
+    /**
+     * Gives up on the call <code>callId</code>, which has not been answered in
+     * time, leaving the connection usable. A server still working on it is
+     * sent a cancel; if its response is in the middle of arriving, the
+     * server is told to stop sending it with an orphaned PDU. Whatever part
+     * of the response arrives later is dropped.
+     */
+    public void abandon(int callId, Transport transport) throws IOException {
+        synchronized (abandonedCalls) {
+            abandonedCalls.add(new Integer(callId));
+            if (abandonedCalls.size() > MAX_ABANDONED_CALLS) {
+                Iterator oldest = abandonedCalls.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+        ConnectionOrientedPdu pdu = receivingCallId == callId ?
+                (ConnectionOrientedPdu) new OrphanedPdu() : new CancelCoPdu();
+        pdu.setCallId(callId);
+        pdu.setFlags(ConnectionOrientedPdu.PFC_FIRST_FRAG |
+                ConnectionOrientedPdu.PFC_LAST_FRAG);
+        if (logger.isLoggable(Level.FINE))
+        {
+            logger.fine("Abandoning call " + callId + " , sending " +
+                    (pdu instanceof OrphanedPdu ? "orphaned" : "cancel") + " PDU.");
+        }
+        transmitFragment(pdu, transport);
+    }
+
+    /**
+     * Reads the next fragment, dropping those of responses to abandoned calls.
+     */
     protected ConnectionOrientedPdu receiveFragment(Transport transport)
     throws IOException {
+        while (true) {
+            ConnectionOrientedPdu fragment = readFragment(transport);
+            int type = fragment.getType();
+            if (type != ResponseCoPdu.RESPONSE_TYPE && type != FaultCoPdu.FAULT_TYPE) {
+                return fragment;
+            }
+            boolean last = fragment.getFlag(ConnectionOrientedPdu.PFC_LAST_FRAG);
+            Integer callId = new Integer(fragment.getCallId());
+            synchronized (abandonedCalls) {
+                if (abandonedCalls.isEmpty() || !abandonedCalls.contains(callId)) {
+                    receivingCallId = last ? -1 : fragment.getCallId();
+                    return fragment;
+                }
+                if (last) abandonedCalls.remove(callId);
+            }
+            receivingCallId = -1;
+            if (logger.isLoggable(Level.FINE))
+            {
+                logger.fine("Dropping late reply fragment of abandoned call " + callId);
+            }
+        }
+    }
 
-    	int fragmentLength = -1;
-    	int type = -1;
-    	boolean read = true;
-
-    	if (bytesRemainingInRecieveBuffer)
-    	{
-    		//Vikram - 26th Feb 2013.
-    		//receiver buffer always falls on the boundary of a new Fragment. 
-    		//
-    		
-    		//Vikram - 26th Feb 2013, commenting belwo as we were getting packets which are 2 bytes in length causing this logic to fail
-    		//and thus read was set to true (since the receiveBuffer.length was less than or equal to ConnectionOrientedPdu.TYPE_OFFSET)
-    		//so we read a fresh packet and whatever bytes were there in recieverBuffer already were lost !
-    		
-//    		if (receiveBuffer.length > ConnectionOrientedPdu.TYPE_OFFSET)
-    		{
-//    			receiveBuffer.setIndex(ConnectionOrientedPdu.TYPE_OFFSET);
-//	    		type = receiveBuffer.dec_ndr_small();
-//				if (isValidType(type))
-				{
-					//this is required so that the correct length for the next fragment can be obtained. If is < 10 bytes than the fraglength would be an arbitary length.
-					while (receiveBuffer.length <= 10)
-					{
-						//perform a read again in a new buffer and assign that to the reciever buffer
-						//this needs to be a small buffer 10 bytes
-						NdrBuffer tmpBuffer = new NdrBuffer(new byte[10], 0);
-						transport.receive(tmpBuffer);
-						System.arraycopy(tmpBuffer.buf, 0, receiveBuffer.buf, receiveBuffer.length, tmpBuffer.length);
-						receiveBuffer.length = receiveBuffer.length + tmpBuffer.length;
-					}
-					read = false;
-				}
-    		}
+    /**
+     * Reads the next fragment into <code>receiveBuffer</code> and decodes it
+     * right there, without copying it into a buffer of its own. The receive
+     * buffer grows to the largest fragment seen. Bytes of the next fragment
+     * read along with this one are kept and moved to the front of the buffer
+     * on the next call, so PDUs may refer to the receive buffer until then.
+     */
+    private ConnectionOrientedPdu readFragment(Transport transport)
+    throws IOException {
 
-			bytesRemainingInRecieveBuffer = false;
-    	}
+        dropConsumedFragment();
 
-    	//will be true for all cases and false if anything valid is already in the buffer
-    	if (read)
-    	{
-			//read the transport now...
-			receiveBuffer.reset();
-    		if (logger.isLoggable(Level.FINEST))
-            {
-            	logger.finest("\n" + " Reading bytes from RecieveBuffer Socket...Current Capacity:- " + receiveBuffer.getCapacity());
-            }
+        //the fragment length is right behind the type and flags.
+        fill(transport, ConnectionOrientedPdu.FRAG_LENGTH_OFFSET + 2);
+        byte[] buf = receiveBuffer.buf;
+        int fragmentLength = (buf[ConnectionOrientedPdu.FRAG_LENGTH_OFFSET] & 0xFF) |
+                ((buf[ConnectionOrientedPdu.FRAG_LENGTH_OFFSET + 1] & 0xFF) << 8);
+        if (fragmentLength < ConnectionOrientedPdu.FRAG_LENGTH_OFFSET + 2) {
+            throw new IOException("Invalid fragment length: " + fragmentLength);
+        }
+        if (logger.isLoggable(Level.FINEST))
+        {
+            logger.finest("\n" + " length of the fragment " + fragmentLength + "\n" + " size in bytes of the buffer [] " + receiveBuffer.buf.length);
+        }
+        if (fragmentLength > receiveBuffer.buf.length) {
+            byte[] bigger = new byte[fragmentLength];
+            System.arraycopy(receiveBuffer.buf, 0, bigger, 0, bytesInReceiveBuffer);
+            receiveBuffer.buf = bigger;
+        }
+        fill(transport, fragmentLength);
+        consumedLength = fragmentLength;
 
-    		transport.receive(receiveBuffer);
+        NdrBuffer bufferToBeUsed = receiveBuffer;
+        bufferToBeUsed.reset();
+        bufferToBeUsed.length = fragmentLength;
 
-    		if (logger.isLoggable(Level.FINEST))
-    	    {
-	    		logger.finest("[RECIEVER BUFFER] Full packet is dumped below...");
-    	        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-    	        jcifs.util.Hexdump.hexdump(new PrintStream(byteArrayOutputStream), receiveBuffer.getBuffer(), 0, receiveBuffer.length);
-    	        logger.finest("\n" + byteArrayOutputStream.toString());
-    	    	logger.finest("\n" + " Bytes read from RecieveBuffer Socket:- " + receiveBuffer.length);
-            }
+        if (logger.isLoggable(Level.FINEST))
+        {
+            logger.finest("\n" + "bufferToBeUsed Size = " + bufferToBeUsed.length);
+            logger.finest("\n\n[bufferToBeUsed] packet is dumped below...");
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            jcifs.util.Hexdump.hexdump(new PrintStream(byteArrayOutputStream), bufferToBeUsed.getBuffer(), 0, bufferToBeUsed.length);
+            logger.finest("\n" + byteArrayOutputStream.toString());
+            logger.finest("\n*********************************************************************************");
+        }
 
-    	}
-
-    	byte[] newbuffer = null;
-		int counter = 0;
-		int trimSize = -1;
-		int lengthOfArrayTobeRead = receiveBuffer.length;
-    	//frag length logic
-    	if (receiveBuffer.length > 0)
-		{
-			receiveBuffer.setIndex(ConnectionOrientedPdu.FRAG_LENGTH_OFFSET);
-			byte[] frag = new byte[2];//short
-			receiveBuffer.readOctetArray(frag, 0, frag.length);
-			fragmentLength = ((frag[0] & 0xFF) | ((frag[1] & 0xFF) << 8));//receiveBuffer.dec_ndr_short(); is looping over.
-//			fragmentLength = receiveBuffer.dec_ndr_short(); 
-			if (logger.isLoggable(Level.FINEST))
-            {
-            	logger.finest("\n" + " length of the fragment " + fragmentLength + "\n" + " size in bytes of the buffer [] " + receiveBuffer.buf.length);
-            }
+        //caution , frag length is changed here...it is void of security info.
+        processIncoming(bufferToBeUsed);
+        bufferToBeUsed.setIndex(ConnectionOrientedPdu.TYPE_OFFSET);
+        int type = bufferToBeUsed.dec_ndr_small();
 
-			if (fragmentLength < 0)
-			{
-				int h = 0;
-				h++;
-				Hexdump.hexdump(System.out, receiveBuffer.buf, 0, receiveBuffer.buf.length);
-			}
-			//the new buffer should be equal to fragment size
-			newbuffer = new byte[fragmentLength];
-
-			if (fragmentLength > receiveBuffer.length)//this means the socket buffer is not fully read, this packet is bigger than the reciever buffer size
-			{
-				int remainingBytes = fragmentLength - receiveBuffer.length;
-				if (logger.isLoggable(Level.FINEST))
-	            {
-	            	logger.finest("\n" + " Some bytes from RecieveBuffer Socket have not been read: Remaining  " + remainingBytes);
-	            }
-
-
-
-				//now reset and read again.
-
-				while (fragmentLength > counter)
-				{
-					System.arraycopy(receiveBuffer.buf,0,newbuffer,counter,lengthOfArrayTobeRead);
-					counter = counter + lengthOfArrayTobeRead;
-					if (fragmentLength == counter)
-					{
-						break;
-					}
-		    		if (logger.isLoggable(Level.FINEST))
-		            {
-		            	logger.finest("\n" + " About to read more bytes from socket , current counter is: " + counter);
-		            }
-
-					receiveBuffer.reset();
-					transport.receive(receiveBuffer); //now read again so as to take it from network buffer to your buffer
-					//this may actually read 2 or more packets , one is this partial one (now complete) and one may be some other one , like a request packet.
-					//or it may not ...and reads only the partial packet.
-					if (fragmentLength - counter >= receiveBuffer.length )
-					{
-						lengthOfArrayTobeRead =  receiveBuffer.length;
-					}
-					else
-					{
-						//this would be the last one. Now we need to trim the buffer to it's read length as well.
-						lengthOfArrayTobeRead = fragmentLength - counter;
-						trimSize = receiveBuffer.length - lengthOfArrayTobeRead;
-					}
-
-					if (logger.isLoggable(Level.FINEST))
-		    	    {
-						logger.finest("\n" + "lengthOfArrayTobeRead = " + lengthOfArrayTobeRead + "\n" + "trimSize = " + trimSize + "\n" + "RecieveBuffer current read size: " + receiveBuffer.length);
-						logger.finest("\n\n[RECIEVER BUFFER] and the read packet is dumped below...");
-		    	        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-		    	        jcifs.util.Hexdump.hexdump(new PrintStream(byteArrayOutputStream), receiveBuffer.getBuffer(), 0, receiveBuffer.length);
-		    	        logger.finest("\n" + byteArrayOutputStream.toString());
-
-		            }
-
-				}
-
-
-
-			}
-			else
-			{
-				if (logger.isLoggable(Level.FINEST))
-	    	    {
-					logger.finest("\n" + "fragmentLength is less than  receiveBuffer.length");
-				}
-
-				//Since fragment length is smaller, There might be 2 or more packets in here
-				//just read what is your packet.
-				System.arraycopy(receiveBuffer.buf,0,newbuffer,0,fragmentLength);
-				//there might be more. Now we need to trim the buffer to it's read length as well.
-				trimSize = receiveBuffer.length - fragmentLength;
-			}
-
-			if (trimSize > 0)
-			{
-				if (logger.isLoggable(Level.FINEST))
-	    	    {
-					logger.finest("\n" + "trimSize = " + trimSize);
-	    	    }
-				
-				System.arraycopy(receiveBuffer.buf,receiveBuffer.length - trimSize,receiveBuffer.buf,0,trimSize);
-				receiveBuffer.length = trimSize;
-				receiveBuffer.index = 0;
-				receiveBuffer.start = 0;
-				bytesRemainingInRecieveBuffer = true; //reciever buffer read more than it should , after we trim only the additionally read bytes will be left.
-				//these have to be read in the next call to recieveFragment.
-			}
-
-			NdrBuffer bufferToBeUsed = new NdrBuffer(newbuffer,0);
-			bufferToBeUsed.length = newbuffer.length;//this will be fully utilized  and not left empty.
-
-			if (logger.isLoggable(Level.FINEST))
-    	    {
-				logger.finest("\n" + "bufferToBeUsed Size = " + bufferToBeUsed.length);
-				logger.finest("\n\n[bufferToBeUsed] packet is dumped below...");
-    	        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-    	        jcifs.util.Hexdump.hexdump(new PrintStream(byteArrayOutputStream), bufferToBeUsed.getBuffer(), 0, bufferToBeUsed.length);
-    	        logger.finest("\n" + byteArrayOutputStream.toString());
-    	        logger.finest("\n*********************************************************************************");
-    	    }
-
-			 //caution , frag length is changed here...it is void of security info.
-	        processIncoming(bufferToBeUsed);
-	        bufferToBeUsed.setIndex(ConnectionOrientedPdu.TYPE_OFFSET);
-	        type = bufferToBeUsed.dec_ndr_small();
-
-	        ConnectionOrientedPdu pdu = null;
-	        switch (type) {
-	        case AlterContextPdu.ALTER_CONTEXT_TYPE:
-	            pdu = new AlterContextPdu();
-	            break;
-	        case AlterContextResponsePdu.ALTER_CONTEXT_RESPONSE_TYPE:
-	            pdu = new AlterContextResponsePdu();
-	            break;
-	        case Auth3Pdu.AUTH3_TYPE:
-	            pdu = new Auth3Pdu();
-	            break;
-	        case BindPdu.BIND_TYPE:
-	            pdu = new BindPdu();
-	            break;
-	        case BindAcknowledgePdu.BIND_ACKNOWLEDGE_TYPE:
-	            pdu = new BindAcknowledgePdu();
-	            break;
-	        case BindNoAcknowledgePdu.BIND_NO_ACKNOWLEDGE_TYPE:
-	            pdu = new BindNoAcknowledgePdu();
-	            break;
-	        case CancelCoPdu.CANCEL_TYPE:
-	            pdu = new CancelCoPdu();
-	            break;
-	        case FaultCoPdu.FAULT_TYPE:
-	            pdu = new FaultCoPdu();
-	            break;
-	        case OrphanedPdu.ORPHANED_TYPE:
-	            pdu = new OrphanedPdu();
-	            break;
-	        case RequestCoPdu.REQUEST_TYPE:
-	            pdu = new RequestCoPdu();
-	            break;
-	        case ResponseCoPdu.RESPONSE_TYPE:
-	            pdu = new ResponseCoPdu();
-	            break;
-	        case ShutdownPdu.SHUTDOWN_TYPE:
-	            pdu = new ShutdownPdu();
-	            break;
-	        default:
-	            throw new IOException("Unknown PDU type: 0x" +
-	                    Integer.toHexString(type));
-	        }
-
-
-	        bufferToBeUsed.setIndex(0);
-	        pdu.decode(ndr, bufferToBeUsed);
-	        return pdu;
-
-
-		}
-    	else
-    	{
-    		//socket has been closed.
-    		throw new IOException("Socket Closed"); //Vikram
-    	}
+        ConnectionOrientedPdu pdu = null;
+        switch (type) {
+        case AlterContextPdu.ALTER_CONTEXT_TYPE:
+            pdu = new AlterContextPdu();
+            break;
+        case AlterContextResponsePdu.ALTER_CONTEXT_RESPONSE_TYPE:
+            pdu = new AlterContextResponsePdu();
+            break;
+        case Auth3Pdu.AUTH3_TYPE:
+            pdu = new Auth3Pdu();
+            break;
+        case BindPdu.BIND_TYPE:
+            pdu = new BindPdu();
+            break;
+        case BindAcknowledgePdu.BIND_ACKNOWLEDGE_TYPE:
+            pdu = new BindAcknowledgePdu();
+            break;
+        case BindNoAcknowledgePdu.BIND_NO_ACKNOWLEDGE_TYPE:
+            pdu = new BindNoAcknowledgePdu();
+            break;
+        case CancelCoPdu.CANCEL_TYPE:
+            pdu = new CancelCoPdu();
+            break;
+        case FaultCoPdu.FAULT_TYPE:
+            pdu = new FaultCoPdu();
+            break;
+        case OrphanedPdu.ORPHANED_TYPE:
+            pdu = new OrphanedPdu();
+            break;
+        case RequestCoPdu.REQUEST_TYPE:
+            pdu = new RequestCoPdu();
+            break;
+        case ResponseCoPdu.RESPONSE_TYPE:
+            pdu = new ResponseCoPdu();
+            break;
+        case ShutdownPdu.SHUTDOWN_TYPE:
+            pdu = new ShutdownPdu();
+            break;
+        default:
+            throw new IOException("Unknown PDU type: 0x" +
+                    Integer.toHexString(type));
+        }
+
+        bufferToBeUsed.setIndex(0);
+        pdu.decode(receiveNdr, bufferToBeUsed);
+        receivedFragments.incrementAndGet();
+        return pdu;
+    }
+
+    /**
+     * Sets the largest fragment sent on this connection, the
+     * <code>max_recv_frag</code> the server acknowledged in the bind.
+     */
+    public void setTransmitLength(int transmitLength) {
+        if (transmitBuffer.getCapacity() != transmitLength) {
+            transmitBuffer = new NdrBuffer(new byte[transmitLength], 0);
+        }
+    }
+
+    /**
+     * Sizes the receive buffer for the largest fragment the server sends,
+     * the <code>max_xmit_frag</code> it acknowledged in the bind. The
+     * buffer still grows should a larger fragment arrive.
+     */
+    public void setReceiveLength(int receiveLength) {
+        if (receiveBuffer.getCapacity() != receiveLength) {
+            resizeReceiveBuffer(receiveLength);
+        }
+    }
+
+    public int getTransmitLength() {
+        return transmitBuffer.getCapacity();
+    }
+
+    public int getReceiveLength() {
+        return receiveBuffer.getCapacity();
+    }
+
+    /**
+     * Number of fragments sent on all connections, together with
+     * {@link ConnectionOrientedEndpoint#getCallCount()} this gives the
+     * fragments per call.
+     */
+    public static long getTransmittedFragmentCount() {
+        return transmittedFragments.get();
+    }
+
+    /**
+     * Number of fragments received on all connections.
+     */
+    public static long getReceivedFragmentCount() {
+        return receivedFragments.get();
+    }
+
+    /**
+     * Waits for the next fragment to start arriving, for as long as the
+     * current {@link Deadline} of the calling thread allows. Reading it is
+     * left to {@link #receive(Transport)}.
+     */
+    public void awaitFragment(Transport transport) throws IOException {
+        dropConsumedFragment();
+        if (bytesInReceiveBuffer == 0) fill(transport, 1);
+    }
+
+    /**
+     * Returns <code>true</code> if bytes of the next fragment have been read
+     * along with the previous one, so that the transport need not be waited
+     * for before reading it.
+     */
+    public boolean hasBufferedBytes() {
+        return bytesInReceiveBuffer > consumedLength;
+    }
+
+    //drops the previous fragment, moving what was read beyond it to the front.
+    private void dropConsumedFragment() {
+        int remaining = bytesInReceiveBuffer - consumedLength;
+        if (remaining > 0 && consumedLength > 0) {
+            System.arraycopy(receiveBuffer.buf, consumedLength, receiveBuffer.buf, 0, remaining);
+        }
+        bytesInReceiveBuffer = remaining;
+        consumedLength = 0;
+    }
 
+    /**
+     * Replaces the receive buffer by one of <code>length</code> bytes, keeping
+     * the bytes read beyond the last fragment.
+     */
+    protected void resizeReceiveBuffer(int length) {
+        int remaining = bytesInReceiveBuffer - consumedLength;
+        byte[] buffer = new byte[Math.max(length, remaining)];
+        System.arraycopy(receiveBuffer.buf, consumedLength, buffer, 0, remaining);
+        receiveBuffer = new NdrBuffer(buffer, 0);
+        bytesInReceiveBuffer = remaining;
+        consumedLength = 0;
+    }
 
+    /**
+     * Reads from the transport until the receive buffer holds at least
+     * <code>length</code> bytes, the buffer must be large enough.
+     */
+    private void fill(Transport transport, int length) throws IOException {
+        while (bytesInReceiveBuffer < length) {
+            readWindow.buf = receiveBuffer.buf;
+            readWindow.start = bytesInReceiveBuffer;
+            readWindow.reset();
+            if (logger.isLoggable(Level.FINEST))
+            {
+                logger.finest("\n" + " Reading bytes from RecieveBuffer Socket...Current Capacity:- " + readWindow.getCapacity());
+            }
+            transport.receive(readWindow);
+            if (readWindow.length <= 0) {
+                //socket has been closed.
+                throw new IOException("Socket Closed"); //Vikram
+            }
+            bytesInReceiveBuffer += readWindow.length;
+        }
     }
 
     private boolean isValidType(int type)
@@ -615,6 +790,14 @@ public class DefaultConnection implements Connection {
         }
     }
 
+    /**
+     * Sets the size beyond which fragmented responses are assembled in a
+     * memory mapped temporary file rather than on the heap, 0 for never.
+     */
+    public void setSpillThreshold(int spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
+
     protected void setSecurity(Security security) {
         this.security = security;
     }
@@ -647,7 +830,7 @@ public class DefaultConnection implements Connection {
             buffer.setIndex(index); //exactly at the auth type.
             AuthenticationVerifier verifier =
                     new AuthenticationVerifier(length);
-            verifier.decode(ndr, buffer);
+            verifier.decode(receiveNdr, buffer);
             buffer.setIndex(index + 2); // auth padding
             length = index - buffer.dec_ndr_small();//ndr.readUnsignedSmall();
             buffer.setIndex(ConnectionOrientedPdu.FRAG_LENGTH_OFFSET);
@@ -682,7 +865,7 @@ public class DefaultConnection implements Connection {
             buffer.setIndex(index);
             AuthenticationVerifier verifier =
                     new AuthenticationVerifier(length);
-            verifier.decode(ndr, buffer);
+            verifier.decode(receiveNdr, buffer);
             buffer.setIndex(index + 2); // auth padding
             length = index - buffer.dec_ndr_small();//ndr.readUnsignedSmall();
             buffer.setIndex(ConnectionOrientedPdu.FRAG_LENGTH_OFFSET);
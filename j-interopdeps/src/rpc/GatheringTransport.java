@@ -0,0 +1,34 @@
+/**
+* j-Interop (Pure Java implementation of DCOM protocol)
+*
+* Copyright (c) 2013 Vikram Roopchand
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+* Vikram Roopchand  - Moving to EPL from LGPL v3.
+*
+*/
+
+package rpc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A transport able to write several buffers with one gathering write, so that
+ * the header, the stub and the verifier of a PDU, and all the fragments of a
+ * request, need not be copied into one buffer first.
+ */
+public interface GatheringTransport extends Transport {
+
+    /**
+     * Writes the remaining bytes of <code>buffers</code> in order, as one
+     * stream.
+     */
+    public void send(ByteBuffer[] buffers) throws IOException;
+
+}
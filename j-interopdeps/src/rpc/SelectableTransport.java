@@ -0,0 +1,36 @@
+/**
+* j-Interop (Pure Java implementation of DCOM protocol)
+*
+* Copyright (c) 2013 Vikram Roopchand
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+* Vikram Roopchand  - Moving to EPL from LGPL v3.
+*
+*/
+
+package rpc;
+
+import java.io.IOException;
+
+/**
+ * A transport whose connection is watched by a selector, so that a reply can
+ * be waited for without a thread blocking in {@link #receive(ndr.NdrBuffer)}.
+ * The endpoint asks to be told once data has arrived and only then has a
+ * thread read it.
+ */
+public interface SelectableTransport extends Transport {
+
+    /**
+     * Runs <code>callback</code> once, on the thread watching the connection,
+     * as soon as it can be read from or has been closed. The callback must
+     * not block, reading is left to another thread. A later call replaces a
+     * callback which has not run yet.
+     */
+    public void notifyReadable(Runnable callback) throws IOException;
+
+}
@@ -0,0 +1,118 @@
+/**
+* j-Interop (Pure Java implementation of DCOM protocol)
+*
+* Copyright (c) 2013 Vikram Roopchand
+*
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Eclipse Public License v1.0
+* which accompanies this distribution, and is available at
+* http://www.eclipse.org/legal/epl-v10.html
+*
+* Contributors:
+* Vikram Roopchand  - Moving to EPL from LGPL v3.
+*
+*/
+
+package rpc;
+
+import java.io.IOException;
+
+import ndr.NdrBuffer;
+import rpc.pdu.ResponseCoPdu;
+
+/**
+ * Stub of a fragmented response, handed out for decoding as soon as its first
+ * fragment is in. Further fragments are read off the connection only when the
+ * decoder asks for octets beyond those received so far, so decoding overlaps
+ * with the transfer of the rest of the response. Whatever the decoder leaves
+ * unread is read by {@link #finish()}, which has to be called before the
+ * connection is used again.
+ */
+public final class StubStream implements NdrBuffer.Source {
+
+    private final DefaultConnection connection;
+
+    private final Transport transport;
+
+    private byte[] stub;
+
+    private int length;
+
+    private boolean complete;
+
+    //the connection is out of step once a read has failed.
+    private IOException failure;
+
+    StubStream(DefaultConnection connection, Transport transport,
+            ResponseCoPdu first) {
+        this.connection = connection;
+        this.transport = transport;
+        //the allocation hint of the first fragment announces the whole stub.
+        stub = new byte[ConnectionOrientedPdu.presizedStubLength(
+                first.getAllocationHint(), first.getStubLength())];
+        append(first);
+    }
+
+    public byte[] require(int required) {
+        try {
+            while (length < required) {
+                if (complete) {
+                    throw new IOException("Response stub of " + length +
+                            " octets read beyond its end.");
+                }
+                next();
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex.getMessage(), ex);
+        }
+        return stub;
+    }
+
+    public int available() {
+        return length;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Reads the fragments which have not been asked for yet.
+     */
+    public void finish() throws IOException {
+        while (!complete) {
+            next();
+        }
+    }
+
+    private void next() throws IOException {
+        if (failure != null) throw failure;
+        try {
+            ConnectionOrientedPdu fragment = connection.receiveFragment(transport);
+            if (!(fragment instanceof ResponseCoPdu)) {
+                throw new IOException("Received PDU of type 0x" +
+                        Integer.toHexString(fragment.getType()) +
+                        " within a fragmented response.");
+            }
+            append((ResponseCoPdu) fragment);
+        } catch (IOException ex) {
+            failure = ex;
+            throw ex;
+        }
+    }
+
+    private void append(ResponseCoPdu fragment) {
+        int fragmentLength = fragment.getStubLength();
+        if (length + fragmentLength > stub.length) {
+            //the hint was short, grow geometrically.
+            byte[] tmp = new byte[Math.max(length + fragmentLength, stub.length * 2)];
+            System.arraycopy(stub, 0, tmp, 0, length);
+            stub = tmp;
+        }
+        //the fragment refers to the receive buffer, copy it before the next one is read.
+        fragment.copyStub(stub, length);
+        length += fragmentLength;
+        complete = fragment.getFlag(ConnectionOrientedPdu.PFC_LAST_FRAG);
+    }
+
+}
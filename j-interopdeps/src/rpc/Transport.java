@@ -34,6 +34,11 @@ public interface Transport {
 
     public void send(NdrBuffer buffer) throws IOException;
 
+    /**
+     * Reads the bytes available, at most <code>buffer.getCapacity()</code>,
+     * into <code>buffer</code> starting at <code>buffer.start</code> and sets
+     * <code>buffer.length</code> to the number of bytes read.
+     */
     public void receive(NdrBuffer buffer) throws IOException;
 
     public void close() throws IOException;
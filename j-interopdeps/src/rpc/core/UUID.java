@@ -64,8 +64,7 @@ public class UUID extends NdrObject {
         timeHighAndVersion = src.dec_ndr_short();
         clockSeqHighAndReserved = src.dec_ndr_small();
         clockSeqLow = src.dec_ndr_small();
-        System.arraycopy(src.buf, src.index, node, 0, 6);
-        src.index += 6;
+        src.readOctetArray(node, 0, 6);
     }
 /*
     public long getTimeLow() {
@@ -117,18 +117,18 @@ public class RpcTransport implements Transport {
 
 	public void receive(NdrBuffer buffer) throws IOException {
 		byte[] buf = buffer.getBuffer();
-		int off = 0, bytes_to_read, n;
+		int off = buffer.start, bytes_to_read, n;
 
 		if (!attached) throw new RpcException("Transport not attached.");
 
 		if (first) {
-			n = in.read(buf, 0, 1024); /* TransactNamedPipe */
+			n = in.read(buf, off, Math.min(1024, buffer.getCapacity())); /* TransactNamedPipe */
 			first = false;
 		} else {                              /* Plain read */
-			n = (in2).read(buf, off, buf.length);
+			n = (in2).read(buf, off, buffer.getCapacity());
 		}
 
-		buffer.setIndex(ConnectionOrientedPdu.FRAG_LENGTH_OFFSET);
+		buffer.setIndex(buffer.start + ConnectionOrientedPdu.FRAG_LENGTH_OFFSET);
 		bytes_to_read = buffer.dec_ndr_short();
 
 		off += n;
@@ -139,7 +139,7 @@ public class RpcTransport implements Transport {
 			off += n;
 			bytes_to_read -= n;
 		}
-		buffer.length = off;
+		buffer.length = off - buffer.start;
 	}
 
 	protected void parse(String address) throws ProviderException {
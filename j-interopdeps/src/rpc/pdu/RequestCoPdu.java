@@ -19,8 +19,10 @@
 package rpc.pdu;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -39,6 +41,19 @@ public class RequestCoPdu extends ConnectionOrientedPdu
 
     private byte[] stub;
 
+    //stub of a fragment which is still in the receive buffer, see readStub.
+    private byte[] stubSource;
+
+    private int stubOffset;
+
+    private int stubLength;
+
+    //octets read into the fragments as they are produced, see NdrBuffer.splice.
+    private List splices;
+
+    //octets the splices add to the stub, less their placeholders.
+    private int splicedLength;
+
     private int allocationHint = 0;
 
     private int contextId = 0;
@@ -54,11 +69,75 @@ public class RequestCoPdu extends ConnectionOrientedPdu
     }
 
     public byte[] getStub() {
+        if (stubSource != null) {
+            stub = new byte[stubLength];
+            System.arraycopy(stubSource, stubOffset, stub, 0, stubLength);
+            stubSource = null;
+        }
         return stub;
     }
 
     public void setStub(byte[] stub) {
         this.stub = stub;
+        stubSource = null;
+        splices = null;
+        splicedLength = 0;
+    }
+
+    /**
+     * Uses <code>length</code> bytes of <code>buffer</code> starting at
+     * <code>offset</code> as the stub without copying them. The caller must
+     * not reuse the buffer before this PDU has been sent.
+     */
+    public void setStub(byte[] buffer, int offset, int length) {
+        this.stub = null;
+        stubSource = buffer;
+        stubOffset = offset;
+        stubLength = length;
+        splices = null;
+        splicedLength = 0;
+    }
+
+    /**
+     * Like {@link #setStub(byte[], int, int)}, the octets of the
+     * {@link NdrBuffer.Splice}s in <code>splices</code> being read into the
+     * stub only as the fragments are produced. Such a stub is always sent
+     * fragment by fragment through one array of the fragment size, the
+     * fragments handed out by {@link #fragment(int)} are then only valid
+     * until the next one is requested.
+     */
+    public void setStub(byte[] buffer, int offset, int length, List splices) {
+        setStub(buffer, offset, length);
+        if (splices == null || splices.isEmpty()) return;
+        this.splices = splices;
+        for (int i = 0; i < splices.size(); i++) {
+            NdrBuffer.Splice splice = (NdrBuffer.Splice) splices.get(i);
+            splicedLength += splice.length - splice.skip;
+        }
+    }
+
+    /**
+     * Returns whether parts of the stub are read from outside sources while
+     * fragmenting, see {@link #setStub(byte[], int, int, List)}.
+     */
+    public boolean isSpliced() {
+        return splices != null;
+    }
+
+    /**
+     * Returns the length of the stub, spliced octets included.
+     */
+    public int getStubLength() {
+        if (stubSource != null) return stubLength + splicedLength;
+        return stub == null ? 0 : stub.length;
+    }
+
+    private void copyStub(byte[] dest, int index) {
+        if (stubSource != null) {
+            System.arraycopy(stubSource, stubOffset, dest, index, stubLength);
+        } else if (stub != null) {
+            System.arraycopy(stub, 0, dest, index, stub.length);
+        }
     }
 
     public int getAllocationHint() {
@@ -136,6 +215,15 @@ public class RequestCoPdu extends ConnectionOrientedPdu
         src.align(8);
         byte[] stub = null;
         int length = getFragmentLength() - src.getIndex();
+        if (length > 0 && !getFlag(PFC_LAST_FRAG)) {
+            //copied straight into the assembled stub, this fragment is gone with the next read.
+            setStub(null);
+            stubSource = src.getBuffer();
+            stubOffset = src.getIndex();
+            stubLength = length;
+            src.advance(length);
+            return;
+        }
         if (length > 0) {
             stub = new byte[length];
             ndr.readOctetArray(stub, 0, length);
@@ -146,20 +234,58 @@ public class RequestCoPdu extends ConnectionOrientedPdu
     protected void writeStub(NetworkDataRepresentation ndr) {
 		NdrBuffer dst = ndr.getBuffer();
         dst.align(8, (byte) 0);
+        if (stubSource != null) {
+            ndr.writeOctetArray(stubSource, stubOffset, stubLength);
+            return;
+        }
         byte[] stub = getStub();
         if (stub != null) ndr.writeOctetArray(stub, 0, stub.length);
     }
 
+    /**
+     * Encodes the header and body of this PDU into <code>dst</code> but not
+     * the stub, which goes out separately as {@link #getStubBuffer()}. The
+     * fragment length written accounts for the stub.
+     */
+    public void encodeHeader(NetworkDataRepresentation ndr, NdrBuffer dst) {
+        ndr.setBuffer(dst);
+        ndr.setFormat(getFormat());
+        writeHeader(ndr);
+        writeBody(ndr);
+        dst.align(8, (byte) 0);
+        int headerLength = dst.getLength();
+        int length = headerLength + getStubLength();
+        setFragmentLength(length);
+        dst.setIndex(FRAG_LENGTH_OFFSET);
+        ndr.writeUnsignedShort(length);
+        ndr.writeUnsignedShort(getAuthenticatorLength());
+        dst.setIndex(headerLength);
+    }
+
+    /**
+     * Returns a buffer over the stub without copying it, <code>null</code> if
+     * there is none.
+     */
+    public ByteBuffer getStubBuffer() {
+        if (stubSource != null) {
+            return ByteBuffer.wrap(stubSource, stubOffset, stubLength);
+        }
+        return stub == null ? null : ByteBuffer.wrap(stub);
+    }
+
     public Iterator fragment(int size) {
-        byte[] stub = getStub();
-        if (stub == null) {
+        if (stub == null && stubSource == null) {
             return Arrays.asList(new RequestCoPdu[] { this }).iterator();
         }
 
         //subtracting 8 bytes for authentication header and 16 for the authentication verifier size, someone forgot the
         //poor guys..
         int stubSize = size - (getFlag(PFC_OBJECT_UUID) ? 40 : 24) - 8 - 16 ;
-        if (stub.length <= stubSize) {
+        if (splices != null) {
+            //the spliced octets are only read by the iterator.
+            return new FragmentIterator(stubSize);
+        }
+        if (getStubLength() <= stubSize) {
             return Arrays.asList(new RequestCoPdu[] { this }).iterator();
         }
         if (logger.isLoggable(Level.FINEST))
@@ -175,20 +301,29 @@ public class RequestCoPdu extends ConnectionOrientedPdu
         }
         try {
             RequestCoPdu pdu = (RequestCoPdu) fragments.next();
-            byte[] stub = pdu.getStub();
-            if (stub == null) stub = new byte[0];
+            //the allocation hint of the first fragment announces the whole stub.
+            int length = pdu.getStubLength();
+            byte[] stub = new byte[presizedStubLength(pdu.getAllocationHint(), length)];
+            pdu.copyStub(stub, 0);
             while (fragments.hasNext()) {
                 RequestCoPdu fragment = (RequestCoPdu) fragments.next();
-                byte[] fragmentStub = fragment.getStub();
-                if (fragmentStub != null && fragmentStub.length > 0) {
-                    byte[] tmp = new byte[stub.length + fragmentStub.length];
-                    System.arraycopy(stub, 0, tmp, 0, stub.length);
-                    System.arraycopy(fragmentStub, 0, tmp, stub.length,
-                            fragmentStub.length);
-                    stub = tmp;
+                int fragmentLength = fragment.getStubLength();
+                if (fragmentLength > 0) {
+                    if (length + fragmentLength > stub.length) {
+                        //the hint was short, grow geometrically.
+                        byte[] tmp = new byte[Math.max(length + fragmentLength, stub.length * 2)];
+                        System.arraycopy(stub, 0, tmp, 0, length);
+                        stub = tmp;
+                    }
+                    fragment.copyStub(stub, length);
+                    length += fragmentLength;
                 }
             }
-            int length = stub.length;
+            if (length != stub.length) {
+                byte[] tmp = new byte[length];
+                System.arraycopy(stub, 0, tmp, 0, length);
+                stub = tmp;
+            }
             if (length > 0) {
                 pdu.setStub(stub);
                 pdu.setAllocationHint(length);
@@ -200,7 +335,7 @@ public class RequestCoPdu extends ConnectionOrientedPdu
             pdu.setFlag(PFC_LAST_FRAG, true);
             return pdu;
         } catch (Exception ex) {
-            throw new IOException("Unable to assemble PDU fragments.");
+            throw new IOException("Unable to assemble PDU fragments.", ex);
         }
     }
 
@@ -218,31 +353,53 @@ public class RequestCoPdu extends ConnectionOrientedPdu
 
         private int index = 0;
 
+        //fragments refer to the stub of this PDU instead of copying their share of it.
+        private final byte[] source = stubSource != null ? stubSource : stub;
+
+        private final int offset = stubSource != null ? stubOffset : 0;
+
+        private final int length = getStubLength();
+
+        private final SplicedStubReader reader = splices != null ?
+                new SplicedStubReader(stubSource, stubOffset, stubOffset + stubLength, splices) : null;
+
+        //spliced fragments are read into this one array in turn.
+        private byte[] fragmentStub;
+
 //        private boolean firstfragsent = false;
 
-        private int callId = callIdCounter++;
+        //an explicitly assigned call id (multiplexed connections) is kept for all fragments.
+        private int callId = isCallIdAssigned() ? getCallId() : callIdCounter++;
 
         public FragmentIterator(int stubSize) {
             this.stubSize = stubSize;
         }
 
         public boolean hasNext() {
-            return index < stub.length;
+            return index < length;
         }
 
         public Object next() {
-            if (index >= stub.length) throw new NoSuchElementException();
+            if (index >= length) throw new NoSuchElementException();
             RequestCoPdu fragment = (RequestCoPdu) RequestCoPdu.this.clone();
-            int allocation = stub.length - index;
+            int allocation = length - index;
             fragment.setAllocationHint(allocation);
             if (stubSize < allocation) allocation = stubSize;
-            byte[] fragmentStub = new byte[allocation];
-            System.arraycopy(stub, index, fragmentStub, 0, allocation);
-            fragment.setStub(fragmentStub);
+            if (reader != null) {
+                if (fragmentStub == null) fragmentStub = new byte[Math.min(stubSize, length)];
+                try {
+                    reader.read(fragmentStub, allocation);
+                } catch (IOException ex) {
+                    throw new IllegalStateException(ex.getMessage(), ex);
+                }
+                fragment.setStub(fragmentStub, 0, allocation);
+            } else {
+                fragment.setStub(source, offset + index, allocation);
+            }
             int flags = getFlags() & ~(PFC_FIRST_FRAG | PFC_LAST_FRAG);
             if (index == 0) flags |= PFC_FIRST_FRAG;
             index += allocation;
-            if (index >= stub.length) flags |= PFC_LAST_FRAG;
+            if (index >= length) flags |= PFC_LAST_FRAG;
             fragment.setFlags(flags);
 
             //always use the same callId now
@@ -270,4 +427,72 @@ public class RequestCoPdu extends ConnectionOrientedPdu
 
     }
 
+    /**
+     * Reads a spliced stub front to back, taking the encoded octets from the
+     * array and the spliced ones from their channels.
+     */
+    private static class SplicedStubReader {
+
+        private final byte[] source;
+
+        private final int end;
+
+        private final Iterator splices;
+
+        private int position;
+
+        private NdrBuffer.Splice next;
+
+        private NdrBuffer.Splice current;
+
+        private int spliceRemaining;
+
+        SplicedStubReader(byte[] source, int offset, int end, List splices) {
+            this.source = source;
+            this.position = offset;
+            this.end = end;
+            this.splices = splices.iterator();
+            next = (NdrBuffer.Splice) this.splices.next();
+        }
+
+        void read(byte[] dst, int length) throws IOException {
+            int off = 0;
+            while (length > 0 || (current != null && spliceRemaining == 0)) {
+                if (current != null) {
+                    int n = Math.min(length, spliceRemaining);
+                    ByteBuffer buffer = ByteBuffer.wrap(dst, off, n);
+                    while (buffer.hasRemaining()) {
+                        if (current.source.read(buffer) < 0) {
+                            throw new IOException("Spliced stream ended " +
+                                    (spliceRemaining - (n - buffer.remaining())) +
+                                    " octets short of " + current.length);
+                        }
+                    }
+                    off += n;
+                    length -= n;
+                    spliceRemaining -= n;
+                    if (spliceRemaining == 0) {
+                        position = current.offset + current.skip;
+                        current = null;
+                    }
+                    continue;
+                }
+                if (next != null && position == next.offset) {
+                    current = next;
+                    spliceRemaining = next.length;
+                    next = splices.hasNext() ? (NdrBuffer.Splice) splices.next() : null;
+                    continue;
+                }
+                int n = Math.min(length, (next != null ? next.offset : end) - position);
+                if (n <= 0) {
+                    throw new IOException("Stub exhausted.");
+                }
+                System.arraycopy(source, position, dst, off, n);
+                position += n;
+                off += n;
+                length -= n;
+            }
+        }
+    }
+
 }
@@ -18,8 +18,12 @@
 package rpc.pdu;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
@@ -29,6 +33,7 @@ import java.util.logging.Logger;
 import ndr.NetworkDataRepresentation;
 import rpc.ConnectionOrientedPdu;
 import rpc.Fragmentable;
+import rpc.StubStream;
 
 public class ResponseCoPdu extends ConnectionOrientedPdu
         implements Fragmentable {
@@ -37,6 +42,21 @@ public class ResponseCoPdu extends ConnectionOrientedPdu
 
     private byte[] stub;
 
+    //stub of a fragment which is still in the receive buffer, see readStub.
+    private byte[] stubSource;
+
+    private int stubOffset;
+
+    private int stubLength;
+
+    //assembled stub spilled to a temporary file, see setSpillThreshold.
+    private ByteBuffer mappedStub;
+
+    private int spillThreshold = 0;
+
+    //rest of a fragmented stub still arriving, see getStubStream.
+    private StubStream stubStream;
+
     private int allocationHint = 0;
 
     private int contextId = 0;
@@ -50,11 +70,77 @@ public class ResponseCoPdu extends ConnectionOrientedPdu
     }
 
     public byte[] getStub() {
+        if (mappedStub != null) {
+            stub = new byte[mappedStub.remaining()];
+            mappedStub.duplicate().get(stub);
+            mappedStub = null;
+        }
+        if (stubSource != null) {
+            stub = new byte[stubLength];
+            System.arraycopy(stubSource, stubOffset, stub, 0, stubLength);
+            stubSource = null;
+        }
         return stub;
     }
 
     public void setStub(byte[] stub) {
         this.stub = stub;
+        stubSource = null;
+        mappedStub = null;
+    }
+
+    /**
+     * Returns the assembled stub if it has been spilled to a memory mapped
+     * temporary file, <code>null</code> otherwise. {@link #getStub()} still
+     * works for spilled stubs, but copies them onto the heap.
+     */
+    public ByteBuffer getMappedStub() {
+        return mappedStub;
+    }
+
+    /**
+     * Makes {@link #assemble(Iterator)} write stubs growing beyond
+     * <code>spillThreshold</code> octets to a temporary file and map it,
+     * instead of assembling them on the heap. 0, the default, never spills.
+     */
+    public void setSpillThreshold(int spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
+
+    /**
+     * Returns the stub of a fragmented response handed out with its first
+     * fragment, <code>null</code> if the response has been received whole.
+     * The stub is then read from the stream as it gets decoded, and
+     * {@link #getStub()} holds the first fragment's share of it only.
+     */
+    public StubStream getStubStream() {
+        return stubStream;
+    }
+
+    public void setStubStream(StubStream stubStream) {
+        this.stubStream = stubStream;
+    }
+
+    private ByteBuffer getStubBuffer() {
+        if (stubSource != null) return ByteBuffer.wrap(stubSource, stubOffset, stubLength);
+        return stub == null ? ByteBuffer.allocate(0) : ByteBuffer.wrap(stub);
+    }
+
+    public int getStubLength() {
+        if (stubSource != null) return stubLength;
+        return stub == null ? 0 : stub.length;
+    }
+
+    /**
+     * Copies the stub to <code>dest</code> at <code>index</code>, without
+     * holding on to a stub which still refers to the receive buffer.
+     */
+    public void copyStub(byte[] dest, int index) {
+        if (stubSource != null) {
+            System.arraycopy(stubSource, stubOffset, dest, index, stubLength);
+        } else if (stub != null) {
+            System.arraycopy(stub, 0, dest, index, stub.length);
+        }
     }
 
     public int getAllocationHint() {
@@ -109,6 +195,15 @@ public class ResponseCoPdu extends ConnectionOrientedPdu
         ndr.getBuffer().align(8);
         byte[] stub = null;
         int length = getFragmentLength() - ndr.getBuffer().getIndex();
+        if (length > 0 && !getFlag(PFC_LAST_FRAG)) {
+            //copied straight into the assembled stub, this fragment is gone with the next read.
+            setStub(null);
+            stubSource = ndr.getBuffer().getBuffer();
+            stubOffset = ndr.getBuffer().getIndex();
+            stubLength = length;
+            ndr.getBuffer().advance(length);
+            return;
+        }
         if (length > 0) {
             stub = new byte[length];
 			ndr.readOctetArray(stub, 0, length);
@@ -145,38 +240,72 @@ public class ResponseCoPdu extends ConnectionOrientedPdu
         if (!fragments.hasNext()) {
             throw new IOException("No fragments available.");
         }
+        StubSpill spill = null;
         try {
             ResponseCoPdu pdu = (ResponseCoPdu) fragments.next();
-            byte[] stub = pdu.getStub();
-            if (stub == null) stub = new byte[0];
+            //the allocation hint of the first fragment announces the whole stub.
+            int length = pdu.getStubLength();
+            int expected = Math.max(pdu.getAllocationHint(), length);
+            int presized = presizedStubLength(pdu.getAllocationHint(), length);
+            byte[] stub = null;
+            if (spillThreshold > 0 && expected > spillThreshold) {
+                spill = new StubSpill();
+                spill.write(pdu.getStubBuffer());
+            } else {
+                stub = new byte[presized];
+                pdu.copyStub(stub, 0);
+            }
             int i = 0;
             while (fragments.hasNext()) {
             	if (logger.isLoggable(Level.FINEST))
                 {
-                	logger.finest("[IN ASSEMBLE] Fragment { " + i + " }\n");
+                	logger.finest("[IN ASSEMBLE] Fragment { " + i++ + " }\n");
                 }
                 ResponseCoPdu fragment = (ResponseCoPdu) fragments.next();
-                byte[] fragmentStub = fragment.getStub();
-                if (fragmentStub != null && fragmentStub.length > 0) {
+                int fragmentLength = fragment.getStubLength();
+                if (fragmentLength > 0) {
                 	if (logger.isLoggable(Level.FINEST))
                     {
-                    	logger.finest("[FRAGMENT'S STUB (new one)] Length is = " + fragmentStub.length);
+                    	logger.finest("[FRAGMENT'S STUB (new one)] Length is = " + fragmentLength);
                     }
-                    byte[] tmp = new byte[stub.length + fragmentStub.length];
-                    System.arraycopy(stub, 0, tmp, 0, stub.length);
-                    System.arraycopy(fragmentStub, 0, tmp, stub.length,
-                            fragmentStub.length);
-                    stub = tmp;
-                    if (logger.isLoggable(Level.FINEST))
-                    {
-                    	logger.finest("[ADDED THIS STUB (previous stub + new one) into OLD STUB] Current Length of pieces assembled so far = " + stub.length);
-                    	ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                    	jcifs.util.Hexdump.hexdump(new PrintStream(byteArrayOutputStream), stub, 0, stub.length);
-                    	logger.finest("\n" + byteArrayOutputStream.toString());
+                    if (spill == null && spillThreshold > 0 && length + fragmentLength > spillThreshold) {
+                        //the hint was short or missing, move what is there to the file.
+                        spill = new StubSpill();
+                        spill.write(ByteBuffer.wrap(stub, 0, length));
+                        stub = null;
                     }
+                    if (spill != null) {
+                        spill.write(fragment.getStubBuffer());
+                    } else {
+                        if (length + fragmentLength > stub.length) {
+                            //the hint was short, grow geometrically.
+                            byte[] tmp = new byte[Math.max(length + fragmentLength, stub.length * 2)];
+                            System.arraycopy(stub, 0, tmp, 0, length);
+                            stub = tmp;
+                        }
+                        fragment.copyStub(stub, length);
+                    }
+                    length += fragmentLength;
+                }
+            }
+            if (spill != null) {
+                if (logger.isLoggable(Level.FINE))
+                {
+                	logger.fine("Response stub of " + length + " octets spilled to " + spill);
                 }
+                pdu.setStub(null);
+                pdu.mappedStub = spill.map(length);
+                spill = null;
+                pdu.setAllocationHint(length);
+                pdu.setFlag(PFC_FIRST_FRAG, true);
+                pdu.setFlag(PFC_LAST_FRAG, true);
+                return pdu;
+            }
+            if (length != stub.length) {
+                byte[] tmp = new byte[length];
+                System.arraycopy(stub, 0, tmp, 0, length);
+                stub = tmp;
             }
-            int length = stub.length;
             if (length > 0) {
                 pdu.setStub(stub);
                 pdu.setAllocationHint(length);
@@ -195,7 +324,9 @@ public class ResponseCoPdu extends ConnectionOrientedPdu
             pdu.setFlag(PFC_LAST_FRAG, true);
             return pdu;
         } catch (Exception ex) {
-            throw new IOException("Unable to assemble PDU fragments.");
+            throw new IOException("Unable to assemble PDU fragments.", ex);
+        } finally {
+            if (spill != null) spill.close();
         }
     }
 
@@ -244,4 +375,52 @@ public class ResponseCoPdu extends ConnectionOrientedPdu
 
     }
 
+    /**
+     * Temporary file a stub is assembled in. The file is deleted as soon as
+     * it is mapped, or kept until exit where the platform does not allow
+     * deleting mapped files.
+     */
+    private static class StubSpill {
+
+        private final File file;
+
+        private final RandomAccessFile access;
+
+        private final FileChannel channel;
+
+        StubSpill() throws IOException {
+            file = File.createTempFile("jinterop", ".stub");
+            access = new RandomAccessFile(file, "rw");
+            channel = access.getChannel();
+        }
+
+        void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        ByteBuffer map(int length) throws IOException {
+            try {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            } finally {
+                close();
+            }
+        }
+
+        void close() {
+            try {
+                access.close();
+            } catch (IOException ignore) {
+            }
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+
+        public String toString() {
+            return file.getPath();
+        }
+    }
+
 }
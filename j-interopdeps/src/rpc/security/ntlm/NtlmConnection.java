@@ -25,7 +25,6 @@ import jcifs.ntlmssp.NtlmMessage;
 import jcifs.ntlmssp.Type1Message;
 import jcifs.ntlmssp.Type2Message;
 import jcifs.ntlmssp.Type3Message;
-import ndr.NdrBuffer;
 import rpc.DefaultConnection;
 import rpc.Security;
 import rpc.core.AuthenticationVerifier;
@@ -45,14 +44,6 @@ public class NtlmConnection extends DefaultConnection {
         this.properties = properties;
     }
 
-    public void setTransmitLength(int transmitLength) {
-        transmitBuffer = new NdrBuffer(new byte[transmitLength], 0);
-    }
-
-    public void setReceiveLength(int receiveLength) {
-        receiveBuffer = new NdrBuffer(new byte[receiveLength], 0);
-    }
-
     protected void incomingRebind(AuthenticationVerifier verifier)
             throws IOException {
         switch (verifier.body[8]) {
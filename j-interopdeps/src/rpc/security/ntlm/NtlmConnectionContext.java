@@ -22,6 +22,7 @@ package rpc.security.ntlm;
 import java.io.IOException;
 import java.util.Properties;
 
+import rpc.BasicConnectionContext;
 import rpc.BindException;
 import rpc.Connection;
 import rpc.ConnectionContext;
@@ -59,16 +60,10 @@ public class NtlmConnectionContext implements ConnectionContext {
     public ConnectionOrientedPdu init2(PresentationContext context,
             Properties properties) throws IOException {
         established = false;
-        if (properties != null) {
-            String maxTransmit = properties.getProperty(MAX_TRANSMIT_FRAGMENT);
-            if (maxTransmit != null) {
-                maxTransmitFragment = Integer.parseInt(maxTransmit);
-            }
-            String maxReceive = properties.getProperty(MAX_RECEIVE_FRAGMENT);
-            if (maxReceive != null) {
-                maxReceiveFragment = Integer.parseInt(maxReceive);
-            }
-        }
+        maxTransmitFragment = BasicConnectionContext.getFragmentSize(properties,
+                MAX_TRANSMIT_FRAGMENT, DEFAULT_MAX_TRANSMIT_FRAGMENT);
+        maxReceiveFragment = BasicConnectionContext.getFragmentSize(properties,
+                MAX_RECEIVE_FRAGMENT, DEFAULT_MAX_RECEIVE_FRAGMENT);
         BindPdu pdu = new BindPdu();
         pdu.setContextList(new PresentationContext[] { context });
         pdu.setMaxTransmitFragment(maxTransmitFragment);
@@ -105,14 +100,17 @@ public class NtlmConnectionContext implements ConnectionContext {
             if (results == null) {
                 throw new BindException("No presentation context results.");
             }
-            for (int i = results.length - 1; i >= 0; i--) {
-                if (results[i].result != PresentationResult.ACCEPTANCE) {
-                    throw new PresentationException("Context rejected.",
-                            results[i]);
-                }
+            //only the first context is required, the endpoint may offer
+            //further ones which the server can turn down on their own.
+            if (results.length > 0 &&
+                    results[0].result != PresentationResult.ACCEPTANCE) {
+                throw new PresentationException("Context rejected.",
+                        results[0]);
             }
-            transmitLength = bindAck.getMaxReceiveFragment();
-            receiveLength = bindAck.getMaxTransmitFragment();
+            transmitLength = BasicConnectionContext.negotiate(
+                    maxTransmitFragment, bindAck.getMaxReceiveFragment());
+            receiveLength = BasicConnectionContext.negotiate(
+                    maxReceiveFragment, bindAck.getMaxTransmitFragment());
             established = true;
             connection.setTransmitLength(transmitLength);
             connection.setReceiveLength(receiveLength);
@@ -125,11 +123,12 @@ public class NtlmConnectionContext implements ConnectionContext {
             if (results == null) {
                 throw new BindException("No presentation context results.");
             }
-            for (int i = results.length - 1; i >= 0; i--) {
-                if (results[i].result != PresentationResult.ACCEPTANCE) {
-                    throw new PresentationException("Context rejected.",
-                            results[i]);
-                }
+            //only the first context is required, the endpoint may offer
+            //further ones which the server can turn down on their own.
+            if (results.length > 0 &&
+                    results[0].result != PresentationResult.ACCEPTANCE) {
+                throw new PresentationException("Context rejected.",
+                        results[0]);
             }
             established = true;
             //return new Auth3Pdu();